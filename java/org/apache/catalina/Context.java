@@ -108,6 +108,31 @@ public interface Context extends Container {
     public void setAllowCasualMultipartParsing(boolean allowCasualMultipartParsing);
 
 
+    /**
+     * Returns <code>true</code> if the parts of multipart/form-data requests
+     * are read from the request body as the application iterates over them
+     * rather than all at once.
+     *
+     * @return <code>true</code> if the parts are read as they are needed,
+     *    <code>false</code> otherwise.
+     */
+    public boolean getStreamingMultipartParsing();
+
+
+    /**
+     * Set to <code>true</code> to read the parts of multipart/form-data
+     * requests from the request body as the application iterates over the
+     * collection returned by {@link javax.servlet.http.HttpServletRequest#getParts()}.
+     * The content of the part with a file name that was read last can then be
+     * read straight from the request body, without being copied to memory or
+     * to a temporary file first.
+     *
+     * @param streamingMultipartParsing <code>true</code> to read the parts as
+     *        they are needed, <code>false</code> otherwise.
+     */
+    public void setStreamingMultipartParsing(boolean streamingMultipartParsing);
+
+
     /**
      * Obtain the registered application event listeners.
      *
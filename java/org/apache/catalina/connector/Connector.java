@@ -174,6 +174,12 @@ public class Connector extends LifecycleMBeanBase  {
      */
     protected int maxParameterCount = 10000;
 
+    /**
+     * Should request parameters only be decoded when they are looked up?
+     * false by default.
+     */
+    protected boolean lazyParameterDecoding = false;
+
     /**
      * Maximum size of a POST which will be automatically parsed by the
      * container. 2MB by default.
@@ -420,6 +426,30 @@ public class Connector extends LifecycleMBeanBase  {
     }
 
 
+    /**
+     * Return whether request parameters are only URL decoded and converted
+     * to Strings when they are looked up.
+     */
+    public boolean getLazyParameterDecoding() {
+        return lazyParameterDecoding;
+    }
+
+
+    /**
+     * Set whether request parameters are only URL decoded and converted to
+     * Strings when they are looked up rather than all of them the first time
+     * any parameter is accessed. In this mode, the
+     * {@link org.apache.catalina.Globals#PARAMETER_PARSE_FAILED_ATTR} request
+     * attribute only reflects the decoding errors of the parameters that
+     * have been looked up.
+     *
+     * @param lazyParameterDecoding The new setting
+     */
+    public void setLazyParameterDecoding(boolean lazyParameterDecoding) {
+        this.lazyParameterDecoding = lazyParameterDecoding;
+    }
+
+
     /**
      * Return the maximum size of a POST which will be automatically
      * parsed by the container.
@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.apache.tomcat.util.collections.ThreadLocalPool;
+
+/**
+ * Holds the content of a part of a multipart request that has been read from
+ * the request body. The content is read into chunks obtained from a thread
+ * local pool and moved to a temporary file once it exceeds the threshold.
+ * Content that fits in part of a single chunk is copied to an array of its
+ * own so the chunk can be reused straight away for the next part. The chunks
+ * of larger content are returned to the pool when the buffer is released.
+ */
+final class PartBuffer {
+
+    static final int CHUNK_SIZE = 8192;
+
+    private static final ThreadLocalPool<byte[]> pool =
+            new ThreadLocalPool<>(ThreadLocalPool.DEFAULT_SIZE);
+
+    private final ThreadLocalPool.Cache<byte[]> cache = pool.getCache();
+    private final File location;
+    private final long threshold;
+
+    private byte[][] chunks = new byte[1][];
+    private int chunkCount = 0;
+    private boolean pooled = true;
+    private long size = 0;
+    private File file = null;
+
+
+    /**
+     * @param location  The directory to create the temporary file in
+     * @param threshold The size above which the content is written to a file
+     */
+    PartBuffer(File location, long threshold) {
+        this.location = location;
+        this.threshold = threshold;
+    }
+
+
+    /**
+     * Read the remaining content of a part.
+     *
+     * @param in The stream to read the content from
+     *
+     * @throws IOException If the content could not be read or written to the
+     *                     temporary file
+     */
+    void readFrom(InputStream in) throws IOException {
+        int n = 0;
+        while (file == null && n != -1) {
+            byte[] chunk;
+            int used = (int) (size % CHUNK_SIZE);
+            if (used == 0 && size == (long) chunkCount * CHUNK_SIZE) {
+                chunk = newChunk();
+            } else {
+                chunk = chunks[chunkCount - 1];
+            }
+            n = in.read(chunk, used, CHUNK_SIZE - used);
+            if (n > 0) {
+                size += n;
+                if (size > threshold) {
+                    spill();
+                }
+            }
+        }
+        if (file != null) {
+            byte[] transfer = cache.pop();
+            if (transfer == null) {
+                transfer = new byte[CHUNK_SIZE];
+            }
+            try (OutputStream out = new FileOutputStream(file, true)) {
+                while ((n = in.read(transfer)) != -1) {
+                    out.write(transfer, 0, n);
+                    size += n;
+                }
+            } finally {
+                cache.push(transfer);
+            }
+        } else if (chunkCount == 1 && size < CHUNK_SIZE) {
+            byte[] content = new byte[(int) size];
+            System.arraycopy(chunks[0], 0, content, 0, content.length);
+            cache.push(chunks[0]);
+            chunks[0] = content;
+            pooled = false;
+        }
+    }
+
+
+    long getSize() {
+        return size;
+    }
+
+
+    InputStream getInputStream() throws IOException {
+        if (file != null) {
+            return new FileInputStream(file);
+        }
+        return new ChunkInputStream();
+    }
+
+
+    String getString(Charset charset) {
+        if (file == null && chunkCount <= 1) {
+            if (chunkCount == 0) {
+                return "";
+            }
+            return new String(chunks[0], 0, (int) size, charset);
+        }
+        byte[] content = new byte[(int) size];
+        try (InputStream in = getInputStream()) {
+            int pos = 0;
+            int n;
+            while (pos < content.length &&
+                    (n = in.read(content, pos, content.length - pos)) > 0) {
+                pos += n;
+            }
+        } catch (IOException ioe) {
+            throw new IllegalStateException(ioe);
+        }
+        return new String(content, charset);
+    }
+
+
+    /**
+     * Write the content to a file. If the content is already in a temporary
+     * file, that file is renamed if possible.
+     */
+    void write(File dest) throws IOException {
+        if (file != null) {
+            if (file.renameTo(dest)) {
+                file = null;
+                chunkCount = 0;
+                size = 0;
+                return;
+            }
+        }
+        try (InputStream in = getInputStream();
+                OutputStream out = new FileOutputStream(dest)) {
+            byte[] transfer = new byte[CHUNK_SIZE];
+            int n;
+            while ((n = in.read(transfer)) != -1) {
+                out.write(transfer, 0, n);
+            }
+        }
+    }
+
+
+    /**
+     * Return the chunks to the pool and delete the temporary file, if any.
+     * The content is no longer available afterwards.
+     */
+    void release() {
+        if (pooled) {
+            for (int i = 0; i < chunkCount; i++) {
+                cache.push(chunks[i]);
+                chunks[i] = null;
+            }
+        }
+        chunkCount = 0;
+        size = 0;
+        if (file != null) {
+            if (!file.delete() && file.exists()) {
+                file.deleteOnExit();
+            }
+            file = null;
+        }
+    }
+
+
+    private byte[] newChunk() {
+        byte[] chunk = cache.pop();
+        if (chunk == null) {
+            chunk = new byte[CHUNK_SIZE];
+        }
+        if (chunkCount == chunks.length) {
+            byte[][] newChunks = new byte[chunkCount * 2][];
+            System.arraycopy(chunks, 0, newChunks, 0, chunkCount);
+            chunks = newChunks;
+        }
+        chunks[chunkCount++] = chunk;
+        return chunk;
+    }
+
+
+    private void spill() throws IOException {
+        file = File.createTempFile("upload_", ".tmp", location);
+        try (OutputStream out = new FileOutputStream(file)) {
+            long remaining = size;
+            for (int i = 0; i < chunkCount; i++) {
+                int len = (int) Math.min(remaining, CHUNK_SIZE);
+                out.write(chunks[i], 0, len);
+                remaining -= len;
+                cache.push(chunks[i]);
+                chunks[i] = null;
+            }
+        }
+        chunkCount = 0;
+    }
+
+
+    private class ChunkInputStream extends InputStream {
+
+        private long pos = 0;
+
+        @Override
+        public int read() throws IOException {
+            if (pos >= size) {
+                return -1;
+            }
+            int result = chunks[(int) (pos / CHUNK_SIZE)][(int) (pos % CHUNK_SIZE)];
+            pos++;
+            return result & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (pos >= size) {
+                return -1;
+            }
+            int offset = (int) (pos % CHUNK_SIZE);
+            int n = (int) Math.min(Math.min(len, CHUNK_SIZE - offset), size - pos);
+            System.arraycopy(chunks[(int) (pos / CHUNK_SIZE)], offset, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(Integer.MAX_VALUE, size - pos);
+        }
+    }
+}
@@ -25,6 +25,7 @@ import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.security.Principal;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
@@ -92,6 +93,7 @@ import org.apache.tomcat.util.http.ServerCookie;
 import org.apache.tomcat.util.http.ServerCookies;
 import org.apache.tomcat.util.http.fileupload.FileItem;
 import org.apache.tomcat.util.http.fileupload.FileUploadBase;
+import org.apache.tomcat.util.http.fileupload.FileUploadBase.FileUploadIOException;
 import org.apache.tomcat.util.http.fileupload.FileUploadBase.InvalidContentTypeException;
 import org.apache.tomcat.util.http.fileupload.FileUploadException;
 import org.apache.tomcat.util.http.fileupload.disk.DiskFileItemFactory;
@@ -336,6 +338,13 @@ public class Request
     protected Exception partsParseException = null;
 
 
+    /**
+     * The size of the parameters read from the parts so far, for comparison
+     * with the maxPostSize of the connector.
+     */
+    private int partsPostSize = 0;
+
+
     /**
      * The currently active session for this request.
      */
@@ -461,7 +470,10 @@ public class Request
         userPrincipal = null;
         subject = null;
         parametersParsed = false;
-        if (parts != null) {
+        if (parts instanceof StreamingParts) {
+            ((StreamingParts) parts).release();
+            parts = null;
+        } else if (parts != null) {
             for (Part part: parts) {
                 try {
                     part.delete();
@@ -472,6 +484,7 @@ public class Request
             parts = null;
         }
         partsParseException = null;
+        partsPostSize = 0;
         cookiesParsed = false;
         cookiesConverted = false;
         locales.clear();
@@ -2725,67 +2738,30 @@ public class Request
             upload.setFileSizeMax(mce.getMaxFileSize());
             upload.setSizeMax(mce.getMaxRequestSize());
 
-            parts = new ArrayList<>();
             try {
+                if (context.getStreamingMultipartParsing()) {
+                    parts = new StreamingParts(this, upload.getItemIterator(
+                            new ServletRequestContext(this)), location,
+                            mce.getFileSizeThreshold());
+                    success = true;
+                    return;
+                }
+
+                parts = new ArrayList<>();
                 List<FileItem> items =
                         upload.parseRequest(new ServletRequestContext(this));
-                int maxPostSize = getConnector().getMaxPostSize();
-                int postSize = 0;
-                String enc = getCharacterEncoding();
-                Charset charset = null;
-                if (enc != null) {
-                    try {
-                        charset = B2CConverter.getCharset(enc);
-                    } catch (UnsupportedEncodingException e) {
-                        // Ignore
-                    }
-                }
+                Charset charset = getPartCharset();
                 for (FileItem item : items) {
                     ApplicationPart part = new ApplicationPart(item, location);
                     parts.add(part);
                     if (part.getSubmittedFileName() == null) {
-                        String name = part.getName();
                         String value = null;
                         try {
-                            String encoding = parameters.getEncoding();
-                            if (encoding == null) {
-                                if (enc == null) {
-                                    encoding = Parameters.DEFAULT_ENCODING;
-                                } else {
-                                    encoding = enc;
-                                }
-                            }
-                            value = part.getString(encoding);
+                            value = part.getString(charset.name());
                         } catch (UnsupportedEncodingException uee) {
-                            try {
-                                value = part.getString(Parameters.DEFAULT_ENCODING);
-                            } catch (UnsupportedEncodingException e) {
-                                // Should not be possible
-                            }
-                        }
-                        if (maxPostSize > 0) {
-                            // Have to calculate equivalent size. Not completely
-                            // accurate but close enough.
-                            if (charset == null) {
-                                // Name length
-                                postSize += name.getBytes().length;
-                            } else {
-                                postSize += name.getBytes(charset).length;
-                            }
-                            if (value != null) {
-                                // Equals sign
-                                postSize++;
-                                // Value length
-                                postSize += part.getSize();
-                            }
-                            // Value separator
-                            postSize++;
-                            if (postSize > maxPostSize) {
-                                throw new IllegalStateException(sm.getString(
-                                        "coyoteRequest.maxPostSizeExceeded"));
-                            }
+                            // Should not be possible
                         }
-                        parameters.addParameter(name, value);
+                        addPartParameter(part.getName(), value, part.getSize());
                     }
                 }
 
@@ -2800,6 +2776,8 @@ public class Request
             } catch (IllegalStateException e) {
                 checkSwallowInput();
                 partsParseException = e;
+            } catch (IOException e) {
+                partsParseException = e;
             }
         } finally {
             if (partsParseException != null || !success) {
@@ -2809,6 +2787,96 @@ public class Request
     }
 
 
+    /**
+     * @return the character set used to convert the parts that are not files
+     *         to request parameters
+     */
+    Charset getPartCharset() {
+        String encoding = coyoteRequest.getParameters().getEncoding();
+        if (encoding == null) {
+            encoding = getCharacterEncoding();
+            if (encoding == null) {
+                encoding = Parameters.DEFAULT_ENCODING;
+            }
+        }
+        try {
+            return B2CConverter.getCharset(encoding);
+        } catch (UnsupportedEncodingException uee) {
+            return StandardCharsets.ISO_8859_1;
+        }
+    }
+
+
+    /**
+     * Add a part that is not a file to the request parameters.
+     *
+     * @param name  The name of the part
+     * @param value The content of the part
+     * @param size  The size of the content in bytes
+     *
+     * @throws IllegalStateException if the parameters read from the parts
+     *         exceed the maxPostSize of the connector
+     */
+    void addPartParameter(String name, String value, long size) {
+        int maxPostSize = getConnector().getMaxPostSize();
+        if (maxPostSize > 0) {
+            // Have to calculate equivalent size. Not completely
+            // accurate but close enough.
+            Charset charset = null;
+            String enc = getCharacterEncoding();
+            if (enc != null) {
+                try {
+                    charset = B2CConverter.getCharset(enc);
+                } catch (UnsupportedEncodingException e) {
+                    // Ignore
+                }
+            }
+            if (charset == null) {
+                // Name length
+                partsPostSize += name.getBytes().length;
+            } else {
+                partsPostSize += name.getBytes(charset).length;
+            }
+            if (value != null) {
+                // Equals sign
+                partsPostSize++;
+                // Value length
+                partsPostSize += size;
+            }
+            // Value separator
+            partsPostSize++;
+            if (partsPostSize > maxPostSize) {
+                throw new IllegalStateException(sm.getString(
+                        "coyoteRequest.maxPostSizeExceeded"));
+            }
+        }
+        coyoteRequest.getParameters().addParameter(name, value);
+    }
+
+
+    /**
+     * Record a failure to read the parts of a streamed multipart request.
+     *
+     * @param e The cause of the failure
+     *
+     * @return the exception to report the failure with
+     */
+    RuntimeException partsFailed(Exception e) {
+        if (e instanceof FileUploadIOException) {
+            e = (Exception) e.getCause();
+        }
+        coyoteRequest.getParameters().setParseFailed(true);
+        if (e instanceof FileUploadBase.SizeException) {
+            checkSwallowInput();
+            return new IllegalStateException(e);
+        } else if (e instanceof IllegalStateException) {
+            checkSwallowInput();
+            return (IllegalStateException) e;
+        }
+        return new IllegalStateException(e);
+    }
+
+
     /**
      * {@inheritDoc}
      */
@@ -3015,8 +3083,9 @@ public class Request
         Parameters parameters = coyoteRequest.getParameters();
         boolean success = false;
         try {
-            // Set this every time in case limit has been changed via JMX
+            // Set these every time in case they have been changed via JMX
             parameters.setLimit(getConnector().getMaxParameterCount());
+            parameters.setLazy(getConnector().getLazyParameterDecoding());
 
             // getCharacterEncoding() may have been overridden to search for
             // hidden form field containing request encoding
@@ -3062,6 +3131,19 @@ public class Request
 
             if ("multipart/form-data".equals(contentType)) {
                 parseParts(false);
+                if (parts instanceof StreamingParts) {
+                    try {
+                        ((StreamingParts) parts).readAll();
+                    } catch (IllegalStateException e) {
+                        Context context = getContext();
+                        if (context != null && context.getLogger().isDebugEnabled()) {
+                            context.getLogger().debug(
+                                    sm.getString("coyoteRequest.parseParameters"),
+                                    e);
+                        }
+                        return;
+                    }
+                }
                 success = true;
                 return;
             }
@@ -0,0 +1,390 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import javax.servlet.http.Part;
+
+import org.apache.tomcat.util.http.fileupload.FileItemHeaders;
+import org.apache.tomcat.util.http.fileupload.FileItemIterator;
+import org.apache.tomcat.util.http.fileupload.FileItemStream;
+import org.apache.tomcat.util.http.fileupload.FileUploadException;
+import org.apache.tomcat.util.http.fileupload.InvalidFileNameException;
+
+/**
+ * The parts of a multipart request, read from the request body as they are
+ * iterated over rather than all at once when the parts are first requested.
+ * <p>
+ * The content of the most recently read part that has a file name is not
+ * read until it is needed. Until the next part is read, the input stream of
+ * that part reads straight from the request body and {@link Part#write(String)}
+ * copies the content straight from the request body to the file. Once the
+ * content has been read that way it is not available from the part again,
+ * other than from the written file. If neither is used before the next part
+ * is read, the content is buffered in memory or, above the file size
+ * threshold, in a temporary file.
+ * <p>
+ * Parts without a file name are always read straight away, kept in memory
+ * up to at least {@link PartBuffer#CHUNK_SIZE} bytes, whatever the file size
+ * threshold, and added to the request parameters.
+ * <p>
+ * Any operation that needs all of the parts, such as {@link #size()} or
+ * looking up a request parameter, reads the rest of the request body.
+ * Failures to read the parts are reported by throwing an
+ * {@link IllegalStateException}.
+ */
+final class StreamingParts extends AbstractCollection<Part> {
+
+    private final Request request;
+    private final FileItemIterator items;
+    private final File location;
+    private final int threshold;
+
+    private final List<StreamingPart> parts = new ArrayList<>();
+    private StreamingPart current = null;
+    private boolean complete = false;
+    private RuntimeException failure = null;
+
+
+    StreamingParts(Request request, FileItemIterator items, File location,
+            int threshold) {
+        this.request = request;
+        this.items = items;
+        this.location = location;
+        this.threshold = threshold;
+    }
+
+
+    @Override
+    public Iterator<Part> iterator() {
+        return new Iterator<Part>() {
+
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < parts.size() || readNext();
+            }
+
+            @Override
+            public Part next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return parts.get(index++);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+
+    @Override
+    public int size() {
+        readAll();
+        return parts.size();
+    }
+
+
+    @Override
+    public boolean isEmpty() {
+        return parts.isEmpty() && !readNext();
+    }
+
+
+    /**
+     * Read the rest of the parts.
+     */
+    void readAll() {
+        while (readNext()) {
+            // Keep reading
+        }
+    }
+
+
+    /**
+     * Release the content of the parts that have been read. Parts that have
+     * not been read yet are left in the request body.
+     */
+    void release() {
+        for (StreamingPart part : parts) {
+            part.delete();
+        }
+        parts.clear();
+        current = null;
+    }
+
+
+    private boolean readNext() {
+        if (failure != null) {
+            throw failure;
+        }
+        if (complete) {
+            return false;
+        }
+        try {
+            if (current != null) {
+                current.detach();
+                current = null;
+            }
+            if (!items.hasNext()) {
+                complete = true;
+                return false;
+            }
+            StreamingPart part = new StreamingPart(items.next());
+            parts.add(part);
+            if (part.getSubmittedFileName() == null) {
+                part.detach();
+                request.addPartParameter(part.getName(),
+                        part.getString(request.getPartCharset()),
+                        part.getSize());
+            } else {
+                current = part;
+            }
+            return true;
+        } catch (IOException | FileUploadException | IllegalStateException e) {
+            failure = request.partsFailed(e);
+            throw failure;
+        }
+    }
+
+
+    private final class StreamingPart implements Part {
+
+        private final String name;
+        private final String contentType;
+        private final String submittedFileName;
+        private final FileItemHeaders headers;
+
+        /*
+         * The part while its content may still be read from the request body,
+         * then null.
+         */
+        private FileItemStream item;
+        private CountingInputStream stream = null;
+        private File written = null;
+        private PartBuffer buffer = null;
+
+        StreamingPart(FileItemStream item) {
+            this.item = item;
+            name = item.getFieldName();
+            contentType = item.getContentType();
+            String fileName;
+            try {
+                fileName = item.getName();
+            } catch (InvalidFileNameException e) {
+                fileName = e.getName();
+            }
+            submittedFileName = fileName;
+            headers = item.getHeaders();
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            if (buffer != null) {
+                return buffer.getInputStream();
+            }
+            if (written != null) {
+                return new FileInputStream(written);
+            }
+            if (stream == null) {
+                if (item == null) {
+                    throw new IOException(Request.sm.getString(
+                            "coyoteRequest.partContentNotAvailable", name));
+                }
+                stream = new CountingInputStream(item.openStream());
+            }
+            return stream;
+        }
+
+        @Override
+        public String getContentType() {
+            return contentType;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public String getSubmittedFileName() {
+            return submittedFileName;
+        }
+
+        @Override
+        public long getSize() {
+            if (buffer != null) {
+                return buffer.getSize();
+            }
+            if (written != null) {
+                return written.length();
+            }
+            if (stream != null) {
+                return stream.count;
+            }
+            if (item != null) {
+                // Read the content so its size is known
+                try {
+                    detach();
+                } catch (IOException e) {
+                    failure = request.partsFailed(e);
+                    throw failure;
+                }
+                return buffer.getSize();
+            }
+            return 0;
+        }
+
+        @Override
+        public void write(String fileName) throws IOException {
+            File file = new File(fileName);
+            if (!file.isAbsolute()) {
+                file = new File(location, fileName);
+            }
+            if (buffer != null) {
+                buffer.write(file);
+            } else if (item != null && stream == null && written == null) {
+                // Copy the content straight from the request body
+                try (InputStream in = item.openStream();
+                        OutputStream out = new FileOutputStream(file)) {
+                    byte[] transfer = new byte[PartBuffer.CHUNK_SIZE];
+                    int n;
+                    while ((n = in.read(transfer)) != -1) {
+                        out.write(transfer, 0, n);
+                    }
+                }
+                written = file;
+            } else {
+                throw new IOException(Request.sm.getString(
+                        "coyoteRequest.partContentNotAvailable", name));
+            }
+        }
+
+        @Override
+        public void delete() {
+            if (buffer != null) {
+                buffer.release();
+            }
+        }
+
+        @Override
+        public String getHeader(String name) {
+            return headers.getHeader(name);
+        }
+
+        @Override
+        public Collection<String> getHeaders(String name) {
+            return toCollection(headers.getHeaders(name));
+        }
+
+        @Override
+        public Collection<String> getHeaderNames() {
+            return toCollection(headers.getHeaderNames());
+        }
+
+        String getString(Charset charset) {
+            return buffer.getString(charset);
+        }
+
+        /*
+         * Buffer the content that is still in the request body, unless the
+         * application has already read it.
+         */
+        void detach() throws IOException {
+            if (item == null) {
+                return;
+            }
+            if (stream == null && written == null) {
+                int partThreshold = threshold;
+                if (submittedFileName == null) {
+                    partThreshold = Math.max(threshold, PartBuffer.CHUNK_SIZE);
+                }
+                PartBuffer buffer = new PartBuffer(location, partThreshold);
+                try {
+                    buffer.readFrom(item.openStream());
+                } catch (IOException e) {
+                    buffer.release();
+                    throw e;
+                }
+                this.buffer = buffer;
+            }
+            item = null;
+        }
+
+        private Collection<String> toCollection(Iterator<String> iter) {
+            LinkedHashSet<String> result = new LinkedHashSet<>();
+            while (iter.hasNext()) {
+                result.add(iter.next());
+            }
+            return result;
+        }
+    }
+
+
+    private static final class CountingInputStream extends FilterInputStream {
+
+        private long count = 0;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result != -1) {
+                count++;
+            }
+            return result;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
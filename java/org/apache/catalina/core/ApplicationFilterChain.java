@@ -74,6 +74,10 @@ final class ApplicationFilterChain implements FilterChain, CometFilterChain {
     public static final int INCREMENT = 10;
 
 
+    private static final ApplicationFilterConfig[] NO_FILTERS =
+        new ApplicationFilterConfig[0];
+
+
     // ----------------------------------------------------------- Constructors
 
 
@@ -93,8 +97,13 @@ final class ApplicationFilterChain implements FilterChain, CometFilterChain {
     /**
      * Filters.
      */
-    private ApplicationFilterConfig[] filters =
-        new ApplicationFilterConfig[0];
+    private ApplicationFilterConfig[] filters = NO_FILTERS;
+
+
+    /**
+     * Are the filters shared with other chains, and so not to be modified?
+     */
+    private boolean sharedFilters = false;
 
 
     /**
@@ -518,24 +527,42 @@ final class ApplicationFilterChain implements FilterChain, CometFilterChain {
             if(filter==filterConfig)
                 return;
 
-        if (n == filters.length) {
+        if (n == filters.length || sharedFilters) {
             ApplicationFilterConfig[] newFilters =
                 new ApplicationFilterConfig[n + INCREMENT];
             System.arraycopy(filters, 0, newFilters, 0, n);
             filters = newFilters;
+            sharedFilters = false;
         }
         filters[n++] = filterConfig;
 
     }
 
 
+    /**
+     * Set the filters that will be executed in this chain, replacing any
+     * filters added previously. The array is shared, not copied, so it must
+     * not be modified.
+     */
+    void setFilters(ApplicationFilterConfig[] filters) {
+        this.filters = filters;
+        n = filters.length;
+        sharedFilters = true;
+    }
+
+
     /**
      * Release references to the filters and wrapper executed by this chain.
      */
     void release() {
 
-        for (int i = 0; i < n; i++) {
-            filters[i] = null;
+        if (sharedFilters) {
+            filters = NO_FILTERS;
+            sharedFilters = false;
+        } else {
+            for (int i = 0; i < n; i++) {
+                filters[i] = null;
+            }
         }
         n = 0;
         pos = 0;
@@ -16,6 +16,9 @@
  */
 package org.apache.catalina.core;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.servlet.DispatcherType;
 import javax.servlet.Servlet;
 import javax.servlet.ServletRequest;
@@ -119,14 +122,46 @@ public final class ApplicationFilterFactory {
 
         // Acquire the filter mappings for this Context
         StandardContext context = (StandardContext) wrapper.getParent();
-        FilterMap filterMaps[] = context.findFilterMaps();
+
+        // Comet requests only use the Comet filters so they are not cached
+        if (comet) {
+            filterChain.setFilters(findFilters(context,
+                    context.findFilterMaps(), dispatcher, requestPath,
+                    wrapper.getName(), true));
+        } else {
+            filterChain.setFilters(context.getFilterChainCache().getFilters(
+                    dispatcher, wrapper.getName(), requestPath));
+        }
+
+        // Return the completed filter chain
+        return (filterChain);
+
+    }
+
+
+    // -------------------------------------------------------- Package Methods
+
+
+    /**
+     * Find the filters that match a request, in the order they must be
+     * executed.
+     *
+     * @param context     The Context processing the request
+     * @param filterMaps  The filter mappings of the Context
+     * @param dispatcher  The dispatcher type of the request
+     * @param requestPath The context relative path of the request
+     * @param servletName The name of the servlet processing the request
+     * @param comet       Should only Comet filters be included
+     */
+    ApplicationFilterConfig[] findFilters(StandardContext context,
+            FilterMap[] filterMaps, DispatcherType dispatcher,
+            String requestPath, String servletName, boolean comet) {
+
+        List<ApplicationFilterConfig> filters = new ArrayList<>();
 
         // If there are no filter mappings, we are done
         if ((filterMaps == null) || (filterMaps.length == 0))
-            return (filterChain);
-
-        // Acquire the information we will need to match filter mappings
-        String servletName = wrapper.getName();
+            return filters.toArray(new ApplicationFilterConfig[0]);
 
         // Add the relevant path-mapped filters to this filter chain
         for (int i = 0; i < filterMaps.length; i++) {
@@ -153,10 +188,10 @@ public final class ApplicationFilterFactory {
                     ExceptionUtils.handleThrowable(t);
                 }
                 if (isCometFilter) {
-                    filterChain.addFilter(filterConfig);
+                    addFilter(filters, filterConfig);
                 }
             } else {
-                filterChain.addFilter(filterConfig);
+                addFilter(filters, filterConfig);
             }
         }
 
@@ -183,15 +218,14 @@ public final class ApplicationFilterFactory {
                     // earlier
                 }
                 if (isCometFilter) {
-                    filterChain.addFilter(filterConfig);
+                    addFilter(filters, filterConfig);
                 }
             } else {
-                filterChain.addFilter(filterConfig);
+                addFilter(filters, filterConfig);
             }
         }
 
-        // Return the completed filter chain
-        return (filterChain);
+        return filters.toArray(new ApplicationFilterConfig[filters.size()]);
 
     }
 
@@ -199,6 +233,18 @@ public final class ApplicationFilterFactory {
     // -------------------------------------------------------- Private Methods
 
 
+    /**
+     * Add a filter unless it is already present, since the same filter may be
+     * mapped more than once.
+     */
+    private void addFilter(List<ApplicationFilterConfig> filters,
+            ApplicationFilterConfig filterConfig) {
+        if (!filters.contains(filterConfig)) {
+            filters.add(filterConfig);
+        }
+    }
+
+
     /**
      * Return <code>true</code> if the context-relative request path
      * matches the requirements of the specified filter mapping;
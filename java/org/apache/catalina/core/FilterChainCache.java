@@ -0,0 +1,220 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.servlet.DispatcherType;
+
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+/**
+ * The filters of the filter chains created for a Context, resolved from one
+ * version of its filter mappings.
+ * <p>
+ * Which URL patterns match a request path depends only on whether the path is
+ * one of the exact patterns, on the longest path pattern that matches it (all
+ * shorter path patterns that match the path also match that pattern) and on
+ * whether its extension is one of the extension patterns. Request paths that
+ * agree on those three share the same filters, so the filters are cached by
+ * dispatcher type, servlet name and that class of request paths. The number
+ * of entries is therefore limited by the configuration, not by the requests.
+ */
+final class FilterChainCache {
+
+    private final StandardContext context;
+    private final FilterMap[] filterMaps;
+
+    private final Set<String> exactPatterns = new HashSet<>();
+    // Path patterns without the trailing "/*"
+    private final Set<String> pathPatterns = new HashSet<>();
+    // Extension patterns without the leading "*."
+    private final Set<String> extensionPatterns = new HashSet<>();
+
+    private final ConcurrentMap<Key,ApplicationFilterConfig[]> filters =
+            new ConcurrentHashMap<>();
+
+
+    FilterChainCache(StandardContext context, FilterMap[] filterMaps) {
+        this.context = context;
+        this.filterMaps = filterMaps;
+        for (FilterMap filterMap : filterMaps) {
+            for (String urlPattern : filterMap.getURLPatterns()) {
+                if (urlPattern == null) {
+                    continue;
+                }
+                if (urlPattern.endsWith("/*")) {
+                    pathPatterns.add(
+                            urlPattern.substring(0, urlPattern.length() - 2));
+                } else if (urlPattern.startsWith("*.")) {
+                    extensionPatterns.add(urlPattern.substring(2));
+                } else {
+                    exactPatterns.add(urlPattern);
+                }
+            }
+        }
+    }
+
+
+    /**
+     * @return <code>true</code> if this cache was created from the given
+     *         filter mappings
+     */
+    boolean isFor(FilterMap[] filterMaps) {
+        return this.filterMaps == filterMaps;
+    }
+
+
+    /**
+     * Obtain the filters, in the order they must be executed, for a request.
+     *
+     * @param dispatcher    The dispatcher type of the request
+     * @param servletName   The name of the servlet that will process the
+     *                      request
+     * @param requestPath   The context relative path of the request or
+     *                      <code>null</code> for named dispatches
+     * @return the filters, which must not be modified
+     */
+    ApplicationFilterConfig[] getFilters(DispatcherType dispatcher,
+            String servletName, String requestPath) {
+        Key key = new Key(dispatcher, servletName, requestPath);
+        ApplicationFilterConfig[] result = filters.get(key);
+        if (result == null) {
+            result = ApplicationFilterFactory.getInstance().findFilters(
+                    context, filterMaps, dispatcher, requestPath, servletName,
+                    false);
+            filters.put(key, result);
+        }
+        return result;
+    }
+
+
+    private String getExactPattern(String requestPath) {
+        if (exactPatterns.contains(requestPath)) {
+            return requestPath;
+        }
+        return null;
+    }
+
+
+    private String getLongestPathPattern(String requestPath) {
+        if (pathPatterns.isEmpty()) {
+            return null;
+        }
+        if (pathPatterns.contains(requestPath)) {
+            return requestPath;
+        }
+        int slash = requestPath.lastIndexOf('/');
+        while (slash >= 0) {
+            String candidate = requestPath.substring(0, slash);
+            if (pathPatterns.contains(candidate)) {
+                return candidate;
+            }
+            slash = requestPath.lastIndexOf('/', slash - 1);
+        }
+        // "/*" matches every request path
+        if (pathPatterns.contains("")) {
+            return "";
+        }
+        return null;
+    }
+
+
+    private String getExtensionPattern(String requestPath) {
+        if (extensionPatterns.isEmpty()) {
+            return null;
+        }
+        int slash = requestPath.lastIndexOf('/');
+        int period = requestPath.lastIndexOf('.');
+        if (slash >= 0 && period > slash &&
+                period != requestPath.length() - 1) {
+            String extension = requestPath.substring(period + 1);
+            if (extensionPatterns.contains(extension)) {
+                return extension;
+            }
+        }
+        return null;
+    }
+
+
+    private final class Key {
+
+        private final DispatcherType dispatcher;
+        private final String servletName;
+        private final boolean named;
+        private final String exactPattern;
+        private final String pathPattern;
+        private final String extensionPattern;
+        private final int hashCode;
+
+        private Key(DispatcherType dispatcher, String servletName,
+                String requestPath) {
+            this.dispatcher = dispatcher;
+            this.servletName = servletName;
+            if (requestPath == null) {
+                named = true;
+                exactPattern = null;
+                pathPattern = null;
+                extensionPattern = null;
+            } else {
+                named = false;
+                exactPattern = getExactPattern(requestPath);
+                pathPattern = getLongestPathPattern(requestPath);
+                extensionPattern = getExtensionPattern(requestPath);
+            }
+            int result = dispatcher == null ? 0 : dispatcher.hashCode();
+            result = 31 * result + hash(servletName);
+            result = 31 * result + (named ? 1 : 0);
+            result = 31 * result + hash(exactPattern);
+            result = 31 * result + hash(pathPattern);
+            result = 31 * result + hash(extensionPattern);
+            hashCode = result;
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return dispatcher == other.dispatcher && named == other.named &&
+                    equal(servletName, other.servletName) &&
+                    equal(exactPattern, other.exactPattern) &&
+                    equal(pathPattern, other.pathPattern) &&
+                    equal(extensionPattern, other.extensionPattern);
+        }
+
+        private int hash(String s) {
+            return s == null ? 0 : s.hashCode();
+        }
+
+        private boolean equal(String s1, String s2) {
+            return s1 == null ? s2 == null : s1.equals(s2);
+        }
+    }
+}
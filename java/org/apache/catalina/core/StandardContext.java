@@ -177,6 +177,12 @@ public class StandardContext extends ContainerBase
      */
     protected boolean allowCasualMultipartParsing = false;
 
+    /**
+     * Read the parts of multipart/form-data requests as the application
+     * iterates over them.
+     */
+    protected boolean streamingMultipartParsing = false;
+
     /**
      * Control whether remaining request data will be read
      * (swallowed) even if the request violates a data size constraint.
@@ -397,6 +403,13 @@ public class StandardContext extends ContainerBase
      */
     private final ContextFilterMaps filterMaps = new ContextFilterMaps();
 
+
+    /**
+     * The filters of the filter chains created for the current filter
+     * mappings and filter configurations.
+     */
+    private volatile FilterChainCache filterChainCache = null;
+
     /**
      * Ignore annotations.
      */
@@ -1067,6 +1080,31 @@ public class StandardContext extends ContainerBase
         return this.allowCasualMultipartParsing;
     }
 
+    /**
+     * Set to <code>true</code> to read the parts of multipart/form-data
+     * requests from the request body as the application iterates over them.
+     *
+     * @param streamingMultipartParsing <code>true</code> to read the parts as
+     *        they are needed, <code>false</code> otherwise.
+     */
+    @Override
+    public void setStreamingMultipartParsing(
+            boolean streamingMultipartParsing) {
+        this.streamingMultipartParsing = streamingMultipartParsing;
+    }
+
+    /**
+     * Returns <code>true</code> if the parts of multipart/form-data requests
+     * are read from the request body as the application iterates over them.
+     *
+     * @return <code>true</code> if the parts are read as they are needed,
+     *    <code>false</code> otherwise.
+     */
+    @Override
+    public boolean getStreamingMultipartParsing() {
+        return this.streamingMultipartParsing;
+    }
+
     /**
      * Set to <code>false</code> to disable request data swallowing
      * after an upload was aborted due to size constraints.
@@ -4564,6 +4602,7 @@ public class StandardContext extends ContainerBase
         boolean ok = true;
         synchronized (filterConfigs) {
             filterConfigs.clear();
+            filterChainCache = null;
             for (Entry<String,FilterDef> entry : filterDefs.entrySet()) {
                 String name = entry.getKey();
                 if (getLogger().isDebugEnabled()) {
@@ -4608,6 +4647,7 @@ public class StandardContext extends ContainerBase
                 filterConfig.release();
             }
             filterConfigs.clear();
+            filterChainCache = null;
         }
         return (true);
 
@@ -4627,6 +4667,22 @@ public class StandardContext extends ContainerBase
     }
 
 
+    /**
+     * Obtain the cache of the filters of the filter chains created for this
+     * Context, replacing it if the filter mappings have changed since it was
+     * created.
+     */
+    FilterChainCache getFilterChainCache() {
+        FilterMap[] filterMaps = findFilterMaps();
+        FilterChainCache result = filterChainCache;
+        if (result == null || !result.isFor(filterMaps)) {
+            result = new FilterChainCache(this, filterMaps);
+            filterChainCache = result;
+        }
+        return result;
+    }
+
+
     /**
      * Configure the set of instantiated application event listeners
      * for this Context.  Return <code>true</code> if all listeners wre
@@ -808,7 +808,7 @@ public final class StandardServer extends LifecycleMBeanBase implements Server {
         // Note although the cache is global, if there are multiple Servers
         // present in the JVM (may happen when embedding) then the same cache
         // will be registered under multiple names
-        onameStringCache = register(new StringCache(), "type=StringCache");
+        onameStringCache = register(StringCache.getGlobal(), "type=StringCache");
 
         // Register the MBeanFactory
         MBeanFactory factory = new MBeanFactory();
@@ -91,6 +91,25 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     protected long threadRenewalDelay =
         org.apache.tomcat.util.threads.Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Adjust the number of threads to hold the target queue wait rather than
+     * only growing when all threads are busy? maxThreads becomes the upper
+     * bound of the adjusted limit.
+     */
+    protected boolean adaptive = false;
+
+    /**
+     * The mean time in milliseconds that tasks should wait in the queue when
+     * adaptive sizing is enabled.
+     */
+    protected long targetQueueWait = 5;
+
+    /**
+     * The time in milliseconds between adjustments of the pool size when
+     * adaptive sizing is enabled.
+     */
+    protected long adaptiveInterval = 1000;
+
     private TaskQueue taskqueue = null;
     // ---------------------------------------------- Constructors
     public StandardThreadExecutor() {
@@ -120,6 +139,10 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         TaskThreadFactory tf = new TaskThreadFactory(namePrefix,daemon,getThreadPriority());
         executor = new ThreadPoolExecutor(getMinSpareThreads(), getMaxThreads(), maxIdleTime, TimeUnit.MILLISECONDS,taskqueue, tf);
         executor.setThreadRenewalDelay(threadRenewalDelay);
+        if (adaptive) {
+            executor.setAdaptive(getMaxThreads(), targetQueueWait,
+                    adaptiveInterval, TimeUnit.MILLISECONDS);
+        }
         if (prestartminSpareThreads) {
             executor.prestartAllCoreThreads();
         }
@@ -237,13 +260,22 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
     public void setMaxThreads(int maxThreads) {
         this.maxThreads = maxThreads;
         if (executor != null) {
-            executor.setMaximumPoolSize(maxThreads);
+            if (adaptive) {
+                executor.setAdaptive(maxThreads, targetQueueWait,
+                        adaptiveInterval, TimeUnit.MILLISECONDS);
+            } else {
+                executor.setMaximumPoolSize(maxThreads);
+            }
         }
     }
 
     public void setMinSpareThreads(int minSpareThreads) {
         this.minSpareThreads = minSpareThreads;
         if (executor != null) {
+            if (executor.getMaximumPoolSize() < minSpareThreads) {
+                // The adaptive limit may currently be lower
+                executor.setMaximumPoolSize(Math.min(minSpareThreads, maxThreads));
+            }
             executor.setCorePoolSize(minSpareThreads);
         }
     }
@@ -275,7 +307,96 @@ public class StandardThreadExecutor extends LifecycleMBeanBase
         }
     }
 
+    public boolean isAdaptive() {
+        return adaptive;
+    }
+
+    public void setAdaptive(boolean adaptive) {
+        this.adaptive = adaptive;
+        if (executor != null) {
+            if (adaptive) {
+                executor.setAdaptive(maxThreads, targetQueueWait,
+                        adaptiveInterval, TimeUnit.MILLISECONDS);
+            } else {
+                executor.clearAdaptive(maxThreads);
+            }
+        }
+    }
+
+    public long getTargetQueueWait() {
+        return targetQueueWait;
+    }
+
+    public void setTargetQueueWait(long targetQueueWait) {
+        this.targetQueueWait = targetQueueWait;
+        if (executor != null && adaptive) {
+            executor.setAdaptive(maxThreads, targetQueueWait,
+                    adaptiveInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public long getAdaptiveInterval() {
+        return adaptiveInterval;
+    }
+
+    public void setAdaptiveInterval(long adaptiveInterval) {
+        this.adaptiveInterval = adaptiveInterval;
+        if (executor != null && adaptive) {
+            executor.setAdaptive(maxThreads, targetQueueWait,
+                    adaptiveInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
     // Statistics from the thread pool
+    /**
+     * @return the current limit on the number of threads. This is maxThreads
+     *         unless adaptive sizing is enabled.
+     */
+    public int getCurrentMaxThreads() {
+        return (executor != null) ? executor.getMaximumPoolSize() : 0;
+    }
+
+    /**
+     * @return the non-empty buckets of the histogram of the time, in
+     *         microseconds, that tasks waited in the queue. Only recorded when
+     *         adaptive sizing is enabled.
+     */
+    public String[] getQueueWaitHistogram() {
+        return (executor != null) ?
+                executor.getQueueWaitHistogram().toStringArray() : new String[0];
+    }
+
+    public long getQueueWaitMean() {
+        return (executor != null) ? executor.getQueueWaitHistogram().getMean() : 0;
+    }
+
+    public long getQueueWait99thPercentile() {
+        return (executor != null) ?
+                executor.getQueueWaitHistogram().getPercentile(99) : 0;
+    }
+
+    /**
+     * @return the non-empty buckets of the histogram of the time, in
+     *         microseconds, that tasks took to run. Only recorded when adaptive
+     *         sizing is enabled.
+     */
+    public String[] getRunTimeHistogram() {
+        return (executor != null) ?
+                executor.getRunTimeHistogram().toStringArray() : new String[0];
+    }
+
+    public long getRunTimeMean() {
+        return (executor != null) ? executor.getRunTimeHistogram().getMean() : 0;
+    }
+
+    public void resetLatencyStatistics() {
+        if (executor != null) {
+            executor.getQueueWaitHistogram().reset();
+            executor.getRunTimeHistogram().reset();
+        }
+    }
+
+
     @Override
     public int getActiveCount() {
         return (executor != null) ? executor.getActiveCount() : 0;
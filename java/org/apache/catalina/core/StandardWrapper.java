@@ -26,7 +26,10 @@ import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Stack;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.management.ListenerNotFoundException;
@@ -216,11 +219,48 @@ public class StandardWrapper extends ContainerBase
 
 
     /**
-     * Stack containing the STM instances.
+     * Stack containing the STM instances that are not currently allocated.
+     * Only held for as long as it takes to push or pop an instance; threads
+     * waiting for an instance wait on {@link #instancePermits}.
      */
     protected Stack<Servlet> instancePool = null;
 
 
+    /**
+     * One permit for each STM instance that may be allocated. Created, with
+     * {@link #maxInstances} permits, when an STM instance is first allocated
+     * and resized when maxInstances changes. Threads that have to wait for an
+     * instance are served in the order they arrived.
+     */
+    private volatile InstancePermits instancePermits = null;
+    private final Object instancePermitsLock = new Object();
+
+
+    /**
+     * Maximum time in ms to wait for a STM instance to become available or -1
+     * to wait indefinitely.
+     */
+    protected long allocateTimeout = -1;
+
+
+    /**
+     * Number of STM allocations that had to wait for an instance.
+     */
+    protected final AtomicLong stmWaitCount = new AtomicLong(0);
+
+
+    /**
+     * Total time in ms STM allocations have waited for an instance.
+     */
+    protected final AtomicLong stmWaitTime = new AtomicLong(0);
+
+
+    /**
+     * Longest time in ms a STM allocation has waited for an instance.
+     */
+    protected final AtomicLong stmMaxWaitTime = new AtomicLong(0);
+
+
     /**
      * Wait time for servlet unload in ms.
      */
@@ -437,14 +477,74 @@ public class StandardWrapper extends ContainerBase
      */
     public void setMaxInstances(int maxInstances) {
 
-        int oldMaxInstances = this.maxInstances;
-        this.maxInstances = maxInstances;
+        int oldMaxInstances;
+        synchronized (instancePermitsLock) {
+            oldMaxInstances = this.maxInstances;
+            this.maxInstances = maxInstances;
+            InstancePermits permits = instancePermits;
+            if (permits != null) {
+                permits.resize(maxInstances - oldMaxInstances);
+            }
+        }
         support.firePropertyChange("maxInstances", oldMaxInstances,
                                    this.maxInstances);
 
     }
 
 
+    /**
+     * Return the maximum time in ms to wait for an instance of a single
+     * thread model servlet to become available or -1 to wait indefinitely.
+     */
+    public long getAllocateTimeout() {
+        return allocateTimeout;
+    }
+
+
+    /**
+     * Set the maximum time in ms to wait for an instance of a single thread
+     * model servlet to become available.
+     *
+     * @param allocateTimeout New value of allocateTimeout, or -1 to wait
+     *                        indefinitely
+     */
+    public void setAllocateTimeout(long allocateTimeout) {
+
+        long oldAllocateTimeout = this.allocateTimeout;
+        this.allocateTimeout = allocateTimeout;
+        support.firePropertyChange("allocateTimeout", oldAllocateTimeout,
+                                   this.allocateTimeout);
+
+    }
+
+
+    /**
+     * Return the number of allocations of a single thread model servlet that
+     * had to wait for an instance.
+     */
+    public long getStmWaitCount() {
+        return stmWaitCount.get();
+    }
+
+
+    /**
+     * Return the total time in ms allocations of a single thread model
+     * servlet have waited for an instance.
+     */
+    public long getStmWaitTime() {
+        return stmWaitTime.get();
+    }
+
+
+    /**
+     * Return the longest time in ms an allocation of a single thread model
+     * servlet has waited for an instance.
+     */
+    public long getStmMaxWaitTime() {
+        return stmMaxWaitTime.get();
+    }
+
+
     /**
      * Set the parent Container of this Wrapper, but only if it is a Context.
      *
@@ -858,36 +958,107 @@ public class StandardWrapper extends ContainerBase
             }
         }
 
+        Semaphore permits = getInstancePermits();
+        acquirePermit(permits);
+
+        // Holding a permit guarantees that either an instance is available or
+        // fewer than maxInstances instances have been loaded
+        Servlet servlet = null;
         synchronized (instancePool) {
+            if (!instancePool.isEmpty()) {
+                servlet = instancePool.pop();
+            }
+        }
+        if (servlet == null) {
+            try {
+                servlet = loadServlet();
+                synchronized (instancePool) {
+                    nInstances++;
+                }
+            } catch (ServletException e) {
+                permits.release();
+                throw e;
+            } catch (Throwable e) {
+                ExceptionUtils.handleThrowable(e);
+                permits.release();
+                throw new ServletException
+                    (sm.getString("standardWrapper.allocate"), e);
+            }
+        }
+        if (log.isTraceEnabled())
+            log.trace("  Returning allocated STM instance");
+        countAllocated.incrementAndGet();
+        return servlet;
 
-            while (countAllocated.get() >= nInstances) {
-                // Allocate a new instance if possible, or else wait
-                if (nInstances < maxInstances) {
-                    try {
-                        instancePool.push(loadServlet());
-                        nInstances++;
-                    } catch (ServletException e) {
-                        throw e;
-                    } catch (Throwable e) {
-                        ExceptionUtils.handleThrowable(e);
-                        throw new ServletException
-                            (sm.getString("standardWrapper.allocate"), e);
-                    }
-                } else {
-                    try {
-                        instancePool.wait();
-                    } catch (InterruptedException e) {
-                        // Ignore
-                    }
+    }
+
+
+    private Semaphore getInstancePermits() {
+        InstancePermits permits = instancePermits;
+        if (permits == null) {
+            synchronized (instancePermitsLock) {
+                permits = instancePermits;
+                if (permits == null) {
+                    permits = new InstancePermits(maxInstances);
+                    instancePermits = permits;
                 }
             }
-            if (log.isTraceEnabled())
-                log.trace("  Returning allocated STM instance");
-            countAllocated.incrementAndGet();
-            return instancePool.pop();
+        }
+        return permits;
+    }
+
+
+    private void acquirePermit(Semaphore permits) throws ServletException {
+        // Waiting for an instance is not interruptible, as it was when the
+        // pool was guarded by its monitor, but the interrupt is not lost
+        boolean interrupted = false;
 
+        // A timed tryAcquire() respects the fairness of the semaphore
+        try {
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) {
+                return;
+            }
+        } catch (InterruptedException e) {
+            interrupted = true;
         }
 
+        long start = System.currentTimeMillis();
+        long timeout = allocateTimeout;
+        boolean acquired = false;
+        if (timeout < 0) {
+            permits.acquireUninterruptibly();
+            acquired = true;
+        } else {
+            long remaining = timeout;
+            while (!acquired && remaining >= 0) {
+                try {
+                    acquired = permits.tryAcquire(remaining,
+                            TimeUnit.MILLISECONDS);
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                remaining = timeout - (System.currentTimeMillis() - start);
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        long waitTime = System.currentTimeMillis() - start;
+        stmWaitCount.incrementAndGet();
+        stmWaitTime.addAndGet(waitTime);
+        long maxWaitTime = stmMaxWaitTime.get();
+        while (waitTime > maxWaitTime &&
+                !stmMaxWaitTime.compareAndSet(maxWaitTime, waitTime)) {
+            maxWaitTime = stmMaxWaitTime.get();
+        }
+
+        if (!acquired) {
+            throw new ServletException(sm.getString(
+                    "standardWrapper.allocateTimeout", getName(),
+                    Long.valueOf(timeout)));
+        }
     }
 
 
@@ -909,11 +1080,19 @@ public class StandardWrapper extends ContainerBase
             return;
         }
 
-        // Unlock and free this instance
-        synchronized (instancePool) {
-            countAllocated.decrementAndGet();
-            instancePool.push(servlet);
-            instancePool.notify();
+        // Return the instance before releasing its permit so the next thread
+        // to acquire a permit finds it. Either may have been cleared by a
+        // concurrent unload().
+        Stack<Servlet> pool = instancePool;
+        if (pool != null) {
+            synchronized (pool) {
+                pool.push(servlet);
+            }
+        }
+        countAllocated.decrementAndGet();
+        Semaphore permits = instancePermits;
+        if (permits != null) {
+            permits.release();
         }
 
     }
@@ -1448,6 +1627,7 @@ public class StandardWrapper extends ContainerBase
                   (InstanceEvent.AFTER_DESTROY_EVENT, instance, t);
                 instance = null;
                 instancePool = null;
+                instancePermits = null;
                 nInstances = 0;
                 fireContainerEvent("unload", this);
                 unloading = false;
@@ -1498,6 +1678,7 @@ public class StandardWrapper extends ContainerBase
                 t = ExceptionUtils.unwrapInvocationTargetException(t);
                 ExceptionUtils.handleThrowable(t);
                 instancePool = null;
+                instancePermits = null;
                 nInstances = 0;
                 unloading = false;
                 fireContainerEvent("unload", this);
@@ -1506,6 +1687,7 @@ public class StandardWrapper extends ContainerBase
                                   getName()), t);
             }
             instancePool = null;
+            instancePermits = null;
             nInstances = 0;
         }
 
@@ -1644,6 +1826,28 @@ public class StandardWrapper extends ContainerBase
         this.enabled = enabled;
     }
 
+    /**
+     * Permits for the instances of a single thread model servlet. The number
+     * of permits follows {@link #setMaxInstances(int)}.
+     */
+    private static class InstancePermits extends Semaphore {
+
+        private static final long serialVersionUID = 1L;
+
+        InstancePermits(int permits) {
+            super(permits, true);
+        }
+
+        void resize(int delta) {
+            if (delta > 0) {
+                release(delta);
+            } else if (delta < 0) {
+                reducePermits(-delta);
+            }
+        }
+    }
+
+
     // -------------------------------------------------------- Package Methods
 
 
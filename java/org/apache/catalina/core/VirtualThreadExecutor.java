@@ -0,0 +1,313 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleState;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.res.StringManager;
+
+/**
+ * An Executor that runs each task on a new virtual thread when the JRE
+ * supports them (Java 21 onwards). Blocking in a task, e.g. waiting for a
+ * database, then does not tie up a platform thread so the number of requests
+ * that may be processed concurrently is limited by the maxConnections of the
+ * connectors that use this Executor rather than by maxThreads.
+ * <p>
+ * Virtual threads are not pooled so maxThreads, minSpareThreads, maxIdleTime,
+ * prestartminSpareThreads, maxQueueSize, threadPriority and daemon are
+ * ignored and maxThreads is reported as -1 (unlimited). As each thread only
+ * ever runs a single task, thread locals can not leak from one web application
+ * to another and no threads need to be renewed when a context is stopped.
+ * When the Executor is stopped, tasks that are still running are interrupted
+ * in the same way as the threads of a {@link StandardThreadExecutor}.
+ * <p>
+ * If virtual threads are not supported, a warning is logged and this Executor
+ * behaves exactly like a {@link StandardThreadExecutor}.
+ */
+public class VirtualThreadExecutor extends StandardThreadExecutor {
+
+    private static final Log log = LogFactory.getLog(VirtualThreadExecutor.class);
+    private static final StringManager sm =
+            StringManager.getManager(Constants.Package);
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_FACTORY;
+
+    static {
+        Method ofVirtual = null;
+        Method builderName = null;
+        Method builderFactory = null;
+        try {
+            ofVirtual = Thread.class.getMethod("ofVirtual");
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builderName = builderClass.getMethod("name", String.class, long.class);
+            builderFactory = builderClass.getMethod("factory");
+        } catch (ReflectiveOperationException e) {
+            // Not supported by this JRE
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = builderName;
+        BUILDER_FACTORY = builderFactory;
+    }
+
+
+    /**
+     * Creates a virtual thread for each task. <code>null</code> when the
+     * Executor is not running or virtual threads are not supported.
+     */
+    private volatile ThreadFactory threadFactory = null;
+
+    /**
+     * The virtual threads that have been started and have not yet completed
+     * their task.
+     */
+    private final Set<Thread> runningThreads =
+            Collections.newSetFromMap(new ConcurrentHashMap<Thread,Boolean>());
+
+    private final AtomicInteger activeCount = new AtomicInteger(0);
+    private final AtomicInteger largestActiveCount = new AtomicInteger(0);
+    private final AtomicLong completedTaskCount = new AtomicLong(0);
+
+
+    /**
+     * @return <code>true</code> if the JRE supports virtual threads
+     */
+    public static boolean isSupported() {
+        return OF_VIRTUAL != null;
+    }
+
+
+    /**
+     * @return <code>true</code> if tasks are currently being run on virtual
+     *         threads
+     */
+    public boolean isVirtual() {
+        return threadFactory != null;
+    }
+
+
+    @Override
+    protected void startInternal() throws LifecycleException {
+        if (!isSupported()) {
+            log.warn(sm.getString("virtualThreadExecutor.notSupported", getName()));
+            super.startInternal();
+            return;
+        }
+
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            builder = BUILDER_NAME.invoke(builder, getNamePrefix(), Long.valueOf(1));
+            threadFactory = (ThreadFactory) BUILDER_FACTORY.invoke(builder);
+        } catch (Throwable t) {
+            ExceptionUtils.handleThrowable(t);
+            throw new LifecycleException(t);
+        }
+
+        setState(LifecycleState.STARTING);
+    }
+
+
+    @Override
+    protected void stopInternal() throws LifecycleException {
+        if (threadFactory == null) {
+            super.stopInternal();
+            return;
+        }
+
+        setState(LifecycleState.STOPPING);
+        // Stop accepting new tasks, then interrupt the running ones as
+        // ThreadPoolExecutor.shutdownNow() does for the platform threads
+        threadFactory = null;
+        for (Thread thread : runningThreads) {
+            thread.interrupt();
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command, long timeout, TimeUnit unit) {
+        ThreadFactory factory = threadFactory;
+        if (factory == null) {
+            super.execute(command, timeout, unit);
+        } else {
+            startThread(factory, command);
+        }
+    }
+
+
+    @Override
+    public void execute(Runnable command) {
+        ThreadFactory factory = threadFactory;
+        if (factory == null) {
+            super.execute(command);
+        } else {
+            startThread(factory, command);
+        }
+    }
+
+
+    private void startThread(ThreadFactory factory, Runnable command) {
+        Thread thread = factory.newThread(new VirtualThreadTask(command));
+        runningThreads.add(thread);
+        if (threadFactory == null) {
+            // Stopped while the thread was being created
+            runningThreads.remove(thread);
+            throw new IllegalStateException(
+                    sm.getString("virtualThreadExecutor.notStarted", getName()));
+        }
+        thread.start();
+    }
+
+
+    @Override
+    public void contextStopping() {
+        // Virtual threads are never re-used so there is nothing to renew
+        if (threadFactory == null) {
+            super.contextStopping();
+        }
+    }
+
+
+    @Override
+    public boolean resizePool(int corePoolSize, int maximumPoolSize) {
+        if (threadFactory == null) {
+            return super.resizePool(corePoolSize, maximumPoolSize);
+        }
+        return false;
+    }
+
+
+    // Statistics from the virtual threads
+
+    /**
+     * @return -1 when tasks are run on virtual threads as the number of
+     *         threads is not limited
+     */
+    @Override
+    public int getMaxThreads() {
+        if (threadFactory == null) {
+            return super.getMaxThreads();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getMinSpareThreads() {
+        if (threadFactory == null) {
+            return super.getMinSpareThreads();
+        }
+        return 0;
+    }
+
+    @Override
+    public int getCurrentMaxThreads() {
+        if (threadFactory == null) {
+            return super.getCurrentMaxThreads();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getActiveCount() {
+        if (threadFactory == null) {
+            return super.getActiveCount();
+        }
+        return activeCount.get();
+    }
+
+    @Override
+    public long getCompletedTaskCount() {
+        if (threadFactory == null) {
+            return super.getCompletedTaskCount();
+        }
+        return completedTaskCount.get();
+    }
+
+    @Override
+    public int getCorePoolSize() {
+        if (threadFactory == null) {
+            return super.getCorePoolSize();
+        }
+        return 0;
+    }
+
+    @Override
+    public int getLargestPoolSize() {
+        if (threadFactory == null) {
+            return super.getLargestPoolSize();
+        }
+        return largestActiveCount.get();
+    }
+
+    @Override
+    public int getPoolSize() {
+        if (threadFactory == null) {
+            return super.getPoolSize();
+        }
+        // There is one thread per task
+        return activeCount.get();
+    }
+
+    @Override
+    public int getQueueSize() {
+        if (threadFactory == null) {
+            return super.getQueueSize();
+        }
+        return 0;
+    }
+
+
+    private class VirtualThreadTask implements Runnable {
+
+        private final Runnable task;
+
+        public VirtualThreadTask(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            int active = activeCount.incrementAndGet();
+            int largest = largestActiveCount.get();
+            while (active > largest &&
+                    !largestActiveCount.compareAndSet(largest, active)) {
+                largest = largestActiveCount.get();
+            }
+            try {
+                task.run();
+            } finally {
+                runningThreads.remove(Thread.currentThread());
+                activeCount.decrementAndGet();
+                completedTaskCount.incrementAndGet();
+            }
+        }
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.mapper;
+
+import org.apache.catalina.mapper.Mapper.MappedWrapper;
+import org.apache.tomcat.util.buf.CharChunk;
+
+/**
+ * An immutable index of the exact, wildcard and extension wrappers of a
+ * context version, used in place of the sorted arrays when a context has
+ * many servlet mappings. Exact and extension mappings are found with a single
+ * hash lookup and wildcard mappings by walking a trie of path segments once,
+ * rather than with a binary search for every shorter prefix of the path.
+ * <p>
+ * Lookups hash the characters of the path in place so mapping a request does
+ * not create any objects.
+ */
+final class CompiledWrappers {
+
+    private final Table<MappedWrapper> exactWrappers;
+    private final Table<MappedWrapper> extensionWrappers;
+    private final Node wildcardRoot = new Node();
+
+
+    /**
+     * @return the index of the given wrappers, or <code>null</code> if they
+     *         include a wildcard mapping that does not start with "/" and so
+     *         cannot be represented as a sequence of path segments
+     */
+    static CompiledWrappers compile(MappedWrapper[] exactWrappers,
+            MappedWrapper[] wildcardWrappers,
+            MappedWrapper[] extensionWrappers) {
+        for (MappedWrapper wrapper : wildcardWrappers) {
+            if (wrapper.name.length() > 0 && wrapper.name.charAt(0) != '/') {
+                return null;
+            }
+        }
+        return new CompiledWrappers(exactWrappers, wildcardWrappers,
+                extensionWrappers);
+    }
+
+
+    private CompiledWrappers(MappedWrapper[] exactWrappers,
+            MappedWrapper[] wildcardWrappers,
+            MappedWrapper[] extensionWrappers) {
+        this.exactWrappers = new Table<>(exactWrappers.length);
+        for (MappedWrapper wrapper : exactWrappers) {
+            this.exactWrappers.put(wrapper.name, wrapper);
+        }
+        this.extensionWrappers = new Table<>(extensionWrappers.length);
+        for (MappedWrapper wrapper : extensionWrappers) {
+            this.extensionWrappers.put(wrapper.name, wrapper);
+        }
+        for (MappedWrapper wrapper : wildcardWrappers) {
+            Node node = wildcardRoot;
+            String name = wrapper.name;
+            // Skip the leading '/'
+            int start = 1;
+            while (start <= name.length()) {
+                int end = name.indexOf('/', start);
+                if (end == -1) {
+                    end = name.length();
+                }
+                node = node.child(name.substring(start, end));
+                start = end + 1;
+            }
+            node.wrapper = wrapper;
+        }
+    }
+
+
+    /**
+     * Find the exact mapping for the given path.
+     */
+    MappedWrapper findExact(CharChunk path) {
+        return exactWrappers.get(path.getBuffer(), path.getStart(),
+                path.getEnd());
+    }
+
+
+    /**
+     * Find the mapping for the given extension.
+     */
+    MappedWrapper findExtension(CharChunk extension) {
+        return extensionWrappers.get(extension.getBuffer(),
+                extension.getStart(), extension.getEnd());
+    }
+
+
+    /**
+     * Find the longest wildcard mapping that matches the given path, i.e. the
+     * longest mapping that is followed in the path by '/' or by the end of
+     * the path.
+     */
+    MappedWrapper findWildcard(CharChunk path) {
+        char[] buf = path.getBuffer();
+        int end = path.getEnd();
+        Node node = wildcardRoot;
+        // "/*" matches every path
+        MappedWrapper result = node.wrapper;
+        int pos = path.getStart();
+        if (pos == end) {
+            return result;
+        }
+        if (buf[pos] != '/') {
+            return null;
+        }
+        pos++;
+        while (pos <= end && node.children != null) {
+            int segmentEnd = pos;
+            while (segmentEnd < end && buf[segmentEnd] != '/') {
+                segmentEnd++;
+            }
+            node = node.children.get(buf, pos, segmentEnd);
+            if (node == null) {
+                break;
+            }
+            if (node.wrapper != null) {
+                result = node.wrapper;
+            }
+            pos = segmentEnd + 1;
+        }
+        return result;
+    }
+
+
+    private static final class Node {
+
+        private MappedWrapper wrapper;
+        private Table<Node> children;
+
+        private Node child(String segment) {
+            if (children == null) {
+                children = new Table<>(1);
+            }
+            Node child = children.get(segment);
+            if (child == null) {
+                child = new Node();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+
+
+    /**
+     * An open addressing hash table with String keys that may be looked up
+     * with a range of characters.
+     */
+    private static final class Table<T> {
+
+        private String[] keys;
+        private Object[] values;
+        private int size = 0;
+
+        private Table(int expectedSize) {
+            int capacity = 2;
+            while (capacity < expectedSize * 2) {
+                capacity <<= 1;
+            }
+            keys = new String[capacity];
+            values = new Object[capacity];
+        }
+
+        private void put(String key, T value) {
+            if ((size + 1) * 2 > keys.length) {
+                String[] oldKeys = keys;
+                Object[] oldValues = values;
+                keys = new String[oldKeys.length * 2];
+                values = new Object[oldKeys.length * 2];
+                size = 0;
+                for (int i = 0; i < oldKeys.length; i++) {
+                    if (oldKeys[i] != null) {
+                        insert(oldKeys[i], oldValues[i]);
+                    }
+                }
+            }
+            insert(key, value);
+        }
+
+        private void insert(String key, Object value) {
+            int mask = keys.length - 1;
+            int i = spread(key.hashCode()) & mask;
+            while (keys[i] != null) {
+                if (keys[i].equals(key)) {
+                    values[i] = value;
+                    return;
+                }
+                i = (i + 1) & mask;
+            }
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        private T get(String key) {
+            return get(key.toCharArray(), 0, key.length());
+        }
+
+        @SuppressWarnings("unchecked")
+        private T get(char[] buf, int start, int end) {
+            // Same hash as String.hashCode()
+            int hash = 0;
+            for (int i = start; i < end; i++) {
+                hash = 31 * hash + buf[i];
+            }
+            int mask = keys.length - 1;
+            int i = spread(hash) & mask;
+            String key;
+            while ((key = keys[i]) != null) {
+                if (matches(key, buf, start, end)) {
+                    return (T) values[i];
+                }
+                i = (i + 1) & mask;
+            }
+            return null;
+        }
+
+        private static boolean matches(String key, char[] buf, int start,
+                int end) {
+            int length = end - start;
+            if (key.length() != length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (key.charAt(i) != buf[start + i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private static int spread(int hash) {
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
@@ -20,8 +20,10 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 
@@ -73,8 +75,29 @@ public final class Mapper {
             new ConcurrentHashMap<>();
 
 
+    /**
+     * The number of exact, wildcard and extension servlet mappings a context
+     * version must have for them to be compiled into hash tables and a trie
+     * rather than searched for in sorted arrays. A negative value disables
+     * compilation.
+     */
+    private volatile int compiledWrappersThreshold = 256;
+
+
     // --------------------------------------------------------- Public Methods
 
+    /**
+     * Set the number of exact, wildcard and extension servlet mappings a
+     * context must have for them to be compiled. Applies to the wrappers
+     * added or removed after it is set.
+     *
+     * @param compiledWrappersThreshold The number of mappings or a negative
+     *                                  value to never compile them
+     */
+    public void setCompiledWrappersThreshold(int compiledWrappersThreshold) {
+        this.compiledWrappersThreshold = compiledWrappersThreshold;
+    }
+
     /**
      * Set default host.
      *
@@ -358,6 +381,22 @@ public final class Mapper {
     }
 
 
+    /**
+     * Create a batch of context version additions and removals for a host.
+     * The new context versions, including their compiled wrappers, are built
+     * as they are added to the batch by the calling thread. Applying the batch
+     * then replaces the contexts of the host with a single update so requests
+     * see either none or all of the changes.
+     *
+     * @param hostName Virtual host name the contexts belong to
+     * @param host Host object, used if the host has to be added
+     * @return the new, empty batch
+     */
+    public Batch createBatch(String hostName, Host host) {
+        return new Batch(hostName, host);
+    }
+
+
     /**
      * Mark a context as being reloaded. Reversion of this state is performed
      * by calling <code>addContextVersion(...)</code> when context starts up.
@@ -437,10 +476,14 @@ public final class Mapper {
      */
     private void addWrappers(ContextVersion contextVersion,
             Collection<WrapperMappingInfo> wrappers) {
-        for (WrapperMappingInfo wrapper : wrappers) {
-            addWrapper(contextVersion, wrapper.getMapping(),
-                    wrapper.getWrapper(), wrapper.isJspWildCard(),
-                    wrapper.isResourceOnly());
+        synchronized (contextVersion) {
+            for (WrapperMappingInfo wrapper : wrappers) {
+                addWrapperMapping(contextVersion, wrapper.getMapping(),
+                        wrapper.getWrapper(), wrapper.isJspWildCard(),
+                        wrapper.isResourceOnly());
+            }
+            // Compile once for all the wrappers
+            compileWrappers(contextVersion);
         }
     }
 
@@ -458,6 +501,17 @@ public final class Mapper {
     protected void addWrapper(ContextVersion context, String path,
             Wrapper wrapper, boolean jspWildCard, boolean resourceOnly) {
 
+        synchronized (context) {
+            addWrapperMapping(context, path, wrapper, jspWildCard,
+                    resourceOnly);
+            compileWrappers(context);
+        }
+    }
+
+
+    private void addWrapperMapping(ContextVersion context, String path,
+            Wrapper wrapper, boolean jspWildCard, boolean resourceOnly) {
+
         synchronized (context) {
             if (path.endsWith("/*")) {
                 // Wildcard wrapper
@@ -590,6 +644,26 @@ public final class Mapper {
                     context.exactWrappers = newWrappers;
                 }
             }
+            compileWrappers(context);
+        }
+    }
+
+
+    /**
+     * Replace the compiled wrappers of the given context to reflect its
+     * current wrappers. Must be called while holding the lock on the context.
+     */
+    private void compileWrappers(ContextVersion context) {
+        int threshold = compiledWrappersThreshold;
+        int count = context.exactWrappers.length +
+                context.wildcardWrappers.length +
+                context.extensionWrappers.length;
+        if (threshold < 0 || count < threshold) {
+            context.compiledWrappers = null;
+        } else {
+            context.compiledWrappers = CompiledWrappers.compile(
+                    context.exactWrappers, context.wildcardWrappers,
+                    context.extensionWrappers);
         }
     }
 
@@ -852,15 +926,20 @@ public final class Mapper {
 
         path.setOffset(servletPath);
 
+        // Use the compiled wrappers, if any, consistently for this request
+        CompiledWrappers compiledWrappers = contextVersion.compiledWrappers;
+
         // Rule 1 -- Exact Match
         MappedWrapper[] exactWrappers = contextVersion.exactWrappers;
-        internalMapExactWrapper(exactWrappers, path, mappingData);
+        internalMapExactWrapper(exactWrappers, compiledWrappers, path,
+                mappingData);
 
         // Rule 2 -- Prefix Match
         boolean checkJspWelcomeFiles = false;
         MappedWrapper[] wildcardWrappers = contextVersion.wildcardWrappers;
         if (mappingData.wrapper == null) {
-            internalMapWildcardWrapper(wildcardWrappers, contextVersion.nesting,
+            internalMapWildcardWrapper(wildcardWrappers, compiledWrappers,
+                                       contextVersion.nesting,
                                        path, mappingData);
             if (mappingData.wrapper != null && mappingData.jspWildCard) {
                 char[] buf = path.getBuffer();
@@ -895,8 +974,8 @@ public final class Mapper {
         // Rule 3 -- Extension Match
         MappedWrapper[] extensionWrappers = contextVersion.extensionWrappers;
         if (mappingData.wrapper == null && !checkJspWelcomeFiles) {
-            internalMapExtensionWrapper(extensionWrappers, path, mappingData,
-                    true);
+            internalMapExtensionWrapper(extensionWrappers, compiledWrappers,
+                    path, mappingData, true);
         }
 
         // Rule 4 -- Welcome resources processing for servlets
@@ -916,13 +995,14 @@ public final class Mapper {
                     path.setOffset(servletPath);
 
                     // Rule 4a -- Welcome resources processing for exact macth
-                    internalMapExactWrapper(exactWrappers, path, mappingData);
+                    internalMapExactWrapper(exactWrappers, compiledWrappers,
+                            path, mappingData);
 
                     // Rule 4b -- Welcome resources processing for prefix match
                     if (mappingData.wrapper == null) {
                         internalMapWildcardWrapper
-                            (wildcardWrappers, contextVersion.nesting,
-                             path, mappingData);
+                            (wildcardWrappers, compiledWrappers,
+                             contextVersion.nesting, path, mappingData);
                     }
 
                     // Rule 4c -- Welcome resources processing
@@ -933,8 +1013,8 @@ public final class Mapper {
                         WebResource file =
                                 contextVersion.resources.getResource(pathStr);
                         if (file != null && file.isFile()) {
-                            internalMapExtensionWrapper(extensionWrappers, path,
-                                                        mappingData, true);
+                            internalMapExtensionWrapper(extensionWrappers,
+                                    compiledWrappers, path, mappingData, true);
                             if (mappingData.wrapper == null
                                 && contextVersion.defaultWrapper != null) {
                                 mappingData.wrapper =
@@ -979,8 +1059,8 @@ public final class Mapper {
                     path.append(contextVersion.welcomeResources[i], 0,
                                 contextVersion.welcomeResources[i].length());
                     path.setOffset(servletPath);
-                    internalMapExtensionWrapper(extensionWrappers, path,
-                                                mappingData, false);
+                    internalMapExtensionWrapper(extensionWrappers,
+                            compiledWrappers, path, mappingData, false);
                 }
 
                 path.setOffset(servletPath);
@@ -1029,8 +1109,14 @@ public final class Mapper {
      * Exact mapping.
      */
     private final void internalMapExactWrapper
-        (MappedWrapper[] wrappers, CharChunk path, MappingData mappingData) {
-        MappedWrapper wrapper = exactFind(wrappers, path);
+        (MappedWrapper[] wrappers, CompiledWrappers compiledWrappers,
+         CharChunk path, MappingData mappingData) {
+        MappedWrapper wrapper;
+        if (compiledWrappers == null) {
+            wrapper = exactFind(wrappers, path);
+        } else {
+            wrapper = compiledWrappers.findExact(path);
+        }
         if (wrapper != null) {
             mappingData.requestPath.setString(wrapper.name);
             mappingData.wrapper = wrapper.object;
@@ -1051,8 +1137,16 @@ public final class Mapper {
      * Wildcard mapping.
      */
     private final void internalMapWildcardWrapper
-        (MappedWrapper[] wrappers, int nesting, CharChunk path,
-         MappingData mappingData) {
+        (MappedWrapper[] wrappers, CompiledWrappers compiledWrappers,
+         int nesting, CharChunk path, MappingData mappingData) {
+
+        if (compiledWrappers != null) {
+            MappedWrapper wrapper = compiledWrappers.findWildcard(path);
+            if (wrapper != null) {
+                setWildcardMapping(wrapper, path, mappingData);
+            }
+            return;
+        }
 
         int pathEnd = path.getEnd();
 
@@ -1082,32 +1176,41 @@ public final class Mapper {
             }
             path.setEnd(pathEnd);
             if (found) {
-                mappingData.wrapperPath.setString(wrappers[pos].name);
-                if (path.getLength() > length) {
-                    mappingData.pathInfo.setChars
-                        (path.getBuffer(),
-                         path.getOffset() + length,
-                         path.getLength() - length);
-                }
-                mappingData.requestPath.setChars
-                    (path.getBuffer(), path.getOffset(), path.getLength());
-                mappingData.wrapper = wrappers[pos].object;
-                mappingData.jspWildCard = wrappers[pos].jspWildCard;
+                setWildcardMapping(wrappers[pos], path, mappingData);
             }
         }
     }
 
 
+    private final void setWildcardMapping(MappedWrapper wrapper,
+            CharChunk path, MappingData mappingData) {
+        int length = wrapper.name.length();
+        mappingData.wrapperPath.setString(wrapper.name);
+        if (path.getLength() > length) {
+            mappingData.pathInfo.setChars
+                (path.getBuffer(),
+                 path.getOffset() + length,
+                 path.getLength() - length);
+        }
+        mappingData.requestPath.setChars
+            (path.getBuffer(), path.getOffset(), path.getLength());
+        mappingData.wrapper = wrapper.object;
+        mappingData.jspWildCard = wrapper.jspWildCard;
+    }
+
+
     /**
      * Extension mappings.
      *
      * @param wrappers          Set of wrappers to check for matches
+     * @param compiledWrappers  Compiled wrappers to use instead, if any
      * @param path              Path to map
      * @param mappingData       Mapping data for result
      * @param resourceExpected  Is this mapping expecting to find a resource
      */
     private final void internalMapExtensionWrapper(MappedWrapper[] wrappers,
-            CharChunk path, MappingData mappingData, boolean resourceExpected) {
+            CompiledWrappers compiledWrappers, CharChunk path,
+            MappingData mappingData, boolean resourceExpected) {
         char[] buf = path.getBuffer();
         int pathEnd = path.getEnd();
         int servletPath = path.getOffset();
@@ -1129,7 +1232,12 @@ public final class Mapper {
             if (period >= 0) {
                 path.setOffset(period + 1);
                 path.setEnd(pathEnd);
-                MappedWrapper wrapper = exactFind(wrappers, path);
+                MappedWrapper wrapper;
+                if (compiledWrappers == null) {
+                    wrapper = exactFind(wrappers, path);
+                } else {
+                    wrapper = compiledWrappers.findExtension(path);
+                }
                 if (wrapper != null
                         && (resourceExpected || !wrapper.resourceOnly)) {
                     mappingData.wrapperPath.setChars(buf, servletPath, pathEnd
@@ -1524,6 +1632,224 @@ public final class Mapper {
     }
 
 
+    // ------------------------------------------------------ Batch Inner Class
+
+
+    /**
+     * Context version additions, removals and pauses for a host that are
+     * applied together. The changes are applied in the order they were made.
+     */
+    public final class Batch {
+
+        private final String hostName;
+        private final Host host;
+        private final List<BatchChange> changes = new ArrayList<>();
+
+        private Batch(String hostName, Host host) {
+            this.hostName = hostName;
+            this.host = host;
+        }
+
+        /**
+         * Add a new Context to the host.
+         *
+         * @param path Context path
+         * @param version Context version
+         * @param context Context object
+         * @param welcomeResources Welcome files defined for this context
+         * @param resources Static resources of the context
+         * @param wrappers Information on wrapper mappings
+         */
+        public void addContextVersion(String path, String version,
+                Context context, String[] welcomeResources,
+                WebResourceRoot resources,
+                Collection<WrapperMappingInfo> wrappers) {
+            ContextVersion contextVersion = new ContextVersion(version, path,
+                    slashCount(path), context, resources, welcomeResources);
+            if (wrappers != null) {
+                addWrappers(contextVersion, wrappers);
+            }
+            changes.add(new BatchChange(path, version, context,
+                    contextVersion, false));
+        }
+
+        /**
+         * Remove a context from the host.
+         *
+         * @param ctxt The actual context
+         * @param path Context path
+         * @param version Context version
+         */
+        public void removeContextVersion(Context ctxt, String path,
+                String version) {
+            changes.add(new BatchChange(path, version, ctxt, null, false));
+        }
+
+        /**
+         * Mark a context of the host as being reloaded.
+         *
+         * @param ctxt The actual context
+         * @param path Context path
+         * @param version Context version
+         */
+        public void pauseContextVersion(Context ctxt, String path,
+                String version) {
+            changes.add(new BatchChange(path, version, ctxt, null, true));
+        }
+
+        /**
+         * Apply the changes to the mapper. The contexts of the host are
+         * replaced once, whatever the number of changes.
+         */
+        public void apply() {
+            if (changes.isEmpty()) {
+                return;
+            }
+            MappedHost mappedHost = exactFind(hosts, hostName);
+            if (mappedHost == null) {
+                addHost(hostName, new String[0], host);
+                mappedHost = exactFind(hosts, hostName);
+                if (mappedHost == null) {
+                    log.error("No host found: " + hostName);
+                    return;
+                }
+            }
+            if (mappedHost.isAlias()) {
+                log.error("No host found: " + hostName);
+                return;
+            }
+
+            synchronized (mappedHost) {
+                ContextList contextList = mappedHost.contextList;
+
+                // The new versions of the contexts that are changed
+                Map<String,ContextVersion[]> changedContexts = new TreeMap<>();
+                // The additions that were actually mapped and the removals
+                List<BatchChange> mappedChanges = new ArrayList<>();
+                for (BatchChange change : changes) {
+                    ContextVersion[] contextVersions =
+                            changedContexts.get(change.path);
+                    if (contextVersions == null) {
+                        MappedContext mappedContext = exactFind(
+                                contextList.contexts, change.path);
+                        if (mappedContext == null) {
+                            contextVersions = new ContextVersion[0];
+                        } else {
+                            contextVersions = mappedContext.versions;
+                        }
+                    }
+                    if (change.pause) {
+                        // The context list is left as it is
+                        int pos = find(contextVersions, change.version);
+                        if (pos >= 0 && contextVersions[pos].name.equals(
+                                change.version) && change.context.equals(
+                                        contextVersions[pos].object)) {
+                            contextVersions[pos].markPaused();
+                        }
+                        continue;
+                    }
+                    if (change.contextVersion == null) {
+                        ContextVersion[] newContextVersions =
+                                new ContextVersion[Math.max(0, contextVersions.length - 1)];
+                        if (contextVersions.length > 0 &&
+                                removeMap(contextVersions, newContextVersions,
+                                        change.version)) {
+                            contextVersions = newContextVersions;
+                        }
+                        mappedChanges.add(change);
+                    } else {
+                        ContextVersion[] newContextVersions =
+                                new ContextVersion[contextVersions.length + 1];
+                        if (insertMap(contextVersions, newContextVersions,
+                                change.contextVersion)) {
+                            contextVersions = newContextVersions;
+                            mappedChanges.add(change);
+                        } else {
+                            // Re-registration after Context.reload()
+                            // Replace ContextVersion with the new one
+                            int pos = find(contextVersions, change.version);
+                            if (pos >= 0 && contextVersions[pos].name.equals(
+                                    change.version)) {
+                                contextVersions = contextVersions.clone();
+                                contextVersions[pos] = change.contextVersion;
+                                mappedChanges.add(change);
+                            }
+                        }
+                    }
+                    changedContexts.put(change.path, contextVersions);
+                }
+
+                // Build the new list of contexts from the unchanged contexts
+                // and the changed contexts that still have a version
+                List<MappedContext> newContexts = new ArrayList<>(
+                        contextList.contexts.length + changedContexts.size());
+                for (MappedContext mappedContext : contextList.contexts) {
+                    if (!changedContexts.containsKey(mappedContext.name)) {
+                        newContexts.add(mappedContext);
+                    }
+                }
+                for (Map.Entry<String,ContextVersion[]> entry :
+                        changedContexts.entrySet()) {
+                    ContextVersion[] contextVersions = entry.getValue();
+                    if (contextVersions.length > 0) {
+                        MappedContext mappedContext = new MappedContext(
+                                entry.getKey(), contextVersions[0]);
+                        mappedContext.versions = contextVersions;
+                        newContexts.add(mappedContext);
+                    }
+                }
+                MappedContext[] contexts = newContexts.toArray(
+                        new MappedContext[newContexts.size()]);
+                Arrays.sort(contexts, new Comparator<MappedContext>() {
+                    @Override
+                    public int compare(MappedContext c1, MappedContext c2) {
+                        return c1.name.compareTo(c2.name);
+                    }
+                });
+                int nesting = 0;
+                for (MappedContext context : contexts) {
+                    nesting = Math.max(nesting, slashCount(context.name));
+                }
+
+                if (!changedContexts.isEmpty()) {
+                    updateContextList(mappedHost,
+                            new ContextList(contexts, nesting));
+                }
+
+                for (BatchChange change : mappedChanges) {
+                    if (change.contextVersion == null) {
+                        contextObjectToContextVersionMap.remove(change.context);
+                    } else {
+                        contextObjectToContextVersionMap.put(change.context,
+                                change.contextVersion);
+                    }
+                }
+            }
+            changes.clear();
+        }
+    }
+
+
+    private static final class BatchChange {
+
+        private final String path;
+        private final String version;
+        private final Context context;
+        // null for a removal or a pause
+        private final ContextVersion contextVersion;
+        private final boolean pause;
+
+        private BatchChange(String path, String version, Context context,
+                ContextVersion contextVersion, boolean pause) {
+            this.path = path;
+            this.version = version;
+            this.context = context;
+            this.contextVersion = contextVersion;
+            this.pause = pause;
+        }
+    }
+
+
     // ------------------------------------------------------- Host Inner Class
 
 
@@ -1656,6 +1982,11 @@ public final class Mapper {
         public MappedWrapper[] wildcardWrappers = new MappedWrapper[0];
         public MappedWrapper[] extensionWrappers = new MappedWrapper[0];
         public int nesting = 0;
+        /**
+         * The exact, wildcard and extension wrappers compiled for faster
+         * lookup, used in preference to the arrays when not null.
+         */
+        volatile CompiledWrappers compiledWrappers = null;
         private volatile boolean paused;
 
         public ContextVersion(String version, String path, int slashCount,
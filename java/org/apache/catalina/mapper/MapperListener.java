@@ -297,11 +297,14 @@ public class MapperListener extends LifecycleMBeanBase
         String[] aliases = host.findAliases();
         mapper.addHost(host.getName(), aliases, host);
 
+        // Make all the contexts of the host visible with a single update
+        Mapper.Batch batch = mapper.createBatch(host.getName(), host);
         for (Container container : host.findChildren()) {
             if (container.getState().isAvailable()) {
-                registerContext((Context) container);
+                registerContext((Context) container, batch);
             }
         }
+        batch.apply();
         if(log.isDebugEnabled()) {
             log.debug(sm.getString("mapperListener.registerHost",
                     host.getName(), domain, service));
@@ -357,13 +360,22 @@ public class MapperListener extends LifecycleMBeanBase
      * Register context.
      */
     private void registerContext(Context context) {
+        Host host = (Host) context.getParent();
+        Mapper.Batch batch = mapper.createBatch(host.getName(), host);
+        registerContext(context, batch);
+        batch.apply();
+    }
+
+
+    /**
+     * Register context as part of a batch of changes for its host.
+     */
+    private void registerContext(Context context, Mapper.Batch batch) {
 
         String contextPath = context.getPath();
         if ("/".equals(contextPath)) {
             contextPath = "";
         }
-        Host host = (Host)context.getParent();
-
         WebResourceRoot resources = context.getResources();
         String[] welcomeFiles = context.findWelcomeFiles();
         List<WrapperMappingInfo> wrappers = new ArrayList<>();
@@ -377,9 +389,8 @@ public class MapperListener extends LifecycleMBeanBase
             }
         }
 
-        mapper.addContextVersion(host.getName(), host, contextPath,
-                context.getWebappVersion(), context, welcomeFiles, resources,
-                wrappers);
+        batch.addContextVersion(contextPath, context.getWebappVersion(),
+                context, welcomeFiles, resources, wrappers);
 
         if(log.isDebugEnabled()) {
             log.debug(sm.getString("mapperListener.registerContext",
@@ -397,7 +408,8 @@ public class MapperListener extends LifecycleMBeanBase
         if ("/".equals(contextPath)) {
             contextPath = "";
         }
-        String hostName = context.getParent().getName();
+        Host host = (Host) context.getParent();
+        Mapper.Batch batch = mapper.createBatch(host.getName(), host);
 
         if (context.getPaused()) {
             if (log.isDebugEnabled()) {
@@ -405,7 +417,7 @@ public class MapperListener extends LifecycleMBeanBase
                         contextPath, service));
             }
 
-            mapper.pauseContextVersion(context, hostName, contextPath,
+            batch.pauseContextVersion(context, contextPath,
                     context.getWebappVersion());
         } else {
             if (log.isDebugEnabled()) {
@@ -413,9 +425,10 @@ public class MapperListener extends LifecycleMBeanBase
                         contextPath, service));
             }
 
-            mapper.removeContextVersion(context, hostName, contextPath,
+            batch.removeContextVersion(context, contextPath,
                     context.getWebappVersion());
         }
+        batch.apply();
     }
 
 
@@ -487,7 +500,12 @@ public class MapperListener extends LifecycleMBeanBase
         } else if (event.getType().equals(Lifecycle.BEFORE_STOP_EVENT)) {
             Object obj = event.getSource();
             if (obj instanceof Wrapper) {
-                unregisterWrapper((Wrapper) obj);
+                Wrapper w = (Wrapper) obj;
+                // Only if the Context is not stopping. If it is, then its
+                // mappings have already gone with the Context.
+                if (w.getParent().getState().isAvailable()) {
+                    unregisterWrapper(w);
+                }
             } else if (obj instanceof Context) {
                 unregisterContext((Context) obj);
             } else if (obj instanceof Host) {
@@ -249,6 +249,9 @@ public final class SecurityClassLoad {
         loader.loadClass
             (basePackage +
              "InputBuffer$1");
+        loader.loadClass
+            (basePackage +
+             "PartBuffer$ChunkInputStream");
         loader.loadClass
             (basePackage +
              "Response$1");
@@ -258,6 +261,15 @@ public final class SecurityClassLoad {
         loader.loadClass
             (basePackage +
              "Response$3");
+        loader.loadClass
+            (basePackage +
+             "StreamingParts$1");
+        loader.loadClass
+            (basePackage +
+             "StreamingParts$StreamingPart");
+        loader.loadClass
+            (basePackage +
+             "StreamingParts$CountingInputStream");
     }
 
     private static final void loadTomcatPackage(ClassLoader loader)
@@ -266,6 +278,8 @@ public final class SecurityClassLoad {
         // buf
         loader.loadClass(basePackage + "util.buf.HexUtils");
         loader.loadClass(basePackage + "util.buf.StringCache");
+        loader.loadClass(basePackage + "util.buf.StringCache$Shard");
+        loader.loadClass(basePackage + "util.buf.StringCache$Entry");
         loader.loadClass(basePackage + "util.buf.StringCache$ByteEntry");
         loader.loadClass(basePackage + "util.buf.StringCache$CharEntry");
         // http
@@ -275,6 +289,7 @@ public final class SecurityClassLoad {
                 basePackage + "util.http.FastHttpDateFormat");
         clazz.newInstance();
         loader.loadClass(basePackage + "util.http.HttpMessages");
+        loader.loadClass(basePackage + "util.http.parser.AcceptEncoding");
         loader.loadClass(basePackage + "util.http.parser.HttpParser");
         loader.loadClass(basePackage + "util.http.parser.MediaType");
         loader.loadClass(basePackage + "util.http.parser.MediaTypeCache");
@@ -29,6 +29,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.RandomAccessFile;
 import java.io.Reader;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.security.AccessController;
@@ -36,8 +37,11 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Enumeration;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.StringTokenizer;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 
 import javax.servlet.DispatcherType;
 import javax.servlet.RequestDispatcher;
@@ -70,6 +74,8 @@ import org.apache.catalina.connector.ResponseFacade;
 import org.apache.catalina.util.RequestUtil;
 import org.apache.catalina.util.ServerInfo;
 import org.apache.catalina.util.URLEncoder;
+import org.apache.catalina.webresources.CachedResource;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.security.PrivilegedGetTccl;
 import org.apache.tomcat.util.security.PrivilegedSetTccl;
@@ -194,9 +200,40 @@ public class DefaultServlet extends HttpServlet {
 
     /**
      * Should be serve gzip versions of files. By default, it's set to false.
+     * Superseded by the precompressed init parameter, which is used in
+     * preference when both are set.
      */
     protected boolean gzip = false;
 
+    /**
+     * The precompressed versions of files to serve, in order of preference
+     * when the client has no preference. By default, there are none.
+     */
+    protected CompressionFormat[] compressionFormats =
+            new CompressionFormat[0];
+
+    /**
+     * Should resources without a precompressed version be compressed with gzip
+     * and the compressed copy cached with the resource? By default, it's set
+     * to false.
+     */
+    protected boolean compressionCache = false;
+
+    /**
+     * The minimum size in bytes of the resources to compress when using the
+     * compression cache.
+     */
+    protected int compressionMinSize = 2048;
+
+    /**
+     * The MIME types of the resources to compress when using the compression
+     * cache.
+     */
+    protected String[] compressableMimeTypes = { "text/html", "text/xml",
+            "text/plain", "text/css", "text/javascript",
+            "application/javascript", "application/json", "application/xml",
+            "image/svg+xml" };
+
     /**
      * The output buffer size to use when serving resources.
      */
@@ -283,6 +320,30 @@ public class DefaultServlet extends HttpServlet {
         if (getServletConfig().getInitParameter("gzip") != null)
             gzip = Boolean.parseBoolean(getServletConfig().getInitParameter("gzip"));
 
+        String precompressed = getServletConfig().getInitParameter("precompressed");
+        if (precompressed != null) {
+            compressionFormats = parseCompressionFormats(precompressed);
+        } else if (gzip) {
+            compressionFormats = new CompressionFormat[] {
+                    new CompressionFormat(".gz", "gzip") };
+        }
+
+        if (getServletConfig().getInitParameter("compressionCache") != null)
+            compressionCache = Boolean.parseBoolean(getServletConfig().getInitParameter("compressionCache"));
+
+        if (getServletConfig().getInitParameter("compressionMinSize") != null)
+            compressionMinSize = Integer.parseInt(getServletConfig().getInitParameter("compressionMinSize"));
+
+        if (getServletConfig().getInitParameter("compressableMimeTypes") != null) {
+            StringTokenizer st = new StringTokenizer(
+                    getServletConfig().getInitParameter("compressableMimeTypes"), ",");
+            List<String> mimeTypes = new ArrayList<>();
+            while (st.hasMoreTokens()) {
+                mimeTypes.add(st.nextToken().trim());
+            }
+            compressableMimeTypes = mimeTypes.toArray(new String[mimeTypes.size()]);
+        }
+
         if (getServletConfig().getInitParameter("sendfileSize") != null)
             sendfileSize =
                 Integer.parseInt(getServletConfig().getInitParameter("sendfileSize")) * 1024;
@@ -787,31 +848,40 @@ public class DefaultServlet extends HttpServlet {
         }
 
 
-        // Serve a gzipped version of the file if present
-        boolean usingGzippedVersion = false;
-        if (gzip && !included && resource.isFile() && !path.endsWith(".gz")) {
-            WebResource gzipResource = resources.getResource(path + ".gz");
-            if (gzipResource.exists() && gzipResource.isFile()) {
-                Collection<String> varyHeaders = response.getHeaders("Vary");
-                boolean addRequired = true;
-                for (String varyHeader : varyHeaders) {
-                    if ("*".equals(varyHeader) ||
-                            "accept-encoding".equalsIgnoreCase(varyHeader)) {
-                        addRequired = false;
-                        break;
-                    }
-                }
-                if (addRequired) {
-                    response.addHeader("Vary", "accept-encoding");
-                }
-                if (checkIfGzip(request)) {
-                    response.addHeader("Content-Encoding", "gzip");
-                    resource = gzipResource;
-                    usingGzippedVersion = true;
+        // Serve a precompressed version of the file if present
+        boolean usingPrecompressedVersion = false;
+        if (compressionFormats.length > 0 && !included && resource.isFile() &&
+                !pathEndsWithCompressedExtension(path)) {
+            List<PrecompressedResource> precompressedResources =
+                    getAvailablePrecompressedResources(path);
+            if (!precompressedResources.isEmpty()) {
+                addVaryAcceptEncoding(response);
+                PrecompressedResource bestResource =
+                        getBestPrecompressedResource(request, precompressedResources);
+                if (bestResource != null) {
+                    response.addHeader("Content-Encoding",
+                            bestResource.format.encoding);
+                    resource = bestResource.resource;
+                    usingPrecompressedVersion = true;
                 }
             }
         }
 
+        // Otherwise serve a compressed copy of the file, compressing it the
+        // first time it is requested and caching the copy with the resource.
+        // Ranges are only served from the file itself.
+        byte[] compressedContent = null;
+        if (compressionCache && !usingPrecompressedVersion && !included &&
+                !isError && resource.isFile() &&
+                request.getHeader("Range") == null &&
+                isCompressable(resource, contentType)) {
+            addVaryAcceptEncoding(response);
+            if (AcceptEncoding.getQuality(getAcceptEncodings(request),
+                    "gzip") > 0) {
+                compressedContent = getCompressedContent(resource);
+            }
+        }
+
         ArrayList<Range> ranges = null;
         long contentLength = -1L;
 
@@ -842,7 +912,11 @@ public class DefaultServlet extends HttpServlet {
             }
 
             // Get content length
-            contentLength = resource.getContentLength();
+            if (compressedContent == null) {
+                contentLength = resource.getContentLength();
+            } else {
+                contentLength = compressedContent.length;
+            }
             // Special case for zero length files, which would cause a
             // (silent) ISE when setting the output buffer size
             if (contentLength == 0L) {
@@ -858,9 +932,14 @@ public class DefaultServlet extends HttpServlet {
             try {
                 ostream = response.getOutputStream();
             } catch (IllegalStateException e) {
+                // The compressed copy can only be written to the output stream
+                if (compressedContent != null) {
+                    compressedContent = null;
+                    contentLength = resource.getContentLength();
+                }
                 // If it fails, we try to get a Writer instead if we're
                 // trying to serve a text file
-                if (!usingGzippedVersion &&
+                if (!usingPrecompressedVersion &&
                         ((contentType == null) ||
                                 (contentType.startsWith("text")) ||
                                 (contentType.endsWith("xml")) ||
@@ -875,6 +954,11 @@ public class DefaultServlet extends HttpServlet {
             }
         }
 
+        if (compressedContent != null) {
+            response.addHeader("Content-Encoding", "gzip");
+            response.setHeader("ETag", getCompressedETag(eTag));
+        }
+
         // Check to see if a Filter, Valve of wrapper has written some content.
         // If it has, disable range requests and setting of a content length
         // since neither can be done reliably.
@@ -935,6 +1019,9 @@ public class DefaultServlet extends HttpServlet {
                     // Output is via an InputStream
                     if (resource.isDirectory()) {
                         renderResult = render(getPathPrefix(request), resource);
+                    } else if (compressedContent != null) {
+                        // Output is the cached compressed copy of the resource
+                        ostream.write(compressedContent);
                     } else {
                         // Output is content of resource
                         if (!checkSendfile(request, response, resource,
@@ -1809,6 +1896,9 @@ public class DefaultServlet extends HttpServlet {
             throws IOException {
 
         String eTag = resource.getETag();
+        // The client may hold the compressed copy served from the cache
+        String compressedETag = (compressionCache && eTag != null) ?
+                getCompressedETag(eTag) : null;
         String headerValue = request.getHeader("If-None-Match");
         if (headerValue != null) {
 
@@ -1820,9 +1910,13 @@ public class DefaultServlet extends HttpServlet {
                     new StringTokenizer(headerValue, ",");
 
                 while (!conditionSatisfied && commaTokenizer.hasMoreTokens()) {
-                    String currentToken = commaTokenizer.nextToken();
-                    if (currentToken.trim().equals(eTag))
+                    String currentToken = commaTokenizer.nextToken().trim();
+                    if (currentToken.equals(eTag)) {
                         conditionSatisfied = true;
+                    } else if (currentToken.equals(compressedETag)) {
+                        conditionSatisfied = true;
+                        eTag = compressedETag;
+                    }
                 }
 
             } else {
@@ -1849,13 +1943,218 @@ public class DefaultServlet extends HttpServlet {
         return true;
     }
 
+    /**
+     * Parse the value of the precompressed init parameter.
+     *
+     * @param precompressed "true" for Brotli (.br) then gzip (.gz) versions
+     *                      of files, "false" for none, or a list of entries
+     *                      separated by ',' of a content coding '=' the file
+     *                      extension, e.g. "br=.br,gzip=.gz"
+     *
+     * @return the compression formats in order of preference
+     */
+    protected CompressionFormat[] parseCompressionFormats(String precompressed) {
+        if (precompressed.equalsIgnoreCase("true")) {
+            return new CompressionFormat[] {
+                    new CompressionFormat(".br", "br"),
+                    new CompressionFormat(".gz", "gzip") };
+        }
+        if (precompressed.equalsIgnoreCase("false")) {
+            return new CompressionFormat[0];
+        }
+        List<CompressionFormat> formats = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(precompressed, ",");
+        while (st.hasMoreTokens()) {
+            String entry = st.nextToken().trim();
+            int equals = entry.indexOf('=');
+            if (equals < 1 || equals == entry.length() - 1) {
+                throw new IllegalArgumentException(sm.getString(
+                        "defaultServlet.precompressed.invalid", entry));
+            }
+            formats.add(new CompressionFormat(
+                    entry.substring(equals + 1).trim(),
+                    entry.substring(0, equals).trim().toLowerCase(Locale.ENGLISH)));
+        }
+        return formats.toArray(new CompressionFormat[formats.size()]);
+    }
+
+
+    private boolean pathEndsWithCompressedExtension(String path) {
+        for (CompressionFormat format : compressionFormats) {
+            if (path.endsWith(format.extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    private List<PrecompressedResource> getAvailablePrecompressedResources(
+            String path) {
+        List<PrecompressedResource> precompressedResources =
+                new ArrayList<>(compressionFormats.length);
+        for (CompressionFormat format : compressionFormats) {
+            WebResource precompressedResource =
+                    resources.getResource(path + format.extension);
+            if (precompressedResource.exists() && precompressedResource.isFile()) {
+                precompressedResources.add(
+                        new PrecompressedResource(precompressedResource, format));
+            }
+        }
+        return precompressedResources;
+    }
+
+
+    /**
+     * Match the client preferred encoding formats to the available
+     * precompressed resources.
+     *
+     * @param request   The servlet request we are processing
+     * @param precompressedResources   List of available precompressed
+     *                                 resources, in order of preference
+     * @return The best matching precompressed resource or <code>null</code>
+     *         if no match was found
+     */
+    private PrecompressedResource getBestPrecompressedResource(
+            HttpServletRequest request,
+            List<PrecompressedResource> precompressedResources) {
+        List<AcceptEncoding> acceptEncodings = getAcceptEncodings(request);
+        PrecompressedResource bestResource = null;
+        double bestQuality = 0;
+        for (PrecompressedResource precompressedResource : precompressedResources) {
+            double quality = AcceptEncoding.getQuality(acceptEncodings,
+                    precompressedResource.format.encoding);
+            if (quality > bestQuality) {
+                bestResource = precompressedResource;
+                bestQuality = quality;
+            }
+        }
+        return bestResource;
+    }
+
+
+    private static List<AcceptEncoding> getAcceptEncodings(
+            HttpServletRequest request) {
+        List<AcceptEncoding> acceptEncodings = new ArrayList<>();
+        Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+        while (headers.hasMoreElements()) {
+            try {
+                acceptEncodings.addAll(AcceptEncoding.parse(
+                        new StringReader(headers.nextElement())));
+            } catch (IOException e) {
+                // Not possible with a StringReader
+            }
+        }
+        return acceptEncodings;
+    }
+
+
+    private static void addVaryAcceptEncoding(HttpServletResponse response) {
+        Collection<String> varyHeaders = response.getHeaders("Vary");
+        for (String varyHeader : varyHeaders) {
+            if ("*".equals(varyHeader) ||
+                    "accept-encoding".equalsIgnoreCase(varyHeader)) {
+                return;
+            }
+        }
+        response.addHeader("Vary", "accept-encoding");
+    }
+
+
+    /**
+     * Should the resource be compressed when using the compression cache?
+     * Resources whose content is too large to be cached are not compressed
+     * since they would have to be compressed again for every request.
+     *
+     * @param resource      The resource
+     * @param contentType   The content type of the resource
+     * @return <code>true</code> if the resource should be compressed
+     */
+    protected boolean isCompressable(WebResource resource, String contentType) {
+        long contentLength = resource.getContentLength();
+        if (contentLength < compressionMinSize || contentType == null ||
+                !resources.isCachingAllowed() ||
+                contentLength > resources.getCacheObjectMaxSize() * 1024L) {
+            return false;
+        }
+        for (String compressableMimeType : compressableMimeTypes) {
+            if (contentType.startsWith(compressableMimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+
+    /**
+     * Obtain the content of the resource compressed with gzip, compressing it
+     * and caching the compressed copy with the resource if it has not been
+     * compressed before.
+     *
+     * @param resource  The resource
+     * @return The compressed content or <code>null</code> if the content of the
+     *         resource is not available
+     * @throws IOException if the resource cannot be compressed
+     */
+    protected byte[] getCompressedContent(WebResource resource)
+            throws IOException {
+        // Only the entries of the resource cache hold compressed copies
+        if (!(resource instanceof CachedResource)) {
+            return null;
+        }
+        CachedResource cachedResource = (CachedResource) resource;
+        byte[] compressedContent = cachedResource.getCompressedContent("gzip");
+        if (compressedContent != null) {
+            return compressedContent;
+        }
+        byte[] content = resource.getContent();
+        if (content == null) {
+            return null;
+        }
+        // The result is reused so take the time to compress it well
+        ByteArrayOutputStream baos =
+                new ByteArrayOutputStream(content.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(baos) {
+            {
+                def.setLevel(Deflater.BEST_COMPRESSION);
+            }
+        }) {
+            gzip.write(content);
+        }
+        compressedContent = baos.toByteArray();
+        cachedResource.setCompressedContent("gzip", compressedContent);
+        return compressedContent;
+    }
+
+
+    /**
+     * Obtain the ETag of the gzip compressed copy of a resource. It must
+     * differ from the ETag of the resource itself as the two representations
+     * have different content codings.
+     *
+     * @param eTag  The ETag of the resource
+     * @return the ETag of the compressed copy
+     */
+    protected static String getCompressedETag(String eTag) {
+        if (eTag.endsWith("\"")) {
+            return eTag.substring(0, eTag.length() - 1) + "-gzip\"";
+        }
+        return eTag + "-gzip";
+    }
+
+
     /**
      * Check if the user agent supports gzip encoding.
      *
      * @param request   The servlet request we are processing
      * @return boolean true if the user agent supports gzip encoding,
      * and false if the user agent does not support gzip encoding
+     *
+     * @deprecated Unused. Will be removed in Tomcat 9. The content coding of
+     *             precompressed files is selected from the Accept-Encoding
+     *             headers taking the quality values into account.
      */
+    @Deprecated
     protected boolean checkIfGzip(HttpServletRequest request) {
         Enumeration<String> headers = request.getHeaders("Accept-Encoding");
         while (headers.hasMoreElements()) {
@@ -2195,6 +2494,33 @@ public class DefaultServlet extends HttpServlet {
     }
 
 
+    protected static class CompressionFormat implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        public final String extension;
+        public final String encoding;
+
+        public CompressionFormat(String extension, String encoding) {
+            this.extension = extension;
+            this.encoding = encoding;
+        }
+    }
+
+
+    private static class PrecompressedResource {
+
+        public final WebResource resource;
+        public final CompressionFormat format;
+
+        private PrecompressedResource(WebResource resource,
+                CompressionFormat format) {
+            this.resource = resource;
+            this.format = format;
+        }
+    }
+
+
     /**
      * This is secure in the sense that any attempt to use an external entity
      * will trigger an exception.
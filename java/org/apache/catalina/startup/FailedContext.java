@@ -308,6 +308,11 @@ public class FailedContext extends LifecycleMBeanBase implements Context {
     @Override
     public void setAllowCasualMultipartParsing(
             boolean allowCasualMultipartParsing) { /* NO-OP */ }
+    @Override
+    public boolean getStreamingMultipartParsing() { return false; }
+    @Override
+    public void setStreamingMultipartParsing(
+            boolean streamingMultipartParsing) { /* NO-OP */ }
 
     @Override
     public Object[] getApplicationEventListeners() { return null; }
@@ -448,7 +448,14 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      * discarded. The default is 256 characters. This should be set to larger
      * than the typical access log message size.
      */
-    private int maxLogMessageBufferSize = 256;
+    protected int maxLogMessageBufferSize = 256;
+
+    /**
+     * Record pool used to capture log messages that are formatted later. Pool
+     * used to reduce garbage generation.
+     */
+    private SynchronizedStack<AccessLogRecord> accessLogRecords =
+            new SynchronizedStack<>();
 
     // ------------------------------------------------------------- Properties
 
@@ -630,6 +637,16 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         long start = request.getCoyoteRequest().getStartTime();
         Date date = getDate(start + time);
 
+        if (isDeferred()) {
+            AccessLogRecord record = accessLogRecords.pop();
+            if (record == null) {
+                record = new AccessLogRecord();
+            }
+            record.capture(logElements, date, request, response, time);
+            log(record);
+            return;
+        }
+
         CharArrayWriter result = charArrayWriters.pop();
         if (result == null) {
             result = new CharArrayWriter(128);
@@ -657,6 +674,55 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
      */
     protected abstract void log(CharArrayWriter message);
 
+
+    /**
+     * Are log messages captured and passed to {@link #log(AccessLogRecord)}
+     * rather than formatted on the request thread? The default is
+     * <code>false</code>.
+     */
+    protected boolean isDeferred() {
+        return false;
+    }
+
+
+    /**
+     * Log the message captured in the specified record. Only called if
+     * {@link #isDeferred()} returns <code>true</code>. Implementations that
+     * format the message later must pass the record to
+     * {@link #recycle(AccessLogRecord)} once they have done so.
+     *
+     * @param record Record holding the message to be logged
+     */
+    protected void log(AccessLogRecord record) {
+        CharArrayWriter result = charArrayWriters.pop();
+        if (result == null) {
+            result = new CharArrayWriter(128);
+        }
+
+        record.format(result);
+        recycle(record);
+
+        log(result);
+
+        if (result.size() <= maxLogMessageBufferSize) {
+            result.reset();
+            charArrayWriters.push(result);
+        }
+    }
+
+
+    /**
+     * Return a record to the pool once its message has been formatted.
+     *
+     * @param record The record to recycle
+     */
+    protected void recycle(AccessLogRecord record) {
+        if (record.size() <= maxLogMessageBufferSize) {
+            record.recycle();
+            accessLogRecords.push(record);
+        }
+    }
+
     // -------------------------------------------------------- Private Methods
 
     /**
@@ -729,6 +795,83 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
 
     }
 
+    /**
+     * AccessLogElement that can capture what it writes as a number while the
+     * request and response are available and write it later, possibly from
+     * another thread.
+     */
+    protected interface DeferredAccessLogElement extends AccessLogElement {
+        public long capture(Date date, Request request, Response response,
+                long time);
+
+        public void addElement(CharArrayWriter buf, long value);
+    }
+
+    /**
+     * The values captured from a request and response for one log message, so
+     * that the message can be formatted after they have been recycled.
+     * Elements that cannot be deferred are written as text when the message is
+     * captured.
+     */
+    protected static final class AccessLogRecord {
+
+        private final RecordBuffer text = new RecordBuffer();
+        private AccessLogElement[] elements = null;
+        private int[] textEnd = new int[0];
+        private long[] values = new long[0];
+
+        protected void capture(AccessLogElement[] elements, Date date,
+                Request request, Response response, long time) {
+            this.elements = elements;
+            if (values.length < elements.length) {
+                textEnd = new int[elements.length];
+                values = new long[elements.length];
+            }
+            for (int i = 0; i < elements.length; i++) {
+                if (elements[i] instanceof DeferredAccessLogElement) {
+                    values[i] = ((DeferredAccessLogElement) elements[i]).capture(
+                            date, request, response, time);
+                } else {
+                    elements[i].addElement(text, date, request, response, time);
+                }
+                textEnd[i] = text.size();
+            }
+        }
+
+        protected void format(CharArrayWriter buf) {
+            int textStart = 0;
+            for (int i = 0; i < elements.length; i++) {
+                if (elements[i] instanceof DeferredAccessLogElement) {
+                    ((DeferredAccessLogElement) elements[i]).addElement(
+                            buf, values[i]);
+                } else {
+                    text.writeTo(buf, textStart, textEnd[i]);
+                }
+                textStart = textEnd[i];
+            }
+        }
+
+        protected int size() {
+            return text.size();
+        }
+
+        protected void recycle() {
+            elements = null;
+            text.reset();
+        }
+    }
+
+    private static final class RecordBuffer extends CharArrayWriter {
+
+        RecordBuffer() {
+            super(128);
+        }
+
+        void writeTo(CharArrayWriter out, int start, int end) {
+            out.write(buf, start, end - start);
+        }
+    }
+
     /**
      * write thread name - %I
      */
@@ -868,7 +1011,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write date and time, in configurable format (default CLF) - %t or %t{format}
      */
-    protected class DateAndTimeElement implements AccessLogElement {
+    protected class DateAndTimeElement implements DeferredAccessLogElement {
 
         /**
          * Format prefix specifying request start time
@@ -988,11 +1131,22 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            addElement(buf, capture(date, request, response, time));
+        }
+
+        @Override
+        public long capture(Date date, Request request, Response response,
+                long time) {
             long timestamp = date.getTime();
-            long frac;
             if (usesBegin) {
                 timestamp -= time;
             }
+            return timestamp;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, long timestamp) {
+            long frac;
             switch (type) {
             case CLF:
                 buf.append(localDateCache.get().getFormat(timestamp));
@@ -1070,13 +1224,29 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write HTTP status code of the response - %s
      */
-    protected static class HttpStatusCodeElement implements AccessLogElement {
+    protected static class HttpStatusCodeElement
+            implements DeferredAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            addElement(buf, capture(date, request, response, time));
+        }
+
+        @Override
+        public long capture(Date date, Request request, Response response,
+                long time) {
             if (response != null) {
+                return response.getStatus();
+            } else {
+                return -1;
+            }
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, long value) {
+            if (value >= 0) {
                 // This approach is used to reduce GC from toString conversion
-                int status = response.getStatus();
+                int status = (int) value;
                 if (100 <= status && status < 1000) {
                     buf.append((char) ('0' + (status / 100)))
                             .append((char) ('0' + ((status / 10) % 10)))
@@ -1113,7 +1283,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write bytes sent, excluding HTTP headers - %b, %B
      */
-    protected static class ByteSentElement implements AccessLogElement {
+    protected static class ByteSentElement implements DeferredAccessLogElement {
         private final boolean conversion;
 
         /**
@@ -1126,6 +1296,12 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            addElement(buf, capture(date, request, response, time));
+        }
+
+        @Override
+        public long capture(Date date, Request request, Response response,
+                long time) {
             // Don't need to flush since trigger for log message is after the
             // response has been committed
             long length = response.getBytesWritten(false);
@@ -1143,6 +1319,11 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
                     }
                 }
             }
+            return length;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, long length) {
             if (length <= 0 && conversion) {
                 buf.append('-');
             } else {
@@ -1167,7 +1348,7 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write time taken to process the request - %D, %T
      */
-    protected static class ElapsedTimeElement implements AccessLogElement {
+    protected static class ElapsedTimeElement implements DeferredAccessLogElement {
         private final boolean millis;
 
         /**
@@ -1181,6 +1362,17 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request,
                 Response response, long time) {
+            addElement(buf, time);
+        }
+
+        @Override
+        public long capture(Date date, Request request, Response response,
+                long time) {
+            return time;
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, long time) {
             if (millis) {
                 buf.append(Long.toString(time));
             } else {
@@ -1199,14 +1391,29 @@ public abstract class AbstractAccessLogValve extends ValveBase implements Access
     /**
      * write time until first byte is written (commit time) in millis - %F
      */
-    protected static class FirstByteTimeElement implements AccessLogElement {
+    protected static class FirstByteTimeElement
+            implements DeferredAccessLogElement {
         @Override
         public void addElement(CharArrayWriter buf, Date date, Request request, Response response, long time) {
+            addElement(buf, capture(date, request, response, time));
+        }
+
+        @Override
+        public long capture(Date date, Request request, Response response,
+                long time) {
             long commitTime = response.getCoyoteResponse().getCommitTime();
             if (commitTime == -1) {
+                return -1;
+            } else {
+                return commitTime - request.getCoyoteRequest().getStartTime();
+            }
+        }
+
+        @Override
+        public void addElement(CharArrayWriter buf, long delta) {
+            if (delta == -1) {
                 buf.append('-');
             } else {
-                long delta = commitTime - request.getCoyoteRequest().getStartTime();
                 buf.append(Long.toString(delta));
             }
         }
@@ -28,9 +28,16 @@ import java.io.UnsupportedEncodingException;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.catalina.LifecycleException;
 import org.apache.juli.logging.Log;
@@ -59,11 +66,24 @@ import org.apache.tomcat.util.buf.B2CConverter;
  * been made available to allow you to tell this instance to move
  * the existing log file to somewhere else and start writing a new log file.
  * </p>
+ *
+ * <p>
+ * If <code>asyncQueueSize</code> is greater than zero, request threads only
+ * capture the values to be logged and queue them. A dedicated thread formats
+ * the log messages and writes them to the log file in batches, so request
+ * threads never wait for the log file.
+ * </p>
  */
 public class AccessLogValve extends AbstractAccessLogValve {
 
     private static final Log log = LogFactory.getLog(AccessLogValve.class);
 
+    /**
+     * The number of characters the writer thread formats before passing them
+     * to the log file writer.
+     */
+    private static final int ASYNC_BUFFER_SIZE = 8192;
+
     //------------------------------------------------------ Constructor
     public AccessLogValve() {
         super();
@@ -156,6 +176,40 @@ public class AccessLogValve extends AbstractAccessLogValve {
      */
     protected String encoding = null;
 
+    /**
+     * The number of log messages that may be waiting to be written by the
+     * writer thread. Zero means messages are written by the request threads.
+     */
+    private int asyncQueueSize = 0;
+
+    /**
+     * Are log messages dropped, rather than request threads blocked, when the
+     * queue of the writer thread is full?
+     */
+    private boolean asyncDropWhenFull = false;
+
+    /**
+     * The log messages waiting to be written by the writer thread, if any.
+     */
+    private volatile BlockingQueue<AccessLogRecord> asyncQueue = null;
+
+    /**
+     * Buffer the writer thread formats a batch of log messages into. Only used
+     * while holding the monitor of this valve.
+     */
+    private final CharArrayWriter asyncBuffer =
+            new CharArrayWriter(ASYNC_BUFFER_SIZE);
+
+    /**
+     * The thread that writes the queued log messages.
+     */
+    private AsyncWriter asyncWriter = null;
+
+    /**
+     * The number of log messages dropped because the queue was full.
+     */
+    private final AtomicLong asyncDroppedCount = new AtomicLong(0);
+
     // ------------------------------------------------------------- Properties
 
 
@@ -338,6 +392,68 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
     }
 
+    /**
+     * Return the number of log messages that may be waiting to be written by
+     * the writer thread. Zero means messages are written by request threads.
+     */
+    public int getAsyncQueueSize() {
+        return asyncQueueSize;
+    }
+
+
+    /**
+     * Set the number of log messages that may be waiting to be written by the
+     * writer thread. Takes effect the next time the valve is started.
+     *
+     * @param asyncQueueSize The new queue size, or zero to write messages on
+     *                       the request threads
+     */
+    public void setAsyncQueueSize(int asyncQueueSize) {
+        this.asyncQueueSize = asyncQueueSize;
+    }
+
+
+    /**
+     * Are log messages dropped when the queue of the writer thread is full?
+     */
+    public boolean isAsyncDropWhenFull() {
+        return asyncDropWhenFull;
+    }
+
+
+    /**
+     * Set whether log messages are dropped, rather than request threads
+     * blocked until there is space, when the queue of the writer thread is
+     * full.
+     *
+     * @param asyncDropWhenFull true to drop log messages
+     */
+    public void setAsyncDropWhenFull(boolean asyncDropWhenFull) {
+        this.asyncDropWhenFull = asyncDropWhenFull;
+    }
+
+
+    /**
+     * Return the number of log messages waiting to be written by the writer
+     * thread.
+     */
+    public int getAsyncQueueDepth() {
+        BlockingQueue<AccessLogRecord> queue = asyncQueue;
+        if (queue == null) {
+            return 0;
+        }
+        return queue.size();
+    }
+
+
+    /**
+     * Return the number of log messages dropped because the queue of the
+     * writer thread was full.
+     */
+    public long getAsyncDroppedCount() {
+        return asyncDroppedCount.get();
+    }
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -514,6 +630,113 @@ public class AccessLogValve extends AbstractAccessLogValve {
     @Override
     public void log(CharArrayWriter message) {
 
+        checkLogFile();
+
+        // Log this message
+        try {
+            synchronized(this) {
+                if (writer != null) {
+                    message.writeTo(writer);
+                    writer.println("");
+                    if (!buffered) {
+                        writer.flush();
+                    }
+                }
+            }
+        } catch (IOException ioe) {
+            log.warn(sm.getString(
+                    "accessLogValve.writeFail", message.toString()), ioe);
+        }
+    }
+
+
+    @Override
+    protected boolean isDeferred() {
+        return asyncQueue != null;
+    }
+
+
+    /**
+     * Queue a captured log message for the writer thread.
+     *
+     * @param record Record holding the message to be logged
+     */
+    @Override
+    protected void log(AccessLogRecord record) {
+
+        BlockingQueue<AccessLogRecord> queue = asyncQueue;
+        if (queue == null) {
+            super.log(record);
+            return;
+        }
+
+        boolean queued = false;
+        try {
+            if (asyncDropWhenFull) {
+                queued = queue.offer(record);
+            } else {
+                // Stop waiting for space if the valve stops
+                while (!queued && asyncQueue == queue) {
+                    queued = queue.offer(record, 100, TimeUnit.MILLISECONDS);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (asyncQueue != queue && (!queued || queue.remove(record))) {
+            // The valve stopped and may already have written what was queued
+            write(Collections.singletonList(record));
+        } else if (!queued) {
+            asyncDroppedCount.incrementAndGet();
+            recycle(record);
+        }
+    }
+
+
+    /**
+     * Format a batch of queued log messages and write them to the log file,
+     * switching files if the date has changed since the previous batch.
+     */
+    private void write(List<AccessLogRecord> records) {
+
+        checkLogFile();
+
+        synchronized(this) {
+            try {
+                if (writer != null) {
+                    for (AccessLogRecord record : records) {
+                        record.format(asyncBuffer);
+                        asyncBuffer.append(System.lineSeparator());
+                        if (asyncBuffer.size() >= ASYNC_BUFFER_SIZE) {
+                            asyncBuffer.writeTo(writer);
+                            asyncBuffer.reset();
+                        }
+                    }
+                    asyncBuffer.writeTo(writer);
+                    if (!buffered) {
+                        writer.flush();
+                    }
+                }
+            } catch (IOException ioe) {
+                log.warn(sm.getString("accessLogValve.writeFail",
+                        asyncBuffer.toString()), ioe);
+            } finally {
+                asyncBuffer.reset();
+            }
+        }
+        for (AccessLogRecord record : records) {
+            recycle(record);
+        }
+    }
+
+
+    /**
+     * Rotate the log file if necessary and reopen it if something external
+     * rotated it.
+     */
+    private void checkLogFile() {
+
         rotate();
 
         /* In case something external rotated the file instead */
@@ -535,22 +758,6 @@ public class AccessLogValve extends AbstractAccessLogValve {
                 }
             }
         }
-
-        // Log this message
-        try {
-            synchronized(this) {
-                if (writer != null) {
-                    message.writeTo(writer);
-                    writer.println("");
-                    if (!buffered) {
-                        writer.flush();
-                    }
-                }
-            }
-        } catch (IOException ioe) {
-            log.warn(sm.getString(
-                    "accessLogValve.writeFail", message.toString()), ioe);
-        }
     }
 
 
@@ -608,6 +815,12 @@ public class AccessLogValve extends AbstractAccessLogValve {
         }
         open();
 
+        if (asyncQueueSize > 0) {
+            asyncQueue = new ArrayBlockingQueue<>(asyncQueueSize);
+            asyncWriter = new AsyncWriter(asyncQueue);
+            asyncWriter.start();
+        }
+
         super.startInternal();
     }
 
@@ -623,6 +836,71 @@ public class AccessLogValve extends AbstractAccessLogValve {
     protected synchronized void stopInternal() throws LifecycleException {
 
         super.stopInternal();
+        if (asyncWriter != null) {
+            // Stop accepting log messages, then let the writer thread write
+            // the queued ones before the log file is closed. It needs the
+            // monitor that is held here, so wait() on it rather than join().
+            BlockingQueue<AccessLogRecord> queue = asyncQueue;
+            asyncQueue = null;
+            asyncWriter.running = false;
+            while (asyncWriter.isAlive()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+            }
+            asyncWriter = null;
+
+            // Write anything queued by request threads that had already
+            // started to queue a message when the writer thread stopped
+            List<AccessLogRecord> batch = new ArrayList<>();
+            queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
         close(false);
     }
+
+
+    /**
+     * The thread that writes the queued log messages to the log file.
+     */
+    private class AsyncWriter extends Thread {
+
+        private final BlockingQueue<AccessLogRecord> queue;
+        private volatile boolean running = true;
+
+        public AsyncWriter(BlockingQueue<AccessLogRecord> queue) {
+            super("AccessLogWriter-" + prefix);
+            this.queue = queue;
+            setDaemon(true);
+            // Don't pin the class loader of a web application
+            setContextClassLoader(AccessLogValve.class.getClassLoader());
+        }
+
+        @Override
+        public void run() {
+            List<AccessLogRecord> batch = new ArrayList<>();
+            while (true) {
+                AccessLogRecord record = null;
+                try {
+                    record = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                if (record == null) {
+                    if (!running) {
+                        break;
+                    }
+                    continue;
+                }
+                batch.add(record);
+                queue.drainTo(batch);
+                write(batch);
+                batch.clear();
+            }
+        }
+    }
 }
@@ -245,6 +245,30 @@ public class Cache {
         }
     }
 
+    void addCompressedContent(CachedResource cacheEntry, long delta) {
+        String path = cacheEntry.getWebappPath();
+        // The entry may have been removed while its content was compressed. In
+        // that case its size has already been subtracted and must not be added
+        // again.
+        if (resourceCache.get(path) != cacheEntry) {
+            return;
+        }
+        size.addAndGet(delta);
+
+        if (size.get() > maxSize) {
+            long targetSize =
+                    maxSize * (100 - TARGET_FREE_PERCENT_GET) / 100;
+            long newSize = evict(
+                    targetSize, resourceCache.values().iterator());
+            if (newSize > maxSize) {
+                // Unable to create sufficient space for the compressed content
+                // Remove the resource from the cache
+                removeCacheEntry(path);
+                log.warn(sm.getString("cache.addFail", path));
+            }
+        }
+    }
+
     public long getTtl() {
         return ttl;
     }
@@ -20,6 +20,9 @@ import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.cert.Certificate;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.jar.Manifest;
 
 import org.apache.catalina.WebResource;
@@ -54,6 +57,9 @@ public class CachedResource implements WebResource {
     private volatile Boolean cachedExists = null;
     private volatile Boolean cachedIsVirtual = null;
     private volatile Long cachedContentLength = null;
+    private volatile Map<String,byte[]> cachedCompressedContent =
+            Collections.emptyMap();
+    private long cachedCompressedContentSize = 0;
 
 
     public CachedResource(Cache cache, StandardRoot root, String path, long ttl,
@@ -285,6 +291,47 @@ public class CachedResource implements WebResource {
         return cachedContent;
     }
 
+    /**
+     * Obtain the cached copy of the content of this resource compressed with
+     * the given content coding.
+     *
+     * @param encoding  The content coding, e.g. gzip
+     *
+     * @return  The compressed content stored with
+     *          {@link #setCompressedContent(String, byte[])} or
+     *          <code>null</code> if none is cached
+     */
+    public byte[] getCompressedContent(String encoding) {
+        return cachedCompressedContent.get(encoding);
+    }
+
+    /**
+     * Cache a copy of the content of this resource compressed with the given
+     * content coding. The copy is discarded with this entry so it is never
+     * used once the content it was created from has changed.
+     *
+     * @param encoding  The content coding, e.g. gzip
+     * @param content   The compressed content
+     */
+    public void setCompressedContent(String encoding, byte[] content) {
+        if (content.length > objectMaxSizeBytes) {
+            return;
+        }
+        synchronized (this) {
+            Map<String,byte[]> current = cachedCompressedContent;
+            if (current.containsKey(encoding)) {
+                return;
+            }
+            // Copy on write as there are only ever a few content codings and
+            // reads are far more frequent than writes
+            Map<String,byte[]> updated = new HashMap<>(current);
+            updated.put(encoding, content);
+            cachedCompressedContent = updated;
+            cachedCompressedContentSize += content.length;
+        }
+        cache.addCompressedContent(this, content.length);
+    }
+
     @Override
     public long getCreation() {
         return webResource.getCreation();
@@ -325,12 +372,16 @@ public class CachedResource implements WebResource {
 
     // Assume that the cache entry will always include the content unless the
     // resource content is larger than objectMaxSizeBytes. This isn't always the
-    // case but it makes tracking the current cache size easier.
+    // case but it makes tracking the current cache size easier. Compressed
+    // copies of the content are only counted once they have been added.
     long getSize() {
         long result = CACHE_ENTRY_SIZE;
         if (getContentLength() <= objectMaxSizeBytes) {
             result += getContentLength();
         }
+        synchronized (this) {
+            result += cachedCompressedContentSize;
+        }
         return result;
     }
 }
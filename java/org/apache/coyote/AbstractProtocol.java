@@ -36,6 +36,7 @@ import javax.servlet.http.WebConnection;
 
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.ExceptionUtils;
+import org.apache.tomcat.util.buf.StringCache;
 import org.apache.tomcat.util.collections.SynchronizedStack;
 import org.apache.tomcat.util.modeler.Registry;
 import org.apache.tomcat.util.net.AbstractEndpoint;
@@ -74,6 +75,12 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     protected ObjectName tpOname = null;
 
 
+    /**
+     * Name of MBean for the String cache of this connector.
+     */
+    protected ObjectName scOname = null;
+
+
     /**
      * Unique ID for this connector. Only used if the connector is configured
      * to use a random port as the port will change if stop(), start() is
@@ -154,6 +161,23 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
     public void setClientCertProvider(String s) { this.clientCertProvider = s; }
 
 
+    /**
+     * The number of Strings held by the cache used to convert the bytes and
+     * chars of the requests processed by this connector to Strings. If zero
+     * (the default) the global cache, which is configured with system
+     * properties and is disabled by default, is used.
+     */
+    protected int stringCacheSize = 0;
+    public int getStringCacheSize() { return stringCacheSize; }
+    public void setStringCacheSize(int stringCacheSize) {
+        this.stringCacheSize = stringCacheSize;
+    }
+
+
+    protected StringCache stringCache = null;
+    public StringCache getStringCache() { return stringCache; }
+
+
     @Override
     public boolean isAprRequired() {
         return false;
@@ -450,6 +474,17 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                     getHandler().getGlobal(), rgOname, null );
         }
 
+        if (stringCacheSize > 0) {
+            stringCache = new StringCache(stringCacheSize,
+                    StringCache.getGlobal().getTrainThreshold(), true, true);
+            if (this.domain != null) {
+                scOname = new ObjectName(domain +
+                        ":type=StringCache,name=" + getName());
+                Registry.getRegistry(null, null).registerComponent(
+                        stringCache, scOname, null);
+            }
+        }
+
         String endpointName = getName();
         endpoint.setName(endpointName.substring(1, endpointName.length()-1));
 
@@ -555,6 +590,8 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
             Registry.getRegistry(null, null).unregisterComponent(tpOname);
         if (rgOname != null)
             Registry.getRegistry(null, null).unregisterComponent(rgOname);
+        if (scOname != null)
+            Registry.getRegistry(null, null).unregisterComponent(scOname);
     }
 
 
@@ -611,6 +648,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
 
             wrapper.setAsync(false);
             ContainerThreadMarker.set();
+            StringCache.bind(getProtocol().getStringCache());
 
             try {
                 if (processor == null) {
@@ -767,6 +805,7 @@ public abstract class AbstractProtocol<S> implements ProtocolHandler,
                         sm.getString("abstractConnectionHandler.error"), e);
             } finally {
                 ContainerThreadMarker.clear();
+                StringCache.bind(null);
             }
 
             // Make sure socket/processor is removed from the list of current
@@ -165,7 +165,9 @@ public class AjpNioProtocol extends AbstractAjpProtocol<NioChannel> {
             processor.recycle(isSocketClosing);
             recycledProcessors.push(processor);
             if (addToPoller) {
-                socket.getSocket().getPoller().add(socket.getSocket());
+                // The connection is idle until the next request arrives
+                socket.getSocket().releaseBuffers();
+                socket.getSocket().getPoller().addIdle(socket.getSocket());
             }
         }
 
@@ -18,12 +18,18 @@ package org.apache.coyote.http11;
 
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.io.StringReader;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
 import java.util.Locale;
 import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.Executor;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
+import java.util.zip.Deflater;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.http.HttpServletResponse;
@@ -37,6 +43,7 @@ import org.apache.coyote.RequestInfo;
 import org.apache.coyote.http11.filters.BufferedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedInputFilter;
 import org.apache.coyote.http11.filters.ChunkedOutputFilter;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.coyote.http11.filters.IdentityInputFilter;
 import org.apache.coyote.http11.filters.IdentityOutputFilter;
@@ -50,6 +57,7 @@ import org.apache.tomcat.util.buf.HexUtils;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.FastHttpDateFormat;
 import org.apache.tomcat.util.http.MimeHeaders;
+import org.apache.tomcat.util.http.parser.AcceptEncoding;
 import org.apache.tomcat.util.log.UserDataHelper;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
@@ -215,6 +223,26 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     { "text/html", "text/xml", "text/plain" };
 
 
+    /**
+     * The filters for the content codings that may be used to compress
+     * responses, in order of preference.
+     */
+    protected CompressionOutputFilter[] compressionFilters =
+            new CompressionOutputFilter[0];
+
+
+    /**
+     * The compression levels and strategies to use for the MIME types that
+     * start with the matching entry of compressionLevelMimeTypes, and for all
+     * other MIME types.
+     */
+    protected String[] compressionLevelMimeTypes = new String[0];
+    protected int[] compressionLevels = new int[0];
+    protected int[] compressionStrategies = new int[0];
+    protected int defaultCompressionLevel = Deflater.DEFAULT_COMPRESSION;
+    protected int defaultCompressionStrategy = Deflater.DEFAULT_STRATEGY;
+
+
     /**
      * Host name (used to avoid useless B2C conversion on the host name).
      */
@@ -326,6 +354,151 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Set the compression levels and strategies for MIME types.
+     * List contains entries separated by ',' of a mime-type prefix, or '*'
+     * for all other mime-types, '=' a compression level from 0 to 9,
+     * optionally followed by ':' and one of the strategies default, filtered
+     * or huffman :
+     *
+     * ie: "text/html=9,application/json=1:filtered,*=6"
+     */
+    public void setCompressionLevels(String compressionLevels) {
+        String[] mimeTypes = new String[0];
+        int[] levels = new int[0];
+        int[] strategies = new int[0];
+        int defaultLevel = Deflater.DEFAULT_COMPRESSION;
+        int defaultStrategy = Deflater.DEFAULT_STRATEGY;
+        if (compressionLevels != null) {
+            StringTokenizer st = new StringTokenizer(compressionLevels, ",");
+            while (st.hasMoreTokens()) {
+                String entry = st.nextToken().trim();
+                int equals = entry.lastIndexOf('=');
+                int level;
+                int strategy;
+                try {
+                    if (equals < 1) {
+                        throw new IllegalArgumentException();
+                    }
+                    String value = entry.substring(equals + 1).trim();
+                    int colon = value.indexOf(':');
+                    strategy = Deflater.DEFAULT_STRATEGY;
+                    if (colon > -1) {
+                        strategy = parseCompressionStrategy(
+                                value.substring(colon + 1).trim());
+                        value = value.substring(0, colon).trim();
+                    }
+                    level = Integer.parseInt(value);
+                    if (level < 0 || level > 9) {
+                        throw new IllegalArgumentException();
+                    }
+                } catch (IllegalArgumentException e) {
+                    getLog().warn(sm.getString(
+                            "http11processor.compressionLevel.invalid", entry));
+                    continue;
+                }
+                String mimeType = entry.substring(0, equals).trim();
+                if (mimeType.equals("*")) {
+                    defaultLevel = level;
+                    defaultStrategy = strategy;
+                } else {
+                    mimeTypes = addStringArray(mimeTypes, mimeType);
+                    levels = addIntArray(levels, level);
+                    strategies = addIntArray(strategies, strategy);
+                }
+            }
+        }
+        this.compressionLevelMimeTypes = mimeTypes;
+        this.compressionLevels = levels;
+        this.compressionStrategies = strategies;
+        this.defaultCompressionLevel = defaultLevel;
+        this.defaultCompressionStrategy = defaultStrategy;
+    }
+
+
+    private static int parseCompressionStrategy(String strategy) {
+        if (strategy.equals("default")) {
+            return Deflater.DEFAULT_STRATEGY;
+        } else if (strategy.equals("filtered")) {
+            return Deflater.FILTERED;
+        } else if (strategy.equals("huffman")) {
+            return Deflater.HUFFMAN_ONLY;
+        }
+        throw new IllegalArgumentException(strategy);
+    }
+
+
+    /**
+     * Set the content codings that may be used to compress responses, in
+     * order of preference. List contains entries separated by ',' of either
+     * "gzip" or the class name of a {@link CompressionOutputFilter} :
+     *
+     * ie: "com.example.BrotliOutputFilter,gzip"
+     */
+    public void setCompressionFilters(String compressionFilters) {
+        if (compressionFilters == null) {
+            return;
+        }
+        GzipOutputFilter gzipOutputFilter = (GzipOutputFilter)
+                getOutputBuffer().getFilters()[Constants.GZIP_FILTER];
+        List<CompressionOutputFilter> filters = new ArrayList<>();
+        StringTokenizer st = new StringTokenizer(compressionFilters, ",");
+        while (st.hasMoreTokens()) {
+            String name = st.nextToken().trim();
+            CompressionOutputFilter filter;
+            if (name.equals("gzip")) {
+                filter = gzipOutputFilter;
+            } else {
+                try {
+                    filter = (CompressionOutputFilter)
+                            Class.forName(name).getConstructor().newInstance();
+                } catch (Throwable e) {
+                    Throwable t = ExceptionUtils.unwrapInvocationTargetException(e);
+                    ExceptionUtils.handleThrowable(t);
+                    getLog().warn(sm.getString(
+                            "http11processor.compressionFilter.invalid", name),
+                            t);
+                    continue;
+                }
+            }
+            if (filter != gzipOutputFilter) {
+                getOutputBuffer().addFilter(filter);
+            }
+            filters.add(filter);
+        }
+        this.compressionFilters =
+                filters.toArray(new CompressionOutputFilter[filters.size()]);
+    }
+
+
+    /**
+     * Set the pool of Deflaters used to compress responses.
+     */
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        for (CompressionOutputFilter filter : compressionFilters) {
+            if (filter instanceof GzipOutputFilter) {
+                ((GzipOutputFilter) filter).setDeflaterPool(deflaterPool);
+            }
+        }
+    }
+
+
+    /**
+     * Set the executor used to compress blocks of large responses in
+     * parallel, the maximum number of blocks of a response compressed at the
+     * same time and the size of the blocks.
+     */
+    public void setCompressionExecutor(Executor executor, int threads,
+            int blockSize) {
+        for (CompressionOutputFilter filter : compressionFilters) {
+            if (filter instanceof GzipOutputFilter) {
+                ((GzipOutputFilter) filter).setExecutor(executor, threads,
+                        blockSize);
+            }
+        }
+    }
+
+
     /**
      * Return compression level.
      */
@@ -365,6 +538,20 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * General use method
+     *
+     * @param iArray the int array
+     * @param value int
+     */
+    private int[] addIntArray(int iArray[], int value) {
+        int[] result = new int[iArray.length + 1];
+        System.arraycopy(iArray, 0, result, 0, iArray.length);
+        result[iArray.length] = value;
+        return result;
+    }
+
+
     /**
      * Checks if any entry in the string array starts with the specified value
      *
@@ -477,6 +664,13 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
         return outputBuffer.getSocketBuffer();
     }
 
+    /**
+     * Set the gathering writes flag.
+     */
+    public void setGatheringWrites(boolean gatheringWrites) {
+        outputBuffer.setGatheringWrites(gatheringWrites);
+    }
+
     /**
      * Set the upload timeout.
      */
@@ -516,12 +710,12 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
      */
     private boolean isCompressable() {
 
-        // Check if content is not already gzipped
+        // Check if content is not already compressed
         MessageBytes contentEncodingMB =
             response.getMimeHeaders().getValue("Content-Encoding");
 
         if ((contentEncodingMB != null)
-            && (contentEncodingMB.indexOf("gzip") != -1)) {
+            && !contentEncodingMB.equalsIgnoreCase("identity")) {
             return false;
         }
 
@@ -545,24 +739,79 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     }
 
 
+    /**
+     * Parse the Accept-Encoding headers of the request.
+     *
+     * @return the content codings, or <code>null</code> if there are none
+     */
+    private List<AcceptEncoding> getAcceptEncodings() {
+        List<AcceptEncoding> result = null;
+        Enumeration<String> values =
+                request.getMimeHeaders().values("accept-encoding");
+        while (values.hasMoreElements()) {
+            if (result == null) {
+                result = new ArrayList<>();
+            }
+            try {
+                result.addAll(AcceptEncoding.parse(
+                        new StringReader(values.nextElement())));
+            } catch (IOException e) {
+                // Not possible with a StringReader
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Set the compression level and strategy for the content type of the
+     * response.
+     */
+    private void setCompressionLevel(GzipOutputFilter filter) {
+        String contentType = response.getContentType();
+        if (contentType != null) {
+            for (int i = 0; i < compressionLevelMimeTypes.length; i++) {
+                if (contentType.startsWith(compressionLevelMimeTypes[i])) {
+                    filter.setCompression(compressionLevels[i],
+                            compressionStrategies[i]);
+                    return;
+                }
+            }
+        }
+        filter.setCompression(defaultCompressionLevel,
+                defaultCompressionStrategy);
+    }
+
+
     /**
      * Check if compression should be used for this resource. Already checked
      * that the resource could be compressed if the client supports it.
      */
-    private boolean useCompression() {
-
-        // Check if browser support gzip encoding
-        MessageBytes acceptEncodingMB =
-            request.getMimeHeaders().getValue("accept-encoding");
+    private CompressionOutputFilter useCompression() {
+
+        // Select the content coding the browser prefers, using the order of
+        // the filters when it has no preference
+        CompressionOutputFilter filter = null;
+        double quality = 0;
+        List<AcceptEncoding> acceptEncodings = getAcceptEncodings();
+        if (acceptEncodings != null) {
+            for (CompressionOutputFilter candidate : compressionFilters) {
+                double candidateQuality = AcceptEncoding.getQuality(
+                        acceptEncodings, candidate.getEncoding());
+                if (candidateQuality > quality) {
+                    filter = candidate;
+                    quality = candidateQuality;
+                }
+            }
+        }
 
-        if ((acceptEncodingMB == null)
-            || (acceptEncodingMB.indexOf("gzip") == -1)) {
-            return false;
+        if (filter == null) {
+            return null;
         }
 
         // If force mode, always compress (test purposes only)
         if (compressionLevel == 2) {
-            return true;
+            return filter;
         }
 
         // Check for incompatible Browser
@@ -574,12 +823,12 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 
                 if (noCompressionUserAgents != null &&
                         noCompressionUserAgents.matcher(userAgentValue).matches()) {
-                        return false;
+                        return null;
                 }
             }
         }
 
-        return true;
+        return filter;
     }
 
 
@@ -669,7 +918,9 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 
         // Create and add the chunked filters.
         //getInputBuffer().addFilter(new GzipInputFilter());
-        getOutputBuffer().addFilter(new GzipOutputFilter());
+        GzipOutputFilter gzipOutputFilter = new GzipOutputFilter();
+        getOutputBuffer().addFilter(gzipOutputFilter);
+        compressionFilters = new CompressionOutputFilter[] { gzipOutputFilter };
 
         pluggableFilterIndex = getInputBuffer().getFilters().length;
     }
@@ -1140,7 +1391,7 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
                     // to be closed occurred.
                     checkExpectationAndResponseStatus();
                 }
-                endRequest();
+                endRequest(true);
             }
 
             rp.setStage(org.apache.coyote.Constants.STAGE_ENDOUTPUT);
@@ -1174,6 +1425,15 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             }
         }
 
+        // Send any responses to pipelined requests that have not been sent yet
+        if (getErrorState().isIoAllowed()) {
+            try {
+                getOutputBuffer().flushDeferred();
+            } catch (IOException e) {
+                setErrorState(ErrorState.CLOSE_NOW, e);
+            }
+        }
+
         rp.setStage(org.apache.coyote.Constants.STAGE_ENDED);
 
         if (getErrorState().isError() || endpoint.isPaused()) {
@@ -1452,14 +1712,14 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 
         // Check for compression
         boolean isCompressable = false;
-        boolean useCompression = false;
+        CompressionOutputFilter compressionFilter = null;
         if (entityBody && (compressionLevel > 0) && !sendingWithSendfile) {
             isCompressable = isCompressable();
             if (isCompressable) {
-                useCompression = useCompression();
+                compressionFilter = useCompression();
             }
             // Change content-length to -1 to force chunking
-            if (useCompression) {
+            if (compressionFilter != null) {
                 response.setContentLength(-1);
             }
         }
@@ -1503,9 +1763,13 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             }
         }
 
-        if (useCompression) {
-            getOutputBuffer().addActiveFilter(outputFilters[Constants.GZIP_FILTER]);
-            headers.setValue("Content-Encoding").setString("gzip");
+        if (compressionFilter != null) {
+            if (compressionFilter instanceof GzipOutputFilter) {
+                setCompressionLevel((GzipOutputFilter) compressionFilter);
+            }
+            getOutputBuffer().addActiveFilter(compressionFilter);
+            headers.setValue("Content-Encoding").setString(
+                    compressionFilter.getEncoding());
         }
         // If it might be compressed, set the Vary header
         if (isCompressable) {
@@ -1569,7 +1833,8 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
 
         int size = headers.size();
         for (int i = 0; i < size; i++) {
-            getOutputBuffer().sendHeader(headers.getName(i), headers.getValue(i));
+            getOutputBuffer().sendHeader(headers.getHeader(i),
+                    headers.getName(i), headers.getValue(i));
         }
         getOutputBuffer().endHeaders();
 
@@ -1778,6 +2043,20 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
     protected abstract void setCometTimeouts(SocketWrapper<S> socketWrapper);
 
     public void endRequest() {
+        endRequest(false);
+    }
+
+
+    /**
+     * Finish the current request.
+     *
+     * @param pipelining <code>true</code> if the caller will go on to process
+     *                   the next request on the connection if it has already
+     *                   been received. The end of the response may then be left
+     *                   in the socket's write buffer so the responses to
+     *                   pipelined requests are written to the socket together.
+     */
+    private void endRequest(boolean pipelining) {
 
         // Finish the handling of the request
         if (getErrorState().isIoAllowed()) {
@@ -1796,6 +2075,9 @@ public abstract class AbstractHttp11Processor<S> extends AbstractProcessor<S> {
             }
         }
         if (getErrorState().isIoAllowed()) {
+            getOutputBuffer().setNextRequestPending(pipelining && keepAlive &&
+                    !sendfileInProgress && !getErrorState().isError() &&
+                    getInputBuffer().isNextRequestBuffered());
             try {
                 getOutputBuffer().endRequest();
             } catch (IOException e) {
@@ -25,6 +25,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.http11.filters.DeflaterPool;
 
 public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
 
@@ -44,6 +45,19 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    /**
+     * Should blocking writes that do not fit in the socket write buffer be
+     * sent with a gathering write rather than copied through the buffer?
+     * Only used by the NIO and NIO2 connectors, and never with TLS on NIO.
+     * NIO disables this by default.
+     */
+    private boolean gatheringWrites = true;
+    public boolean getGatheringWrites() { return gatheringWrites; }
+    public void setGatheringWrites(boolean gatheringWrites) {
+        this.gatheringWrites = gatheringWrites;
+    }
+
+
     /**
      * Maximum size of the post which will be saved when processing certain
      * requests, such as a POST.
@@ -120,6 +134,109 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    /**
+     * Content codings used to compress responses in order of preference,
+     * each "gzip" or the class name of a CompressionOutputFilter.
+     */
+    private String compressionFilters = "gzip";
+    public String getCompressionFilters() { return compressionFilters; }
+    public void setCompressionFilters(String compressionFilters) {
+        this.compressionFilters = compressionFilters;
+    }
+
+
+    /**
+     * Compression level and strategy by MIME type, e.g.
+     * "text/html=9,application/json=1:filtered,*=6".
+     */
+    private String compressionLevels = null;
+    public String getCompressionLevels() { return compressionLevels; }
+    public void setCompressionLevels(String compressionLevels) {
+        this.compressionLevels = compressionLevels;
+    }
+
+
+    /**
+     * Maximum number of blocks of a response compressed in parallel by the
+     * executor. The default of 1 compresses each response with the thread
+     * writing it.
+     */
+    private int compressionThreads = 1;
+    public int getCompressionThreads() { return compressionThreads; }
+    public void setCompressionThreads(int compressionThreads) {
+        this.compressionThreads = compressionThreads;
+    }
+
+
+    /**
+     * Size of the blocks of a response compressed in parallel.
+     */
+    private int compressionBlockSize = 128 * 1024;
+    public int getCompressionBlockSize() { return compressionBlockSize; }
+    public void setCompressionBlockSize(int compressionBlockSize) {
+        this.compressionBlockSize = compressionBlockSize;
+    }
+
+
+    /**
+     * Maximum number of unused Deflaters to keep for compressing responses.
+     * -1 for no limit.
+     */
+    private int deflaterCache = 200;
+    public int getDeflaterCache() { return deflaterCache; }
+    public void setDeflaterCache(int deflaterCache) {
+        this.deflaterCache = deflaterCache;
+    }
+
+
+    /**
+     * Measure the CPU time used to compress responses? Disabled by default
+     * as the CPU time of the thread is queried for every write.
+     */
+    private boolean compressionCpuTimeEnabled = false;
+    public boolean getCompressionCpuTimeEnabled() {
+        return compressionCpuTimeEnabled;
+    }
+    public void setCompressionCpuTimeEnabled(boolean compressionCpuTimeEnabled) {
+        this.compressionCpuTimeEnabled = compressionCpuTimeEnabled;
+        if (deflaterPool != null) {
+            deflaterPool.setCpuTimeEnabled(compressionCpuTimeEnabled);
+        }
+    }
+
+
+    private DeflaterPool deflaterPool = null;
+
+    /**
+     * Number of bytes of responses that have been compressed.
+     */
+    public long getCompressionBytesIn() {
+        return deflaterPool == null ? 0 : deflaterPool.getBytesIn();
+    }
+
+    /**
+     * Number of bytes of compressed responses, including the gzip header and
+     * trailer.
+     */
+    public long getCompressionBytesOut() {
+        return deflaterPool == null ? 0 : deflaterPool.getBytesOut();
+    }
+
+    /**
+     * CPU time in nanoseconds used to compress responses. Only measured when
+     * compressionCpuTimeEnabled is set.
+     */
+    public long getCompressionCpuTime() {
+        return deflaterPool == null ? 0 : deflaterPool.getCpuTime();
+    }
+
+    public void resetCompressionStatistics() {
+        if (deflaterPool != null) {
+            deflaterPool.resetStatistics();
+        }
+    }
+
+
     /**
      * Regular expression that defines the User agents which should be
      * restricted to HTTP/1.0 support.
@@ -282,6 +399,25 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
     }
 
 
+    // ------------------------------------------------------- Lifecycle methods
+
+    @Override
+    public void init() throws Exception {
+        deflaterPool = new DeflaterPool(getDeflaterCache());
+        deflaterPool.setCpuTimeEnabled(getCompressionCpuTimeEnabled());
+        super.init();
+    }
+
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        if (deflaterPool != null) {
+            deflaterPool.clear();
+        }
+    }
+
+
     // ------------------------------------------------------------- Common code
 
     // Common configuration required for all new HTTP11 processors
@@ -295,8 +431,14 @@ public abstract class AbstractHttp11Protocol<S> extends AbstractProtocol<S> {
         processor.setCompression(getCompression());
         processor.setNoCompressionUserAgents(getNoCompressionUserAgents());
         processor.setCompressableMimeTypes(getCompressableMimeTypes());
+        processor.setCompressionFilters(getCompressionFilters());
+        processor.setCompressionLevels(getCompressionLevels());
+        processor.setDeflaterPool(deflaterPool);
+        processor.setCompressionExecutor(getExecutor(),
+                getCompressionThreads(), getCompressionBlockSize());
         processor.setRestrictedUserAgents(getRestrictedUserAgents());
         processor.setSocketBuffer(getSocketBuffer());
+        processor.setGatheringWrites(getGatheringWrites());
         processor.setMaxSavePostSize(getMaxSavePostSize());
         processor.setServer(getServer());
     }
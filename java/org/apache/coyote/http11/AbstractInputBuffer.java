@@ -120,6 +120,12 @@ public abstract class AbstractInputBuffer<S> implements InputBuffer{
     protected byte[] buf;
 
 
+    /**
+     * Finds the delimiters in the request line and in the header values.
+     */
+    final HttpTokenizer tokenizer = new HttpTokenizer();
+
+
     /**
      * Last valid byte.
      */
@@ -288,13 +294,16 @@ public abstract class AbstractInputBuffer<S> implements InputBuffer{
         // Recycle Request object
         request.recycle();
 
-        // Copy leftover bytes to the beginning of the buffer
-        if (lastValid - pos > 0 && pos > 0) {
-            System.arraycopy(buf, pos, buf, 0, lastValid - pos);
+        // If the whole of the next request is already in the buffer, it is
+        // parsed where it is. Otherwise, copy leftover bytes to the beginning
+        // of the buffer.
+        if (!isNextRequestBuffered()) {
+            if (lastValid - pos > 0 && pos > 0) {
+                System.arraycopy(buf, pos, buf, 0, lastValid - pos);
+            }
+            lastValid = lastValid - pos;
+            pos = 0;
         }
-        // Always reset pos to zero
-        lastValid = lastValid - pos;
-        pos = 0;
 
         // Recycle filters
         for (int i = 0; i <= lastActiveFilter; i++) {
@@ -308,6 +317,20 @@ public abstract class AbstractInputBuffer<S> implements InputBuffer{
     }
 
 
+    /**
+     * Is the request line and all the headers of the next request on this
+     * connection already in the buffer, after the end of the current request,
+     * so that the next request can be parsed without reading from the socket
+     * and without moving it to the start of the buffer? Only valid between
+     * {@link #endRequest()} and {@link #nextRequest()}.
+     *
+     * @return <code>true</code> if the next request is buffered
+     */
+    public boolean isNextRequestBuffered() {
+        return false;
+    }
+
+
     /**
      * End request (consumes leftover bytes).
      *
@@ -120,6 +120,12 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
      */
     protected int socketReadBufferSize;
 
+    /**
+     * Set by {@link #endRequest()} if the next request has already been
+     * received in full.
+     */
+    private boolean nextRequestBuffered = false;
+
     // --------------------------------------------------------- Public Methods
 
     /**
@@ -129,6 +135,7 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
     @Override
     public void recycle() {
         super.recycle();
+        nextRequestBuffered = false;
         headerParsePos = HeaderParsePosition.HEADER_START;
         parsingRequestLine = true;
         parsingRequestLinePhase = 0;
@@ -148,6 +155,7 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
     @Override
     public void nextRequest() {
         super.nextRequest();
+        nextRequestBuffered = false;
         headerParsePos = HeaderParsePosition.HEADER_START;
         parsingRequestLine = true;
         parsingRequestLinePhase = 0;
@@ -157,6 +165,50 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
         headerData.recycle();
     }
 
+    @Override
+    public void endRequest() throws IOException {
+        super.endRequest();
+        nextRequestBuffered = findNextRequest();
+    }
+
+
+    @Override
+    public boolean isNextRequestBuffered() {
+        return nextRequestBuffered;
+    }
+
+
+    /**
+     * Look for the blank line that ends the headers of the next request in the
+     * bytes left over from the current one. The headers must end early enough
+     * in the buffer to pass the checks made by {@link #parseHeaders()} had the
+     * request been moved to the start of the buffer, so that there is always
+     * room to read the body after them.
+     */
+    private boolean findNextRequest() {
+        int start = pos;
+        // Skip blank lines as parseRequestLine() does
+        while (start < lastValid &&
+                (buf[start] == Constants.CR || buf[start] == Constants.LF)) {
+            start++;
+        }
+        int limit = Math.min(lastValid,
+                Math.min(headerBufferSize, buf.length - socketReadBufferSize));
+        for (int i = start; i < limit - 1; i++) {
+            if (buf[i] == Constants.LF) {
+                if (buf[i + 1] == Constants.LF) {
+                    return true;
+                }
+                if (buf[i + 1] == Constants.CR && i + 2 < limit &&
+                        buf[i + 2] == Constants.LF) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+
     /**
      * Read the request line. This function is meant to be used during the
      * HTTP request header parsing. Do NOT attempt to read the request body
@@ -268,6 +320,14 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
                     if (!fill(false)) //request line parsing
                         return false;
                 }
+                // Skip the bytes that are not delimiters
+                int delim = tokenizer.findEndOfTarget(buf, pos, lastValid,
+                        parsingRequestLineQPos == -1);
+                if (delim < 0) {
+                    pos = lastValid;
+                    continue;
+                }
+                pos = delim;
                 if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
                     space = true;
                     end = pos;
@@ -532,6 +592,28 @@ public abstract class AbstractNioInputBuffer<S> extends AbstractInputBuffer<S> {
                         }
                     }
 
+                    // Copy the bytes up to the end of the line in one go
+                    int lineEnd = tokenizer.findEndOfLine(buf, pos, lastValid);
+                    if (lineEnd != pos) {
+                        if (lineEnd < 0) {
+                            lineEnd = lastValid;
+                        }
+                        int len = lineEnd - pos;
+                        if (headerData.realPos != pos) {
+                            System.arraycopy(buf, pos, buf, headerData.realPos, len);
+                        }
+                        headerData.realPos += len;
+                        pos = lineEnd;
+                        for (int i = headerData.realPos; i > headerData.realPos - len; i--) {
+                            byte b = buf[i - 1];
+                            if (b != Constants.SP && b != Constants.HT) {
+                                headerData.lastSignificantChar = i;
+                                break;
+                            }
+                        }
+                        continue;
+                    }
+
                     chr = buf[pos];
                     if (chr == Constants.CR) {
                         // Skip
@@ -17,6 +17,7 @@
 package org.apache.coyote.http11;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.Iterator;
@@ -26,10 +27,10 @@ import org.apache.coyote.ActionCode;
 import org.apache.coyote.ByteBufferHolder;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
-import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.buf.MessageBytes;
 import org.apache.tomcat.util.http.HttpMessages;
+import org.apache.tomcat.util.http.WellKnownHeader;
 import org.apache.tomcat.util.net.AbstractEndpoint;
 import org.apache.tomcat.util.net.SocketWrapper;
 import org.apache.tomcat.util.res.StringManager;
@@ -102,6 +103,23 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
      */
     protected int socketBuffer = -1;
 
+    /**
+     * May blocking writes use gathering writes where the socket supports them?
+     */
+    protected boolean gatheringWrites = true;
+
+    /**
+     * Has the next request on this connection already been received? If so,
+     * the end of this response may be left in the socket's write buffer and
+     * sent along with the response to the next request.
+     */
+    protected boolean nextRequestPending = false;
+
+    /**
+     * Was the end of the previous response left in the socket's write buffer?
+     */
+    protected boolean flushDeferred = false;
+
     /**
      * For "non-blocking" writes use an external set of buffers. Although the
      * API only allows one non-blocking write at a time, due to buffering and
@@ -149,6 +167,28 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
     private static final org.apache.juli.logging.Log log
         = org.apache.juli.logging.LogFactory.getLog(AbstractOutputBuffer.class);
 
+
+    /*
+     * The encoded status lines, without the CRLF, indexed by status code.
+     * Shared by all output buffers. Entries are immutable so a race only
+     * means a line is encoded more than once.
+     */
+    private static final StatusLine[] statusLines = new StatusLine[1000];
+
+
+    /*
+     * The encoded forms of recently sent header names and values that are
+     * not well-known header names, looked up by String. Most responses use
+     * the same Strings for these (the Date header, that changes once a
+     * second, the Server header, common content types, etc.) which are then
+     * copied rather than encoded again. Each output buffer has its own cache
+     * so it needs no synchronization.
+     */
+    private static final int STRING_CACHE_SIZE = 32;
+    private static final int MAX_CACHED_STRING_LENGTH = 128;
+    private final String[] cachedStrings = new String[STRING_CACHE_SIZE];
+    private final byte[][] cachedBytes = new byte[STRING_CACHE_SIZE][];
+
     // ------------------------------------------------------------- Properties
 
 
@@ -218,6 +258,16 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
     }
 
 
+    public void setGatheringWrites(boolean gatheringWrites) {
+        this.gatheringWrites = gatheringWrites;
+    }
+
+
+    public boolean getGatheringWrites() {
+        return gatheringWrites;
+    }
+
+
     public void setBufferedWriteSize(int bufferedWriteSize) {
         this.bufferedWriteSize = bufferedWriteSize;
     }
@@ -288,15 +338,15 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
 
         }
 
-        // go through the filters and if there is gzip filter
+        // go through the filters and if there is a compression filter
         // invoke it to flush
         for (int i = 0; i <= lastActiveFilter; i++) {
-            if (activeFilters[i] instanceof GzipOutputFilter) {
+            if (activeFilters[i] instanceof CompressionOutputFilter) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Flushing the gzip filter at position " + i +
-                            " of the filter chain...");
+                    log.debug("Flushing the compression filter at position " +
+                            i + " of the filter chain...");
                 }
-                ((GzipOutputFilter) activeFilters[i]).flush();
+                ((CompressionOutputFilter) activeFilters[i]).flush();
                 break;
             }
         }
@@ -331,6 +381,7 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
         // Sub-classes may wish to do more than this.
         nextRequest();
         bufferedWrites.clear();
+        flushDeferred = false;
     }
 
     /**
@@ -352,6 +403,7 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
         committed = false;
         finished = false;
         byteCount = 0;
+        nextRequestPending = false;
     }
 
 
@@ -375,12 +427,49 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
         if (lastActiveFilter != -1)
             activeFilters[lastActiveFilter].end();
 
-        flushBuffer(true);
+        if (nextRequestPending && canDeferFlush()) {
+            flushDeferred = true;
+        } else {
+            flushBuffer(true);
+            flushDeferred = false;
+        }
 
         finished = true;
     }
 
 
+    /**
+     * Flush any responses that were left in the socket's write buffer because
+     * another request had already been received.
+     *
+     * @throws IOException an underlying I/O error occurred
+     */
+    public void flushDeferred() throws IOException {
+        if (flushDeferred) {
+            flushDeferred = false;
+            flushBuffer(true);
+        }
+    }
+
+
+    public void setNextRequestPending(boolean nextRequestPending) {
+        this.nextRequestPending = nextRequestPending;
+    }
+
+
+    /**
+     * Can the data written so far be left in the socket's write buffer at the
+     * end of the request, to be sent with the next response? Only connectors
+     * that buffer small writes support this.
+     *
+     * @return <code>true</code> if all the data not yet written is held in the
+     *         socket's write buffer
+     */
+    protected boolean canDeferFlush() {
+        return false;
+    }
+
+
     public abstract void init(SocketWrapper<S> socketWrapper,
             AbstractEndpoint<S> endpoint) throws IOException;
 
@@ -394,39 +483,28 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
      */
     public void sendStatus() {
 
-        // Write protocol name
-        write(Constants.HTTP_11_BYTES);
-        headerBuffer[pos++] = Constants.SP;
-
-        // Write status code
         int status = response.getStatus();
-        switch (status) {
-        case 200:
-            write(Constants._200_BYTES);
-            break;
-        case 400:
-            write(Constants._400_BYTES);
-            break;
-        case 404:
-            write(Constants._404_BYTES);
-            break;
-        default:
-            write(status);
-        }
-
-        headerBuffer[pos++] = Constants.SP;
-
-        // Write message
         String message = null;
         if (org.apache.coyote.Constants.USE_CUSTOM_STATUS_MSG_IN_HEADER &&
                 HttpMessages.isSafeInHttpHeader(response.getMessage())) {
             message = response.getMessage();
         }
         if (message == null) {
-            write(HttpMessages.getInstance(
-                    response.getLocale()).getMessage(status));
+            message = HttpMessages.getInstance(
+                    response.getLocale()).getMessage(status);
+        }
+
+        // Write protocol name, status code and message
+        StatusLine line = null;
+        if (status >= 0 && status < statusLines.length) {
+            line = statusLines[status];
+            if (line == null || !line.matches(message)) {
+                line = new StatusLine(status, message);
+                statusLines[status] = line;
+            }
+            write(line.bytes);
         } else {
-            write(message);
+            write(new StatusLine(status, message).bytes);
         }
 
         // End the response status line
@@ -456,8 +534,27 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
      * @param value Header value
      */
     public void sendHeader(MessageBytes name, MessageBytes value) {
+        sendHeader(null, name, value);
+    }
+
+
+    /**
+     * Send a header.
+     *
+     * @param header The well-known header the header is named after or
+     *               <code>null</code>
+     * @param name   Header name
+     * @param value  Header value
+     */
+    public void sendHeader(WellKnownHeader header, MessageBytes name,
+            MessageBytes value) {
 
-        write(name);
+        if (header != null && name.getType() == MessageBytes.T_STR &&
+                header.getName().equals(name.getString())) {
+            write(header.getNameBytes());
+        } else {
+            write(name);
+        }
         headerBuffer[pos++] = Constants.COLON;
         headerBuffer[pos++] = Constants.SP;
         write(value);
@@ -487,6 +584,17 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
      */
     protected void write(MessageBytes mb) {
 
+        if (mb.getType() == MessageBytes.T_STR &&
+                mb.getByteChunk().getCharset() == StandardCharsets.ISO_8859_1) {
+            String s = mb.getString();
+            if (s.length() <= MAX_CACHED_STRING_LENGTH) {
+                write(getBytes(s));
+            } else {
+                checkLengthBeforeWrite(s.length());
+                pos = encode(s, headerBuffer, pos);
+            }
+            return;
+        }
         if (mb.getType() != MessageBytes.T_BYTES) {
             mb.toBytes();
             ByteChunk bc = mb.getByteChunk();
@@ -589,6 +697,41 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
     }
 
 
+    private byte[] getBytes(String s) {
+        int h = s.hashCode();
+        int slot = (h ^ (h >>> 16)) & (STRING_CACHE_SIZE - 1);
+        String cached = cachedStrings[slot];
+        if (cached == s || s.equals(cached)) {
+            return cachedBytes[slot];
+        }
+        byte[] result = new byte[s.length()];
+        encode(s, result, 0);
+        cachedStrings[slot] = s;
+        cachedBytes[slot] = result;
+        return result;
+    }
+
+
+    /*
+     * Encodes a header name or value as ISO-8859-1, as MessageBytes.toBytes()
+     * does, and replaces the CTLs apart from TAB with spaces, as write(
+     * MessageBytes) does.
+     */
+    private static int encode(String s, byte[] b, int off) {
+        int len = s.length();
+        for (int i = 0; i < len; i++) {
+            char c = s.charAt(i);
+            if (c > 255) {
+                c = '?';
+            } else if ((c <= 31 && c != 9) || c == 127) {
+                c = ' ';
+            }
+            b[off++] = (byte) c;
+        }
+        return off;
+    }
+
+
     /**
      * Checks to see if there is enough space in the buffer to write the
      * requested number of bytes.
@@ -652,4 +795,36 @@ public abstract class AbstractOutputBuffer<S> implements OutputBuffer {
         }
         return result;
     }
+
+
+    private static final class StatusLine {
+
+        private final String message;
+        private final byte[] bytes;
+
+        StatusLine(int status, String message) {
+            this.message = message;
+            StringBuilder line = new StringBuilder(Constants.HTTP_11);
+            line.append(' ');
+            line.append(status);
+            line.append(' ');
+            if (message != null) {
+                line.append(message);
+            }
+            bytes = new byte[line.length()];
+            for (int i = 0; i < bytes.length; i++) {
+                char c = line.charAt(i);
+                // As write(String)
+                if (((c <= 31) && (c != 9)) || c == 127 || c > 255) {
+                    c = ' ';
+                }
+                bytes[i] = (byte) c;
+            }
+        }
+
+        boolean matches(String message) {
+            return this.message == message ||
+                    (message != null && message.equals(this.message));
+        }
+    }
 }
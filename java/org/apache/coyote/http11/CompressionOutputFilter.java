@@ -0,0 +1,46 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+/**
+ * Output filter that applies a content coding to compress the response.
+ * <p>
+ * The compression filters used by a connector are configured with its
+ * <code>compressionFilters</code> attribute. Each processor creates its own
+ * instance of each filter, so implementations must have a public no argument
+ * constructor and need not be thread safe.
+ */
+public interface CompressionOutputFilter extends OutputFilter {
+
+
+    /**
+     * Get the content coding applied by this filter, as used in the
+     * Accept-Encoding and Content-Encoding headers.
+     *
+     * @return the content coding in lower case
+     */
+    public String getEncoding();
+
+
+    /**
+     * Write the compressed form of all the data written so far, so that the
+     * client can decompress it without waiting for the rest of the response.
+     */
+    public void flush();
+
+
+}
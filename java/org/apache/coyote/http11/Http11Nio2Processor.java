@@ -566,6 +566,8 @@ public class Http11Nio2Processor extends AbstractHttp11Processor<Nio2Channel> {
                     org.apache.coyote.Constants.SENDFILE_FILE_START_ATTR)).longValue();
             sendfileData.length = ((Long) request.getAttribute(
                     org.apache.coyote.Constants.SENDFILE_FILE_END_ATTR)).longValue() - sendfileData.pos;
+            // The endpoint writes the headers with the start of the file
+            ((InternalNio2OutputBuffer) outputBuffer).setSendfile(true);
             return true;
         }
         return false;
@@ -85,6 +85,22 @@ public class Http11Nio2Protocol extends AbstractHttp11JsseProtocol<Nio2Channel>
 
     // -------------------- Pool setup --------------------
 
+    public void setReusePortShardCount(int count) {
+        ((Nio2Endpoint)endpoint).setReusePortShardCount(count);
+    }
+
+    public int getReusePortShardCount() {
+        return ((Nio2Endpoint)endpoint).getReusePortShardCount();
+    }
+
+    public void setMappedSendfileSize(int mappedSendfileSize) {
+        ((Nio2Endpoint)endpoint).setMappedSendfileSize(mappedSendfileSize);
+    }
+
+    public int getMappedSendfileSize() {
+        return ((Nio2Endpoint)endpoint).getMappedSendfileSize();
+    }
+
     public void setAcceptorThreadPriority(int threadPriority) {
         ((Nio2Endpoint)endpoint).setAcceptorThreadPriority(threadPriority);
     }
@@ -69,6 +69,10 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         setSoLinger(Constants.DEFAULT_CONNECTION_LINGER);
         setSoTimeout(Constants.DEFAULT_CONNECTION_TIMEOUT);
         setTcpNoDelay(Constants.DEFAULT_TCP_NO_DELAY);
+        // With heap buffers the gathering write is slower than copying
+        // through the socket write buffer (see
+        // TesterGatheringWritePerformance) so it is opt-in for NIO
+        setGatheringWrites(false);
     }
 
 
@@ -98,6 +102,14 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
         return ((NioEndpoint)endpoint).getPollerThreadCount();
     }
 
+    public void setReusePortShardCount(int count) {
+        ((NioEndpoint)endpoint).setReusePortShardCount(count);
+    }
+
+    public int getReusePortShardCount() {
+        return ((NioEndpoint)endpoint).getReusePortShardCount();
+    }
+
     public void setSelectorTimeout(long timeout) {
         ((NioEndpoint)endpoint).setSelectorTimeout(timeout);
     }
@@ -240,7 +252,9 @@ public class Http11NioProtocol extends AbstractHttp11JsseProtocol<NioChannel> {
             processor.recycle(isSocketClosing);
             recycledProcessors.push(processor);
             if (addToPoller) {
-                socket.getSocket().getPoller().add(socket.getSocket());
+                // The connection is idle until the next request arrives
+                socket.getSocket().releaseBuffers();
+                socket.getSocket().getPoller().addIdle(socket.getSocket());
             }
         }
 
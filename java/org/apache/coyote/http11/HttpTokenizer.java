@@ -0,0 +1,156 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Finds the delimiters in the request line and in the header values of an
+ * HTTP request. Rather than examining one byte at a time, the buffer is read
+ * eight bytes at a time and all eight bytes are compared with the delimiters
+ * at once using arithmetic on the <code>long</code> that holds them. Only the
+ * bytes at the end of the range that do not fill a <code>long</code> are
+ * examined one at a time.
+ * <p>
+ * The request line and the header values are long enough for this to be
+ * worthwhile. Header names are short and every byte has to be checked
+ * against the token characters so they are still parsed one byte at a time.
+ * <p>
+ * Each input buffer has its own instance since this class holds a view of
+ * the most recently scanned buffer. It is not thread safe.
+ */
+final class HttpTokenizer {
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long CR = repeat(Constants.CR);
+    private static final long LF = repeat(Constants.LF);
+    private static final long SP = repeat(Constants.SP);
+    private static final long HT = repeat(Constants.HT);
+    private static final long QUESTION = repeat(Constants.QUESTION);
+
+    private byte[] array;
+    private ByteBuffer view;
+
+
+    /**
+     * Find the end of a line.
+     *
+     * @param buf   The buffer
+     * @param start The position to start at
+     * @param end   The position after the last byte to examine
+     *
+     * @return the position of the first CR or LF or -1 if there is none
+     */
+    int findEndOfLine(byte[] buf, int start, int end) {
+        int i = start;
+        if (end - i >= 8) {
+            ByteBuffer view = view(buf);
+            for (; i <= end - 8; i += 8) {
+                long word = view.getLong(i);
+                long match = matches(word, CR) | matches(word, LF);
+                if (match != 0) {
+                    return i + firstMatch(match);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (b == Constants.CR || b == Constants.LF) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    /**
+     * Find the end of the request target (or of the path of the request target)
+     * in the request line.
+     *
+     * @param buf      The buffer
+     * @param start    The position to start at
+     * @param end      The position after the last byte to examine
+     * @param question Should the search stop at a '?' as well?
+     *
+     * @return the position of the first SP, HT, CR or LF (or '?') or -1 if
+     *         there is none
+     */
+    int findEndOfTarget(byte[] buf, int start, int end, boolean question) {
+        int i = start;
+        if (end - i >= 8) {
+            ByteBuffer view = view(buf);
+            for (; i <= end - 8; i += 8) {
+                long word = view.getLong(i);
+                long match = matches(word, SP) | matches(word, HT) |
+                        matches(word, CR) | matches(word, LF);
+                if (question) {
+                    match |= matches(word, QUESTION);
+                }
+                if (match != 0) {
+                    return i + firstMatch(match);
+                }
+            }
+        }
+        for (; i < end; i++) {
+            byte b = buf[i];
+            if (b == Constants.SP || b == Constants.HT ||
+                    b == Constants.CR || b == Constants.LF ||
+                    (question && b == Constants.QUESTION)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private ByteBuffer view(byte[] buf) {
+        if (buf != array) {
+            array = buf;
+            view = ByteBuffer.wrap(buf).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        return view;
+    }
+
+
+    /*
+     * Sets the high bit of each byte of word that is equal to the
+     * corresponding byte of pattern and clears all the other bits. Unlike
+     * the usual (x - 0x01..) & ~x & 0x80.. test, no carry crosses from one
+     * byte to the next so there are no false matches next to a real one.
+     */
+    private static long matches(long word, long pattern) {
+        long x = word ^ pattern;
+        long t = (x & LOW_BITS) + LOW_BITS;
+        return ~(t | x | LOW_BITS);
+    }
+
+
+    /*
+     * The view is little endian (which avoids reversing the bytes on most
+     * hardware) so the first byte is the least significant one.
+     */
+    private static int firstMatch(long match) {
+        return Long.numberOfTrailingZeros(match) >>> 3;
+    }
+
+
+    private static long repeat(byte b) {
+        return (b & 0xFFL) * 0x0101010101010101L;
+    }
+}
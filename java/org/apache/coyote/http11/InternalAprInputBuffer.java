@@ -224,6 +224,15 @@ public class InternalAprInputBuffer extends AbstractInputBuffer<Long> {
                     throw new EOFException(sm.getString("iib.eof.error"));
             }
 
+            // Skip the bytes that are not delimiters
+            int delim = tokenizer.findEndOfTarget(buf, pos, lastValid,
+                    questionPos == -1);
+            if (delim < 0) {
+                pos = lastValid;
+                continue;
+            }
+            pos = delim;
+
             // Spec says single SP but it also says be tolerant of HT
             if (buf[pos] == Constants.SP || buf[pos] == Constants.HT) {
                 space = true;
@@ -445,6 +454,28 @@ public class InternalAprInputBuffer extends AbstractInputBuffer<Long> {
                         throw new EOFException(sm.getString("iib.eof.error"));
                 }
 
+                // Copy the bytes up to the end of the line in one go
+                int lineEnd = tokenizer.findEndOfLine(buf, pos, lastValid);
+                if (lineEnd != pos) {
+                    if (lineEnd < 0) {
+                        lineEnd = lastValid;
+                    }
+                    int len = lineEnd - pos;
+                    if (realPos != pos) {
+                        System.arraycopy(buf, pos, buf, realPos, len);
+                    }
+                    realPos += len;
+                    pos = lineEnd;
+                    for (int i = realPos; i > realPos - len; i--) {
+                        byte b = buf[i - 1];
+                        if (b != Constants.SP) {
+                            lastSignificantChar = i;
+                            break;
+                        }
+                    }
+                    continue;
+                }
+
                 if (buf[pos] == Constants.CR) {
                     // Skip
                 } else if (buf[pos] == Constants.LF) {
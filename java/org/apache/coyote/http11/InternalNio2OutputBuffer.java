@@ -30,6 +30,7 @@ import java.util.concurrent.TimeoutException;
 
 import javax.servlet.RequestDispatcher;
 
+import org.apache.coyote.ActionCode;
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.ByteChunk;
@@ -81,6 +82,16 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
      */
     protected CompletionHandler<Long, ByteBuffer[]> gatherCompletionHandler;
 
+    /**
+     * The completion handler used for gathering writes in blocking mode
+     */
+    protected CompletionHandler<Long, ByteBuffer[]> blockingGatherCompletionHandler;
+
+    /**
+     * Exception that occurred during a gathering write in blocking mode.
+     */
+    private IOException blockingGatherException = null;
+
     /**
      * Write pending flag.
      */
@@ -101,6 +112,13 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
      */
     protected IOException e = null;
 
+    /**
+     * Is the response body going to be written by sendfile? If so, the
+     * response headers are left in the socket write buffer at the end of the
+     * request so the endpoint can send them with the start of the file.
+     */
+    protected boolean sendfile = false;
+
     // --------------------------------------------------------- Public Methods
 
     @Override
@@ -213,6 +231,30 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
                 endpoint.processSocket(socket, SocketStatus.OPEN_WRITE, true);
            }
         };
+        this.blockingGatherCompletionHandler = new CompletionHandler<Long, ByteBuffer[]>() {
+            @Override
+            public void completed(Long nBytes, ByteBuffer[] attachment) {
+                if (nBytes.longValue() < 0) {
+                    failed(new EOFException(sm.getString("iob.failedwrite")), attachment);
+                } else if (arrayHasData(attachment)) {
+                    socket.getSocket().write(attachment, 0, attachment.length,
+                            socket.getTimeout(), TimeUnit.MILLISECONDS,
+                            attachment, blockingGatherCompletionHandler);
+                } else {
+                    writePending.release();
+                }
+            }
+
+            @Override
+            public void failed(Throwable exc, ByteBuffer[] attachment) {
+                if (exc instanceof IOException) {
+                    blockingGatherException = (IOException) exc;
+                } else {
+                    blockingGatherException = new IOException(exc);
+                }
+                writePending.release();
+            }
+        };
     }
 
 
@@ -232,6 +274,7 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
             writePending.release();
         }
         bufferedWrites.clear();
+        sendfile = false;
     }
 
 
@@ -240,6 +283,40 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
         super.nextRequest();
         flipped = false;
         interest = false;
+        sendfile = false;
+    }
+
+
+    public void setSendfile(boolean sendfile) {
+        this.sendfile = sendfile;
+    }
+
+
+    @Override
+    public void endRequest() throws IOException {
+        if (!sendfile) {
+            super.endRequest();
+            return;
+        }
+
+        if (!committed) {
+            response.action(ActionCode.COMMIT, null);
+        }
+
+        if (finished)
+            return;
+
+        if (lastActiveFilter != -1)
+            activeFilters[lastActiveFilter].end();
+
+        // Only leave the headers for the endpoint if they are all that is
+        // waiting to be written
+        if (flipped || hasBufferedData() || e != null ||
+                writePending.availablePermits() == 0) {
+            flushBuffer(true);
+        }
+
+        finished = true;
     }
 
     // ------------------------------------------------ HTTP/1.1 Output Methods
@@ -298,6 +375,18 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
         socket.access();
 
         if (isBlocking()) {
+            if (gatheringWrites && length >= writeByteBuffer.remaining() &&
+                    !flipped && bufferedWrites.size() == 0) {
+                // Send whatever is in the socket's write buffer along with
+                // the new data without copying the new data
+                writeByteBuffer.flip();
+                flipped = true;
+                gatheringWrite(new ByteBuffer[] {
+                        writeByteBuffer, ByteBuffer.wrap(buf, offset, length) });
+                writeByteBuffer.clear();
+                flipped = false;
+                return;
+            }
             while (length > 0) {
                 int thisTime = transfer(buf, offset, length, writeByteBuffer);
                 length = length - thisTime;
@@ -337,6 +426,32 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
     }
 
 
+    /**
+     * Blocking gathering write. There is no Future based gathering write so
+     * wait for the completion handler instead.
+     */
+    private void gatheringWrite(ByteBuffer[] buffers) throws IOException {
+        try {
+            if (!writePending.tryAcquire(socket.getTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException();
+            }
+            blockingGatherException = null;
+            socket.getSocket().write(buffers, 0, buffers.length,
+                    socket.getTimeout(), TimeUnit.MILLISECONDS,
+                    buffers, blockingGatherCompletionHandler);
+            if (!writePending.tryAcquire(socket.getTimeout(), TimeUnit.MILLISECONDS)) {
+                throw new SocketTimeoutException();
+            }
+            writePending.release();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        }
+        if (blockingGatherException != null) {
+            throw blockingGatherException;
+        }
+    }
+
+
     private void addToBuffers(byte[] buf, int offset, int length) {
         ByteBuffer buffer = ByteBuffer.allocate(Math.max(bufferedWriteSize, length));
         buffer.put(buf, offset, length);
@@ -467,6 +582,13 @@ public class InternalNio2OutputBuffer extends AbstractOutputBuffer<Nio2Channel>
         }
     }
 
+    @Override
+    protected boolean canDeferFlush() {
+        return isBlocking() && !flipped && !hasBufferedData() && e == null &&
+                writePending.availablePermits() > 0;
+    }
+
+
     @Override
     protected boolean hasMoreDataToFlush() {
         return (flipped && socket.getSocket().getBufHandler().getWriteBuffer().remaining() > 0) ||
@@ -158,6 +158,48 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     }
 
 
+    /**
+     * Blocking gathering write.
+     *
+     * @param buffers The buffers to write
+     * @throws IOException
+     */
+    private synchronized void writeToSocket(ByteBuffer[] buffers) throws IOException {
+        if (!socket.isGatheringSupported()) {
+            // TLS channels can only write from their application buffer
+            throw new IllegalStateException(
+                    sm.getString("iob.gatheringNotSupported"));
+        }
+        NioEndpoint.KeyAttachment att = (NioEndpoint.KeyAttachment)socket.getAttachment();
+        if ( att == null ) throw new IOException("Key must be cancelled");
+        long writeTimeout = att.getWriteTimeout();
+        Selector selector = null;
+        try {
+            selector = pool.get();
+        } catch ( IOException x ) {
+            //ignore
+        }
+        try {
+            int offset = 0;
+            while (true) {
+                while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                    offset++;
+                }
+                if (offset == buffers.length) {
+                    break;
+                }
+                if (socket.write(buffers, offset, buffers.length - offset) == 0) {
+                    // The socket's send buffer is full. Use a blocking write
+                    // for the first buffer to wait until it can be written to.
+                    pool.write(buffers[offset], socket, selector, writeTimeout, true);
+                }
+            }
+        } finally {
+            if ( selector != null ) pool.put(selector);
+        }
+    }
+
+
     // ------------------------------------------------------ Protected Methods
 
     /**
@@ -185,6 +227,30 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
 
         if (length == 0) return;
 
+        if (isBlocking() && bufferedWrites.size() == 0 && !flipped) {
+            ByteBuffer writeBuffer = socket.getBufHandler().getWriteBuffer();
+            if (length < writeBuffer.remaining()) {
+                // Small writes such as the response headers and chunk headers
+                // are collected in the socket's write buffer and sent with the
+                // next block of data
+                writeBuffer.put(buf, offset, length);
+                return;
+            } else if (gatheringWrites && socket.isGatheringSupported()) {
+                // Send whatever is in the socket's write buffer along with
+                // the new data without copying the new data
+                writeBuffer.flip();
+                flipped = true;
+                writeToSocket(new ByteBuffer[] {
+                        writeBuffer, ByteBuffer.wrap(buf, offset, length) });
+                writeBuffer.clear();
+                flipped = false;
+
+                NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment();
+                if (ka != null) ka.access();//prevent timeouts for just doing client writes
+                return;
+            }
+        }
+
         // Try to flush any data in the socket's write buffer first
         boolean dataLeft = flushBuffer(isBlocking());
 
@@ -266,6 +332,12 @@ public class InternalNioOutputBuffer extends AbstractOutputBuffer<NioChannel> {
     }
 
 
+    @Override
+    protected boolean canDeferFlush() {
+        return isBlocking() && !flipped && bufferedWrites.size() == 0;
+    }
+
+
     @Override
     protected boolean hasMoreDataToFlush() {
         return (flipped && socket.getBufHandler().getWriteBuffer().remaining()>0) ||
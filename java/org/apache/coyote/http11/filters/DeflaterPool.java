@@ -0,0 +1,170 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11.filters;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * The {@link Deflater}s used to compress the responses of a connector. Each
+ * Deflater holds a significant amount of native memory that is only freed
+ * when it is ended, so rather than creating one for each response they are
+ * reset and reused. The pool also collects the compression statistics of the
+ * connector.
+ */
+public class DeflaterPool {
+
+    private static final ThreadMXBean threadMXBean =
+            ManagementFactory.getThreadMXBean();
+
+    private final SynchronizedStack<Deflater> deflaters;
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong cpuTime = new AtomicLong();
+
+    private volatile boolean cpuTimeEnabled = false;
+
+
+    /**
+     * @param limit The maximum number of unused Deflaters to keep or -1 for
+     *              no limit
+     */
+    public DeflaterPool(int limit) {
+        deflaters = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
+                limit);
+    }
+
+
+    /**
+     * Obtain a Deflater that produces raw deflate data (no zlib header or
+     * trailer).
+     *
+     * @param level    The compression level
+     * @param strategy The compression strategy
+     *
+     * @return a Deflater that must be returned with {@link #release(Deflater)}
+     */
+    public Deflater borrow(int level, int strategy) {
+        Deflater deflater = deflaters.pop();
+        if (deflater == null) {
+            deflater = new Deflater(level, true);
+        } else {
+            deflater.setLevel(level);
+        }
+        deflater.setStrategy(strategy);
+        return deflater;
+    }
+
+
+    public void release(Deflater deflater) {
+        deflater.reset();
+        if (!deflaters.push(deflater)) {
+            deflater.end();
+        }
+    }
+
+
+    /**
+     * End all the unused Deflaters.
+     */
+    public void clear() {
+        Deflater deflater;
+        while ((deflater = deflaters.pop()) != null) {
+            deflater.end();
+        }
+    }
+
+
+    // ------------------------------------------------------------- Statistics
+
+    /**
+     * Should the CPU time used to compress responses be measured? This
+     * queries the CPU time of the compressing thread before and after each
+     * write to the filter or block that is compressed so it is disabled by
+     * default.
+     */
+    public boolean isCpuTimeEnabled() {
+        return cpuTimeEnabled;
+    }
+
+
+    public void setCpuTimeEnabled(boolean cpuTimeEnabled) {
+        this.cpuTimeEnabled = cpuTimeEnabled;
+    }
+
+
+    /**
+     * Record the compression of (part of) a response.
+     *
+     * @param in      The number of bytes compressed
+     * @param out     The number of compressed bytes
+     * @param cpuTime The CPU time used in nanoseconds
+     */
+    public void record(long in, long out, long cpuTime) {
+        bytesIn.addAndGet(in);
+        bytesOut.addAndGet(out);
+        this.cpuTime.addAndGet(cpuTime);
+    }
+
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+
+    /**
+     * @return the CPU time used to compress responses in nanoseconds, or the
+     *         elapsed time where the JVM does not measure the CPU time of
+     *         threads
+     */
+    public long getCpuTime() {
+        return cpuTime.get();
+    }
+
+
+    public void resetStatistics() {
+        bytesIn.set(0);
+        bytesOut.set(0);
+        cpuTime.set(0);
+    }
+
+
+    /**
+     * @return the CPU time of the current thread in nanoseconds, or the
+     *         current value of the system timer where the JVM does not
+     *         measure the CPU time of threads
+     */
+    static long currentTime() {
+        if (threadMXBean.isCurrentThreadCpuTimeSupported()) {
+            long time = threadMXBean.getCurrentThreadCpuTime();
+            if (time != -1) {
+                return time;
+            }
+        }
+        return System.nanoTime();
+    }
+}
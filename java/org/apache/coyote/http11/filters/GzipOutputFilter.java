@@ -14,24 +14,42 @@
  *  See the License for the specific language governing permissions and
  *  limitations under the License.
  */
-
 package org.apache.coyote.http11.filters;
 
 import java.io.IOException;
-import java.io.OutputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
 
 import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.CompressionOutputFilter;
 import org.apache.coyote.http11.OutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
 /**
  * Gzip output filter.
+ * <p>
+ * The response is compressed with a {@link Deflater} obtained from a
+ * {@link DeflaterPool}, if one has been set, at the level and with the
+ * strategy set for the response. When more than one thread may be used, the
+ * response is split into blocks that are compressed independently by the
+ * threads of the executor, in the same way as pigz. Each block is compressed
+ * with the end of the previous block as a preset dictionary and ends with a
+ * sync flush so the compressed blocks join up to a single deflate stream. The
+ * blocks are written in order and the checksum is calculated by the thread
+ * writing the response. Responses that do not fill a block are compressed by
+ * the thread writing the response.
  *
  * @author Remy Maucherat
  */
-public class GzipOutputFilter implements OutputFilter {
+public class GzipOutputFilter implements CompressionOutputFilter {
 
 
     /**
@@ -41,6 +59,17 @@ public class GzipOutputFilter implements OutputFilter {
         org.apache.juli.logging.LogFactory.getLog(GzipOutputFilter.class);
 
 
+    /*
+     * Same as java.util.zip.GZIPOutputStream
+     */
+    private static final byte[] HEADER = new byte[] {
+            (byte) 0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0 };
+
+    private static final int OUTPUT_SIZE = 8 * 1024;
+
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+
     // ----------------------------------------------------- Instance Variables
 
 
@@ -50,16 +79,85 @@ public class GzipOutputFilter implements OutputFilter {
     protected OutputBuffer buffer;
 
 
+    private DeflaterPool deflaterPool = null;
+    private Executor executor = null;
+    private int threads = 1;
+    private int blockSize = 128 * 1024;
+
+    private int level = Deflater.DEFAULT_COMPRESSION;
+    private int strategy = Deflater.DEFAULT_STRATEGY;
+
+    private final CRC32 checksum = new CRC32();
+    private final ByteChunk outputChunk = new ByteChunk();
+    private byte[] output = null;
+    private boolean started = false;
+    private long bytesIn = 0;
+    private long bytesOut = 0;
+    private long cpuTime = 0;
+
+    /*
+     * Used when the response is compressed by the thread writing it.
+     */
+    private Deflater deflater = null;
+
+    /*
+     * Used when the response is split into blocks.
+     */
+    private byte[] block = null;
+    private int blockPos = 0;
+    private byte[] dictionary = null;
+    private int dictionaryLength = 0;
+    private final ArrayDeque<FutureTask<byte[]>> blocks = new ArrayDeque<>();
+
+    /*
+     * Block buffers that are no longer used by a BlockCompressor, reused for
+     * the next blocks of the response. One is kept for later responses.
+     */
+    private final ArrayDeque<byte[]> spareBlocks = new ArrayDeque<>();
+
+
+    // ------------------------------------------------------------- Properties
+
+
     /**
-     * Compression output stream.
+     * Set the pool to obtain Deflaters from and to record the compression
+     * statistics with. Without a pool, a Deflater is created for each
+     * response.
      */
-    protected GZIPOutputStream compressionStream = null;
+    public void setDeflaterPool(DeflaterPool deflaterPool) {
+        this.deflaterPool = deflaterPool;
+    }
 
 
     /**
-     * Fake internal output stream.
+     * Set the executor used to compress blocks of large responses and the
+     * maximum number of blocks of a response that may be compressed at the
+     * same time.
+     *
+     * @param executor  The executor or <code>null</code> to compress all
+     *                  responses with the thread writing the response
+     * @param threads   The maximum number of blocks compressed at the same
+     *                  time. One disables splitting the response into blocks.
+     * @param blockSize The size of the blocks
      */
-    protected final OutputStream fakeOutputStream = new FakeOutputStream();
+    public void setExecutor(Executor executor, int threads, int blockSize) {
+        this.executor = executor;
+        this.threads = threads;
+        this.blockSize = Math.max(blockSize, DICTIONARY_SIZE);
+    }
+
+
+    /**
+     * Set the compression level and strategy for the current response.
+     *
+     * @param level    The compression level, as for {@link Deflater#setLevel(int)}
+     * @param strategy The compression strategy, as for
+     *                 {@link Deflater#setStrategy(int)}
+     */
+    public void setCompression(int level, int strategy) {
+        this.level = level;
+        this.strategy = strategy;
+    }
 
 
     // --------------------------------------------------- OutputBuffer Methods
@@ -73,12 +171,26 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public int doWrite(ByteChunk chunk, Response res)
         throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+        int len = chunk.getLength();
+        if (len == 0) {
+            return 0;
         }
-        compressionStream.write(chunk.getBytes(), chunk.getStart(),
-                                chunk.getLength());
-        return chunk.getLength();
+        start();
+        checksum.update(chunk.getBytes(), chunk.getStart(), len);
+        bytesIn += len;
+        if (executor != null && threads > 1) {
+            writeBlocks(chunk.getBytes(), chunk.getStart(), len);
+        } else {
+            long startTime = startTime();
+            Deflater deflater = getDeflater();
+            deflater.setInput(chunk.getBytes(), chunk.getStart(), len);
+            while (!deflater.needsInput()) {
+                writeOutput(output, 0,
+                        deflater.deflate(output, 0, output.length));
+            }
+            endTime(startTime);
+        }
+        return len;
     }
 
 
@@ -88,26 +200,52 @@ public class GzipOutputFilter implements OutputFilter {
     }
 
 
-    // --------------------------------------------------- OutputFilter Methods
+    // --------------------------------------- CompressionOutputFilter Methods
+
+
+    @Override
+    public String getEncoding() {
+        return "gzip";
+    }
+
 
     /**
      * Added to allow flushing to happen for the gzip'ed outputstream
      */
+    @Override
     public void flush() {
-        if (compressionStream != null) {
-            try {
-                if (log.isDebugEnabled()) {
-                    log.debug("Flushing the compression stream!");
-                }
-                compressionStream.flush();
-            } catch (IOException e) {
-                if (log.isDebugEnabled()) {
-                    log.debug("Ignored exception while flushing gzip filter", e);
+        if (!started) {
+            return;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Flushing the compression stream!");
+        }
+        try {
+            if (block != null) {
+                submitBlock(false);
+                while (!blocks.isEmpty()) {
+                    writeBlock(blocks.poll());
                 }
+            } else if (deflater != null) {
+                long startTime = startTime();
+                int n;
+                do {
+                    n = deflater.deflate(output, 0, output.length,
+                            Deflater.SYNC_FLUSH);
+                    writeOutput(output, 0, n);
+                } while (n == output.length);
+                endTime(startTime);
+            }
+        } catch (IOException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("Ignored exception while flushing gzip filter", e);
             }
         }
     }
 
+    // --------------------------------------------------- OutputFilter Methods
+
+
     /**
      * Some filters need additional parameters from the response. All the
      * necessary reading can occur in that method, as this method is called
@@ -135,11 +273,29 @@ public class GzipOutputFilter implements OutputFilter {
     @Override
     public long end()
         throws IOException {
-        if (compressionStream == null) {
-            compressionStream = new GZIPOutputStream(fakeOutputStream, true);
+        start();
+        if (block != null) {
+            submitBlock(true);
+            while (!blocks.isEmpty()) {
+                writeBlock(blocks.poll());
+            }
+        } else {
+            long startTime = startTime();
+            Deflater deflater = getDeflater();
+            deflater.finish();
+            while (!deflater.finished()) {
+                writeOutput(output, 0,
+                        deflater.deflate(output, 0, output.length));
+            }
+            endTime(startTime);
+        }
+        byte[] trailer = new byte[8];
+        writeInt((int) checksum.getValue(), trailer, 0);
+        writeInt((int) bytesIn, trailer, 4);
+        writeOutput(trailer, 0, trailer.length);
+        if (deflaterPool != null) {
+            deflaterPool.record(bytesIn, bytesOut, cpuTime);
         }
-        compressionStream.finish();
-        compressionStream.close();
         return ((OutputFilter) buffer).end();
     }
 
@@ -149,38 +305,287 @@ public class GzipOutputFilter implements OutputFilter {
      */
     @Override
     public void recycle() {
-        // Set compression stream to null
-        compressionStream = null;
+        if (deflater != null) {
+            if (deflaterPool == null) {
+                deflater.end();
+            } else {
+                deflaterPool.release(deflater);
+            }
+            deflater = null;
+        }
+        // Only left after an error. The executor may still be using the
+        // buffers of these blocks so they are not reused.
+        for (FutureTask<byte[]> task : blocks) {
+            task.cancel(false);
+        }
+        if (blocks.isEmpty()) {
+            if (block != null) {
+                releaseBlock(block);
+            }
+            if (dictionary != null) {
+                releaseBlock(dictionary);
+            }
+        }
+        while (spareBlocks.size() > 1) {
+            spareBlocks.pop();
+        }
+        blocks.clear();
+        block = null;
+        blockPos = 0;
+        dictionary = null;
+        dictionaryLength = 0;
+        checksum.reset();
+        started = false;
+        bytesIn = 0;
+        bytesOut = 0;
+        cpuTime = 0;
+        level = Deflater.DEFAULT_COMPRESSION;
+        strategy = Deflater.DEFAULT_STRATEGY;
     }
 
 
-    // ------------------------------------------- FakeOutputStream Inner Class
+    // -------------------------------------------------------- Private Methods
 
 
-    protected class FakeOutputStream
-        extends OutputStream {
-        protected final ByteChunk outputChunk = new ByteChunk();
-        protected final byte[] singleByteBuffer = new byte[1];
-        @Override
-        public void write(int b)
-            throws IOException {
-            // Shouldn't get used for good performance, but is needed for
-            // compatibility with Sun JDK 1.4.0
-            singleByteBuffer[0] = (byte) (b & 0xff);
-            outputChunk.setBytes(singleByteBuffer, 0, 1);
-            buffer.doWrite(outputChunk, null);
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            if (output == null) {
+                output = new byte[OUTPUT_SIZE];
+            }
+            writeOutput(HEADER, 0, HEADER.length);
         }
-        @Override
-        public void write(byte[] b, int off, int len)
-            throws IOException {
+    }
+
+
+    private Deflater getDeflater() {
+        if (deflater == null) {
+            if (deflaterPool == null) {
+                deflater = new Deflater(level, true);
+                deflater.setStrategy(strategy);
+            } else {
+                deflater = deflaterPool.borrow(level, strategy);
+            }
+        }
+        return deflater;
+    }
+
+
+    private void writeBlocks(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (block == null) {
+                block = borrowBlock();
+            }
+            int n = Math.min(len, block.length - blockPos);
+            System.arraycopy(b, off, block, blockPos, n);
+            blockPos += n;
+            off += n;
+            len -= n;
+            if (blockPos == block.length) {
+                submitBlock(false);
+                // Write the blocks that are already compressed
+                while (!blocks.isEmpty() && blocks.peek().isDone()) {
+                    writeBlock(blocks.poll());
+                }
+            }
+        }
+    }
+
+
+    private void submitBlock(boolean last) throws IOException {
+        if (blocks.size() >= threads) {
+            writeBlock(blocks.poll());
+        }
+        BlockCompressor compressor = new BlockCompressor(
+                block, blockPos, dictionary, dictionaryLength, last);
+        FutureTask<byte[]> task = new BlockTask(compressor);
+        blocks.add(task);
+        if (!last && blockPos > 0) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                // Compressed by this thread when it is written
+            }
+        }
+        // The end of this block is the dictionary for the next one
+        if (blockPos > 0) {
+            dictionary = block;
+            dictionaryLength = blockPos;
+            block = borrowBlock();
+            blockPos = 0;
+        }
+    }
+
+
+    private byte[] borrowBlock() {
+        byte[] result = spareBlocks.poll();
+        if (result == null || result.length != blockSize) {
+            result = new byte[blockSize];
+        }
+        return result;
+    }
+
+
+    private void releaseBlock(byte[] b) {
+        if (b.length == blockSize && spareBlocks.size() <= threads) {
+            spareBlocks.push(b);
+        }
+    }
+
+
+    private void writeBlock(FutureTask<byte[]> task) throws IOException {
+        // If the executor has not started compressing the block yet, this
+        // thread does it rather than waiting for it
+        task.run();
+        byte[] compressed;
+        try {
+            compressed = task.get();
+        } catch (InterruptedException e) {
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+        // The blocks are written in order so once a block of data has been
+        // compressed, its dictionary (the input of the previous block) is no
+        // longer needed unless it is still the dictionary for the next block
+        BlockCompressor compressor = ((BlockTask) task).compressor;
+        if (compressor.length > 0 && compressor.dictionary != null &&
+                compressor.dictionary != dictionary) {
+            releaseBlock(compressor.dictionary);
+        }
+        writeOutput(compressed, 0, compressed.length);
+    }
+
+
+    private void writeOutput(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
             outputChunk.setBytes(b, off, len);
             buffer.doWrite(outputChunk, null);
+            bytesOut += len;
         }
-        @Override
-        public void flush() throws IOException {/*NOOP*/}
-        @Override
-        public void close() throws IOException {/*NOOP*/}
     }
 
 
+    private long startTime() {
+        if (deflaterPool == null || !deflaterPool.isCpuTimeEnabled()) {
+            return -1;
+        }
+        return DeflaterPool.currentTime();
+    }
+
+
+    private void endTime(long startTime) {
+        if (startTime != -1) {
+            cpuTime += Math.max(0, DeflaterPool.currentTime() - startTime);
+        }
+    }
+
+
+    private static void writeInt(int i, byte[] b, int offset) {
+        b[offset] = (byte) i;
+        b[offset + 1] = (byte) (i >> 8);
+        b[offset + 2] = (byte) (i >> 16);
+        b[offset + 3] = (byte) (i >> 24);
+    }
+
+
+    // ----------------------------------------------- BlockTask Inner Class
+
+
+    private static class BlockTask extends FutureTask<byte[]> {
+
+        private final BlockCompressor compressor;
+
+        BlockTask(BlockCompressor compressor) {
+            super(compressor);
+            this.compressor = compressor;
+        }
+    }
+
+
+    // ----------------------------------------- BlockCompressor Inner Class
+
+
+    private class BlockCompressor implements Callable<byte[]> {
+
+        private final byte[] input;
+        private final int length;
+        private final byte[] dictionary;
+        private final int dictionaryLength;
+        private final boolean last;
+
+        // Read by the thread writing the response
+        private final DeflaterPool deflaterPool;
+        private final int level;
+        private final int strategy;
+
+        BlockCompressor(byte[] input, int length, byte[] dictionary,
+                int dictionaryLength, boolean last) {
+            this.input = input;
+            this.length = length;
+            this.dictionary = dictionary;
+            this.dictionaryLength = dictionaryLength;
+            this.last = last;
+            this.deflaterPool = GzipOutputFilter.this.deflaterPool;
+            this.level = GzipOutputFilter.this.level;
+            this.strategy = GzipOutputFilter.this.strategy;
+        }
+
+        @Override
+        public byte[] call() {
+            long startTime = -1;
+            Deflater deflater;
+            if (deflaterPool == null) {
+                deflater = new Deflater(level, true);
+                deflater.setStrategy(strategy);
+            } else {
+                if (deflaterPool.isCpuTimeEnabled()) {
+                    startTime = DeflaterPool.currentTime();
+                }
+                deflater = deflaterPool.borrow(level, strategy);
+            }
+            try {
+                byte[] result = new byte[length + (length >> 3) + 64];
+                // Without any input this only applies the level and
+                // strategy. Deflater returns as soon as it has applied them,
+                // without the flush, and they must not be applied after the
+                // dictionary is set.
+                int pos = deflater.deflate(result, 0, result.length);
+                if (dictionary != null) {
+                    int dictionaryStart =
+                            Math.max(0, dictionaryLength - DICTIONARY_SIZE);
+                    deflater.setDictionary(dictionary, dictionaryStart,
+                            dictionaryLength - dictionaryStart);
+                }
+                deflater.setInput(input, 0, length);
+                if (last) {
+                    deflater.finish();
+                }
+                int flush = last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH;
+                while (true) {
+                    pos += deflater.deflate(result, pos, result.length - pos,
+                            flush);
+                    if (last ? deflater.finished() : pos < result.length) {
+                        break;
+                    }
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                if (startTime != -1) {
+                    deflaterPool.record(0, 0,
+                            Math.max(0, DeflaterPool.currentTime() - startTime));
+                }
+                return Arrays.copyOf(result, pos);
+            } finally {
+                if (deflaterPool == null) {
+                    deflater.end();
+                } else {
+                    deflaterPool.release(deflater);
+                }
+            }
+        }
+    }
 }
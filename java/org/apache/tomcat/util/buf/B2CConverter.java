@@ -19,6 +19,7 @@ package org.apache.tomcat.util.buf;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetDecoder;
@@ -81,7 +82,16 @@ public class B2CConverter {
         return charset;
     }
 
+    private static final long NON_ASCII_BITS = 0x8080808080808080L;
+
     private final CharsetDecoder decoder;
+
+    /**
+     * Used to convert the ASCII bytes at the start of the input when decoding
+     * UTF-8. The JRE's ISO-8859-1 decoder converts them much faster than
+     * {@link Utf8Decoder}, which examines one byte at a time.
+     */
+    private final CharsetDecoder asciiDecoder;
     private ByteBuffer bb = null;
     private CharBuffer cb = null;
 
@@ -110,8 +120,10 @@ public class B2CConverter {
         // - b) fails faster for some invalid sequences
         if (charset.equals(StandardCharsets.UTF_8)) {
             decoder = new Utf8Decoder();
+            asciiDecoder = StandardCharsets.ISO_8859_1.newDecoder();
         } else {
             decoder = charset.newDecoder();
+            asciiDecoder = null;
         }
         decoder.onMalformedInput(action);
         decoder.onUnmappableCharacter(action);
@@ -135,8 +147,11 @@ public class B2CConverter {
     public void convert(ByteChunk bc, CharChunk cc, boolean endOfInput)
             throws IOException {
         if ((bb == null) || (bb.array() != bc.getBuffer())) {
-            // Create a new byte buffer if anything changed
-            bb = ByteBuffer.wrap(bc.getBuffer(), bc.getStart(), bc.getLength());
+            // Create a new byte buffer if anything changed. The byte order
+            // only matters for the check for ASCII bytes, which is fastest in
+            // the native order.
+            bb = ByteBuffer.wrap(bc.getBuffer(), bc.getStart(),
+                    bc.getLength()).order(ByteOrder.nativeOrder());
         } else {
             // Initialize the byte buffer
             bb.limit(bc.getEnd());
@@ -151,6 +166,14 @@ public class B2CConverter {
             cb.limit(cc.getBuffer().length);
             cb.position(cc.getEnd());
         }
+        if (asciiDecoder != null && leftovers.position() == 0) {
+            convertAscii(bc, cc);
+            if (bc.getLength() == 0) {
+                return;
+            }
+            bb.position(bc.getStart());
+            cb.position(cc.getEnd());
+        }
         CoderResult result = null;
         // Parse leftover if any are present
         if (leftovers.position() > 0) {
@@ -191,4 +214,33 @@ public class B2CConverter {
             }
         }
     }
+
+
+    /*
+     * Converts the ASCII bytes at the start of the byte chunk, for as long as
+     * there is space in the char chunk. Most URIs, headers and form bodies
+     * consist of ASCII only and are converted here in their entirety.
+     */
+    private void convertAscii(ByteChunk bc, CharChunk cc) {
+        byte[] b = bc.getBuffer();
+        int start = bc.getStart();
+        int end = start + Math.min(bc.getLength(),
+                cc.getBuffer().length - cc.getEnd());
+        int pos = start;
+        // Eight bytes at a time (bb wraps b) then one at a time
+        while (pos <= end - 8 && (bb.getLong(pos) & NON_ASCII_BITS) == 0) {
+            pos += 8;
+        }
+        while (pos < end && b[pos] >= 0) {
+            pos++;
+        }
+        if (pos > start) {
+            int limit = bb.limit();
+            bb.limit(pos);
+            asciiDecoder.decode(bb, cb, false);
+            bb.limit(limit);
+            bc.setOffset(pos);
+            cc.setEnd(cb.position());
+        }
+    }
 }
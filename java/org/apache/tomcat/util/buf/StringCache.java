@@ -17,98 +17,113 @@
 package org.apache.tomcat.util.buf;
 
 import java.nio.charset.Charset;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 
 /**
  * This class implements a String cache for ByteChunk and CharChunk.
+ * <p>
+ * The cache is split into shards, selected by the hash of the bytes or chars
+ * being converted. Each shard holds a small two-way set associative table of
+ * Strings and an approximate count of how often each hash has been seen
+ * recently (a count-min sketch of 4-bit counters). A String that is not
+ * cached takes the place of one of the two Strings in its set only if it has
+ * been seen more often than that String. The counts are halved periodically
+ * so the content of the cache follows changes in the traffic.
+ * <p>
+ * Neither look ups nor updates take a lock. Updates to the tables and the
+ * counts are allowed to race. A lost update only means a String is not
+ * cached or a count is slightly low. The entries are immutable so a racing
+ * reader sees either the old or the new entry.
+ * <p>
+ * There is a global cache, configured with system properties. A connector may
+ * have its own cache, in which case it is bound to the threads processing
+ * that connector's requests with {@link #bind(StringCache)}.
  *
  * @author Remy Maucherat
  */
 public class StringCache {
 
 
-    private static final org.apache.juli.logging.Log log=
-        org.apache.juli.logging.LogFactory.getLog( StringCache.class );
-
-
     // ------------------------------------------------------- Static Variables
 
 
     /**
-     * Enabled ?
+     * The minimum number of entries in a shard.
      */
-    protected static boolean byteEnabled = ("true".equals(System.getProperty(
-            "tomcat.util.buf.StringCache.byte.enabled", "false")));
+    private static final int MIN_SHARD_SIZE = 16;
 
 
-    protected static boolean charEnabled = ("true".equals(System.getProperty(
-            "tomcat.util.buf.StringCache.char.enabled", "false")));
+    private static final int MAX_SHARDS = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors()) * 2 - 1);
 
 
-    protected static int trainThreshold = Integer.parseInt(System.getProperty(
-            "tomcat.util.buf.StringCache.trainThreshold", "20000"));
+    private static final StringCache global = new StringCache(
+            Integer.parseInt(System.getProperty(
+                    "tomcat.util.buf.StringCache.cacheSize", "200")),
+            Integer.parseInt(System.getProperty(
+                    "tomcat.util.buf.StringCache.trainThreshold", "20000")),
+            "true".equals(System.getProperty(
+                    "tomcat.util.buf.StringCache.byte.enabled", "false")),
+            "true".equals(System.getProperty(
+                    "tomcat.util.buf.StringCache.char.enabled", "false")));
+
+    static {
+        global.setMaxStringSize(Integer.parseInt(System.getProperty(
+                "tomcat.util.buf.StringCache.maxStringSize", "128")));
+    }
 
 
-    protected static int cacheSize = Integer.parseInt(System.getProperty(
-            "tomcat.util.buf.StringCache.cacheSize", "200"));
+    private static final ThreadLocal<StringCache> current = new ThreadLocal<>();
 
 
-    protected static final int maxStringSize =
-            Integer.parseInt(System.getProperty(
-                    "tomcat.util.buf.StringCache.maxStringSize", "128"));
+    /**
+     * Has a cache ever been bound to a thread? Until one has, there is no need
+     * to look up the cache for the current thread.
+     */
+    private static volatile boolean bound = false;
 
 
-   /**
-     * Statistics hash map for byte chunk.
-     */
-    protected static final HashMap<ByteEntry,int[]> bcStats =
-            new HashMap<>(cacheSize);
+    // ----------------------------------------------------- Instance Variables
 
 
-    /**
-     * toString count for byte chunk.
-     */
-    protected static int bcCount = 0;
+    private volatile boolean byteEnabled;
 
 
-    /**
-     * Cache for byte chunk.
-     */
-    protected static ByteEntry[] bcCache = null;
+    private volatile boolean charEnabled;
 
 
-    /**
-     * Statistics hash map for char chunk.
-     */
-    protected static final HashMap<CharEntry,int[]> ccStats =
-            new HashMap<>(cacheSize);
+    private volatile int cacheSize;
 
 
-    /**
-     * toString count for char chunk.
-     */
-    protected static int ccCount = 0;
+    private volatile int trainThreshold;
 
 
-    /**
-     * Cache for char chunk.
-     */
-    protected static CharEntry[] ccCache = null;
+    private volatile int maxStringSize = 128;
 
 
-    /**
-     * Access count.
-     */
-    protected static int accessCount = 0;
+    private volatile Shard[] shards;
+
+
+    // ----------------------------------------------------------- Constructors
 
 
     /**
-     * Hit count.
+     * Create a cache.
+     *
+     * @param cacheSize      The number of Strings the cache can hold. This is
+     *                       rounded up to a power of two per shard.
+     * @param trainThreshold The number of look ups after which the counts of
+     *                       how often each String has been seen are halved
+     * @param byteEnabled    Should Strings be cached for ByteChunks?
+     * @param charEnabled    Should Strings be cached for CharChunks?
      */
-    protected static int hitCount = 0;
+    public StringCache(int cacheSize, int trainThreshold, boolean byteEnabled,
+            boolean charEnabled) {
+        this.cacheSize = cacheSize;
+        this.trainThreshold = trainThreshold;
+        this.byteEnabled = byteEnabled;
+        this.charEnabled = charEnabled;
+        shards = createShards();
+    }
 
 
     // ------------------------------------------------------------ Properties
@@ -123,10 +138,13 @@ public class StringCache {
 
 
     /**
+     * Set the number of Strings the cache can hold. This clears the cache.
+     *
      * @param cacheSize The cacheSize to set.
      */
     public void setCacheSize(int cacheSize) {
-        StringCache.cacheSize = cacheSize;
+        this.cacheSize = cacheSize;
+        shards = createShards();
     }
 
 
@@ -142,7 +160,7 @@ public class StringCache {
      * @param byteEnabled The enabled to set.
      */
     public void setByteEnabled(boolean byteEnabled) {
-        StringCache.byteEnabled = byteEnabled;
+        this.byteEnabled = byteEnabled;
     }
 
 
@@ -158,7 +176,7 @@ public class StringCache {
      * @param charEnabled The enabled to set.
      */
     public void setCharEnabled(boolean charEnabled) {
-        StringCache.charEnabled = charEnabled;
+        this.charEnabled = charEnabled;
     }
 
 
@@ -171,523 +189,482 @@ public class StringCache {
 
 
     /**
+     * Set the number of look ups after which the counts of how often each
+     * String has been seen are halved. Smaller values make the cache adapt
+     * more quickly to changes in the traffic. This clears the cache.
+     *
      * @param trainThreshold The trainThreshold to set.
      */
     public void setTrainThreshold(int trainThreshold) {
-        StringCache.trainThreshold = trainThreshold;
+        this.trainThreshold = trainThreshold;
+        shards = createShards();
     }
 
 
     /**
-     * @return Returns the accessCount.
+     * @return Returns the maximum length of the Strings that are cached.
      */
-    public int getAccessCount() {
-        return accessCount;
+    public int getMaxStringSize() {
+        return maxStringSize;
     }
 
 
     /**
-     * @return Returns the hitCount.
+     * Set the maximum length of the Strings that are cached. Only chunks
+     * shorter than this are cached.
+     *
+     * @param maxStringSize The maxStringSize to set.
      */
-    public int getHitCount() {
-        return hitCount;
+    public void setMaxStringSize(int maxStringSize) {
+        this.maxStringSize = maxStringSize;
     }
 
 
-    // -------------------------------------------------- Public Static Methods
-
-
-    public void reset() {
-        hitCount = 0;
-        accessCount = 0;
-        synchronized (bcStats) {
-            bcCache = null;
-            bcCount = 0;
-        }
-        synchronized (ccStats) {
-            ccCache = null;
-            ccCount = 0;
+    /**
+     * @return Returns the accessCount.
+     */
+    public long getAccessCount() {
+        Shard[] shards = this.shards;
+        long result = 0;
+        for (Shard shard : shards) {
+            result += shard.accessCount;
         }
+        return result;
     }
 
 
-    public static String toString(ByteChunk bc) {
-
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (bcCache == null) {
-            String value = bc.toStringInternal();
-            if (byteEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (bcStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (bcCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (bcCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<ByteEntry>> tempMap =
-                                new TreeMap<>();
-                        for (Entry<ByteEntry,int[]> item : bcStats.entrySet()) {
-                            ByteEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<ByteEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = bcStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        ByteEntry[] tempbcCache = new ByteEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        ByteChunk tempChunk = new ByteChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<ByteEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                ByteEntry entry = list.get(i);
-                                tempChunk.setBytes(entry.name, 0,
-                                        entry.name.length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempbcCache, n);
-                                if (insertPos == n) {
-                                    tempbcCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempbcCache, insertPos + 1,
-                                            tempbcCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempbcCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        bcCount = 0;
-                        bcStats.clear();
-                        bcCache = tempbcCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("ByteCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        bcCount++;
-                        // Allocate new ByteEntry for the lookup
-                        ByteEntry entry = new ByteEntry();
-                        entry.value = value;
-                        int[] count = bcStats.get(entry);
-                        if (count == null) {
-                            int end = bc.getEnd();
-                            int start = bc.getStart();
-                            // Create byte array and copy bytes
-                            entry.name = new byte[bc.getLength()];
-                            System.arraycopy(bc.getBuffer(), start, entry.name,
-                                    0, end - start);
-                            // Set encoding
-                            entry.charset = bc.getCharset();
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            bcStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
-            }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(bc);
-            if (result == null) {
-                return bc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
+    /**
+     * @return Returns the hitCount.
+     */
+    public long getHitCount() {
+        Shard[] shards = this.shards;
+        long result = 0;
+        for (Shard shard : shards) {
+            result += shard.hitCount;
         }
-
+        return result;
     }
 
 
-    public static String toString(CharChunk cc) {
-
-        // If the cache is null, then either caching is disabled, or we're
-        // still training
-        if (ccCache == null) {
-            String value = cc.toStringInternal();
-            if (charEnabled && (value.length() < maxStringSize)) {
-                // If training, everything is synced
-                synchronized (ccStats) {
-                    // If the cache has been generated on a previous invocation
-                    // while waiting for the lock, just return the toString
-                    // value we just calculated
-                    if (ccCache != null) {
-                        return value;
-                    }
-                    // Two cases: either we just exceeded the train count, in
-                    // which case the cache must be created, or we just update
-                    // the count for the string
-                    if (ccCount > trainThreshold) {
-                        long t1 = System.currentTimeMillis();
-                        // Sort the entries according to occurrence
-                        TreeMap<Integer,ArrayList<CharEntry>> tempMap =
-                                new TreeMap<>();
-                        for (Entry<CharEntry,int[]> item : ccStats.entrySet()) {
-                            CharEntry entry = item.getKey();
-                            int[] countA = item.getValue();
-                            Integer count = Integer.valueOf(countA[0]);
-                            // Add to the list for that count
-                            ArrayList<CharEntry> list = tempMap.get(count);
-                            if (list == null) {
-                                // Create list
-                                list = new ArrayList<>();
-                                tempMap.put(count, list);
-                            }
-                            list.add(entry);
-                        }
-                        // Allocate array of the right size
-                        int size = ccStats.size();
-                        if (size > cacheSize) {
-                            size = cacheSize;
-                        }
-                        CharEntry[] tempccCache = new CharEntry[size];
-                        // Fill it up using an alphabetical order
-                        // and a dumb insert sort
-                        CharChunk tempChunk = new CharChunk();
-                        int n = 0;
-                        while (n < size) {
-                            Object key = tempMap.lastKey();
-                            ArrayList<CharEntry> list = tempMap.get(key);
-                            for (int i = 0; i < list.size() && n < size; i++) {
-                                CharEntry entry = list.get(i);
-                                tempChunk.setChars(entry.name, 0,
-                                        entry.name.length);
-                                int insertPos = findClosest(tempChunk,
-                                        tempccCache, n);
-                                if (insertPos == n) {
-                                    tempccCache[n + 1] = entry;
-                                } else {
-                                    System.arraycopy(tempccCache, insertPos + 1,
-                                            tempccCache, insertPos + 2,
-                                            n - insertPos - 1);
-                                    tempccCache[insertPos + 1] = entry;
-                                }
-                                n++;
-                            }
-                            tempMap.remove(key);
-                        }
-                        ccCount = 0;
-                        ccStats.clear();
-                        ccCache = tempccCache;
-                        if (log.isDebugEnabled()) {
-                            long t2 = System.currentTimeMillis();
-                            log.debug("CharCache generation time: " +
-                                    (t2 - t1) + "ms");
-                        }
-                    } else {
-                        ccCount++;
-                        // Allocate new CharEntry for the lookup
-                        CharEntry entry = new CharEntry();
-                        entry.value = value;
-                        int[] count = ccStats.get(entry);
-                        if (count == null) {
-                            int end = cc.getEnd();
-                            int start = cc.getStart();
-                            // Create char array and copy chars
-                            entry.name = new char[cc.getLength()];
-                            System.arraycopy(cc.getBuffer(), start, entry.name,
-                                    0, end - start);
-                            // Initialize occurrence count to one
-                            count = new int[1];
-                            count[0] = 1;
-                            // Set in the stats hash map
-                            ccStats.put(entry, count);
-                        } else {
-                            count[0] = count[0] + 1;
-                        }
-                    }
-                }
-            }
-            return value;
-        } else {
-            accessCount++;
-            // Find the corresponding String
-            String result = find(cc);
-            if (result == null) {
-                return cc.toStringInternal();
-            }
-            // Note: We don't care about safety for the stats
-            hitCount++;
-            return result;
+    /**
+     * @return Returns the number of Strings that have been removed from the
+     *         cache to make room for Strings that are used more often.
+     */
+    public long getEvictionCount() {
+        Shard[] shards = this.shards;
+        long result = 0;
+        for (Shard shard : shards) {
+            result += shard.evictionCount;
         }
-
+        return result;
     }
 
 
-    // ----------------------------------------------------- Protected Methods
+    /**
+     * @return Returns the ratio of hits to look ups since the cache was
+     *         created or last reset.
+     */
+    public double getHitRate() {
+        long accessCount = getAccessCount();
+        if (accessCount == 0) {
+            return 0;
+        }
+        return (double) getHitCount() / accessCount;
+    }
 
 
     /**
-     * Compare given byte chunk with byte array.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
+     * @return Returns the number of Strings in the cache.
      */
-    protected static final int compare(ByteChunk name, byte[] compareTo) {
+    public int getSize() {
+        Shard[] shards = this.shards;
         int result = 0;
-
-        byte[] b = name.getBuffer();
-        int start = name.getStart();
-        int end = name.getEnd();
-        int len = compareTo.length;
-
-        if ((end - start) < len) {
-            len = end - start;
-        }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (b[i + start] > compareTo[i]) {
-                result = 1;
-            } else if (b[i + start] < compareTo[i]) {
-                result = -1;
+        for (Shard shard : shards) {
+            for (ByteEntry entry : shard.byteEntries) {
+                if (entry != null) {
+                    result++;
+                }
             }
-        }
-        if (result == 0) {
-            if (compareTo.length > (end - start)) {
-                result = -1;
-            } else if (compareTo.length < (end - start)) {
-                result = 1;
+            for (CharEntry entry : shard.charEntries) {
+                if (entry != null) {
+                    result++;
+                }
             }
         }
         return result;
     }
 
 
+    // -------------------------------------------------- Public Static Methods
+
+
     /**
-     * Find an entry given its name in the cache and return the associated
-     * String.
+     * @return the cache that is used unless a connector has bound its own
+     *         cache to the current thread
      */
-    protected static final String find(ByteChunk name) {
-        int pos = findClosest(name, bcCache, bcCache.length);
-        if ((pos < 0) || (compare(name, bcCache[pos].name) != 0)
-                || !(name.getCharset().equals(bcCache[pos].charset))) {
-            return null;
-        } else {
-            return bcCache[pos].value;
-        }
+    public static StringCache getGlobal() {
+        return global;
     }
 
 
     /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
+     * Use the given cache for the conversions made by the current thread.
+     *
+     * @param cache The cache to use or <code>null</code> to use the global
+     *              cache
      */
-    protected static final int findClosest(ByteChunk name, ByteEntry[] array,
-            int len) {
+    public static void bind(StringCache cache) {
+        if (cache != null) {
+            bound = true;
+            current.set(cache);
+        } else if (bound) {
+            current.set(null);
+        }
+    }
 
-        int a = 0;
-        int b = len - 1;
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
-        }
+    public void reset() {
+        shards = createShards();
+    }
 
-        if (compare(name, array[0].name) < 0) {
-            return -1;
+
+    public static String toString(ByteChunk bc) {
+        StringCache cache = global;
+        if (bound) {
+            StringCache c = current.get();
+            if (c != null) {
+                cache = c;
+            }
         }
-        if (b == 0) {
-            return 0;
+        if (!cache.byteEnabled) {
+            return bc.toStringInternal();
         }
+        return cache.find(bc);
+    }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
-            } else {
-                b = i;
-            }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
-                }
+
+    public static String toString(CharChunk cc) {
+        StringCache cache = global;
+        if (bound) {
+            StringCache c = current.get();
+            if (c != null) {
+                cache = c;
             }
         }
-
+        if (!cache.charEnabled) {
+            return cc.toStringInternal();
+        }
+        return cache.find(cc);
     }
 
 
+    // ----------------------------------------------------- Protected Methods
+
+
     /**
-     * Compare given char chunk with char array.
-     * Return -1, 0 or +1 if inferior, equal, or superior to the String.
+     * Find the String for the given byte chunk in the cache, adding it if it
+     * is used often enough.
      */
-    protected static final int compare(CharChunk name, char[] compareTo) {
-        int result = 0;
+    protected String find(ByteChunk name) {
+        int len = name.getLength();
+        if (len >= maxStringSize) {
+            return name.toStringInternal();
+        }
+        byte[] b = name.getBuffer();
+        int start = name.getStart();
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = 31 * hash + b[i];
+        }
+        hash = spread(hash);
+        Shard[] shards = this.shards;
+        return shards[shardIndex(hash, shards.length)].find(name, hash);
+    }
+
 
+    /**
+     * Find the String for the given char chunk in the cache, adding it if it
+     * is used often enough.
+     */
+    protected String find(CharChunk name) {
+        int len = name.getLength();
+        if (len >= maxStringSize) {
+            return name.toStringInternal();
+        }
         char[] c = name.getBuffer();
         int start = name.getStart();
-        int end = name.getEnd();
-        int len = compareTo.length;
+        int hash = 0;
+        for (int i = start; i < start + len; i++) {
+            hash = 31 * hash + c[i];
+        }
+        hash = spread(hash);
+        Shard[] shards = this.shards;
+        return shards[shardIndex(hash, shards.length)].find(name, hash);
+    }
+
+
+    // ------------------------------------------------------- Private Methods
 
-        if ((end - start) < len) {
-            len = end - start;
+
+    private Shard[] createShards() {
+        int size = Math.max(cacheSize, 2);
+        int count = MAX_SHARDS;
+        while (count > 1 && size / count < MIN_SHARD_SIZE) {
+            count >>= 1;
         }
-        for (int i = 0; (i < len) && (result == 0); i++) {
-            if (c[i + start] > compareTo[i]) {
-                result = 1;
-            } else if (c[i + start] < compareTo[i]) {
-                result = -1;
-            }
-        }
-        if (result == 0) {
-            if (compareTo.length > (end - start)) {
-                result = -1;
-            } else if (compareTo.length < (end - start)) {
-                result = 1;
-            }
+        int shardSize = Integer.highestOneBit((size + count - 1) / count * 2 - 1);
+        int sampleSize = Math.max(trainThreshold / count, 1);
+        Shard[] result = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new Shard(shardSize, sampleSize);
         }
         return result;
     }
 
 
-    /**
-     * Find an entry given its name in the cache and return the associated
-     * String.
-     */
-    protected static final String find(CharChunk name) {
-        int pos = findClosest(name, ccCache, ccCache.length);
-        if ((pos < 0) || (compare(name, ccCache[pos].name) != 0)) {
-            return null;
-        } else {
-            return ccCache[pos].value;
-        }
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
     }
 
 
-    /**
-     * Find an entry given its name in a sorted array of map elements.
-     * This will return the index for the closest inferior or equal item in the
-     * given array.
-     */
-    protected static final int findClosest(CharChunk name, CharEntry[] array,
-            int len) {
+    private static int shardIndex(int hash, int count) {
+        // The table uses the low bits, the shards the high ones
+        return (hash >>> 24) & (count - 1);
+    }
 
-        int a = 0;
-        int b = len - 1;
 
-        // Special cases: -1 and 0
-        if (b == -1) {
-            return -1;
+    // ------------------------------------------------------ Shard Inner Class
+
+
+    private static final class Shard {
+
+        private static final long RESET_MASK = 0x7777777777777777L;
+        private static final int[] SEEDS = {
+                0x97CB3127, 0xB492B66F, 0x9AE16A3B, 0xCBF29CE4 };
+
+        private final ByteEntry[] byteEntries;
+        private final CharEntry[] charEntries;
+        private final int mask;
+
+        /*
+         * Count-min sketch with four 4-bit counters per hash, sixteen
+         * counters per long.
+         */
+        private final long[] sketch;
+        private final int sampleSize;
+        private int lookups = 0;
+
+        // Note: We don't care about safety for the stats
+        private long accessCount = 0;
+        private long hitCount = 0;
+        private long evictionCount = 0;
+
+        Shard(int size, int sampleSize) {
+            byteEntries = new ByteEntry[size];
+            charEntries = new CharEntry[size];
+            mask = size - 2;
+            sketch = new long[size];
+            this.sampleSize = sampleSize;
         }
 
-        if (compare(name, array[0].name) < 0 ) {
-            return -1;
+        String find(ByteChunk name, int hash) {
+            accessCount++;
+            int frequency = record(hash);
+            byte[] b = name.getBuffer();
+            int start = name.getStart();
+            int len = name.getLength();
+            Charset charset = name.getCharset();
+            int slot = hash & mask;
+            ByteEntry e0 = byteEntries[slot];
+            if (e0 != null && e0.matches(b, start, len, charset, hash)) {
+                hitCount++;
+                return e0.value;
+            }
+            ByteEntry e1 = byteEntries[slot + 1];
+            if (e1 != null && e1.matches(b, start, len, charset, hash)) {
+                hitCount++;
+                return e1.value;
+            }
+            String value = name.toStringInternal();
+            int victim = victim(slot, e0, e1, frequency);
+            if (victim >= 0) {
+                byte[] copy = new byte[len];
+                System.arraycopy(b, start, copy, 0, len);
+                byteEntries[victim] = new ByteEntry(copy, charset, value, hash);
+            }
+            return value;
         }
-        if (b == 0) {
-            return 0;
+
+        String find(CharChunk name, int hash) {
+            accessCount++;
+            int frequency = record(hash);
+            char[] c = name.getBuffer();
+            int start = name.getStart();
+            int len = name.getLength();
+            int slot = hash & mask;
+            CharEntry e0 = charEntries[slot];
+            if (e0 != null && e0.matches(c, start, len, hash)) {
+                hitCount++;
+                return e0.value;
+            }
+            CharEntry e1 = charEntries[slot + 1];
+            if (e1 != null && e1.matches(c, start, len, hash)) {
+                hitCount++;
+                return e1.value;
+            }
+            String value = name.toStringInternal();
+            int victim = victim(slot, e0, e1, frequency);
+            if (victim >= 0) {
+                char[] copy = new char[len];
+                System.arraycopy(c, start, copy, 0, len);
+                charEntries[victim] = new CharEntry(copy, value, hash);
+            }
+            return value;
         }
 
-        int i = 0;
-        while (true) {
-            i = (b + a) >>> 1;
-            int result = compare(name, array[i].name);
-            if (result == 1) {
-                a = i;
-            } else if (result == 0) {
-                return i;
+        /*
+         * Returns the slot in which to store a String that has been seen the
+         * given number of times or -1 if both slots hold Strings that have
+         * been seen at least as often.
+         */
+        private int victim(int slot, Entry e0, Entry e1, int frequency) {
+            if (e0 == null) {
+                return slot;
+            }
+            if (e1 == null) {
+                return slot + 1;
+            }
+            int f0 = frequency(e0.hash);
+            int f1 = frequency(e1.hash);
+            int victim;
+            int victimFrequency;
+            if (f0 <= f1) {
+                victim = slot;
+                victimFrequency = f0;
             } else {
-                b = i;
+                victim = slot + 1;
+                victimFrequency = f1;
+            }
+            if (frequency > victimFrequency) {
+                evictionCount++;
+                return victim;
             }
-            if ((b - a) == 1) {
-                int result2 = compare(name, array[b].name);
-                if (result2 < 0) {
-                    return a;
-                } else {
-                    return b;
+            return -1;
+        }
+
+        /*
+         * Counts an occurrence of the given hash and returns the number of
+         * times it has been seen, including this one.
+         */
+        private int record(int hash) {
+            int result = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int h = (hash + SEEDS[i]) * SEEDS[i];
+                int index = (h ^ (h >>> 17)) & (sketch.length - 1);
+                int offset = (h >>> 28) << 2;
+                int count = (int) (sketch[index] >>> offset) & 0xF;
+                if (count < 15) {
+                    sketch[index] += 1L << offset;
+                    count++;
                 }
+                result = Math.min(result, count);
             }
+            if (++lookups >= sampleSize) {
+                for (int i = 0; i < sketch.length; i++) {
+                    sketch[i] = (sketch[i] >>> 1) & RESET_MASK;
+                }
+                lookups = 0;
+            }
+            return result;
         }
 
+        private int frequency(int hash) {
+            int result = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int h = (hash + SEEDS[i]) * SEEDS[i];
+                int index = (h ^ (h >>> 17)) & (sketch.length - 1);
+                int offset = (h >>> 28) << 2;
+                result = Math.min(result,
+                        (int) (sketch[index] >>> offset) & 0xF);
+            }
+            return result;
+        }
     }
 
 
-    // -------------------------------------------------- ByteEntry Inner Class
+    // ------------------------------------------------------ Entry Inner Class
 
 
-    private static class ByteEntry {
+    private abstract static class Entry {
 
-        private byte[] name = null;
-        private Charset charset = null;
-        private String value = null;
+        protected final String value;
+        protected final int hash;
+
+        Entry(String value, int hash) {
+            this.value = value;
+            this.hash = hash;
+        }
 
         @Override
         public String toString() {
             return value;
         }
-        @Override
-        public int hashCode() {
-            return value.hashCode();
+    }
+
+
+    // -------------------------------------------------- ByteEntry Inner Class
+
+
+    private static final class ByteEntry extends Entry {
+
+        private final byte[] name;
+        private final Charset charset;
+
+        ByteEntry(byte[] name, Charset charset, String value, int hash) {
+            super(value, hash);
+            this.name = name;
+            this.charset = charset;
         }
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof ByteEntry) {
-                return value.equals(((ByteEntry) obj).value);
+
+        boolean matches(byte[] b, int start, int len, Charset charset,
+                int hash) {
+            if (this.hash != hash || name.length != len ||
+                    !this.charset.equals(charset)) {
+                return false;
+            }
+            for (int i = 0; i < len; i++) {
+                if (b[start + i] != name[i]) {
+                    return false;
+                }
             }
-            return false;
+            return true;
         }
-
     }
 
 
     // -------------------------------------------------- CharEntry Inner Class
 
 
-    private static class CharEntry {
+    private static final class CharEntry extends Entry {
 
-        private char[] name = null;
-        private String value = null;
+        private final char[] name;
 
-        @Override
-        public String toString() {
-            return value;
-        }
-        @Override
-        public int hashCode() {
-            return value.hashCode();
+        CharEntry(char[] name, String value, int hash) {
+            super(value, hash);
+            this.name = name;
         }
-        @Override
-        public boolean equals(Object obj) {
-            if (obj instanceof CharEntry) {
-                return value.equals(((CharEntry) obj).value);
+
+        boolean matches(char[] c, int start, int len, int hash) {
+            if (this.hash != hash || name.length != len) {
+                return false;
             }
-            return false;
+            for (int i = 0; i < len; i++) {
+                if (c[start + i] != name[i]) {
+                    return false;
+                }
+            }
+            return true;
         }
-
     }
-
-
 }
@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * This is intended as a lock-free alternative to {@link SynchronizedQueue}
+ * when many threads add to an unbounded queue that is only ever drained by a
+ * single thread, such as the event queue of a Poller. Entries are stored in
+ * fixed size chunks that are linked together as the queue grows. The slot
+ * array of a chunk is reused once the consumer has moved past it so, as with
+ * {@link SynchronizedQueue}, a queue that is drained regularly does not create
+ * garbage for its entries. Only the small chunk header is not reused since a
+ * slow producer may still be following the links of a chunk the consumer has
+ * finished with.
+ * <p>
+ * {@link #offer(Object)} may be called concurrently by any number of threads.
+ * {@link #poll()} and {@link #clear()} must only ever be called by a single
+ * consumer thread.
+ */
+public class MpscQueue<T> {
+
+    public static final int DEFAULT_CHUNK_SIZE = 128;
+
+    @SuppressWarnings("rawtypes")
+    private static final AtomicReferenceFieldUpdater<MpscQueue,Chunk> PRODUCER_CHUNK =
+            AtomicReferenceFieldUpdater.newUpdater(MpscQueue.class, Chunk.class, "producerChunk");
+
+    private final int chunkSize;
+
+    private final AtomicLong producerIndex = new AtomicLong(0);
+
+    /*
+     * A slot array, all of whose slots are null, that the next chunk may use.
+     */
+    private final AtomicReference<AtomicReferenceArray<Object>> spareSlots =
+            new AtomicReference<>();
+    private volatile Chunk producerChunk;
+
+    /*
+     * Only written by the consumer. Ordered writes are used so that size() is
+     * reasonable when called by other threads.
+     */
+    private final AtomicLong consumerIndex = new AtomicLong(0);
+    private Chunk consumerChunk;
+
+
+    public MpscQueue() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public MpscQueue(int chunkSize) {
+        this.chunkSize = chunkSize;
+        Chunk first = new Chunk(0, new AtomicReferenceArray<>(chunkSize));
+        producerChunk = first;
+        consumerChunk = first;
+    }
+
+
+    public boolean offer(T t) {
+        if (t == null) {
+            throw new NullPointerException();
+        }
+        // Read the chunk before claiming an index. It was published by a
+        // producer that claimed an earlier index so it can never be beyond the
+        // chunk that holds the index claimed below.
+        Chunk chunk = producerChunk;
+        long index = producerIndex.getAndIncrement();
+        long chunkId = index / chunkSize;
+
+        while (chunk.id < chunkId) {
+            Chunk next = chunk.next;
+            if (next == null) {
+                AtomicReferenceArray<Object> slots = spareSlots.getAndSet(null);
+                if (slots == null) {
+                    slots = new AtomicReferenceArray<>(chunkSize);
+                }
+                next = new Chunk(chunk.id + 1, slots);
+                if (!chunk.casNext(next)) {
+                    // Another producer linked the chunk first
+                    spareSlots.compareAndSet(null, slots);
+                    next = chunk.next;
+                }
+            }
+            chunk = next;
+        }
+
+        Chunk current = producerChunk;
+        while (current.id < chunk.id &&
+                !PRODUCER_CHUNK.compareAndSet(this, current, chunk)) {
+            current = producerChunk;
+        }
+
+        chunk.slots.lazySet((int) (index % chunkSize), t);
+        return true;
+    }
+
+
+    public T poll() {
+        long index = consumerIndex.get();
+        if (index == producerIndex.get()) {
+            // empty
+            return null;
+        }
+
+        Chunk chunk = consumerChunk;
+        if (chunk.id < index / chunkSize) {
+            // The producer that claimed this index links the next chunk
+            Chunk next;
+            while ((next = chunk.next) == null) {
+                Thread.yield();
+            }
+            // Every slot of the chunk has been written and consumed so
+            // producers will not use its slots again
+            spareSlots.set(chunk.slots);
+            consumerChunk = chunk = next;
+        }
+
+        int offset = (int) (index % chunkSize);
+        Object result;
+        // The index has been claimed but the producer may not have stored the
+        // entry yet
+        while ((result = chunk.slots.get(offset)) == null) {
+            Thread.yield();
+        }
+        chunk.slots.lazySet(offset, null);
+        consumerIndex.lazySet(index + 1);
+
+        @SuppressWarnings("unchecked")
+        T t = (T) result;
+        return t;
+    }
+
+
+    /**
+     * @return the number of entries in the queue. This is only exact when
+     *         called by the consumer thread with no concurrent offers.
+     */
+    public int size() {
+        long size = producerIndex.get() - consumerIndex.get();
+        if (size > Integer.MAX_VALUE) {
+            return Integer.MAX_VALUE;
+        }
+        return (int) size;
+    }
+
+
+    public void clear() {
+        while (poll() != null) {
+            // Discard
+        }
+    }
+
+
+    private static final class Chunk {
+
+        private static final AtomicReferenceFieldUpdater<Chunk,Chunk> NEXT =
+                AtomicReferenceFieldUpdater.newUpdater(Chunk.class, Chunk.class, "next");
+
+        private final long id;
+        private final AtomicReferenceArray<Object> slots;
+        private volatile Chunk next = null;
+
+        private Chunk(long id, AtomicReferenceArray<Object> slots) {
+            this.id = id;
+            this.slots = slots;
+        }
+
+        private boolean casNext(Chunk next) {
+            return NEXT.compareAndSet(this, null, next);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is intended as a lock-free alternative to {@link SynchronizedStack}
+ * for pools of re-usable objects. Each thread obtains objects from its own
+ * {@link Cache}. An object must be returned to the cache it was obtained from
+ * (objects typically keep a reference to it). When the owning thread returns
+ * it, no synchronization is required. When any other thread returns it, it is
+ * handed back via a lock-free {@link MpscQueue} so hand-offs such as a Poller
+ * thread obtaining objects that worker threads release are still recycled.
+ * <p>
+ * The limit applies to the pool as a whole, like the limit of a
+ * {@link SynchronizedStack}, however many threads have a cache. The number of
+ * cached objects is tracked with a single atomic counter so the caches still
+ * share no lock.
+ * <p>
+ * {@link #clear()} starts a new generation of caches. A cache from an earlier
+ * generation drops its objects the next time it is used and each thread is
+ * given a new cache the next time it calls {@link #getCache()}.
+ */
+public class ThreadLocalPool<T> {
+
+    public static final int DEFAULT_SIZE = 16;
+
+    private final int limit;
+
+    private volatile int generation = 0;
+
+    /*
+     * The number of objects held by the caches of the current generation.
+     * Replaced by clear() so objects still held by stale caches do not count
+     * against the limit of the new generation.
+     */
+    private volatile AtomicInteger size = new AtomicInteger(0);
+
+    private final ThreadLocal<Cache<T>> caches = new ThreadLocal<>();
+
+
+    /**
+     * @param limit The maximum number of objects the caches of all threads
+     *              will hold together, or -1 for no limit
+     */
+    public ThreadLocalPool(int limit) {
+        this.limit = limit;
+    }
+
+
+    /**
+     * @return the cache for the current thread
+     */
+    public Cache<T> getCache() {
+        Cache<T> cache = caches.get();
+        if (cache == null || cache.generation != generation) {
+            cache = new Cache<>(this, Thread.currentThread(), limit);
+            caches.set(cache);
+        }
+        return cache;
+    }
+
+
+    /**
+     * Discard all cached objects. The caches of other threads can't be
+     * modified by this thread so they are marked as stale instead. A stale
+     * cache discards its objects when its owning thread next uses it and no
+     * longer accepts returned objects, and each thread replaces its stale
+     * cache the next time it calls {@link #getCache()}.
+     */
+    public void clear() {
+        size = new AtomicInteger(0);
+        generation++;
+    }
+
+
+    public static final class Cache<T> {
+
+        private final ThreadLocalPool<T> pool;
+        private final int generation;
+        private final Thread owner;
+        private final int limit;
+        private final AtomicInteger size;
+
+        /*
+         * Only accessed by the owning thread.
+         */
+        private Object[] stack;
+        private int index = -1;
+
+        /*
+         * Objects returned by other threads.
+         */
+        private final MpscQueue<T> returned = new MpscQueue<>(DEFAULT_SIZE);
+        private final AtomicInteger returnedCount = new AtomicInteger(0);
+
+        private Cache(ThreadLocalPool<T> pool, Thread owner, int limit) {
+            this.pool = pool;
+            this.size = pool.size;
+            this.generation = pool.generation;
+            this.owner = owner;
+            this.limit = limit;
+            int size = DEFAULT_SIZE;
+            if (limit != -1 && limit < size) {
+                size = limit;
+            }
+            stack = new Object[size];
+        }
+
+
+        /**
+         * Obtain a cached object. Must only be called by the thread that
+         * obtained this cache from {@link ThreadLocalPool#getCache()}.
+         *
+         * @return a cached object or <code>null</code> if none is available
+         */
+        @SuppressWarnings("unchecked")
+        public T pop() {
+            if (isStale()) {
+                discard();
+                return null;
+            }
+            if (index > -1) {
+                T result = (T) stack[index];
+                stack[index--] = null;
+                release();
+                return result;
+            }
+            if (returnedCount.get() > 0) {
+                T result = returned.poll();
+                if (result != null) {
+                    returnedCount.decrementAndGet();
+                    release();
+                }
+                return result;
+            }
+            return null;
+        }
+
+
+        /**
+         * Return an object to this cache. May be called by any thread.
+         *
+         * @return <code>true</code> if the object was cached,
+         *         <code>false</code> if the cache was full
+         */
+        public boolean push(T obj) {
+            if (isStale()) {
+                if (Thread.currentThread() == owner) {
+                    discard();
+                }
+                return false;
+            }
+            if (!reserve()) {
+                return false;
+            }
+            if (Thread.currentThread() == owner) {
+                if (index + 1 == stack.length) {
+                    expand();
+                }
+                stack[++index] = obj;
+                return true;
+            }
+            returnedCount.incrementAndGet();
+            if (returned.offer(obj)) {
+                return true;
+            }
+            returnedCount.decrementAndGet();
+            release();
+            return false;
+        }
+
+
+        /*
+         * Take a place for an object in the pool, if the limit allows it.
+         */
+        private boolean reserve() {
+            if (limit == -1) {
+                return true;
+            }
+            if (size.incrementAndGet() > limit) {
+                size.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+
+        private void release() {
+            if (limit != -1) {
+                size.decrementAndGet();
+            }
+        }
+
+
+        private boolean isStale() {
+            return generation != pool.generation;
+        }
+
+
+        /*
+         * Only called by the owning thread. The objects of a stale cache no
+         * longer count against the limit so there is nothing to release.
+         */
+        private void discard() {
+            while (index > -1) {
+                stack[index--] = null;
+            }
+            if (returnedCount.get() > 0) {
+                returned.clear();
+                returnedCount.set(0);
+            }
+        }
+
+
+        private void expand() {
+            int newSize = stack.length * 2;
+            if (limit != -1 && newSize > limit) {
+                newSize = limit;
+            }
+            Object[] newStack = new Object[newSize];
+            System.arraycopy(stack, 0, newStack, 0, stack.length);
+            stack = newStack;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.List;
+
+/**
+ * A hierarchical timing wheel. Scheduling and cancelling a timeout are
+ * constant time operations and finding the expired timeouts costs time in
+ * proportion to the number of timeouts that expire (plus a small constant per
+ * elapsed tick) rather than to the number of timeouts that are scheduled.
+ * <p>
+ * Time is divided into ticks of a fixed duration. The wheel has four levels
+ * of 64 slots. The first level holds the timeouts that expire within the next
+ * 64 ticks, one slot per tick, the second level those that expire within the
+ * next 64<sup>2</sup> ticks, one slot per 64 ticks and so on. When the first
+ * level has gone round once, the timeouts of the next slot of the second level
+ * are redistributed over the first level, and similarly for the higher levels.
+ * Timeouts further in the future than the highest level can hold are kept in
+ * the highest level until they come into range.
+ * <p>
+ * Timeouts never expire early but may expire up to one tick late.
+ * <p>
+ * This class is not thread safe.
+ *
+ * @param <T> The type of the values associated with the timeouts
+ */
+public class TimerWheel<T> {
+
+    private static final int SLOT_BITS = 6;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_TICKS = (1L << (SLOT_BITS * LEVELS)) - 1;
+
+    private final long tickDuration;
+    private final long origin;
+    private final Timeout<T>[] slots;
+
+    /*
+     * The next tick to process. All scheduled timeouts expire at or after
+     * this tick.
+     */
+    private long currentTick = 0;
+    private int size = 0;
+
+
+    /**
+     * Create a timing wheel.
+     *
+     * @param tickDuration The duration of a tick in the same unit as is used
+     *                     for the deadlines of the timeouts
+     * @param now          The current time
+     */
+    public TimerWheel(long tickDuration, long now) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException();
+        }
+        this.tickDuration = tickDuration;
+        this.origin = now;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        Timeout<T>[] slots = new Timeout[SLOTS * LEVELS];
+        for (int i = 0; i < slots.length; i++) {
+            Timeout<T> head = new Timeout<>(null);
+            head.prev = head;
+            head.next = head;
+            slots[i] = head;
+        }
+        this.slots = slots;
+    }
+
+
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+
+    /**
+     * @return the number of scheduled timeouts
+     */
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * Schedule a timeout. If the timeout is already scheduled, it is
+     * rescheduled.
+     *
+     * @param timeout  The timeout to schedule
+     * @param deadline The time at which the timeout expires
+     */
+    public void schedule(Timeout<T> timeout, long deadline) {
+        if (timeout.isScheduled()) {
+            unlink(timeout);
+        } else {
+            size++;
+        }
+        long delta = deadline - origin;
+        long tick;
+        if (delta <= 0) {
+            tick = 0;
+        } else {
+            tick = delta / tickDuration;
+            if (tick * tickDuration < delta) {
+                tick++;
+            }
+        }
+        timeout.deadline = deadline;
+        timeout.tick = Math.max(tick, currentTick);
+        place(timeout);
+    }
+
+
+    /**
+     * Cancel a timeout.
+     *
+     * @param timeout The timeout to cancel
+     *
+     * @return <code>true</code> if the timeout was scheduled
+     */
+    public boolean cancel(Timeout<T> timeout) {
+        if (!timeout.isScheduled()) {
+            return false;
+        }
+        unlink(timeout);
+        size--;
+        return true;
+    }
+
+
+    /**
+     * Remove the timeouts that have expired.
+     *
+     * @param now     The current time
+     * @param expired The list to which the expired timeouts are added. They
+     *                are no longer scheduled and may be scheduled again.
+     */
+    public void expire(long now, List<Timeout<T>> expired) {
+        long nowTick = (now - origin) / tickDuration;
+        if (size == 0) {
+            if (nowTick >= currentTick) {
+                currentTick = nowTick + 1;
+            }
+            return;
+        }
+        while (currentTick <= nowTick) {
+            // Redistribute the higher levels, highest first, once the levels
+            // below them have gone round
+            int level = 0;
+            while (level + 1 < LEVELS &&
+                    (currentTick & ((1L << (SLOT_BITS * (level + 1))) - 1)) == 0) {
+                level++;
+            }
+            for (; level > 0; level--) {
+                cascade(level);
+            }
+            Timeout<T> head = slots[(int) (currentTick & SLOT_MASK)];
+            Timeout<T> timeout = head.next;
+            while (timeout != head) {
+                Timeout<T> next = timeout.next;
+                timeout.prev = null;
+                timeout.next = null;
+                size--;
+                expired.add(timeout);
+                timeout = next;
+            }
+            head.prev = head;
+            head.next = head;
+            currentTick++;
+            if (size == 0 && currentTick <= nowTick) {
+                currentTick = nowTick + 1;
+            }
+        }
+    }
+
+
+    private void cascade(int level) {
+        int shift = SLOT_BITS * level;
+        Timeout<T> head =
+                slots[level * SLOTS + (int) ((currentTick >> shift) & SLOT_MASK)];
+        Timeout<T> timeout = head.next;
+        // Detach the list first since timeouts may be placed back in this slot
+        head.prev = head;
+        head.next = head;
+        while (timeout != head) {
+            Timeout<T> next = timeout.next;
+            place(timeout);
+            timeout = next;
+        }
+    }
+
+
+    private void place(Timeout<T> timeout) {
+        long delta = timeout.tick - currentTick;
+        long tick = timeout.tick;
+        if (delta > MAX_TICKS) {
+            tick = currentTick + MAX_TICKS;
+            delta = MAX_TICKS;
+        }
+        int level = 0;
+        while (delta >= SLOTS) {
+            delta >>>= SLOT_BITS;
+            level++;
+        }
+        Timeout<T> head = slots[level * SLOTS +
+                (int) ((tick >> (SLOT_BITS * level)) & SLOT_MASK)];
+        timeout.prev = head.prev;
+        timeout.next = head;
+        head.prev.next = timeout;
+        head.prev = timeout;
+    }
+
+
+    private static <T> void unlink(Timeout<T> timeout) {
+        timeout.prev.next = timeout.next;
+        timeout.next.prev = timeout.prev;
+        timeout.prev = null;
+        timeout.next = null;
+    }
+
+
+    /**
+     * A timeout that may be scheduled in a {@link TimerWheel}. It may be
+     * extended to avoid the need for a separate object per timeout.
+     *
+     * @param <T> The type of the value associated with the timeout
+     */
+    public static class Timeout<T> {
+
+        private final T value;
+        private long deadline;
+        private long tick;
+        private Timeout<T> prev;
+        private Timeout<T> next;
+
+        public Timeout(T value) {
+            this.value = value;
+        }
+
+        public T getValue() {
+            return value;
+        }
+
+        /**
+         * @return the deadline with which the timeout was last scheduled
+         */
+        public long getDeadline() {
+            return deadline;
+        }
+
+        public boolean isScheduled() {
+            return next != null;
+        }
+    }
+}
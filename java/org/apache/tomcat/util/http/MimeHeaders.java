@@ -57,11 +57,15 @@ import org.apache.tomcat.util.res.StringManager;
    Apache seems to be using a similar method for storing and manipulating
    headers.
 
+   The names of the well-known headers (see WellKnownHeader) are identified
+   when the headers are added and the position of the first header with each
+   well-known name is recorded, so looking up these headers does not require
+   a case insensitive comparison with every header. Other headers are still
+   found by a linear search.
+
    Future enhancements:
    - hash the headers the first time a header is requested ( i.e. if the
    servlet needs direct access to headers).
-   - scan "common" values ( length, cookies, etc ) during the parse
-   ( addHeader hook )
 
 */
 
@@ -82,7 +86,6 @@ import org.apache.tomcat.util.res.StringManager;
  *  XXX one-buffer parsing - for http ( other protocols don't need that )
  *  XXX remove unused methods
  *  XXX External enumerations, with 0 GC.
- *  XXX use HeaderName ID
  *
  *
  * @author dac@eng.sun.com
@@ -115,6 +118,12 @@ public class MimeHeaders {
      */
     private int limit = -1;
 
+    /**
+     * For each well-known header, the position of the first header field with
+     * that name plus one or zero if there is no such field.
+     */
+    private final int[] first = new int[WellKnownHeader.COUNT];
+
     /**
      * Creates a new MimeHeaders object using a default buffer size.
      */
@@ -148,6 +157,10 @@ public class MimeHeaders {
      */
     public void clear() {
         for (int i = 0; i < count; i++) {
+            WellKnownHeader header = headers[i].getHeader();
+            if (header != null) {
+                first[header.ordinal()] = 0;
+            }
             headers[i].recycle();
         }
         count = 0;
@@ -199,16 +212,21 @@ public class MimeHeaders {
         return n >= 0 && n < count ? headers[n].getValue() : null;
     }
 
+    /**
+     * Returns the well-known header the Nth header is named after, or null if
+     * its name is not well-known or there is no such header.
+     */
+    public WellKnownHeader getHeader(int n) {
+        return n >= 0 && n < count ? headers[n].getHeader() : null;
+    }
+
     /** Find the index of a header with the given name.
      */
     public int findHeader( String name, int starting ) {
-        // We can use a hash - but it's not clear how much
-        // benefit you can get - there is an  overhead
-        // and the number of headers is small (4-5 ?)
-        // Another problem is that we'll pay the overhead
-        // of constructing the hashtable
-
-        // A custom search tree may be better
+        WellKnownHeader header = WellKnownHeader.lookup(name);
+        if (header != null) {
+            return findHeader(header, starting);
+        }
         for (int i = starting; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return i;
@@ -217,6 +235,22 @@ public class MimeHeaders {
         return -1;
     }
 
+    private int findHeader(WellKnownHeader header, int starting) {
+        int i = first[header.ordinal()] - 1;
+        if (i < 0) {
+            return -1;
+        }
+        if (i < starting) {
+            i = starting;
+        }
+        for (; i < count; i++) {
+            if (headers[i].getHeader() == header) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
     // -------------------- --------------------
 
     /**
@@ -238,8 +272,11 @@ public class MimeHeaders {
     /**
      * Adds a partially constructed field to the header.  This
      * field has not had its name or value initialized.
+     *
+     * @param header The well-known header the field will be named after or
+     *               <code>null</code> if the name is not well-known
      */
-    private MimeHeaderField createHeader() {
+    private MimeHeaderField createHeader(WellKnownHeader header) {
         if (limit > -1 && count >= limit) {
             throw new IllegalStateException(sm.getString(
                     "headers.maxCountFail", Integer.valueOf(limit)));
@@ -260,6 +297,12 @@ public class MimeHeaders {
             headers[count] = mh = new MimeHeaderField();
         }
         count++;
+        if (header != null) {
+            mh.setHeader(header);
+            if (first[header.ordinal()] == 0) {
+                first[header.ordinal()] = count;
+            }
+        }
         return mh;
     }
 
@@ -267,7 +310,7 @@ public class MimeHeaders {
         container for the new value
     */
     public MessageBytes addValue( String name ) {
-         MimeHeaderField mh = createHeader();
+        MimeHeaderField mh = createHeader(WellKnownHeader.lookup(name));
         mh.getName().setString(name);
         return mh.getValue();
     }
@@ -278,7 +321,8 @@ public class MimeHeaders {
      */
     public MessageBytes addValue(byte b[], int startN, int len)
     {
-        MimeHeaderField mhf=createHeader();
+        MimeHeaderField mhf =
+                createHeader(WellKnownHeader.lookup(b, startN, len));
         mhf.getName().setBytes(b, startN, len);
         return mhf.getValue();
     }
@@ -289,6 +333,20 @@ public class MimeHeaders {
         if this .
     */
     public MessageBytes setValue( String name ) {
+        WellKnownHeader header = WellKnownHeader.lookup(name);
+        if (header != null) {
+            int i = first[header.ordinal()] - 1;
+            if (i >= 0) {
+                for (int j = findHeader(header, i + 1); j >= 0;
+                        j = findHeader(header, j)) {
+                    removeHeader(j);
+                }
+                return headers[i].getValue();
+            }
+            MimeHeaderField mh = createHeader(header);
+            mh.getName().setString(name);
+            return mh.getValue();
+        }
         for ( int i = 0; i < count; i++ ) {
             if(headers[i].getName().equalsIgnoreCase(name)) {
                 for ( int j=i+1; j < count; j++ ) {
@@ -299,7 +357,7 @@ public class MimeHeaders {
                 return headers[i].getValue();
             }
         }
-        MimeHeaderField mh = createHeader();
+        MimeHeaderField mh = createHeader(null);
         mh.getName().setString(name);
         return mh.getValue();
     }
@@ -311,6 +369,11 @@ public class MimeHeaders {
      * in the header, an arbitrary one is returned.
      */
     public MessageBytes getValue(String name) {
+        WellKnownHeader header = WellKnownHeader.lookup(name);
+        if (header != null) {
+            int i = first[header.ordinal()] - 1;
+            return i < 0 ? null : headers[i].getValue();
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 return headers[i].getValue();
@@ -325,6 +388,17 @@ public class MimeHeaders {
      * unique then an {@link IllegalArgumentException} is thrown.
      */
     public MessageBytes getUniqueValue(String name) {
+        WellKnownHeader header = WellKnownHeader.lookup(name);
+        if (header != null) {
+            int i = first[header.ordinal()] - 1;
+            if (i < 0) {
+                return null;
+            }
+            if (findHeader(header, i + 1) >= 0) {
+                throw new IllegalArgumentException();
+            }
+            return headers[i].getValue();
+        }
         MessageBytes result = null;
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
@@ -355,6 +429,14 @@ public class MimeHeaders {
         // XXX
         // warning: rather sticky code; heavily tuned
 
+        WellKnownHeader header = WellKnownHeader.lookup(name);
+        if (header != null) {
+            for (int i = findHeader(header, 0); i >= 0;
+                    i = findHeader(header, i)) {
+                removeHeader(i);
+            }
+            return;
+        }
         for (int i = 0; i < count; i++) {
             if (headers[i].getName().equalsIgnoreCase(name)) {
                 removeHeader(i--);
@@ -368,11 +450,33 @@ public class MimeHeaders {
      */
     private void removeHeader(int idx) {
         MimeHeaderField mh = headers[idx];
+        WellKnownHeader removed = mh.getHeader();
 
         mh.recycle();
         headers[idx] = headers[count - 1];
         headers[count - 1] = mh;
         count--;
+
+        // The removed header may have been the first with its name and the
+        // header moved into its place may now be the first with its name
+        if (removed != null) {
+            updateFirst(removed);
+        }
+        WellKnownHeader moved = idx < count ? headers[idx].getHeader() : null;
+        if (moved != null && moved != removed) {
+            updateFirst(moved);
+        }
+    }
+
+    private void updateFirst(WellKnownHeader header) {
+        int pos = 0;
+        for (int i = 0; i < count; i++) {
+            if (headers[i].getHeader() == header) {
+                pos = i + 1;
+                break;
+            }
+        }
+        first[header.ordinal()] = pos;
     }
 
 }
@@ -478,6 +582,7 @@ class MimeHeaderField {
 
     private final MessageBytes nameB = MessageBytes.newInstance();
     private final MessageBytes valueB = MessageBytes.newInstance();
+    private WellKnownHeader header;
 
     /**
      * Creates a new, uninitialized header field.
@@ -489,6 +594,7 @@ class MimeHeaderField {
     public void recycle() {
         nameB.recycle();
         valueB.recycle();
+        header = null;
     }
 
     public MessageBytes getName() {
@@ -498,4 +604,16 @@ class MimeHeaderField {
     public MessageBytes getValue() {
         return valueB;
     }
+
+    /**
+     * @return the well-known header this field is named after or
+     *         <code>null</code> if the name is not well-known
+     */
+    public WellKnownHeader getHeader() {
+        return header;
+    }
+
+    public void setHeader(WellKnownHeader header) {
+        this.header = header;
+    }
 }
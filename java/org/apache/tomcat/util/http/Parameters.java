@@ -23,6 +23,7 @@ import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -70,6 +71,19 @@ public final class Parameters {
      */
     private boolean parseFailed = false;
 
+    /*
+     * In lazy mode the parameters parsed from bytes are only split into names
+     * and values. A parameter is URL decoded and converted to Strings when it
+     * is looked up by name or when all the parameters are required (e.g. for
+     * getParameterNames()). Until then, the parameters are held in order in
+     * pending, after any parameters that have already been decoded into
+     * paramHashValues.
+     */
+    private boolean lazy = false;
+    private final ArrayList<LazyParameter> pending = new ArrayList<>();
+    private int pendingCount = 0;
+    private final Map<String,ArrayList<String>> lookedUp = new HashMap<>();
+
     public Parameters() {
         // NO-OP
     }
@@ -100,6 +114,25 @@ public final class Parameters {
         }
     }
 
+    public boolean isLazy() {
+        return lazy;
+    }
+
+    /**
+     * Set whether parameters are only URL decoded and converted to Strings
+     * when they are looked up. This avoids the cost of decoding every
+     * parameter of a large form when the application only reads a few of
+     * them. In this mode decoding errors are only detected, and reported via
+     * {@link #isParseFailed()}, when the affected parameter is decoded and
+     * parameters that fail to decode still count towards the limit.
+     *
+     * @param lazy <code>true</code> to decode parameters when they are looked
+     *             up
+     */
+    public void setLazy(boolean lazy) {
+        this.lazy = lazy;
+    }
+
     public boolean isParseFailed() {
         return parseFailed;
     }
@@ -111,6 +144,11 @@ public final class Parameters {
     public void recycle() {
         parameterCount = 0;
         paramHashValues.clear();
+        for (int i = 0; i < pendingCount; i++) {
+            pending.get(i).recycle();
+        }
+        pendingCount = 0;
+        lookedUp.clear();
         didQueryParameters=false;
         encoding=null;
         decodedQuery.recycle();
@@ -124,7 +162,7 @@ public final class Parameters {
     public String[] getParameterValues(String name) {
         handleQueryParameters();
         // no "facade"
-        ArrayList<String> values = paramHashValues.get(name);
+        ArrayList<String> values = getValues(name);
         if (values == null) {
             return null;
         }
@@ -133,12 +171,13 @@ public final class Parameters {
 
     public Enumeration<String> getParameterNames() {
         handleQueryParameters();
+        decodePending();
         return Collections.enumeration(paramHashValues.keySet());
     }
 
     public String getParameter(String name ) {
         handleQueryParameters();
-        ArrayList<String> values = paramHashValues.get(name);
+        ArrayList<String> values = getValues(name);
         if (values != null) {
             if(values.size() == 0) {
                 return "";
@@ -184,6 +223,20 @@ public final class Parameters {
             return;
         }
 
+        countParameter();
+
+        if (pendingCount > 0) {
+            // Keep the order of the parameters
+            LazyParameter p = nextPending();
+            p.name = key;
+            p.value = value;
+            lookedUp.clear();
+            return;
+        }
+        addDecoded(key, value);
+    }
+
+    private void countParameter() {
         parameterCount ++;
         if (limit > -1 && parameterCount > limit) {
             // Processing this parameter will push us over the limit. ISE is
@@ -192,7 +245,9 @@ public final class Parameters {
             throw new IllegalStateException(sm.getString(
                     "parameters.maxCountFail", Integer.valueOf(limit)));
         }
+    }
 
+    private void addDecoded(String key, String value) {
         ArrayList<String> values = paramHashValues.get(key);
         if (values == null) {
             values = new ArrayList<>(1);
@@ -230,6 +285,11 @@ public final class Parameters {
         }
 
         int decodeFailCount = 0;
+        // Plain ASCII names may be compared with the bytes if the charset
+        // maps ASCII bytes to the same characters
+        boolean asciiNames = lazy && (DEFAULT_CHARSET.equals(charset) ||
+                StandardCharsets.UTF_8.equals(charset) ||
+                StandardCharsets.US_ASCII.equals(charset));
 
         int pos = start;
         int end = start + len;
@@ -338,6 +398,27 @@ public final class Parameters {
                 // invalid chunk - it's better to ignore
             }
 
+            if (lazy) {
+                try {
+                    countParameter();
+                } catch (IllegalStateException ise) {
+                    logMaxCountFail(ise);
+                    break;
+                }
+                LazyParameter p = nextPending();
+                p.bytes = bytes;
+                p.charset = charset;
+                p.asciiName = asciiNames && !decodeName;
+                p.nameStart = nameStart;
+                p.nameEnd = nameEnd;
+                p.decodeName = decodeName;
+                p.valueStart = valueStart;
+                p.valueEnd = valueEnd;
+                p.decodeValue = decodeValue;
+                lookedUp.clear();
+                continue;
+            }
+
             tmpName.setBytes(bytes, nameStart, nameEnd - nameStart);
             if (valueStart >= 0) {
                 tmpValue.setBytes(bytes, valueStart, valueEnd - valueStart);
@@ -385,24 +466,7 @@ public final class Parameters {
                 try {
                     addParameter(name, value);
                 } catch (IllegalStateException ise) {
-                    // Hitting limit stops processing further params but does
-                    // not cause request to fail.
-                    parseFailed = true;
-                    UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
-                    if (logMode != null) {
-                        String message = ise.getMessage();
-                        switch (logMode) {
-                            case INFO_THEN_DEBUG:
-                                message += sm.getString(
-                                        "parameters.maxCountFail.fallToDebug");
-                                //$FALL-THROUGH$
-                            case INFO:
-                                log.info(message);
-                                break;
-                            case DEBUG:
-                                log.debug(message);
-                        }
-                    }
+                    logMaxCountFail(ise);
                     break;
                 }
             } catch (IOException e) {
@@ -410,25 +474,9 @@ public final class Parameters {
                 decodeFailCount++;
                 if (decodeFailCount == 1 || log.isDebugEnabled()) {
                     if (log.isDebugEnabled()) {
-                        log.debug(sm.getString("parameters.decodeFail.debug",
-                                origName.toString(), origValue.toString()), e);
-                    } else if (log.isInfoEnabled()) {
-                        UserDataHelper.Mode logMode = userDataLog.getNextMode();
-                        if (logMode != null) {
-                            String message = sm.getString(
-                                    "parameters.decodeFail.info",
-                                    tmpName.toString(), tmpValue.toString());
-                            switch (logMode) {
-                                case INFO_THEN_DEBUG:
-                                    message += sm.getString("parameters.fallToDebug");
-                                    //$FALL-THROUGH$
-                                case INFO:
-                                    log.info(message);
-                                    break;
-                                case DEBUG:
-                                    log.debug(message);
-                            }
-                        }
+                        logDecodeFail(origName.toString(), origValue.toString(), e);
+                    } else {
+                        logDecodeFail(tmpName.toString(), tmpValue.toString(), e);
                     }
                 }
             }
@@ -462,6 +510,198 @@ public final class Parameters {
         }
     }
 
+    private void logDecodeFail(String name, String value, IOException e) {
+        if (log.isDebugEnabled()) {
+            log.debug(sm.getString("parameters.decodeFail.debug", name,
+                    value), e);
+        } else if (log.isInfoEnabled()) {
+            UserDataHelper.Mode logMode = userDataLog.getNextMode();
+            if (logMode != null) {
+                String message = sm.getString("parameters.decodeFail.info",
+                        name, value);
+                switch (logMode) {
+                    case INFO_THEN_DEBUG:
+                        message += sm.getString("parameters.fallToDebug");
+                        //$FALL-THROUGH$
+                    case INFO:
+                        log.info(message);
+                        break;
+                    case DEBUG:
+                        log.debug(message);
+                }
+            }
+        }
+    }
+
+    private void logMaxCountFail(IllegalStateException ise) {
+        // Hitting limit stops processing further params but does
+        // not cause request to fail.
+        parseFailed = true;
+        UserDataHelper.Mode logMode = maxParamCountLog.getNextMode();
+        if (logMode != null) {
+            String message = ise.getMessage();
+            switch (logMode) {
+                case INFO_THEN_DEBUG:
+                    message += sm.getString(
+                            "parameters.maxCountFail.fallToDebug");
+                    //$FALL-THROUGH$
+                case INFO:
+                    log.info(message);
+                    break;
+                case DEBUG:
+                    log.debug(message);
+            }
+        }
+    }
+
+    // -------------------- Lazy decoding --------------------
+
+    private LazyParameter nextPending() {
+        LazyParameter p;
+        if (pendingCount < pending.size()) {
+            p = pending.get(pendingCount);
+        } else {
+            p = new LazyParameter();
+            pending.add(p);
+        }
+        pendingCount++;
+        return p;
+    }
+
+    /**
+     * Find the values of a parameter, decoding only the pending parameters
+     * with the given name.
+     */
+    private ArrayList<String> getValues(String name) {
+        if (pendingCount == 0 || name == null) {
+            return paramHashValues.get(name);
+        }
+        ArrayList<String> values = lookedUp.get(name);
+        if (values == null) {
+            ArrayList<String> decoded = paramHashValues.get(name);
+            if (decoded == null) {
+                values = new ArrayList<>(1);
+            } else {
+                values = new ArrayList<>(decoded);
+            }
+            for (int i = 0; i < pendingCount; i++) {
+                LazyParameter p = pending.get(i);
+                if (nameEquals(p, name) && decodeValue(p)) {
+                    values.add(p.value);
+                }
+            }
+            lookedUp.put(name, values);
+        }
+        return values.isEmpty() ? null : values;
+    }
+
+    /**
+     * Decode all the pending parameters into paramHashValues.
+     */
+    private void decodePending() {
+        if (pendingCount == 0) {
+            return;
+        }
+        for (int i = 0; i < pendingCount; i++) {
+            LazyParameter p = pending.get(i);
+            if (decodeName(p) && decodeValue(p)) {
+                addDecoded(p.name, p.value);
+            }
+            p.recycle();
+        }
+        pendingCount = 0;
+        lookedUp.clear();
+    }
+
+    private boolean nameEquals(LazyParameter p, String name) {
+        if (p.name != null) {
+            return p.name.equals(name);
+        }
+        if (p.failed) {
+            return false;
+        }
+        if (p.asciiName) {
+            int len = p.nameEnd - p.nameStart;
+            for (int i = 0; i < len; i++) {
+                byte b = p.bytes[p.nameStart + i];
+                if (b < 0) {
+                    // Not ASCII, leave it to the charset
+                    return decodeName(p) && p.name.equals(name);
+                }
+                if (i == name.length() || name.charAt(i) != b) {
+                    return false;
+                }
+            }
+            return len == name.length();
+        }
+        return decodeName(p) && p.name.equals(name);
+    }
+
+    private boolean decodeName(LazyParameter p) {
+        if (p.name != null) {
+            return true;
+        }
+        if (p.failed) {
+            return false;
+        }
+        tmpName.setBytes(p.bytes, p.nameStart, p.nameEnd - p.nameStart);
+        try {
+            if (p.decodeName) {
+                urlDecode(tmpName);
+            }
+            tmpName.setCharset(p.charset);
+            p.name = tmpName.toString();
+            return true;
+        } catch (IOException e) {
+            decodeFailed(p, e);
+            return false;
+        } finally {
+            tmpName.recycle();
+        }
+    }
+
+    private boolean decodeValue(LazyParameter p) {
+        if (p.value != null) {
+            return true;
+        }
+        if (p.failed) {
+            return false;
+        }
+        if (p.valueStart < 0) {
+            p.value = "";
+            return true;
+        }
+        tmpValue.setBytes(p.bytes, p.valueStart, p.valueEnd - p.valueStart);
+        try {
+            if (p.decodeValue) {
+                urlDecode(tmpValue);
+            }
+            tmpValue.setCharset(p.charset);
+            p.value = tmpValue.toString();
+            return true;
+        } catch (IOException e) {
+            decodeFailed(p, e);
+            return false;
+        } finally {
+            tmpValue.recycle();
+        }
+    }
+
+    private void decodeFailed(LazyParameter p, IOException e) {
+        p.failed = true;
+        parseFailed = true;
+        String name = new String(p.bytes, p.nameStart,
+                p.nameEnd - p.nameStart, DEFAULT_CHARSET);
+        String value;
+        if (p.valueStart < 0) {
+            value = "";
+        } else {
+            value = new String(p.bytes, p.valueStart,
+                    p.valueEnd - p.valueStart, DEFAULT_CHARSET);
+        }
+        logDecodeFail(name, value, e);
+    }
+
     private void urlDecode(ByteChunk bc)
         throws IOException {
         if( urlDec==null ) {
@@ -499,6 +739,7 @@ public final class Parameters {
      */
     @Override
     public String toString() {
+        decodePending();
         StringBuilder sb = new StringBuilder();
         for (Map.Entry<String, ArrayList<String>> e : paramHashValues.entrySet()) {
             sb.append(e.getKey()).append('=');
@@ -510,4 +751,32 @@ public final class Parameters {
         }
         return sb.toString();
     }
+
+
+    /**
+     * A parameter that has been parsed but not yet (fully) decoded. Instances
+     * are re-used across requests.
+     */
+    private static final class LazyParameter {
+        private byte[] bytes;
+        private Charset charset;
+        private boolean asciiName;
+        private int nameStart;
+        private int nameEnd;
+        private boolean decodeName;
+        private int valueStart;
+        private int valueEnd;
+        private boolean decodeValue;
+        private boolean failed;
+        private String name;
+        private String value;
+
+        private void recycle() {
+            bytes = null;
+            charset = null;
+            failed = false;
+            name = null;
+            value = null;
+        }
+    }
 }
@@ -0,0 +1,214 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.tomcat.util.buf.Ascii;
+
+/**
+ * The HTTP headers that the container itself reads or writes, or that are
+ * commonly present in requests. {@link MimeHeaders} identifies these headers
+ * once, when they are added, so that looking them up does not require a
+ * case insensitive comparison with every header.
+ */
+public enum WellKnownHeader {
+
+    ACCEPT("Accept"),
+    ACCEPT_CHARSET("Accept-Charset"),
+    ACCEPT_ENCODING("Accept-Encoding"),
+    ACCEPT_LANGUAGE("Accept-Language"),
+    ACCEPT_RANGES("Accept-Ranges"),
+    AUTHORIZATION("Authorization"),
+    CACHE_CONTROL("Cache-Control"),
+    CONNECTION("Connection"),
+    CONTENT_DISPOSITION("Content-Disposition"),
+    CONTENT_ENCODING("Content-Encoding"),
+    CONTENT_LANGUAGE("Content-Language"),
+    CONTENT_LENGTH("Content-Length"),
+    CONTENT_RANGE("Content-Range"),
+    CONTENT_TYPE("Content-Type"),
+    COOKIE("Cookie"),
+    DATE("Date"),
+    ETAG("ETag"),
+    EXPECT("Expect"),
+    EXPIRES("Expires"),
+    HOST("Host"),
+    IF_MATCH("If-Match"),
+    IF_MODIFIED_SINCE("If-Modified-Since"),
+    IF_NONE_MATCH("If-None-Match"),
+    IF_RANGE("If-Range"),
+    IF_UNMODIFIED_SINCE("If-Unmodified-Since"),
+    KEEP_ALIVE("Keep-Alive"),
+    LAST_MODIFIED("Last-Modified"),
+    LOCATION("Location"),
+    ORIGIN("Origin"),
+    PRAGMA("Pragma"),
+    RANGE("Range"),
+    REFERER("Referer"),
+    SERVER("Server"),
+    SET_COOKIE("Set-Cookie"),
+    TE("TE"),
+    TRAILER("Trailer"),
+    TRANSFER_ENCODING("Transfer-Encoding"),
+    UPGRADE("Upgrade"),
+    USER_AGENT("User-Agent"),
+    VARY("Vary"),
+    WWW_AUTHENTICATE("WWW-Authenticate"),
+    X_FORWARDED_FOR("X-Forwarded-For"),
+    X_FORWARDED_PROTO("X-Forwarded-Proto");
+
+    /**
+     * The number of well-known headers.
+     */
+    static final int COUNT = values().length;
+
+    /*
+     * Open addressing hash table, indexed by a case insensitive hash of the
+     * length and the first and last characters of the name. Hashing only
+     * those is enough to tell the well-known headers apart and keeps
+     * identifying the (often long) names of the other headers cheap.
+     */
+    private static final int TABLE_MASK = 127;
+    private static final WellKnownHeader[] TABLE =
+            new WellKnownHeader[TABLE_MASK + 1];
+
+    /*
+     * Most look ups by String use a literal in the same case as the name
+     * (or in lower case) and are found here without hashing the name.
+     */
+    private static final Map<String,WellKnownHeader> BY_NAME = new HashMap<>();
+
+    static {
+        for (WellKnownHeader header : values()) {
+            String lower = header.lowerCaseName;
+            int slot = hash(lower.length(), lower.charAt(0),
+                    lower.charAt(lower.length() - 1)) & TABLE_MASK;
+            while (TABLE[slot] != null) {
+                slot = (slot + 1) & TABLE_MASK;
+            }
+            TABLE[slot] = header;
+            BY_NAME.put(header.name, header);
+            BY_NAME.put(header.lowerCaseName, header);
+        }
+    }
+
+    private final String name;
+    private final byte[] nameBytes;
+    private final String lowerCaseName;
+    private final byte[] lowerCaseBytes;
+
+    private WellKnownHeader(String name) {
+        this.name = name;
+        this.nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+        this.lowerCaseName = name.toLowerCase(Locale.ENGLISH);
+        this.lowerCaseBytes =
+                lowerCaseName.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    public String getName() {
+        return name;
+    }
+
+
+    /**
+     * @return the name, in the case returned by {@link #getName()}, encoded
+     *         as it is sent in a response. The array must not be modified.
+     */
+    public byte[] getNameBytes() {
+        return nameBytes;
+    }
+
+
+    /**
+     * Identify a header name.
+     *
+     * @param name The header name in any case
+     *
+     * @return the header or <code>null</code> if it is not well-known
+     */
+    public static WellKnownHeader lookup(String name) {
+        WellKnownHeader result = BY_NAME.get(name);
+        if (result != null) {
+            return result;
+        }
+        int len = name.length();
+        if (len == 0) {
+            return null;
+        }
+        int slot = hash(len, Ascii.toLower(name.charAt(0)),
+                Ascii.toLower(name.charAt(len - 1))) & TABLE_MASK;
+        while ((result = TABLE[slot]) != null) {
+            String candidate = result.lowerCaseName;
+            if (candidate.length() == len) {
+                int i = 0;
+                char c;
+                while (i < len && (c = name.charAt(i)) < 128 &&
+                        Ascii.toLower(c) == candidate.charAt(i)) {
+                    i++;
+                }
+                if (i == len) {
+                    return result;
+                }
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return null;
+    }
+
+
+    /**
+     * Identify a header name.
+     *
+     * @param b     The bytes that contain the header name in any case
+     * @param start The start of the name
+     * @param len   The length of the name
+     *
+     * @return the header or <code>null</code> if it is not well-known
+     */
+    public static WellKnownHeader lookup(byte[] b, int start, int len) {
+        if (len == 0) {
+            return null;
+        }
+        int slot = hash(len, Ascii.toLower(b[start]),
+                Ascii.toLower(b[start + len - 1])) & TABLE_MASK;
+        WellKnownHeader result;
+        while ((result = TABLE[slot]) != null) {
+            byte[] candidate = result.lowerCaseBytes;
+            if (candidate.length == len) {
+                int i = 0;
+                while (i < len && Ascii.toLower(b[start + i]) == candidate[i]) {
+                    i++;
+                }
+                if (i == len) {
+                    return result;
+                }
+            }
+            slot = (slot + 1) & TABLE_MASK;
+        }
+        return null;
+    }
+
+
+    private static int hash(int len, int first, int last) {
+        return (len * 31 + first) * 31 + last;
+    }
+}
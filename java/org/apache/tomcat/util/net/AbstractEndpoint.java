@@ -17,15 +17,20 @@
 package org.apache.tomcat.util.net;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ConcurrentHashMap;
@@ -38,6 +43,7 @@ import javax.net.ssl.SSLParameters;
 
 import org.apache.juli.logging.Log;
 import org.apache.tomcat.util.IntrospectionUtils;
+import org.apache.tomcat.util.collections.TimerWheel;
 import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.res.StringManager;
 import org.apache.tomcat.util.threads.LimitLatch;
@@ -58,6 +64,26 @@ public abstract class AbstractEndpoint<S> {
 
     protected static final StringManager sm = StringManager.getManager("org.apache.tomcat.util.net.res");
 
+    /**
+     * The SO_REUSEPORT socket option. This is only exposed by Java 9 onwards
+     * so it is looked up via reflection and is <code>null</code> on older
+     * JREs.
+     */
+    private static final SocketOption<Boolean> SO_REUSEPORT;
+
+    static {
+        SocketOption<Boolean> option = null;
+        try {
+            @SuppressWarnings("unchecked")
+            SocketOption<Boolean> reusePort = (SocketOption<Boolean>)
+                    StandardSocketOptions.class.getField("SO_REUSEPORT").get(null);
+            option = reusePort;
+        } catch (ReflectiveOperationException e) {
+            // Not available on this JRE
+        }
+        SO_REUSEPORT = option;
+    }
+
     public static interface Handler {
         /**
          * Different types of socket states to react upon.
@@ -123,6 +149,8 @@ public abstract class AbstractEndpoint<S> {
         @Override
         public void run() {
 
+            List<TimerWheel.Timeout<SocketWrapper<S>>> expired = new ArrayList<>();
+
             // Loop until we receive a shutdown command
             while (asyncTimeoutRunning) {
                 try {
@@ -131,14 +159,26 @@ public abstract class AbstractEndpoint<S> {
                     // Ignore
                 }
                 long now = System.currentTimeMillis();
-                for (SocketWrapper<S> socket : waitingRequests) {
+                synchronized (waitingTimeouts) {
+                    waitingTimeouts.expire(now, expired);
+                }
+                for (TimerWheel.Timeout<SocketWrapper<S>> timeout : expired) {
+                    SocketWrapper<S> socket = timeout.getValue();
+                    if (!waitingRequests.contains(socket)) {
+                        continue;
+                    }
                     long access = socket.getLastAccess();
                     if (socket.getTimeout() > 0 && (now - access) > socket.getTimeout()) {
                         // Prevent multiple timeouts
                         socket.setTimeout(-1);
                         processSocket(socket, SocketStatus.TIMEOUT, true);
+                    } else {
+                        // There has been activity since the timeout was
+                        // scheduled
+                        scheduleWaitingTimeout(socket);
                     }
                 }
+                expired.clear();
 
                 // Loop if endpoint is paused
                 while (paused && asyncTimeoutRunning) {
@@ -763,8 +803,17 @@ public abstract class AbstractEndpoint<S> {
         startInternal();
     }
 
+    /**
+     * The number of acceptor threads to start. Endpoints that derive the
+     * number of acceptors from other settings override this rather than
+     * changing the configured acceptorThreadCount.
+     */
+    protected int getEffectiveAcceptorThreadCount() {
+        return getAcceptorThreadCount();
+    }
+
     protected final void startAcceptorThreads() {
-        int count = getAcceptorThreadCount();
+        int count = getEffectiveAcceptorThreadCount();
         acceptors = new Acceptor[count];
 
         for (int i = 0; i < count; i++) {
@@ -840,6 +889,27 @@ public abstract class AbstractEndpoint<S> {
     }
 
     protected abstract Log getLog();
+
+
+    /**
+     * Can SO_REUSEPORT be used to bind more than one listening socket to the
+     * same address with the given channel type on this JRE and platform?
+     */
+    protected static boolean isReusePortSupported(NetworkChannel channel) {
+        return SO_REUSEPORT != null &&
+                channel.supportedOptions().contains(SO_REUSEPORT);
+    }
+
+
+    /**
+     * Enable SO_REUSEPORT on the given (not yet bound) channel. Callers must
+     * have checked {@link #isReusePortSupported(NetworkChannel)} first.
+     */
+    protected static void setReusePort(NetworkChannel channel)
+            throws IOException {
+        channel.setOption(SO_REUSEPORT, Boolean.TRUE);
+    }
+
     // Flags to indicate optional feature support
     // Some of these are always hard-coded, some are hard-coded to false (i.e.
     // the endpoint does not support them) and some are configurable.
@@ -1060,6 +1130,62 @@ public abstract class AbstractEndpoint<S> {
     protected final Set<SocketWrapper<S>> waitingRequests = Collections
             .newSetFromMap(new ConcurrentHashMap<SocketWrapper<S>, Boolean>());
 
+    /**
+     * The timeouts of the {@link #waitingRequests}, checked once a second by
+     * the {@link AsyncTimeout} thread. Access must be synchronized on the
+     * wheel.
+     */
+    private final TimerWheel<SocketWrapper<S>> waitingTimeouts =
+            new TimerWheel<>(1000, System.currentTimeMillis());
+
+    /**
+     * Add a socket that is waiting for an async request to complete and
+     * schedule its timeout.
+     */
+    protected void addWaitingRequest(SocketWrapper<S> socket) {
+        waitingRequests.add(socket);
+        socket.setWaitingEndpoint(this);
+        scheduleWaitingTimeout(socket);
+    }
+
+    /**
+     * Remove a socket from the waiting requests and cancel its timeout.
+     *
+     * @return <code>true</code> if the socket was waiting
+     */
+    protected boolean removeWaitingRequest(SocketWrapper<S> socket) {
+        boolean result = waitingRequests.remove(socket);
+        socket.setWaitingEndpoint(null);
+        synchronized (waitingTimeouts) {
+            waitingTimeouts.cancel(socket.getWaitingTimeout());
+        }
+        return result;
+    }
+
+    /**
+     * Called by {@link SocketWrapper#setTimeout(long)} when the timeout of a
+     * socket that is waiting for an async request to complete changes so
+     * that a shorter, new or removed timeout takes effect immediately.
+     */
+    void waitingTimeoutChanged(SocketWrapper<S> socket) {
+        if (waitingRequests.contains(socket)) {
+            scheduleWaitingTimeout(socket);
+        }
+    }
+
+    private void scheduleWaitingTimeout(SocketWrapper<S> socket) {
+        long timeout = socket.getTimeout();
+        long deadline = socket.getLastAccess() + timeout;
+        synchronized (waitingTimeouts) {
+            if (timeout > 0 && deadline > 0) {
+                waitingTimeouts.schedule(socket.getWaitingTimeout(), deadline);
+            } else {
+                // No timeout (or an overflow from a very large one)
+                waitingTimeouts.cancel(socket.getWaitingTimeout());
+            }
+        }
+    }
+
     /**
      * Configures SSLEngine to honor cipher suites ordering based upon
      * endpoint configuration.
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.tomcat.util.collections.SynchronizedStack;
+
+/**
+ * A pool of heap or direct {@link ByteBuffer}s that is shared by all the
+ * connections of an endpoint. Buffers are grouped in power of two size
+ * classes so a request for a buffer is always satisfied by a buffer with a
+ * capacity of the requested size rounded up to the next power of two.
+ * <p>
+ * Buffers that are released are cached until the total capacity of the cached
+ * buffers reaches the configured limit. Buffers released after that are left
+ * for the garbage collector.
+ */
+public class ByteBufferPool {
+
+    private final boolean direct;
+
+    /*
+     * Maximum number of bytes held by cached buffers. -1 is unlimited, 0
+     * disables caching.
+     */
+    private final long maxPooledBytes;
+
+    /*
+     * Indexed by the base 2 log of the capacity of the buffers they hold.
+     */
+    private final SynchronizedStack<ByteBuffer>[] sizeClasses;
+
+    private final AtomicLong pooledBytes = new AtomicLong(0);
+    private final AtomicLong pinnedBytes = new AtomicLong(0);
+    private final AtomicLong hitCount = new AtomicLong(0);
+    private final AtomicLong missCount = new AtomicLong(0);
+
+
+    /**
+     * @param direct         Should direct buffers be allocated?
+     * @param maxPooledBytes The maximum number of bytes cached buffers may
+     *                       hold, -1 for unlimited or 0 to disable caching
+     */
+    public ByteBufferPool(boolean direct, long maxPooledBytes) {
+        this.direct = direct;
+        this.maxPooledBytes = maxPooledBytes;
+        @SuppressWarnings({"rawtypes", "unchecked"})
+        SynchronizedStack<ByteBuffer>[] stacks = new SynchronizedStack[Integer.SIZE];
+        for (int i = 0; i < stacks.length; i++) {
+            stacks[i] = new SynchronizedStack<>();
+        }
+        sizeClasses = stacks;
+    }
+
+
+    /**
+     * Obtain a cleared buffer from the pool, allocating a new one if none of
+     * the right size is available.
+     *
+     * @param size The minimum capacity of the buffer
+     * @return a buffer with a capacity of size rounded up to the next power of
+     *         two
+     */
+    public ByteBuffer allocate(int size) {
+        int sizeClass = sizeClass(size);
+        ByteBuffer result = sizeClasses[sizeClass].pop();
+        if (result == null) {
+            missCount.incrementAndGet();
+            int capacity = 1 << sizeClass;
+            if (direct) {
+                result = ByteBuffer.allocateDirect(capacity);
+            } else {
+                result = ByteBuffer.allocate(capacity);
+            }
+        } else {
+            hitCount.incrementAndGet();
+            pooledBytes.addAndGet(-result.capacity());
+            result.clear();
+        }
+        pinnedBytes.addAndGet(result.capacity());
+        return result;
+    }
+
+
+    /**
+     * Return a buffer obtained from {@link #allocate(int)} to the pool. The
+     * buffer must not be used by the caller once it has been released.
+     *
+     * @param buffer The buffer to return
+     */
+    public void release(ByteBuffer buffer) {
+        int capacity = buffer.capacity();
+        pinnedBytes.addAndGet(-capacity);
+        if (maxPooledBytes != -1 &&
+                pooledBytes.addAndGet(capacity) > maxPooledBytes) {
+            pooledBytes.addAndGet(-capacity);
+            return;
+        } else if (maxPooledBytes == -1) {
+            pooledBytes.addAndGet(capacity);
+        }
+        sizeClasses[sizeClass(capacity)].push(buffer);
+    }
+
+
+    /**
+     * Discard all cached buffers. Buffers currently in use may still be
+     * released to the pool.
+     */
+    public void clear() {
+        for (SynchronizedStack<ByteBuffer> sizeClass : sizeClasses) {
+            ByteBuffer buffer;
+            while ((buffer = sizeClass.pop()) != null) {
+                pooledBytes.addAndGet(-buffer.capacity());
+            }
+        }
+    }
+
+
+    public boolean isDirect() {
+        return direct;
+    }
+
+
+    /**
+     * @return the total capacity of the buffers currently held by connections
+     */
+    public long getPinnedBytes() {
+        return pinnedBytes.get();
+    }
+
+
+    /**
+     * @return the total capacity of the buffers currently cached by the pool
+     */
+    public long getPooledBytes() {
+        return pooledBytes.get();
+    }
+
+
+    /**
+     * @return the number of allocations satisfied by a cached buffer
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+
+    /**
+     * @return the number of allocations that required a new buffer
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+
+    private static int sizeClass(int size) {
+        if (size <= 1) {
+            return 0;
+        }
+        return Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
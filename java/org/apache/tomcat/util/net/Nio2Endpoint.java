@@ -31,9 +31,12 @@ import java.nio.channels.CompletionHandler;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.net.ssl.KeyManager;
 import javax.net.ssl.SSLContext;
@@ -45,6 +48,7 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.collections.ThreadLocalPool;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNio2Channel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -60,6 +64,13 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
     private static final Log log = LogFactory.getLog(Nio2Endpoint.class);
 
+    /**
+     * Maximum time in milliseconds a sharded acceptor waits for a connection
+     * before checking whether the endpoint has been paused or stopped. This
+     * must be less than the time unlockAccept() waits for acceptors.
+     */
+    private static final long SHARD_ACCEPT_POLL_INTERVAL = 500;
+
 
     // ----------------------------------------------------------------- Fields
 
@@ -68,6 +79,24 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
      */
     private AsynchronousServerSocketChannel serverSock = null;
 
+    /**
+     * Listening sockets bound with SO_REUSEPORT when more than one shard has
+     * been configured, <code>null</code> otherwise. The first shard uses
+     * {@link #serverSock}.
+     */
+    private Shard[] shards = null;
+
+    /**
+     * Shard assigned to the next acceptor created.
+     */
+    private int nextAcceptorShard = 0;
+
+    /**
+     * Incremented each time the acceptor threads are started so that acceptors
+     * of a previous start exit rather than carry on with their old shard.
+     */
+    private volatile int acceptorGeneration = 0;
+
     /**
      * use send file
      */
@@ -109,9 +138,11 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
     private long lastParachuteCheck = System.currentTimeMillis();
 
     /**
-     * Cache for SocketProcessor objects
+     * Cache for SocketProcessor objects. Each thread has its own cache so
+     * threads dispatching sockets never contend for a lock. The size limit
+     * applies to all the caches together.
      */
-    private SynchronizedStack<SocketProcessor> processorCache;
+    private ThreadLocalPool<SocketProcessor> processorCache;
 
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
@@ -130,6 +161,39 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
     public boolean getUseCaches() { return useCaches; }
 
 
+    /**
+     * Number of listening sockets to bind to the same address using
+     * SO_REUSEPORT. Each shard has its own acceptor thread so the kernel
+     * spreads new connections across shards and there is no shared accept
+     * queue. When enabled, this overrides acceptorThreadCount. Values less
+     * than 2 disable sharding.
+     */
+    private int reusePortShardCount = 1;
+    public void setReusePortShardCount(int reusePortShardCount) {
+        this.reusePortShardCount = reusePortShardCount;
+    }
+    public int getReusePortShardCount() { return reusePortShardCount; }
+
+    @Override
+    protected int getEffectiveAcceptorThreadCount() {
+        Shard[] shards = this.shards;
+        return (shards == null) ? getAcceptorThreadCount() : shards.length;
+    }
+
+
+    /**
+     * Size in bytes of the file regions that sendfile memory maps and writes
+     * directly to the socket. Zero disables memory mapping and the file is
+     * copied through the socket write buffer instead. Memory mapping is never
+     * used for SSL connections.
+     */
+    private int mappedSendfileSize = 0;
+    public void setMappedSendfileSize(int mappedSendfileSize) {
+        this.mappedSendfileSize = mappedSendfileSize;
+    }
+    public int getMappedSendfileSize() { return mappedSendfileSize; }
+
+
     /**
      * Priority of the poller threads.
      */
@@ -283,9 +347,33 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
         }
 
         serverSock = AsynchronousServerSocketChannel.open(threadGroup);
-        socketProperties.setProperties(serverSock);
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.bind(addr,getBacklog());
+        int shardCount = getReusePortShardCount();
+        if (shardCount > 1 && !isReusePortSupported(serverSock)) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnsupported",
+                    getName(), Integer.toString(shardCount)));
+            shardCount = 1;
+        }
+        if (shardCount > 1) {
+            shards = new Shard[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                AsynchronousServerSocketChannel ssc = (i == 0) ? serverSock :
+                        AsynchronousServerSocketChannel.open(threadGroup);
+                setReusePort(ssc);
+                socketProperties.setProperties(ssc);
+                ssc.bind(addr,getBacklog());
+                if (i == 0) {
+                    // The remaining shards must use the port actually bound
+                    // if an ephemeral port was requested
+                    addr = new InetSocketAddress(addr.getAddress(), getLocalPort());
+                }
+                shards[i] = new Shard(ssc);
+            }
+            // One acceptor per shard, see getEffectiveAcceptorThreadCount()
+        } else {
+            socketProperties.setProperties(serverSock);
+            serverSock.bind(addr,getBacklog());
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -340,8 +428,7 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
             paused = false;
 
             if (useCaches) {
-                processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                        socketProperties.getProcessorCache());
+                processorCache = new ThreadLocalPool<>(socketProperties.getProcessorCache());
                 nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
                         socketProperties.getBufferPool());
             }
@@ -352,6 +439,8 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
             }
 
             initializeConnectionLatch();
+            nextAcceptorShard = 0;
+            acceptorGeneration++;
             startAcceptorThreads();
 
             setAsyncTimeout(new AsyncTimeout());
@@ -412,6 +501,12 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
             stop();
         }
         // Close server socket
+        if (shards != null) {
+            for (Shard shard : shards) {
+                shard.close();
+            }
+            shards = null;
+        }
         serverSock.close();
         serverSock = null;
         sslContext = null;
@@ -476,7 +571,10 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
-        return new Acceptor();
+        if (shards == null) {
+            return new Acceptor(null);
+        }
+        return new Acceptor(shards[nextAcceptorShard++ % shards.length]);
     }
 
 
@@ -575,9 +673,11 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
     protected boolean processSocket0(SocketWrapper<Nio2Channel> socketWrapper, SocketStatus status, boolean dispatch) {
         try {
-            SocketProcessor sc = (useCaches) ? processorCache.pop() : null;
+            ThreadLocalPool.Cache<SocketProcessor> cache =
+                    (useCaches) ? processorCache.getCache() : null;
+            SocketProcessor sc = (cache != null) ? cache.pop() : null;
             if (sc == null) {
-                sc = new SocketProcessor(socketWrapper, status);
+                sc = new SocketProcessor(socketWrapper, status, cache);
             } else {
                 sc.reset(socketWrapper, status);
             }
@@ -659,6 +759,17 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final Shard shard;
+        private final int generation = acceptorGeneration;
+
+        /**
+         * @param shard The shard to accept connections for or
+         *              <code>null</code> if sharding is not enabled
+         */
+        public Acceptor(Shard shard) {
+            this.shard = shard;
+        }
+
         @Override
         public void run() {
 
@@ -677,7 +788,7 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                     }
                 }
 
-                if (!running) {
+                if (!running || generation != acceptorGeneration) {
                     break;
                 }
                 state = AcceptorState.RUNNING;
@@ -690,9 +801,17 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept().get();
+                        if (shard == null) {
+                            socket = serverSock.accept().get();
+                        } else {
+                            socket = shard.accept();
+                        }
                     } catch (Exception e) {
                         countDownConnection();
+                        if (shard != null && !shard.isOpen()) {
+                            // The shard was closed by unbind()
+                            break;
+                        }
                         if (running) {
                             // Introduce delay if necessary
                             errorDelay = handleExceptionWithDelay(errorDelay);
@@ -705,6 +824,12 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                     // Successful accept, reset the error delay
                     errorDelay = 0;
 
+                    if (socket == null) {
+                        // Sharded acceptor timed out waiting for a connection
+                        countDownConnection();
+                        continue;
+                    }
+
                     // Configure the socket
                     if (running && !paused) {
                         // Hand this socket off to an appropriate processor
@@ -728,6 +853,56 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
     }
 
 
+    // ------------------------------------------------------ Shard Inner Class
+
+    /**
+     * A listening socket bound with SO_REUSEPORT. The acceptor waits for the
+     * pending accept with a timeout so that it notices when the endpoint is
+     * paused or stopped, since the kernel would deliver an unlock connection to
+     * only one of the listening sockets.
+     */
+    protected class Shard {
+
+        private final AsynchronousServerSocketChannel serverSock;
+        private Future<AsynchronousSocketChannel> pendingAccept = null;
+
+        public Shard(AsynchronousServerSocketChannel serverSock) {
+            this.serverSock = serverSock;
+        }
+
+        /**
+         * Wait for the next connection. Only called by the acceptor thread
+         * for this shard.
+         *
+         * @return the accepted connection or <code>null</code> if no
+         *         connection arrived within the poll interval
+         */
+        protected AsynchronousSocketChannel accept()
+                throws InterruptedException, ExecutionException {
+            Future<AsynchronousSocketChannel> accept = pendingAccept;
+            if (accept == null) {
+                accept = serverSock.accept();
+            }
+            pendingAccept = null;
+            try {
+                return accept.get(SHARD_ACCEPT_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                // Keep waiting for the same connection on the next call
+                pendingAccept = accept;
+                return null;
+            }
+        }
+
+        protected boolean isOpen() {
+            return serverSock.isOpen();
+        }
+
+        protected void close() throws IOException {
+            serverSock.close();
+        }
+    }
+
+
     private void closeSocket(AsynchronousSocketChannel socket) {
         try {
             socket.close();
@@ -834,11 +1009,11 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
     };
 
     public void addTimeout(SocketWrapper<Nio2Channel> socket) {
-        waitingRequests.add(socket);
+        addWaitingRequest(socket);
     }
 
     public boolean removeTimeout(SocketWrapper<Nio2Channel> socket) {
-        return waitingRequests.remove(socket);
+        return removeWaitingRequest(socket);
     }
 
     public static void startInline() {
@@ -884,26 +1059,8 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
             if (!attachment.buffer.hasRemaining()) {
                 if (attachment.length <= 0) {
                     // All data has now been written
-                    attachment.socket.setSendfileData(null);
                     attachment.buffer.clear();
-                    try {
-                        attachment.fchannel.close();
-                    } catch (IOException e) {
-                        // Ignore
-                    }
-                    if (attachment.keepAlive) {
-                        if (!isInline()) {
-                            awaitBytes(attachment.socket);
-                        } else {
-                            attachment.doneInline = true;
-                        }
-                    } else {
-                        if (!isInline()) {
-                            processSocket(attachment.socket, SocketStatus.DISCONNECT, false);
-                        } else {
-                            attachment.doneInline = true;
-                        }
-                    }
+                    sendfileComplete(attachment);
                     return;
                 } else {
                     attachment.buffer.clear();
@@ -932,6 +1089,7 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
         @Override
         public void failed(Throwable exc, SendfileData attachment) {
+            attachment.buffers = null;
             try {
                 attachment.fchannel.close();
             } catch (IOException e) {
@@ -946,6 +1104,82 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
         }
     };
 
+    /*
+     * Writes memory mapped regions of the file directly from the mapping so
+     * the content is never copied into the socket buffer. The first write
+     * gathers any response headers that are still in the socket buffer.
+     */
+    private CompletionHandler<Long, SendfileData> mappedSendfile = new CompletionHandler<Long, SendfileData>() {
+
+        @Override
+        public void completed(Long nWrite, SendfileData attachment) {
+            if (nWrite.longValue() < 0) { // Reach the end of stream
+                failed(new EOFException(), attachment);
+                return;
+            }
+            ByteBuffer[] buffers = attachment.buffers;
+            int offset = 0;
+            while (offset < buffers.length && !buffers[offset].hasRemaining()) {
+                offset++;
+            }
+            if (offset == buffers.length) {
+                // The headers have been written, if there were any
+                attachment.buffer.clear();
+                if (attachment.length <= 0) {
+                    // All data has now been written
+                    attachment.buffers = null;
+                    sendfileComplete(attachment);
+                    return;
+                }
+                try {
+                    buffers = new ByteBuffer[] { mapNextRegion(attachment) };
+                } catch (IOException e) {
+                    failed(e, attachment);
+                    return;
+                }
+                attachment.buffers = buffers;
+                offset = 0;
+            }
+            attachment.socket.getSocket().write(buffers, offset, buffers.length - offset,
+                    attachment.socket.getTimeout(), TimeUnit.MILLISECONDS, attachment, this);
+        }
+
+        @Override
+        public void failed(Throwable exc, SendfileData attachment) {
+            sendfile.failed(exc, attachment);
+        }
+    };
+
+    private void sendfileComplete(SendfileData data) {
+        data.socket.setSendfileData(null);
+        try {
+            data.fchannel.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        if (data.keepAlive) {
+            if (!isInline()) {
+                awaitBytes(data.socket);
+            } else {
+                data.doneInline = true;
+            }
+        } else {
+            if (!isInline()) {
+                processSocket(data.socket, SocketStatus.DISCONNECT, false);
+            } else {
+                data.doneInline = true;
+            }
+        }
+    }
+
+    private ByteBuffer mapNextRegion(SendfileData data) throws IOException {
+        long size = Math.min(data.length, getMappedSendfileSize());
+        ByteBuffer region = data.fchannel.map(FileChannel.MapMode.READ_ONLY, data.pos, size);
+        data.pos += size;
+        data.length -= size;
+        return region;
+    }
+
     public SendfileState processSendfile(Nio2SocketWrapper socket) {
 
         // Configure the send file data
@@ -959,38 +1193,58 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                 return SendfileState.ERROR;
             }
         }
+        // Any response headers that have not been written yet are at the
+        // start of the buffer and are sent with the start of the file
         ByteBuffer buffer = socket.getSocket().getBufHandler().getWriteBuffer();
-        buffer.clear();
-        int nRead = -1;
+        data.socket = socket;
+        data.buffer = buffer;
+        startInline();
         try {
-            nRead = data.fchannel.read(buffer);
-        } catch (IOException e1) {
-            return SendfileState.ERROR;
-        }
-
-        if (nRead >= 0) {
-            buffer.flip();
-            data.socket = socket;
-            data.buffer = buffer;
-            data.length -= nRead;
-            startInline();
-            try {
-                socket.getSocket().write(buffer, socket.getTimeout(), TimeUnit.MILLISECONDS,
-                        data, sendfile);
-            } finally {
-                endInline();
-            }
-            if (data.doneInline) {
-                if (data.error) {
+            if (getMappedSendfileSize() > 0 &&
+                    !(socket.getSocket() instanceof SecureNio2Channel)) {
+                ByteBuffer region;
+                try {
+                    region = mapNextRegion(data);
+                } catch (IOException e) {
                     return SendfileState.ERROR;
+                }
+                buffer.flip();
+                if (buffer.hasRemaining()) {
+                    data.buffers = new ByteBuffer[] { buffer, region };
                 } else {
-                    return SendfileState.DONE;
+                    data.buffers = new ByteBuffer[] { region };
+                }
+                socket.getSocket().write(data.buffers, 0, data.buffers.length,
+                        socket.getTimeout(), TimeUnit.MILLISECONDS, data, mappedSendfile);
+            } else {
+                if (data.length < buffer.remaining()) {
+                    buffer.limit(buffer.position() + (int) data.length);
+                }
+                int nRead = -1;
+                try {
+                    nRead = data.fchannel.read(buffer);
+                } catch (IOException e1) {
+                    return SendfileState.ERROR;
+                }
+                if (nRead < 0) {
+                    return SendfileState.ERROR;
                 }
+                buffer.flip();
+                data.length -= nRead;
+                socket.getSocket().write(buffer, socket.getTimeout(), TimeUnit.MILLISECONDS,
+                        data, sendfile);
+            }
+        } finally {
+            endInline();
+        }
+        if (data.doneInline) {
+            if (data.error) {
+                return SendfileState.ERROR;
             } else {
-                return SendfileState.PENDING;
+                return SendfileState.DONE;
             }
         } else {
-            return SendfileState.ERROR;
+            return SendfileState.PENDING;
         }
     }
 
@@ -1003,8 +1257,20 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
 
         private SocketWrapper<Nio2Channel> socket = null;
         private SocketStatus status = null;
+        private final ThreadLocalPool.Cache<SocketProcessor> cache;
 
         public SocketProcessor(SocketWrapper<Nio2Channel> socket, SocketStatus status) {
+            this(socket, status, (useCaches) ? processorCache.getCache() : null);
+        }
+
+        /**
+         * @param cache The cache the processor will be returned to once it
+         *              has run or <code>null</code> if it should not be
+         *              recycled
+         */
+        public SocketProcessor(SocketWrapper<Nio2Channel> socket, SocketStatus status,
+                ThreadLocalPool.Cache<SocketProcessor> cache) {
+            this.cache = cache;
             reset(socket,status);
         }
 
@@ -1121,8 +1387,8 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
                 socket = null;
                 status = null;
                 //return to cache
-                if (useCaches && running && !paused) {
-                    processorCache.push(this);
+                if (cache != null && running && !paused) {
+                    cache.push(this);
                 }
             }
         }
@@ -1143,6 +1409,7 @@ public class Nio2Endpoint extends AbstractEndpoint<Nio2Channel> {
         // Internal use only
         private Nio2SocketWrapper socket;
         private ByteBuffer buffer;
+        private ByteBuffer[] buffers;
         private boolean doneInline = false;
         private boolean error = false;
     }
@@ -23,6 +23,7 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 
+import org.apache.tomcat.util.net.NioEndpoint.NioBufferHandler;
 import org.apache.tomcat.util.net.NioEndpoint.Poller;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.res.StringManager;
@@ -61,13 +62,31 @@ public class NioChannel implements ByteChannel {
      * @throws IOException If a problem was encountered resetting the channel
      */
     public void reset() throws IOException {
-        bufHandler.getReadBuffer().clear();
-        bufHandler.getWriteBuffer().clear();
+        if (bufHandler instanceof NioBufferHandler) {
+            ((NioBufferHandler) bufHandler).reset();
+        } else {
+            bufHandler.getReadBuffer().clear();
+            bufHandler.getWriteBuffer().clear();
+        }
         this.sendFile = false;
     }
 
+    /**
+     * Return the application buffers to the endpoint's shared buffer pool, if
+     * the channel uses one. This is a NO-OP for channels with dedicated
+     * buffers. Must only be called while the connection is idle.
+     */
+    public void releaseBuffers() {
+        if (bufHandler instanceof NioBufferHandler) {
+            ((NioBufferHandler) bufHandler).release();
+        }
+    }
+
     public int getBufferSize() {
         if ( bufHandler == null ) return 0;
+        if (bufHandler instanceof NioBufferHandler) {
+            return ((NioBufferHandler) bufHandler).getBufferSize();
+        }
         int size = 0;
         size += bufHandler.getReadBuffer()!=null?bufHandler.getReadBuffer().capacity():0;
         size += bufHandler.getWriteBuffer()!=null?bufHandler.getWriteBuffer().capacity():0;
@@ -127,6 +146,30 @@ public class NioChannel implements ByteChannel {
         return sc.write(src);
     }
 
+    /**
+     * Writes a sequence of bytes to this channel from a subsequence of the
+     * given buffers using a single gathering write.
+     *
+     * @param srcs   The buffers from which bytes are to be retrieved
+     * @param offset The offset within the buffer array of the first buffer
+     * @param length The maximum number of buffers to be accessed
+     * @return The number of bytes written, possibly zero
+     * @throws IOException If some other I/O error occurs
+     */
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        checkInterruptStatus();
+        return sc.write(srcs, offset, length);
+    }
+
+    /**
+     * @return <code>true</code> if {@link #write(ByteBuffer[], int, int)} may
+     *         be used with buffers other than the application write buffer
+     */
+    public boolean isGatheringSupported() {
+        return true;
+    }
+
     /**
      * Reads a sequence of bytes from this channel into the given buffer.
      *
@@ -26,13 +26,17 @@ import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
 import java.nio.channels.FileChannel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executor;
@@ -51,8 +55,11 @@ import org.apache.juli.logging.Log;
 import org.apache.juli.logging.LogFactory;
 import org.apache.tomcat.util.ExceptionUtils;
 import org.apache.tomcat.util.IntrospectionUtils;
-import org.apache.tomcat.util.collections.SynchronizedQueue;
+import org.apache.tomcat.util.collections.MpscQueue;
 import org.apache.tomcat.util.collections.SynchronizedStack;
+import org.apache.tomcat.util.collections.ThreadLocalPool;
+import org.apache.tomcat.util.collections.TimerWheel;
+import org.apache.tomcat.util.net.AbstractEndpoint.Acceptor.AcceptorState;
 import org.apache.tomcat.util.net.AbstractEndpoint.Handler.SocketState;
 import org.apache.tomcat.util.net.SecureNioChannel.ApplicationBufferHandler;
 import org.apache.tomcat.util.net.jsse.NioX509KeyManager;
@@ -82,6 +89,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
     public static final int OP_REGISTER = 0x100; //register interest op
     public static final int OP_CALLBACK = 0x200; //callback interest op
+    public static final int OP_PARK = 0x400; //park idle connection
+    public static final int OP_TIMEOUT = 0x800; //reschedule timeout
 
     // ----------------------------------------------------------------- Fields
 
@@ -92,6 +101,24 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      */
     private ServerSocketChannel serverSock = null;
 
+    /**
+     * Listening sockets bound with SO_REUSEPORT when more than one shard has
+     * been configured, <code>null</code> otherwise. The first shard uses
+     * {@link #serverSock}.
+     */
+    private Shard[] shards = null;
+
+    /**
+     * Shard assigned to the next acceptor created.
+     */
+    private int nextAcceptorShard = 0;
+
+    /**
+     * Incremented each time the acceptor threads are started so that acceptors
+     * of a previous start exit rather than carry on with their old shard.
+     */
+    private volatile int acceptorGeneration = 0;
+
     /**
      * use send file
      */
@@ -125,20 +152,30 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     private volatile CountDownLatch stopLatch = null;
 
     /**
-     * Cache for SocketProcessor objects
+     * Cache for SocketProcessor objects. Each thread has its own cache so the
+     * poller threads, which obtain most of them, never contend for a lock.
+     * The size limit applies to all the caches together.
      */
-    private SynchronizedStack<SocketProcessor> processorCache;
+    private ThreadLocalPool<SocketProcessor> processorCache;
 
     /**
-     * Cache for poller events
+     * Cache for poller events. Each thread has its own cache so threads
+     * registering interest never contend for a lock. The size limit applies
+     * to all the caches together.
      */
-    private SynchronizedStack<PollerEvent> eventCache;
+    private ThreadLocalPool<PollerEvent> eventCache;
 
     /**
      * Bytebuffer cache, each channel holds a set of buffers (two, except for SSL holds four)
      */
     private SynchronizedStack<NioChannel> nioChannels;
 
+    /**
+     * Application buffers shared by the non-SSL channels when
+     * socket.sharedAppBuffers is enabled, <code>null</code> otherwise.
+     */
+    private volatile ByteBufferPool bufferPool;
+
 
     // ------------------------------------------------------------- Properties
 
@@ -198,6 +235,49 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public void setPollerThreadCount(int pollerThreadCount) { this.pollerThreadCount = pollerThreadCount; }
     public int getPollerThreadCount() { return pollerThreadCount; }
 
+    /**
+     * The number of pollers to start, one per shard when the listening socket
+     * is sharded.
+     */
+    private int getEffectivePollerThreadCount() {
+        Shard[] shards = this.shards;
+        return (shards == null) ? pollerThreadCount : shards.length;
+    }
+
+    @Override
+    protected int getEffectiveAcceptorThreadCount() {
+        Shard[] shards = this.shards;
+        return (shards == null) ? getAcceptorThreadCount() : shards.length;
+    }
+
+
+    /**
+     * Number of listening sockets to bind to the same address using
+     * SO_REUSEPORT. Each shard has its own acceptor thread, poller and
+     * processor cache so the kernel spreads new connections across shards and
+     * there is no shared accept queue. When enabled, this overrides
+     * acceptorThreadCount and pollerThreadCount. Values less than 2 disable
+     * sharding.
+     */
+    private int reusePortShardCount = 1;
+    public void setReusePortShardCount(int reusePortShardCount) {
+        this.reusePortShardCount = reusePortShardCount;
+    }
+    public int getReusePortShardCount() { return reusePortShardCount; }
+
+    /**
+     * Park idle keep-alive connections? A parked connection keeps nothing but
+     * its selection key and a small {@link ParkedConnection} descriptor. Its
+     * channel, buffers and socket wrapper are returned to the caches or
+     * discarded and recreated when the next request arrives. Not supported
+     * with SSL.
+     */
+    private boolean parkIdleConnections = false;
+    public void setParkIdleConnections(boolean parkIdleConnections) {
+        this.parkIdleConnections = parkIdleConnections;
+    }
+    public boolean getParkIdleConnections() { return parkIdleConnections; }
+
     private long selectorTimeout = 1000;
     public void setSelectorTimeout(long timeout){ this.selectorTimeout = timeout;}
     public long getSelectorTimeout(){ return this.selectorTimeout; }
@@ -301,6 +381,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     protected void releaseCaches() {
         this.nioChannels.clear();
         this.processorCache.clear();
+        this.eventCache.clear();
+        if ( bufferPool != null ) bufferPool.clear();
         if ( handler != null ) handler.recycle();
 
     }
@@ -322,6 +404,59 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     }
 
 
+    /**
+     * Number of idle keep-alive connections that are currently parked.
+     */
+    public int getParkedConnectionCount() {
+        if (pollers == null) {
+            return 0;
+        } else {
+            int sum = 0;
+            for (int i=0; i<pollers.length; i++) {
+                sum += pollers[i].getParkedCount();
+            }
+            return sum;
+        }
+    }
+
+
+    /**
+     * Number of application buffer requests satisfied by the shared buffer
+     * pool.
+     */
+    public long getBufferPoolHitCount() {
+        ByteBufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getHitCount();
+    }
+
+
+    /**
+     * Number of application buffer requests that required a new buffer.
+     */
+    public long getBufferPoolMissCount() {
+        ByteBufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getMissCount();
+    }
+
+
+    /**
+     * Bytes of shared application buffers currently held by connections.
+     */
+    public long getBufferPoolPinnedBytes() {
+        ByteBufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getPinnedBytes();
+    }
+
+
+    /**
+     * Bytes of shared application buffers currently cached by the pool.
+     */
+    public long getBufferPoolPooledBytes() {
+        ByteBufferPool pool = bufferPool;
+        return pool == null ? 0 : pool.getPooledBytes();
+    }
+
+
     // ----------------------------------------------- Public Lifecycle Methods
 
 
@@ -332,11 +467,35 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public void bind() throws Exception {
 
         serverSock = ServerSocketChannel.open();
-        socketProperties.setProperties(serverSock.socket());
         InetSocketAddress addr = (getAddress()!=null?new InetSocketAddress(getAddress(),getPort()):new InetSocketAddress(getPort()));
-        serverSock.socket().bind(addr,getBacklog());
-        serverSock.configureBlocking(true); //mimic APR behavior
-        serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        int shardCount = getReusePortShardCount();
+        if (shardCount > 1 && !isReusePortSupported(serverSock)) {
+            log.warn(sm.getString("endpoint.nio.reusePortUnsupported",
+                    getName(), Integer.toString(shardCount)));
+            shardCount = 1;
+        }
+        if (shardCount > 1) {
+            shards = new Shard[shardCount];
+            for (int i = 0; i < shardCount; i++) {
+                ServerSocketChannel ssc = (i == 0) ? serverSock : ServerSocketChannel.open();
+                setReusePort(ssc);
+                socketProperties.setProperties(ssc.socket());
+                ssc.socket().bind(addr,getBacklog());
+                if (i == 0) {
+                    // The remaining shards must use the port actually bound
+                    // if an ephemeral port was requested
+                    addr = new InetSocketAddress(addr.getAddress(), ssc.socket().getLocalPort());
+                }
+                shards[i] = new Shard(ssc);
+            }
+            // One acceptor and one poller per shard, see
+            // getEffectiveAcceptorThreadCount() and getEffectivePollerThreadCount()
+        } else {
+            socketProperties.setProperties(serverSock.socket());
+            serverSock.socket().bind(addr,getBacklog());
+            serverSock.configureBlocking(true); //mimic APR behavior
+            serverSock.socket().setSoTimeout(getSocketProperties().getSoTimeout());
+        }
 
         // Initialize thread count defaults for acceptor, poller
         if (acceptorThreadCount == 0) {
@@ -347,7 +506,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             //minimum one poller thread
             pollerThreadCount = 1;
         }
-        stopLatch = new CountDownLatch(pollerThreadCount);
+        stopLatch = new CountDownLatch(getEffectivePollerThreadCount());
 
         // Initialize SSL if needed
         if (isSSLEnabled()) {
@@ -395,12 +554,16 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             running = true;
             paused = false;
 
-            processorCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                    socketProperties.getProcessorCache());
-            eventCache = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
-                            socketProperties.getEventCache());
+            processorCache = new ThreadLocalPool<>(socketProperties.getProcessorCache());
+            eventCache = new ThreadLocalPool<>(socketProperties.getEventCache());
             nioChannels = new SynchronizedStack<>(SynchronizedStack.DEFAULT_SIZE,
                     socketProperties.getBufferPool());
+            if (socketProperties.getSharedAppBuffers()) {
+                bufferPool = new ByteBufferPool(socketProperties.getDirectBuffer(),
+                        socketProperties.getBufferPoolSize());
+            } else {
+                bufferPool = null;
+            }
 
             // Create worker collection
             if ( getExecutor() == null ) {
@@ -410,15 +573,20 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             initializeConnectionLatch();
 
             // Start poller threads
-            pollers = new Poller[getPollerThreadCount()];
+            pollers = new Poller[getEffectivePollerThreadCount()];
             for (int i=0; i<pollers.length; i++) {
                 pollers[i] = new Poller();
+                if (shards != null) {
+                    shards[i].setPoller(pollers[i]);
+                }
                 Thread pollerThread = new Thread(pollers[i], getName() + "-ClientPoller-"+i);
                 pollerThread.setPriority(threadPriority);
                 pollerThread.setDaemon(true);
                 pollerThread.start();
             }
 
+            nextAcceptorShard = 0;
+            acceptorGeneration++;
             startAcceptorThreads();
         }
     }
@@ -449,6 +617,9 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             eventCache.clear();
             nioChannels.clear();
             processorCache.clear();
+            if (bufferPool != null) {
+                bufferPool.clear();
+            }
         }
 
     }
@@ -466,6 +637,12 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             stop();
         }
         // Close server socket
+        if (shards != null) {
+            for (Shard shard : shards) {
+                shard.close();
+            }
+            shards = null;
+        }
         serverSock.socket().close();
         serverSock.close();
         serverSock = null;
@@ -509,7 +686,41 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
     @Override
     protected AbstractEndpoint.Acceptor createAcceptor() {
-        return new Acceptor();
+        if (shards == null) {
+            return new Acceptor(null);
+        }
+        return new Acceptor(shards[nextAcceptorShard++ % shards.length]);
+    }
+
+
+    /**
+     * Unlock the acceptors. Sharded acceptors wait on a selector rather than
+     * in accept() and are woken directly since the kernel would deliver an
+     * unlock connection to only one of the SO_REUSEPORT listening sockets.
+     */
+    @Override
+    protected void unlockAccept() {
+        Shard[] shards = this.shards;
+        if (shards == null) {
+            super.unlockAccept();
+            return;
+        }
+        for (Shard shard : shards) {
+            shard.wakeup();
+        }
+        // Wait for upto 1000ms acceptor threads to unlock
+        long waitLeft = 1000;
+        for (AbstractEndpoint.Acceptor acceptor : acceptors) {
+            while (waitLeft > 0 &&
+                    acceptor.getState() == AcceptorState.RUNNING) {
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    // Ignore
+                }
+                waitLeft -= 50;
+            }
+        }
     }
 
 
@@ -517,6 +728,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      * Process the specified connection.
      */
     protected boolean setSocketOptions(SocketChannel socket) {
+        return setSocketOptions(socket, getPoller0());
+    }
+
+
+    /**
+     * Process the specified connection, registering it with the given poller.
+     */
+    protected boolean setSocketOptions(SocketChannel socket, Poller poller) {
         // Process the connection
         try {
             //disable blocking, APR style, we are gonna be polling it
@@ -535,12 +754,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                                                                        socketProperties.getDirectBuffer());
                     channel = new SecureNioChannel(socket, engine, bufhandler, selectorPool);
                 } else {
-                    // normal tcp setup
-                    NioBufferHandler bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
-                                                                       socketProperties.getAppWriteBufSize(),
-                                                                       socketProperties.getDirectBuffer());
-
-                    channel = new NioChannel(socket, bufhandler);
+                    channel = createChannel(socket);
                 }
             } else {
                 channel.setIOChannel(socket);
@@ -551,7 +765,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     channel.reset();
                 }
             }
-            getPoller0().register(channel);
+            poller.register(channel);
         } catch (Throwable t) {
             ExceptionUtils.handleThrowable(t);
             try {
@@ -565,6 +779,25 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         return true;
     }
 
+    /**
+     * Create a new non-SSL channel.
+     */
+    private NioChannel createChannel(SocketChannel socket) {
+        NioBufferHandler bufhandler;
+        if (bufferPool != null) {
+            // normal tcp setup, buffers are borrowed from the pool
+            bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
+                                              socketProperties.getAppWriteBufSize(),
+                                              bufferPool);
+        } else {
+            // normal tcp setup
+            bufhandler = new NioBufferHandler(socketProperties.getAppReadBufSize(),
+                                              socketProperties.getAppWriteBufSize(),
+                                              socketProperties.getDirectBuffer());
+        }
+        return new NioChannel(socket, bufhandler);
+    }
+
     protected SSLEngine createSSLEngine() {
         SSLEngine engine = sslContext.createSSLEngine();
         if ("false".equals(getClientAuth())) {
@@ -612,8 +845,9 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 return false;
             }
             attachment.setCometNotify(false); //will get reset upon next reg
-            SocketProcessor sc = processorCache.pop();
-            if ( sc == null ) sc = new SocketProcessor(attachment, status);
+            ThreadLocalPool.Cache<SocketProcessor> cache = processorCache.getCache();
+            SocketProcessor sc = cache.pop();
+            if ( sc == null ) sc = new SocketProcessor(attachment, status, cache);
             else sc.reset(attachment, status);
             Executor executor = getExecutor();
             if (dispatch && executor != null) {
@@ -647,6 +881,17 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
      */
     protected class Acceptor extends AbstractEndpoint.Acceptor {
 
+        private final Shard shard;
+        private final int generation = acceptorGeneration;
+
+        /**
+         * @param shard The shard to accept connections for or
+         *              <code>null</code> if sharding is not enabled
+         */
+        public Acceptor(Shard shard) {
+            this.shard = shard;
+        }
+
         @Override
         public void run() {
 
@@ -665,7 +910,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     }
                 }
 
-                if (!running) {
+                if (!running || generation != acceptorGeneration) {
                     break;
                 }
                 state = AcceptorState.RUNNING;
@@ -678,10 +923,18 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     try {
                         // Accept the next incoming connection from the server
                         // socket
-                        socket = serverSock.accept();
+                        if (shard == null) {
+                            socket = serverSock.accept();
+                        } else {
+                            socket = shard.accept();
+                        }
                     } catch (IOException ioe) {
                         //we didn't get a socket
                         countDownConnection();
+                        if (shard != null && !shard.isOpen()) {
+                            // The shard was closed by unbind()
+                            break;
+                        }
                         // Introduce delay if necessary
                         errorDelay = handleExceptionWithDelay(errorDelay);
                         // re-throw
@@ -690,10 +943,17 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     // Successful accept, reset the error delay
                     errorDelay = 0;
 
+                    if (socket == null) {
+                        // Sharded acceptor was woken without a connection
+                        countDownConnection();
+                        continue;
+                    }
+
                     // setSocketOptions() will add channel to the poller
                     // if successful
                     if (running && !paused) {
-                        if (!setSocketOptions(socket)) {
+                        Poller poller = (shard == null) ? getPoller0() : shard.getPoller();
+                        if (!setSocketOptions(socket, poller)) {
                             countDownConnection();
                             closeSocket(socket);
                         }
@@ -734,6 +994,64 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     }
 
 
+    // ------------------------------------------------------ Shard Inner Class
+    /**
+     * A listening socket bound with SO_REUSEPORT together with the poller that
+     * serves the connections accepted from it. The server socket is
+     * non-blocking and the acceptor waits on a dedicated selector so that it
+     * can be woken when the endpoint is paused or stopped.
+     */
+    protected class Shard {
+
+        private final ServerSocketChannel serverSock;
+        private final Selector acceptSelector;
+        private volatile Poller poller = null;
+
+        public Shard(ServerSocketChannel serverSock) throws IOException {
+            this.serverSock = serverSock;
+            this.acceptSelector = Selector.open();
+            serverSock.configureBlocking(false);
+            serverSock.register(acceptSelector, SelectionKey.OP_ACCEPT);
+        }
+
+        public Poller getPoller() { return poller; }
+        public void setPoller(Poller poller) { this.poller = poller; }
+
+        /**
+         * Wait for the next connection.
+         *
+         * @return the accepted connection or <code>null</code> if the wait was
+         *         interrupted by {@link #wakeup()} or the connection was lost
+         *         before it could be accepted
+         */
+        protected SocketChannel accept() throws IOException {
+            try {
+                if (acceptSelector.select() > 0) {
+                    acceptSelector.selectedKeys().clear();
+                    return serverSock.accept();
+                }
+            } catch (ClosedSelectorException e) {
+                throw new ClosedChannelException();
+            }
+            return null;
+        }
+
+        protected boolean isOpen() {
+            return acceptSelector.isOpen() && serverSock.isOpen();
+        }
+
+        protected void wakeup() {
+            acceptSelector.wakeup();
+        }
+
+        protected void close() throws IOException {
+            acceptSelector.close();
+            serverSock.socket().close();
+            serverSock.close();
+        }
+    }
+
+
     private void closeSocket(SocketChannel socket) {
         try {
             socket.socket().close();
@@ -763,8 +1081,20 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         private NioChannel socket;
         private int interestOps;
         private KeyAttachment key;
+        private final ThreadLocalPool.Cache<PollerEvent> cache;
 
         public PollerEvent(NioChannel ch, KeyAttachment k, int intOps) {
+            this(ch, k, intOps, null);
+        }
+
+        /**
+         * @param cache The cache the event will be returned to once it has
+         *              been processed or <code>null</code> if it should not
+         *              be recycled
+         */
+        public PollerEvent(NioChannel ch, KeyAttachment k, int intOps,
+                ThreadLocalPool.Cache<PollerEvent> cache) {
+            this.cache = cache;
             reset(ch, k, intOps);
         }
 
@@ -782,25 +1112,38 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         public void run() {
             if ( interestOps == OP_REGISTER ) {
                 try {
-                    socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    SelectionKey sk = socket.getIOChannel().register(socket.getPoller().getSelector(), SelectionKey.OP_READ, key);
+                    key.setPollerTimeout(new TimerWheel.Timeout<>(sk));
+                    socket.getPoller().schedule(key);
                 } catch (Exception x) {
                     log.error("", x);
                 }
+            } else if ( interestOps == OP_PARK ) {
+                socket.getPoller().park(socket);
+            } else if ( interestOps == OP_TIMEOUT ) {
+                TimerWheel.Timeout<SelectionKey> timeout = key.getPollerTimeout();
+                if (timeout != null && timeout.getValue().attachment() == key) {
+                    socket.getPoller().schedule(key);
+                }
             } else {
                 final SelectionKey key = socket.getIOChannel().keyFor(socket.getPoller().getSelector());
                 try {
                     boolean cancel = false;
                     if (key != null) {
-                        final KeyAttachment att = (KeyAttachment) key.attachment();
+                        final Object attachment = key.attachment();
+                        final KeyAttachment att = (attachment instanceof KeyAttachment) ?
+                                (KeyAttachment) attachment : null;
                         if ( att!=null ) {
                             //handle callback flag
                             if ((interestOps & OP_CALLBACK) == OP_CALLBACK ) {
                                 att.setCometNotify(true);
+                                socket.getPoller().callbacks.add(att);
                             } else {
                                 att.setCometNotify(false);
                             }
                             interestOps = (interestOps & (~OP_CALLBACK));//remove the callback flag
                             att.access();//to prevent timeout
+                            socket.getPoller().schedule(att);
                             //we are registering the key to start with, reset the fairness counter.
                             int ops = key.interestOps() | interestOps;
                             att.interestOps(ops);
@@ -833,16 +1176,39 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
     public class Poller implements Runnable {
 
         private Selector selector;
-        private final SynchronizedQueue<PollerEvent> events =
-                new SynchronizedQueue<>();
+        private final MpscQueue<PollerEvent> events = new MpscQueue<>();
 
         private volatile boolean close = false;
-        private long nextExpiration = 0;//optimize expiration handling
+
+        /**
+         * The read, write, keep-alive and async timeouts of the connections
+         * of this poller. Only accessed by the poller thread. A timeout is
+         * (re)scheduled whenever the poller registers interest for its
+         * connection. Activity after that only makes the deadline later so it
+         * is not rescheduled then. Instead, the deadline is checked again
+         * when the timeout expires. Only a timeout that is reduced (e.g. by
+         * the start of an async request with a short timeout) requires an
+         * {@link #OP_TIMEOUT} event.
+         */
+        private final TimerWheel<SelectionKey> timeouts;
+        private final List<TimerWheel.Timeout<SelectionKey>> expired =
+                new ArrayList<>();
+
+        /**
+         * Connections with a pending comet notification. Only accessed by
+         * the poller thread.
+         */
+        private final List<KeyAttachment> callbacks = new ArrayList<>();
 
         private AtomicLong wakeupCounter = new AtomicLong(0);
 
         private volatile int keyCount = 0;
 
+        /**
+         * Only modified by the poller thread.
+         */
+        private volatile int parkedCount = 0;
+
         public Poller() throws IOException {
             synchronized (Selector.class) {
                 // Selector.open() isn't thread safe
@@ -850,10 +1216,14 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 // Affects 1.6.0_29, fixed in 1.7.0_01
                 this.selector = Selector.open();
             }
+            timeouts = new TimerWheel<>(Math.max(1, socketProperties.getTimeoutInterval()),
+                    System.currentTimeMillis());
         }
 
         public int getKeyCount() { return keyCount; }
 
+        public int getParkedCount() { return parkedCount; }
+
         public Selector getSelector() { return selector;}
 
         /**
@@ -885,12 +1255,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         }
 
         public void add(final NioChannel socket, final int interestOps) {
-            PollerEvent r = eventCache.pop();
-            if ( r==null) r = new PollerEvent(socket,null,interestOps);
+            ThreadLocalPool.Cache<PollerEvent> cache = eventCache.getCache();
+            PollerEvent r = cache.pop();
+            if ( r==null) r = new PollerEvent(socket,null,interestOps,cache);
             else r.reset(socket,null,interestOps);
-            if ( (interestOps&OP_CALLBACK) == OP_CALLBACK ) {
-                nextExpiration = 0; //force the check for faster callback
-            }
             addEvent(r);
             if (close) {
                 NioEndpoint.KeyAttachment ka = (NioEndpoint.KeyAttachment)socket.getAttachment();
@@ -898,6 +1266,179 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             }
         }
 
+        /**
+         * Request that the timeout of a connection is rescheduled because its
+         * deadline may have become earlier.
+         */
+        private void reschedule(KeyAttachment ka) {
+            ThreadLocalPool.Cache<PollerEvent> cache = eventCache.getCache();
+            PollerEvent r = cache.pop();
+            if ( r==null) r = new PollerEvent(ka.getSocket(),ka,OP_TIMEOUT,cache);
+            else r.reset(ka.getSocket(),ka,OP_TIMEOUT);
+            addEvent(r);
+        }
+
+        /**
+         * (Re)schedule the timeout of a connection based on its current
+         * timeout and time of last access. Must only be called by the poller
+         * thread.
+         */
+        private void schedule(KeyAttachment ka) {
+            schedule(ka, 0);
+        }
+
+        /**
+         * @param earliest The earliest time at which the timeout may expire
+         */
+        private void schedule(KeyAttachment ka, long earliest) {
+            TimerWheel.Timeout<SelectionKey> timeout = ka.getPollerTimeout();
+            if (timeout == null) {
+                return;
+            }
+            long value;
+            do {
+                value = ka.getTimeout();
+                long deadline = getDeadline(ka, value);
+                if (deadline < earliest) {
+                    deadline = earliest;
+                }
+                if (deadline == Long.MAX_VALUE) {
+                    timeouts.cancel(timeout);
+                } else {
+                    timeouts.schedule(timeout, deadline);
+                }
+                ka.expiresAt = deadline;
+                // Re-check in case the timeout was reduced concurrently
+                // without a reschedule being requested since the old value
+                // of expiresAt was seen
+            } while (ka.getTimeout() != value);
+        }
+
+        private long getDeadline(KeyAttachment ka, long timeout) {
+            if (timeout <= 0) {
+                if (ka.isComet() && timeout == -1) {
+                    timeout = getSocketProperties().getSoTimeout();
+                } else {
+                    return Long.MAX_VALUE;
+                }
+            }
+            long deadline = ka.getLastAccess() + timeout;
+            // Guard against overflow (e.g. after access(Long.MAX_VALUE))
+            return deadline < 0 ? Long.MAX_VALUE : deadline;
+        }
+
+        /**
+         * Add a connection that has no processor associated with it and is
+         * waiting for the next request. If idle connections are parked, the
+         * connection is parked once the poller processes the event.
+         *
+         * @param socket to add to the poller
+         */
+        public void addIdle(final NioChannel socket) {
+            if (parkIdleConnections && !isSSLEnabled()) {
+                add(socket, OP_PARK);
+            } else {
+                add(socket, SelectionKey.OP_READ);
+            }
+        }
+
+        /**
+         * Park an idle connection. Must only be called by the poller thread.
+         */
+        private void park(NioChannel socket) {
+            SelectionKey key = socket.getIOChannel().keyFor(selector);
+            if (key == null) {
+                // Closed in the meantime
+                return;
+            }
+            try {
+                Object attachment = key.attachment();
+                if (!(attachment instanceof KeyAttachment)) {
+                    cancelledKey(key, SocketStatus.ERROR);
+                    return;
+                }
+                KeyAttachment ka = (KeyAttachment) attachment;
+                if (ka.getPollerTimeout() != null) {
+                    timeouts.cancel(ka.getPollerTimeout());
+                }
+                ParkedConnection parked = new ParkedConnection(key,
+                        ka.getTimeout(), ka.getKeepAliveLeft());
+                key.attach(parked);
+                key.interestOps(SelectionKey.OP_READ);
+                if (parked.timeout > 0) {
+                    timeouts.schedule(parked, parked.lastAccess + parked.timeout);
+                }
+                parkedCount++;
+                socket.releaseBuffers();
+                if (running && !paused) {
+                    nioChannels.push(socket);
+                }
+            } catch (CancelledKeyException ckx) {
+                cancelledKey(key, SocketStatus.DISCONNECT);
+            }
+        }
+
+        /**
+         * Recreate the channel and socket wrapper of a parked connection that
+         * has become readable. Must only be called by the poller thread.
+         *
+         * @return the new attachment of the key or <code>null</code> if the
+         *         connection had to be closed
+         */
+        private KeyAttachment unpark(SelectionKey key, ParkedConnection parked) {
+            timeouts.cancel(parked);
+            try {
+                SocketChannel sc = (SocketChannel) key.channel();
+                NioChannel channel = nioChannels.pop();
+                if (channel == null) {
+                    channel = createChannel(sc);
+                } else {
+                    channel.setIOChannel(sc);
+                    channel.reset();
+                }
+                channel.setPoller(this);
+                KeyAttachment ka = new KeyAttachment(channel);
+                ka.setPoller(this);
+                ka.setTimeout(getSocketProperties().getSoTimeout());
+                ka.setKeepAliveLeft(parked.keepAliveLeft);
+                ka.setKeptAlive(true);
+                ka.interestOps(key.interestOps());
+                ka.setPollerTimeout(new TimerWheel.Timeout<>(key));
+                key.attach(ka);
+                parkedCount--;
+                schedule(ka);
+                return ka;
+            } catch (Throwable t) {
+                ExceptionUtils.handleThrowable(t);
+                log.error("", t);
+                closeParked(key);
+                return null;
+            }
+        }
+
+        /**
+         * Close a parked connection. Must only be called by the poller thread.
+         */
+        private void closeParked(SelectionKey key) {
+            Object attachment = key.attach(null);
+            if (attachment == null) {
+                // Already closed
+                return;
+            }
+            timeouts.cancel((ParkedConnection) attachment);
+            parkedCount--;
+            key.cancel();
+            try {
+                key.channel().close();
+            } catch (Exception e) {
+                if (log.isDebugEnabled()) {
+                    log.debug(sm.getString(
+                            "endpoint.debug.channelCloseFail"), e);
+                }
+            }
+            countDownConnection();
+        }
+
         /**
          * Processes events in the event queue of the Poller.
          *
@@ -913,8 +1454,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 try {
                     pe.run();
                     pe.reset();
-                    if (running && !paused) {
-                        eventCache.push(pe);
+                    if (running && !paused && pe.cache != null) {
+                        pe.cache.push(pe);
                     }
                 } catch ( Throwable x ) {
                     log.error("",x);
@@ -936,9 +1477,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             ka.setTimeout(getSocketProperties().getSoTimeout());
             ka.setKeepAliveLeft(NioEndpoint.this.getMaxKeepAliveRequests());
             ka.setSecure(isSSLEnabled());
-            PollerEvent r = eventCache.pop();
+            ThreadLocalPool.Cache<PollerEvent> cache = eventCache.getCache();
+            PollerEvent r = cache.pop();
             ka.interestOps(SelectionKey.OP_READ);//this is what OP_REGISTER turns into.
-            if ( r==null) r = new PollerEvent(socket,ka,OP_REGISTER);
+            if ( r==null) r = new PollerEvent(socket,ka,OP_REGISTER,cache);
             else r.reset(socket,ka,OP_REGISTER);
             addEvent(r);
         }
@@ -947,6 +1489,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
             KeyAttachment ka = null;
             try {
                 if ( key == null ) return null;//nothing to do
+                if (key.attachment() instanceof ParkedConnection) {
+                    closeParked(key);
+                    return null;
+                }
                 ka = (KeyAttachment) key.attachment();
                 if (ka != null && ka.isComet() && status != null) {
                     ka.setComet(false);//to avoid a loop
@@ -1070,7 +1616,11 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     // any active event.
                     while (iterator != null && iterator.hasNext()) {
                         SelectionKey sk = iterator.next();
-                        KeyAttachment attachment = (KeyAttachment)sk.attachment();
+                        Object att = sk.attachment();
+                        if (att instanceof ParkedConnection) {
+                            att = unpark(sk, (ParkedConnection) att);
+                        }
+                        KeyAttachment attachment = (KeyAttachment) att;
                         // Attachment may be null if another thread has called
                         // cancelledKey()
                         if (attachment == null) {
@@ -1211,8 +1761,11 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                             if (log.isDebugEnabled()) {
                                 log.debug("Connection is keep alive, registering back for OP_READ");
                             }
+                            attachment.getSocket().releaseBuffers();
                             if (event) {
-                                this.add(attachment.getSocket(),SelectionKey.OP_READ);
+                                this.addIdle(attachment.getSocket());
+                            } else if (parkIdleConnections && !isSSLEnabled()) {
+                                park(attachment.getSocket());
                             } else {
                                 reg(sk,attachment,SelectionKey.OP_READ);
                             }
@@ -1259,80 +1812,155 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
         protected void timeout(int keyCount, boolean hasEvents) {
             long now = System.currentTimeMillis();
-            // This method is called on every loop of the Poller. Don't process
-            // timeouts on every loop of the Poller since that would create too
-            // much load and timeouts can afford to wait a few seconds.
-            // However, do process timeouts if any of the following are true:
-            // - the selector simply timed out (suggests there isn't much load)
-            // - the nextExpiration time has passed
-            // - the server socket is being closed
-            if (nextExpiration > 0 && (keyCount > 0 || hasEvents) && (now < nextExpiration) && !close) {
+            if (close) {
+                closeAll();
                 return;
             }
-            //timeout
+            int count = callbacks.size();
+            if (count > 0) {
+                for (int i = 0; i < count; i++) {
+                    KeyAttachment ka = callbacks.get(i);
+                    SelectionKey key = ka.getSocket().getIOChannel().keyFor(selector);
+                    if (key == null || key.attachment() != ka || !ka.getCometNotify()) {
+                        continue;
+                    }
+                    try {
+                        ka.setCometNotify(false);
+                        int ops = ka.interestOps() & ~OP_CALLBACK;
+                        reg(key,ka,0);//avoid multiple calls, this gets re-registered after invocation
+                        ka.interestOps(ops);
+                        if (!processSocket(ka, SocketStatus.OPEN_READ, true)) processSocket(ka, SocketStatus.DISCONNECT, true);
+                    } catch (CancelledKeyException ckx) {
+                        cancelledKey(key, SocketStatus.ERROR);
+                    }
+                }
+                callbacks.clear();
+            }
+            timeouts.expire(now, expired);
+            count = expired.size();
+            for (int i = 0; i < count; i++) {
+                expired(expired.get(i), now);
+            }
+            expired.clear();
+            if (log.isTraceEnabled()) {
+                log.trace("timeout completed: expired=" + count +
+                        "; scheduled=" + timeouts.size() + "; now=" + now +
+                        "; keyCount=" + keyCount + "; hasEvents=" + hasEvents);
+            }
+        }
+
+        /**
+         * Handle a timeout that has reached its deadline. The connection is
+         * only timed out if there has been no activity since the timeout was
+         * scheduled. Otherwise the timeout is scheduled again.
+         */
+        private void expired(TimerWheel.Timeout<SelectionKey> timeout, long now) {
+            SelectionKey key = timeout.getValue();
+            Object attachment = key.attachment();
+            if (attachment == timeout) {
+                // A parked connection. Its deadline never changes.
+                closeParked(key);
+                return;
+            }
+            if (!(attachment instanceof KeyAttachment) ||
+                    ((KeyAttachment) attachment).getPollerTimeout() != timeout) {
+                // The connection has been closed or parked since
+                return;
+            }
+            KeyAttachment ka = (KeyAttachment) attachment;
+            try {
+                if ( ka.getError() ) {
+                    cancelledKey(key, SocketStatus.ERROR);//TODO this is not yet being used
+                } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
+                          (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
+                    //only timeout sockets that we are waiting for a read from
+                    long delta = now - ka.getLastAccess();
+                    long timeoutValue = ka.getTimeout();
+                    boolean isTimedout = timeoutValue > 0 && delta > timeoutValue;
+                    if (isTimedout) {
+                        key.interestOps(0);
+                        ka.interestOps(0); //avoid duplicate timeout calls
+                        cancelledKey(key, SocketStatus.TIMEOUT);
+                    } else {
+                        schedule(ka);
+                    }
+                } else if (ka.isAsync() || ka.isComet()) {
+                    if (!ka.isAsync() || ka.getTimeout() > 0) {
+                        // Async requests with a timeout of 0 or less never timeout
+                        long delta = now - ka.getLastAccess();
+                        long timeoutValue = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
+                        boolean isTimedout = delta > timeoutValue;
+                        if (isTimedout) {
+                            // Prevent subsequent timeouts if the timeout event takes a while to process
+                            ka.access(Long.MAX_VALUE);
+                            processSocket(ka, SocketStatus.TIMEOUT, true);
+                        } else {
+                            schedule(ka);
+                        }
+                    } else {
+                        schedule(ka);
+                    }
+                } else {
+                    // The connection is being processed. It may become an
+                    // async request without the poller being told so check
+                    // it again later.
+                    schedule(ka, now + timeouts.getTickDuration());
+                }
+            } catch ( CancelledKeyException ckx ) {
+                cancelledKey(key, SocketStatus.ERROR);
+            }
+        }
+
+        /**
+         * Stop processing all the connections of this poller when it is
+         * closed.
+         */
+        private void closeAll() {
             Set<SelectionKey> keys = selector.keys();
-            int keycount = 0;
             for (Iterator<SelectionKey> iter = keys.iterator(); iter.hasNext();) {
                 SelectionKey key = iter.next();
-                keycount++;
                 try {
-                    KeyAttachment ka = (KeyAttachment) key.attachment();
+                    Object attachment = key.attachment();
+                    if (attachment instanceof ParkedConnection) {
+                        closeParked(key);
+                        continue;
+                    }
+                    KeyAttachment ka = (KeyAttachment) attachment;
                     if ( ka == null ) {
                         cancelledKey(key, SocketStatus.ERROR); //we don't support any keys without attachments
                     } else if ( ka.getError() ) {
-                        cancelledKey(key, SocketStatus.ERROR);//TODO this is not yet being used
-                    } else if (ka.getCometNotify() ) {
-                        ka.setCometNotify(false);
-                        int ops = ka.interestOps() & ~OP_CALLBACK;
-                        reg(key,ka,0);//avoid multiple calls, this gets re-registered after invocation
-                        ka.interestOps(ops);
-                        if (!processSocket(ka, SocketStatus.OPEN_READ, true)) processSocket(ka, SocketStatus.DISCONNECT, true);
+                        cancelledKey(key, SocketStatus.ERROR);
                     } else if ((ka.interestOps()&SelectionKey.OP_READ) == SelectionKey.OP_READ ||
-                              (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE) {
-                        //only timeout sockets that we are waiting for a read from
-                        long delta = now - ka.getLastAccess();
-                        long timeout = ka.getTimeout();
-                        boolean isTimedout = timeout > 0 && delta > timeout;
-                        if ( close ) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate stop calls
-                            processKey(key,ka);
-                        } else if (isTimedout) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate timeout calls
-                            cancelledKey(key, SocketStatus.TIMEOUT);
-                        }
-                    } else if (ka.isAsync() || ka.isComet()) {
-                        if (close) {
-                            key.interestOps(0);
-                            ka.interestOps(0); //avoid duplicate stop calls
-                            processKey(key,ka);
-                        } else if (!ka.isAsync() || ka.getTimeout() > 0) {
-                            // Async requests with a timeout of 0 or less never timeout
-                            long delta = now - ka.getLastAccess();
-                            long timeout = (ka.getTimeout()==-1)?((long) socketProperties.getSoTimeout()):(ka.getTimeout());
-                            boolean isTimedout = delta > timeout;
-                            if (isTimedout) {
-                                // Prevent subsequent timeouts if the timeout event takes a while to process
-                                ka.access(Long.MAX_VALUE);
-                                processSocket(ka, SocketStatus.TIMEOUT, true);
-                            }
-                        }
-                    }//end if
+                              (ka.interestOps()&SelectionKey.OP_WRITE) == SelectionKey.OP_WRITE ||
+                              ka.isAsync() || ka.isComet()) {
+                        key.interestOps(0);
+                        ka.interestOps(0); //avoid duplicate stop calls
+                        processKey(key,ka);
+                    }
                 }catch ( CancelledKeyException ckx ) {
                     cancelledKey(key, SocketStatus.ERROR);
                 }
-            }//for
-            long prevExp = nextExpiration; //for logging purposes only
-            nextExpiration = System.currentTimeMillis() +
-                    socketProperties.getTimeoutInterval();
-            if (log.isTraceEnabled()) {
-                log.trace("timeout completed: keys processed=" + keycount +
-                        "; now=" + now + "; nextExpiration=" + prevExp +
-                        "; keyCount=" + keyCount + "; hasEvents=" + hasEvents +
-                        "; eval=" + ((now < prevExp) && (keyCount>0 || hasEvents) && (!close) ));
             }
+        }
+    }
 
+// ------------------------------------------------ Parked Connection Class
+    /**
+     * All that is kept, as the attachment of the selection key, for an idle
+     * keep-alive connection while it is parked.
+     */
+    private static final class ParkedConnection
+            extends TimerWheel.Timeout<SelectionKey> {
+
+        private final long lastAccess = System.currentTimeMillis();
+        private final long timeout;
+        private final int keepAliveLeft;
+
+        public ParkedConnection(SelectionKey key, long timeout,
+                int keepAliveLeft) {
+            super(key);
+            this.timeout = timeout;
+            this.keepAliveLeft = keepAliveLeft;
         }
     }
 
@@ -1385,6 +2013,23 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         }
         public long getWriteTimeout() {return this.writeTimeout;}
 
+        public TimerWheel.Timeout<SelectionKey> getPollerTimeout() { return pollerTimeout; }
+        public void setPollerTimeout(TimerWheel.Timeout<SelectionKey> pollerTimeout) {
+            this.pollerTimeout = pollerTimeout;
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+            super.setTimeout(timeout);
+            // A later deadline is picked up when the current one expires but
+            // the poller has to be told about an earlier one
+            Poller poller = this.poller;
+            if (poller != null && pollerTimeout != null && timeout > 0 &&
+                    getLastAccess() + timeout < expiresAt) {
+                poller.reschedule(this);
+            }
+        }
+
         private Poller poller = null;
         private int interestOps = 0;
         private boolean cometNotify = false;
@@ -1392,6 +2037,8 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         private CountDownLatch writeLatch = null;
         private volatile SendfileData sendfileData = null;
         private long writeTimeout = -1;
+        private volatile TimerWheel.Timeout<SelectionKey> pollerTimeout = null;
+        private volatile long expiresAt = Long.MAX_VALUE;
 
     }
 
@@ -1400,6 +2047,10 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
         private ByteBuffer readbuf = null;
         private ByteBuffer writebuf = null;
 
+        private final ByteBufferPool pool;
+        private final int readsize;
+        private final int writesize;
+
         public NioBufferHandler(int readsize, int writesize, boolean direct) {
             if ( direct ) {
                 readbuf = ByteBuffer.allocateDirect(readsize);
@@ -1408,15 +2059,78 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 readbuf = ByteBuffer.allocate(readsize);
                 writebuf = ByteBuffer.allocate(writesize);
             }
+            this.pool = null;
+            this.readsize = readsize;
+            this.writesize = writesize;
+        }
+
+        /**
+         * Create a handler that obtains its buffers from the given pool when
+         * they are first used and returns them on {@link #release()}.
+         */
+        public NioBufferHandler(int readsize, int writesize, ByteBufferPool pool) {
+            this.pool = pool;
+            this.readsize = readsize;
+            this.writesize = writesize;
         }
 
         @Override
         public ByteBuffer expand(ByteBuffer buffer, int remaining) {return buffer;}
         @Override
-        public ByteBuffer getReadBuffer() {return readbuf;}
+        public ByteBuffer getReadBuffer() {
+            if (readbuf == null) {
+                readbuf = pool.allocate(readsize);
+            }
+            return readbuf;
+        }
         @Override
-        public ByteBuffer getWriteBuffer() {return writebuf;}
+        public ByteBuffer getWriteBuffer() {
+            if (writebuf == null) {
+                writebuf = pool.allocate(writesize);
+            }
+            return writebuf;
+        }
 
+        /**
+         * Clear the buffers. Buffers obtained from a pool are returned to it.
+         */
+        public void reset() {
+            if (pool == null) {
+                readbuf.clear();
+                writebuf.clear();
+            } else {
+                release();
+            }
+        }
+
+        /**
+         * Return the buffers to the pool, if any. Must only be called when
+         * neither buffer holds data that has yet to be processed, i.e. when
+         * the connection is idle.
+         */
+        public void release() {
+            if (pool == null) {
+                return;
+            }
+            if (readbuf != null) {
+                pool.release(readbuf);
+                readbuf = null;
+            }
+            if (writebuf != null) {
+                pool.release(writebuf);
+                writebuf = null;
+            }
+        }
+
+        /**
+         * @return the capacity of the buffers currently held by this handler
+         */
+        public int getBufferSize() {
+            int size = 0;
+            size += readbuf!=null?readbuf.capacity():0;
+            size += writebuf!=null?writebuf.capacity():0;
+            return size;
+        }
     }
 
     // ------------------------------------------------ Handler Inner Interface
@@ -1446,8 +2160,19 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
 
         private KeyAttachment ka = null;
         private SocketStatus status = null;
+        private final ThreadLocalPool.Cache<SocketProcessor> cache;
 
         public SocketProcessor(KeyAttachment ka, SocketStatus status) {
+            this(ka, status, processorCache.getCache());
+        }
+
+        /**
+         * @param cache The cache the processor will be returned to once it
+         *              has run
+         */
+        public SocketProcessor(KeyAttachment ka, SocketStatus status,
+                ThreadLocalPool.Cache<SocketProcessor> cache) {
+            this.cache = cache;
             reset(ka, status);
         }
 
@@ -1527,6 +2252,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                                 // whether or not to return socket and ka to
                                 // their respective caches. We do NOT want to do
                                 // this more than once - see BZ 57340.
+                                socket.releaseBuffers();
                                 if (running && !paused) {
                                     nioChannels.push(socket);
                                 }
@@ -1541,6 +2267,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                     if (key != null) {
                         socket.getPoller().cancelledKey(key, SocketStatus.DISCONNECT);
                     }
+                    socket.releaseBuffers();
                     if (running && !paused) {
                         nioChannels.push(socket);
                     }
@@ -1581,7 +2308,7 @@ public class NioEndpoint extends AbstractEndpoint<NioChannel> {
                 status = null;
                 //return to cache
                 if (running && !paused) {
-                    processorCache.push(this);
+                    cache.push(this);
                 }
             }
         }
@@ -513,6 +513,23 @@ public class SecureNioChannel extends NioChannel  {
         }
     }
 
+    /**
+     * Gathering writes are not supported since all data must be written via
+     * the application write buffer.
+     *
+     * @throws IllegalArgumentException always
+     */
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+            throws IOException {
+        throw new IllegalArgumentException(sm.getString("channel.nio.ssl.invalidBuffer"));
+    }
+
+    @Override
+    public boolean isGatheringSupported() {
+        return false;
+    }
+
     @Override
     public int getOutboundRemaining() {
         return netOutBuffer.remaining();
@@ -109,6 +109,16 @@ public class SocketProperties {
      */
     protected int bufferPoolSize = 1024*1024*100;
 
+    /**
+     * Enable/disable sharing the application read/write buffers between
+     * connections. When enabled, a connection only holds its buffers while it
+     * is being processed and returns them to a pool when it is idle between
+     * requests. The pool caches at most bufferPoolSize bytes. Buffers of SSL
+     * connections are never shared.
+     * Default value is disabled
+     */
+    protected boolean sharedAppBuffers = false;
+
     /**
      * TCP_NO_DELAY option. JVM default used if not set.
      */
@@ -308,6 +318,10 @@ public class SocketProperties {
         return bufferPoolSize;
     }
 
+    public boolean getSharedAppBuffers() {
+        return sharedAppBuffers;
+    }
+
     public int getEventCache() {
         return eventCache;
     }
@@ -405,6 +419,10 @@ public class SocketProperties {
         this.bufferPoolSize = bufferPoolSize;
     }
 
+    public void setSharedAppBuffers(boolean sharedAppBuffers) {
+        this.sharedAppBuffers = sharedAppBuffers;
+    }
+
     public void setEventCache(int eventCache) {
         this.eventCache = eventCache;
     }
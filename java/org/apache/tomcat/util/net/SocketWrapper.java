@@ -23,6 +23,8 @@ import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock.WriteLock;
 
+import org.apache.tomcat.util.collections.TimerWheel;
+
 public class SocketWrapper<E> {
 
     private volatile E socket;
@@ -39,6 +41,17 @@ public class SocketWrapper<E> {
     private boolean keptAlive = false;
     private volatile boolean upgraded = false;
     private boolean secure = false;
+    /*
+     * Used by the endpoint to schedule the timeout of an async request. Only
+     * accessed while holding the lock on the endpoint's timing wheel.
+     */
+    private TimerWheel.Timeout<SocketWrapper<E>> waitingTimeout = null;
+    /*
+     * The endpoint for which this socket is waiting for an async request to
+     * complete, if any. It is told about changes to the timeout so that it can
+     * reschedule the waiting timeout.
+     */
+    private volatile AbstractEndpoint<E> waitingEndpoint = null;
     /*
      * Following cached for speed / reduced GC
      */
@@ -98,11 +111,27 @@ public class SocketWrapper<E> {
         }
     }
     public void access(long access) { lastAccess = access; }
-    public void setTimeout(long timeout) {this.timeout = timeout;}
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+        AbstractEndpoint<E> endpoint = waitingEndpoint;
+        if (endpoint != null) {
+            endpoint.waitingTimeoutChanged(this);
+        }
+    }
     public long getTimeout() {return this.timeout;}
     public boolean getError() { return error; }
     public void setError(boolean error) { this.error = error; }
     public void setKeepAliveLeft(int keepAliveLeft) { this.keepAliveLeft = keepAliveLeft;}
+    public int getKeepAliveLeft() { return keepAliveLeft;}
+    void setWaitingEndpoint(AbstractEndpoint<E> waitingEndpoint) {
+        this.waitingEndpoint = waitingEndpoint;
+    }
+    public TimerWheel.Timeout<SocketWrapper<E>> getWaitingTimeout() {
+        if (waitingTimeout == null) {
+            waitingTimeout = new TimerWheel.Timeout<>(this);
+        }
+        return waitingTimeout;
+    }
     public int decrementKeepAlive() { return (--keepAliveLeft);}
     public boolean isKeptAlive() {return keptAlive;}
     public void setKeptAlive(boolean keptAlive) {this.keptAlive = keptAlive;}
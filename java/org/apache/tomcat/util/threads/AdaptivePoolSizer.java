@@ -0,0 +1,158 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Adjusts the maximum size of a {@link ThreadPoolExecutor} so that the mean
+ * time tasks spend waiting in the queue stays close to a target.
+ * <p>
+ * Once per interval the mean queue wait of the tasks started in the interval
+ * is compared with the target. If it is higher, the limit is grown in
+ * proportion to the ratio of the two (at most doubling it). If it is less than
+ * half the target, the limit is shrunk by 10% but never below the number of
+ * threads needed to keep up with the current load which, by Little's law, is
+ * the arrival rate multiplied by the mean run time, i.e. the total run time of
+ * the tasks completed in the interval divided by the length of the interval.
+ * 25% head room is allowed on top of that. The limit always stays between the
+ * core size of the pool and the configured maximum.
+ * <p>
+ * There is no background thread. The adjustment is made by whichever thread
+ * submits or completes a task first once the interval has elapsed.
+ */
+class AdaptivePoolSizer {
+
+    private final ThreadPoolExecutor executor;
+
+    private volatile int maximumPoolSize;
+    private volatile long targetQueueWait;
+    private volatile long interval;
+
+    private final AtomicLong nextAdjustment;
+    private final AtomicLong started = new AtomicLong(0);
+    private final AtomicLong waitTime = new AtomicLong(0);
+    private final AtomicLong runTime = new AtomicLong(0);
+
+
+    AdaptivePoolSizer(ThreadPoolExecutor executor, int maximumPoolSize,
+            long targetQueueWait, long interval) {
+        this.executor = executor;
+        this.maximumPoolSize = maximumPoolSize;
+        this.targetQueueWait = targetQueueWait;
+        this.interval = interval;
+        this.nextAdjustment = new AtomicLong(System.nanoTime() + interval);
+    }
+
+
+    int getMaximumPoolSize() {
+        return maximumPoolSize;
+    }
+
+    void setMaximumPoolSize(int maximumPoolSize) {
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    long getTargetQueueWait() {
+        return targetQueueWait;
+    }
+
+    void setTargetQueueWait(long targetQueueWait) {
+        this.targetQueueWait = targetQueueWait;
+    }
+
+    long getInterval() {
+        return interval;
+    }
+
+    void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+
+    void taskStarted(long wait) {
+        started.incrementAndGet();
+        waitTime.addAndGet(wait);
+    }
+
+
+    void taskCompleted(long run) {
+        runTime.addAndGet(run);
+    }
+
+
+    /**
+     * Adjust the pool if the current interval has elapsed and no other thread
+     * is already doing so.
+     *
+     * @param now The current value of {@link System#nanoTime()}
+     */
+    void check(long now) {
+        long next = nextAdjustment.get();
+        if (now - next < 0) {
+            return;
+        }
+        long intervalTime = interval;
+        if (!nextAdjustment.compareAndSet(next, now + intervalTime)) {
+            return;
+        }
+        adjust(now - next + intervalTime);
+    }
+
+
+    private void adjust(long elapsed) {
+        long startedCount = started.getAndSet(0);
+        long waitTotal = waitTime.getAndSet(0);
+        long runTotal = runTime.getAndSet(0);
+
+        long meanWait;
+        if (startedCount > 0) {
+            meanWait = waitTotal / startedCount;
+        } else if (executor.getQueue().isEmpty()) {
+            meanWait = 0;
+        } else {
+            // Nothing left the queue in the whole interval
+            meanWait = Long.MAX_VALUE;
+        }
+
+        // Little's law
+        int required = (int) Math.ceil((double) runTotal / elapsed);
+
+        int limit = executor.getMaximumPoolSize();
+        int newLimit = limit;
+        long target = targetQueueWait;
+        if (meanWait > target) {
+            double ratio = target > 0 ? (double) meanWait / target : 2;
+            newLimit = (int) Math.min(limit * 2L, (long) (limit * ratio));
+            newLimit = Math.max(newLimit, Math.max(limit + 1, required + 1));
+        } else if (meanWait <= target / 2) {
+            newLimit = Math.min(limit, Math.max(limit - Math.max(1, limit / 10),
+                    required + (required + 3) / 4));
+        }
+
+        int max = maximumPoolSize;
+        int min = Math.min(Math.max(executor.getCorePoolSize(), 1), max);
+        if (newLimit > max) {
+            newLimit = max;
+        } else if (newLimit < min) {
+            newLimit = min;
+        }
+        if (newLimit != limit) {
+            executor.setMaximumPoolSize(newLimit);
+        }
+    }
+}
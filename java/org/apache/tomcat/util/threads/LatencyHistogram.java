@@ -0,0 +1,166 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free histogram of durations. Values are recorded in nanoseconds and
+ * counted in buckets of microseconds where the upper bound of each bucket is
+ * twice that of the previous one so the relative error of any percentile
+ * derived from the histogram is at most a factor of two.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Bucket <code>i</code> holds durations less than <code>2^i</code>
+     * microseconds. The last bucket holds everything else (anything over about
+     * 18 minutes).
+     */
+    public static final int BUCKETS = 31;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong(0);
+    private final AtomicLong sum = new AtomicLong(0);
+
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+    public void record(long nanos) {
+        long micros = nanos < 0 ? 0 : nanos / 1000;
+        counts.incrementAndGet(bucket(micros));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+    }
+
+
+    /**
+     * @return the number of durations recorded
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+
+    /**
+     * @return the sum, in microseconds, of the durations recorded
+     */
+    public long getSum() {
+        return sum.get();
+    }
+
+
+    /**
+     * @return the mean, in microseconds, of the durations recorded
+     */
+    public long getMean() {
+        long c = count.get();
+        return c == 0 ? 0 : sum.get() / c;
+    }
+
+
+    /**
+     * Estimate a percentile of the recorded durations.
+     *
+     * @param percentile The percentile, in the range 0 to 100
+     *
+     * @return the upper bound, in microseconds, of the bucket that holds the
+     *         given percentile or zero if nothing has been recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] snapshot = getCounts();
+        long total = 0;
+        for (long c : snapshot) {
+            total += c;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target && snapshot[i] > 0) {
+                return upperBound(i);
+            }
+        }
+        return upperBound(BUCKETS - 1);
+    }
+
+
+    /**
+     * @return a copy of the current count of each bucket
+     */
+    public long[] getCounts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+
+    /**
+     * @return a description of each non-empty bucket in the form
+     *         <code>&lt;upper bound&gt;us: &lt;count&gt;</code>, suitable for
+     *         display through JMX
+     */
+    public String[] toStringArray() {
+        long[] snapshot = getCounts();
+        int used = 0;
+        for (long c : snapshot) {
+            if (c > 0) {
+                used++;
+            }
+        }
+        String[] result = new String[used];
+        int pos = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] > 0) {
+                result[pos++] = "<" + upperBound(i) + "us: " + snapshot[i];
+            }
+        }
+        return result;
+    }
+
+
+    /**
+     * Clear all recorded durations.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+    }
+
+
+    static int bucket(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+
+    static long upperBound(int bucket) {
+        return 1L << bucket;
+    }
+}
@@ -61,6 +61,19 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      */
     private long threadRenewalDelay = Constants.DEFAULT_THREAD_RENEWAL_DELAY;
 
+    /**
+     * Time spent by tasks in the queue and time spent running them. Only
+     * recorded when adaptive sizing is enabled.
+     */
+    private final LatencyHistogram queueWaitHistogram = new LatencyHistogram();
+    private final LatencyHistogram runTimeHistogram = new LatencyHistogram();
+
+    /**
+     * If non-null, tasks are timed and the maximum size of the pool is
+     * adjusted to hold the target queue wait.
+     */
+    private volatile AdaptivePoolSizer adaptivePoolSizer = null;
+
     public ThreadPoolExecutor(int corePoolSize, int maximumPoolSize, long keepAliveTime, TimeUnit unit, BlockingQueue<Runnable> workQueue, RejectedExecutionHandler handler) {
         super(corePoolSize, maximumPoolSize, keepAliveTime, unit, workQueue, handler);
     }
@@ -86,8 +99,85 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.threadRenewalDelay = threadRenewalDelay;
     }
 
+    /**
+     * Enable adaptive sizing of this pool. The maximum pool size becomes a
+     * limit that is moved between the core pool size and
+     * <code>maximumPoolSize</code> so that the mean time tasks wait in the
+     * queue stays close to <code>targetQueueWait</code>. The limit starts at
+     * the current maximum pool size.
+     *
+     * @param maximumPoolSize The upper bound for the maximum pool size
+     * @param targetQueueWait The target mean queue wait
+     * @param interval        The time between adjustments
+     * @param unit            The unit of <code>targetQueueWait</code> and
+     *                        <code>interval</code>
+     */
+    public void setAdaptive(int maximumPoolSize, long targetQueueWait,
+            long interval, TimeUnit unit) {
+        AdaptivePoolSizer sizer = adaptivePoolSizer;
+        if (sizer == null) {
+            adaptivePoolSizer = new AdaptivePoolSizer(this, maximumPoolSize,
+                    unit.toNanos(targetQueueWait), unit.toNanos(interval));
+        } else {
+            sizer.setMaximumPoolSize(maximumPoolSize);
+            sizer.setTargetQueueWait(unit.toNanos(targetQueueWait));
+            sizer.setInterval(unit.toNanos(interval));
+        }
+        if (getMaximumPoolSize() > maximumPoolSize) {
+            setMaximumPoolSize(maximumPoolSize);
+        }
+    }
+
+    /**
+     * Disable adaptive sizing, restoring the given maximum pool size.
+     *
+     * @param maximumPoolSize The maximum pool size to use from now on
+     */
+    public void clearAdaptive(int maximumPoolSize) {
+        adaptivePoolSizer = null;
+        setMaximumPoolSize(maximumPoolSize);
+    }
+
+    public boolean isAdaptive() {
+        return adaptivePoolSizer != null;
+    }
+
+    public LatencyHistogram getQueueWaitHistogram() {
+        return queueWaitHistogram;
+    }
+
+    public LatencyHistogram getRunTimeHistogram() {
+        return runTimeHistogram;
+    }
+
+    @Override
+    protected void beforeExecute(Thread t, Runnable r) {
+        if (r instanceof TimedTask) {
+            TimedTask task = (TimedTask) r;
+            long now = System.nanoTime();
+            long wait = now - task.queued;
+            task.started = now;
+            queueWaitHistogram.record(wait);
+            AdaptivePoolSizer sizer = adaptivePoolSizer;
+            if (sizer != null) {
+                sizer.taskStarted(wait);
+            }
+        }
+    }
+
     @Override
     protected void afterExecute(Runnable r, Throwable t) {
+        if (r instanceof TimedTask) {
+            long now = System.nanoTime();
+            long run = now - ((TimedTask) r).started;
+            runTimeHistogram.record(run);
+            AdaptivePoolSizer sizer = adaptivePoolSizer;
+            if (sizer != null) {
+                sizer.taskCompleted(run);
+                sizer.check(now);
+            }
+        }
+
         submittedCount.decrementAndGet();
 
         if (t == null) {
@@ -156,6 +246,12 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
      * @throws NullPointerException if command or unit is null
      */
     public void execute(Runnable command, long timeout, TimeUnit unit) {
+        AdaptivePoolSizer sizer = adaptivePoolSizer;
+        if (sizer != null) {
+            long now = System.nanoTime();
+            sizer.check(now);
+            command = new TimedTask(command, now);
+        }
         submittedCount.incrementAndGet();
         try {
             super.execute(command);
@@ -208,6 +304,23 @@ public class ThreadPoolExecutor extends java.util.concurrent.ThreadPoolExecutor
         this.setCorePoolSize(savedCorePoolSize);
     }
 
+    private static class TimedTask implements Runnable {
+
+        private final Runnable task;
+        private final long queued;
+        private long started;
+
+        public TimedTask(Runnable task, long queued) {
+            this.task = task;
+            this.queued = queued;
+        }
+
+        @Override
+        public void run() {
+            task.run();
+        }
+    }
+
     private static class RejectHandler implements RejectedExecutionHandler {
         @Override
         public void rejectedExecution(Runnable r,
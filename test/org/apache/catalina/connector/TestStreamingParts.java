@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestStreamingParts extends TomcatBaseTest {
+
+    private static final String BOUNDARY = "----boundary";
+
+
+    @Test
+    public void testReadAsIterated() throws Exception {
+        // The content of the file is read from the request body
+        assertEquals("a=1\nb=2\nfile=f.txt:20000:20000\nc=3\nc=3\n",
+                doRequest("iterate", 20000));
+    }
+
+
+    @Test
+    public void testBufferedWhenSkipped() throws Exception {
+        // Looking up the last part buffers the content of the file, in a
+        // temporary file as the threshold is zero
+        assertEquals("c=3\nfile=f.txt:20000:20000\n",
+                doRequest("lookup", 20000));
+    }
+
+
+    @Test
+    public void testBufferedInMemory() throws Exception {
+        assertEquals("c=3\nfile=f.txt:10:10\n",
+                doRequest("lookup-memory", 10));
+    }
+
+
+    @Test
+    public void testParameters() throws Exception {
+        assertEquals("a=1\nb=2\nc=3\n", doRequest("parameters", 100000));
+    }
+
+
+    @Test
+    public void testWrite() throws Exception {
+        assertEquals("file=f.txt:20000\n", doRequest("write", 20000));
+    }
+
+
+    @Test
+    public void testMaxFileSize() throws Exception {
+        assertEquals("a=1\nb=2\nfailed\n", doRequest("lookup-limited", 20000));
+    }
+
+
+    private String doRequest(String mode, int fileSize) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context context = tomcat.addContext("", TEMP_DIR);
+        context.setStreamingMultipartParsing(true);
+        Wrapper w = Tomcat.addServlet(context, "parts", new PartsServlet());
+        if (mode.endsWith("-limited")) {
+            w.setMultipartConfigElement(
+                    new MultipartConfigElement("", 10000, -1, 0));
+        } else if (mode.endsWith("-memory")) {
+            w.setMultipartConfigElement(
+                    new MultipartConfigElement("", -1, -1, 1000));
+        } else {
+            w.setMultipartConfigElement(new MultipartConfigElement(""));
+        }
+        context.addServletMapping("/", "parts");
+        tomcat.start();
+
+        StringBuilder body = new StringBuilder();
+        appendField(body, "a", "1");
+        appendField(body, "b", "2");
+        body.append("--").append(BOUNDARY).append("\r\n");
+        body.append("Content-Disposition: form-data; name=\"file\"; " +
+                "filename=\"f.txt\"\r\n");
+        body.append("Content-Type: text/plain\r\n\r\n");
+        for (int i = 0; i < fileSize; i++) {
+            body.append((char) ('a' + i % 26));
+        }
+        body.append("\r\n");
+        appendField(body, "c", "3");
+        body.append("--").append(BOUNDARY).append("--\r\n");
+
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Content-Type", Collections.singletonList(
+                "multipart/form-data; boundary=" + BOUNDARY));
+        ByteChunk out = new ByteChunk();
+        int rc = postUrl(body.toString().getBytes(StandardCharsets.ISO_8859_1),
+                "http://localhost:" + getPort() + "/" + mode, out, reqHead, null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        return out.toString();
+    }
+
+
+    private static void appendField(StringBuilder body, String name,
+            String value) {
+        body.append("--").append(BOUNDARY).append("\r\n");
+        body.append("Content-Disposition: form-data; name=\"");
+        body.append(name).append("\"\r\n\r\n");
+        body.append(value).append("\r\n");
+    }
+
+
+    private static class PartsServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            PrintWriter out = resp.getWriter();
+            String mode = req.getRequestURI().substring(1);
+            switch (mode) {
+            case "iterate":
+                for (Part part : req.getParts()) {
+                    out.print(part.getName() + "=");
+                    if (part.getSubmittedFileName() == null) {
+                        // Looking up a parameter here would read all the parts
+                        out.print(new String(readAll(part),
+                                StandardCharsets.ISO_8859_1));
+                    } else {
+                        out.print(part.getSubmittedFileName() + ":" +
+                                count(part.getInputStream()) + ":" +
+                                part.getSize());
+                    }
+                    out.print("\n");
+                }
+                out.print("c=" + req.getParameter("c") + "\n");
+                break;
+            case "lookup":
+            case "lookup-memory":
+                out.print("c=" + new String(readAll(req.getPart("c")),
+                        StandardCharsets.ISO_8859_1) + "\n");
+                Part file = req.getPart("file");
+                out.print("file=" + file.getSubmittedFileName() + ":" +
+                        file.getSize() + ":" + count(file.getInputStream()) +
+                        "\n");
+                break;
+            case "lookup-limited":
+                List<String> seen = new ArrayList<>();
+                try {
+                    for (Part part : req.getParts()) {
+                        if (part.getSubmittedFileName() == null) {
+                            seen.add(part.getName() + "=" + new String(
+                                    readAll(part), StandardCharsets.ISO_8859_1));
+                        }
+                    }
+                } catch (IllegalStateException e) {
+                    seen.add("failed");
+                }
+                for (String s : seen) {
+                    out.print(s + "\n");
+                }
+                break;
+            case "parameters":
+                out.print("a=" + req.getParameter("a") + "\n");
+                out.print("b=" + req.getParameter("b") + "\n");
+                out.print("c=" + req.getParameter("c") + "\n");
+                break;
+            case "write":
+                for (Part part : req.getParts()) {
+                    if (part.getSubmittedFileName() != null) {
+                        File dest = File.createTempFile("written", ".tmp",
+                                new File(TEMP_DIR));
+                        part.write(dest.getAbsolutePath());
+                        out.print(part.getName() + "=" +
+                                part.getSubmittedFileName() + ":" +
+                                Files.readAllBytes(dest.toPath()).length + "\n");
+                        if (!dest.delete()) {
+                            dest.deleteOnExit();
+                        }
+                    }
+                }
+                break;
+            }
+        }
+
+        private static long count(InputStream is) throws IOException {
+            long count = 0;
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                count += n;
+            }
+            return count;
+        }
+
+        private static byte[] readAll(Part part) throws IOException {
+            try (InputStream is = part.getInputStream()) {
+                byte[] result = new byte[(int) part.getSize()];
+                int pos = 0;
+                int n;
+                while (pos < result.length &&
+                        (n = is.read(result, pos, result.length - pos)) > 0) {
+                    pos += n;
+                }
+                return result;
+            }
+        }
+    }
+}
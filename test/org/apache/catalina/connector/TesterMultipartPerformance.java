@@ -0,0 +1,202 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.MultipartConfigElement;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.Part;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.BytesStreamer;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares reading the parts of multipart requests all at once (each part
+ * copied to a temporary file with the default file size threshold of zero)
+ * with reading them as they are iterated over.
+ */
+public class TesterMultipartPerformance extends TomcatBaseTest {
+
+    private static final String BOUNDARY = "----boundary";
+    private static final int FIELDS = 1000;
+    private static final int FIELD_REQUESTS = 100;
+    private static final int UPLOAD_SIZE = 1024 * 1024 * 1024;
+
+
+    @Test
+    public void testFields() throws Exception {
+        startTomcat();
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < FIELDS; i++) {
+            body.append("--").append(BOUNDARY).append("\r\n");
+            body.append("Content-Disposition: form-data; name=\"field");
+            body.append(i).append("\"\r\n\r\nvalue-").append(i).append("\r\n");
+        }
+        body.append("--").append(BOUNDARY).append("--\r\n");
+        byte[] bytes = body.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int run = 0; run < 3; run++) {
+            for (String mode : new String[] { "eager", "streaming" }) {
+                long start = System.nanoTime();
+                for (int i = 0; i < FIELD_REQUESTS; i++) {
+                    assertEquals(Integer.toString(FIELDS),
+                            post(mode + "/fields", bytes));
+                }
+                System.out.println(mode + ": " + FIELDS + " fields, " +
+                        (System.nanoTime() - start) / FIELD_REQUESTS / 1000 +
+                        "us per request");
+            }
+        }
+    }
+
+
+    @Test
+    public void testUpload() throws Exception {
+        startTomcat();
+        for (String mode : new String[] { "eager", "streaming" }) {
+            long start = System.nanoTime();
+            assertEquals(Long.toString(UPLOAD_SIZE), post(mode + "/upload",
+                    new UploadStreamer()));
+            System.out.println(mode + ": " + UPLOAD_SIZE + " byte upload, " +
+                    (System.nanoTime() - start) / 1000000 + "ms");
+        }
+    }
+
+
+    private void startTomcat() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        for (String mode : new String[] { "eager", "streaming" }) {
+            Context context = tomcat.addContext("/" + mode, TEMP_DIR);
+            context.setStreamingMultipartParsing(mode.equals("streaming"));
+            Wrapper w = Tomcat.addServlet(context, "parts", new PartsServlet());
+            w.setMultipartConfigElement(new MultipartConfigElement(""));
+            context.addServletMapping("/*", "parts");
+        }
+        tomcat.start();
+    }
+
+
+    private String post(String path, byte[] body) throws IOException {
+        ByteChunk out = new ByteChunk();
+        int rc = postUrl(body, "http://localhost:" + getPort() + "/" + path,
+                out, contentType(), null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        return out.toString();
+    }
+
+
+    private String post(String path, BytesStreamer body) throws IOException {
+        ByteChunk out = new ByteChunk();
+        int rc = postUrl(true, body, "http://localhost:" + getPort() + "/" +
+                path, out, contentType(), null);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        return out.toString();
+    }
+
+
+    private static Map<String,List<String>> contentType() {
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Content-Type", Collections.singletonList(
+                "multipart/form-data; boundary=" + BOUNDARY));
+        return reqHead;
+    }
+
+
+    private static class UploadStreamer implements BytesStreamer {
+
+        private final byte[] head = ("--" + BOUNDARY + "\r\n" +
+                "Content-Disposition: form-data; name=\"file\"; " +
+                "filename=\"upload.bin\"\r\n" +
+                "Content-Type: application/octet-stream\r\n\r\n").getBytes(
+                        StandardCharsets.ISO_8859_1);
+        private final byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(
+                StandardCharsets.ISO_8859_1);
+        private final byte[] chunk = new byte[64 * 1024];
+        private int remaining = UPLOAD_SIZE;
+        private boolean headSent = false;
+        private boolean tailSent = false;
+
+        @Override
+        public int getLength() {
+            return head.length + UPLOAD_SIZE + tail.length;
+        }
+
+        @Override
+        public int available() {
+            return tailSent ? 0 : 1;
+        }
+
+        @Override
+        public byte[] next() {
+            if (!headSent) {
+                headSent = true;
+                return head;
+            }
+            if (remaining > 0) {
+                remaining -= chunk.length;
+                return chunk;
+            }
+            tailSent = true;
+            return tail;
+        }
+    }
+
+
+    private static class PartsServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            if (req.getPathInfo().equals("/fields")) {
+                resp.getWriter().print(req.getParameterMap().size());
+                return;
+            }
+            long size = 0;
+            byte[] buf = new byte[64 * 1024];
+            for (Part part : req.getParts()) {
+                try (InputStream is = part.getInputStream()) {
+                    int n;
+                    while ((n = is.read(buf)) != -1) {
+                        size += n;
+                    }
+                }
+            }
+            resp.getWriter().print(size);
+        }
+    }
+}
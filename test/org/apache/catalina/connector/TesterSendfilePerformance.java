@@ -0,0 +1,139 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.connector;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.servlets.DefaultServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Compares the throughput of static files served by the DefaultServlet using
+ * sendfile with NIO (FileChannel.transferTo), NIO2 copying through the socket
+ * buffer and NIO2 writing memory mapped regions of the file.
+ */
+public class TesterSendfilePerformance extends TomcatBaseTest {
+
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+    private static final int WARMUP_REQUESTS = 5;
+    private static final int REQUESTS = 20;
+
+
+    @Test
+    public void testNioTransferTo() throws Exception {
+        doTest("org.apache.coyote.http11.Http11NioProtocol", 0);
+    }
+
+
+    @Test
+    public void testNio2Copy() throws Exception {
+        doTest("org.apache.coyote.http11.Http11Nio2Protocol", 0);
+    }
+
+
+    @Test
+    public void testNio2Mapped() throws Exception {
+        doTest("org.apache.coyote.http11.Http11Nio2Protocol", 4 * 1024 * 1024);
+    }
+
+
+    private void doTest(String protocol, int mappedSendfileSize)
+            throws Exception {
+        File docBase = new File(getTemporaryDirectory(), "sendfile");
+        if (!docBase.mkdirs() && !docBase.isDirectory()) {
+            throw new IllegalStateException();
+        }
+        addDeleteOnTearDown(docBase);
+        byte[] block = new byte[64 * 1024];
+        for (int i = 0; i < block.length; i++) {
+            block[i] = (byte) ('a' + i % 26);
+        }
+        try (OutputStream os =
+                new FileOutputStream(new File(docBase, "large.bin"))) {
+            for (int i = 0; i < FILE_SIZE / block.length; i++) {
+                os.write(block);
+            }
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Connector connector = new Connector(protocol);
+        connector.setPort(0);
+        if (mappedSendfileSize > 0) {
+            connector.setProperty("mappedSendfileSize",
+                    Integer.toString(mappedSendfileSize));
+        }
+        tomcat.getService().addConnector(connector);
+        tomcat.setConnector(connector);
+
+        Context ctx = tomcat.addContext("", docBase.getAbsolutePath());
+        Wrapper w = Tomcat.addServlet(ctx, "default", new DefaultServlet());
+        w.addInitParameter("sendfileSize", "1");
+        ctx.addServletMapping("/", "default");
+        tomcat.start();
+
+        byte[] request = ("GET /large.bin HTTP/1.1\r\n" +
+                "Host: localhost\r\n" +
+                "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < WARMUP_REQUESTS; i++) {
+            doRequest(request);
+        }
+
+        long total = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            total += doRequest(request);
+        }
+        long time = System.nanoTime() - start;
+
+        System.out.println(protocol + ", mappedSendfileSize [" +
+                mappedSendfileSize + "]: " + total + " bytes in " +
+                (time / 1000000) + "ms, " +
+                (total * 1000L / time) + " MB/s");
+    }
+
+
+    private long doRequest(byte[] request) throws Exception {
+        long read = 0;
+        try (Socket s = new Socket("localhost", getPort())) {
+            OutputStream os = s.getOutputStream();
+            os.write(request);
+            os.flush();
+            InputStream is = s.getInputStream();
+            byte[] buf = new byte[64 * 1024];
+            int n;
+            while ((n = is.read(buf)) > -1) {
+                read += n;
+            }
+        }
+        // Body plus headers
+        assertTrue(read > FILE_SIZE);
+        return read;
+    }
+}
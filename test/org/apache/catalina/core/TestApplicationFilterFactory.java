@@ -0,0 +1,152 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
+
+public class TestApplicationFilterFactory extends TomcatBaseTest {
+
+    @Test
+    public void testFilterChains() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "a", new FiltersServlet());
+        ctx.addServletMapping("/a/*", "a");
+        Tomcat.addServlet(ctx, "b", new FiltersServlet());
+        ctx.addServletMapping("/", "b");
+
+        addFilter(ctx, "all", "/*", null);
+        addFilter(ctx, "a", "/a/*", null);
+        addFilter(ctx, "ab", "/a/b/*", null);
+        addFilter(ctx, "exact", "/a/b/exact", null);
+        addFilter(ctx, "jsp", "*.jsp", null);
+        addFilter(ctx, "servletB", null, "b");
+        addFilter(ctx, "allServlets", null, "*");
+        FilterMap aAgain = addFilter(ctx, "a", "/a/b/c/*", null);
+
+        tomcat.start();
+
+        // Run each request twice so the second is served from the cache
+        for (int i = 0; i < 2; i++) {
+            doTest("/a", "all,a,allServlets");
+            doTest("/a/", "all,a,allServlets");
+            doTest("/a/bc", "all,a,allServlets");
+            doTest("/a/b", "all,a,ab,allServlets");
+            doTest("/a/b/exact", "all,a,ab,exact,allServlets");
+            doTest("/a/b/c/page.jsp", "all,a,ab,jsp,allServlets");
+            doTest("/a/b/exact.jsp", "all,a,ab,jsp,allServlets");
+            doTest("/page.jsp", "all,jsp,servletB,allServlets");
+            doTest("/other", "all,servletB,allServlets");
+        }
+
+        // Changes to the filter mappings are seen by later requests
+        ctx.removeFilterMap(aAgain);
+        ctx.removeFilterMap(ctx.findFilterMaps()[0]);
+        doTest("/a/b/exact", "a,ab,exact,allServlets");
+        doTest("/other", "servletB,allServlets");
+    }
+
+
+    private FilterMap addFilter(Context ctx, String name, String urlPattern,
+            String servletName) {
+        if (ctx.findFilterDef(name) == null) {
+            FilterDef filterDef = new FilterDef();
+            filterDef.setFilterClass(RecordingFilter.class.getName());
+            filterDef.setFilterName(name);
+            ctx.addFilterDef(filterDef);
+        }
+        FilterMap filterMap = new FilterMap();
+        filterMap.setFilterName(name);
+        if (urlPattern != null) {
+            filterMap.addURLPattern(urlPattern);
+        }
+        if (servletName != null) {
+            filterMap.addServletName(servletName);
+        }
+        ctx.addFilterMap(filterMap);
+        return filterMap;
+    }
+
+
+    private void doTest(String path, String expected) throws IOException {
+        ByteChunk res = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + path, res, null);
+        Assert.assertEquals(HttpServletResponse.SC_OK, rc);
+        Assert.assertEquals(path, expected, res.toString());
+    }
+
+
+    public static class RecordingFilter implements Filter {
+
+        private String name;
+
+        @Override
+        public void init(FilterConfig filterConfig) {
+            name = filterConfig.getFilterName();
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response,
+                FilterChain chain) throws IOException, ServletException {
+            Object filters = request.getAttribute("filters");
+            request.setAttribute("filters",
+                    filters == null ? name : filters + "," + name);
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+            // NOOP
+        }
+    }
+
+
+    private static class FiltersServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getWriter().print(req.getAttribute("filters"));
+        }
+    }
+}
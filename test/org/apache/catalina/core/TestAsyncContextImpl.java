@@ -444,6 +444,88 @@ public class TestAsyncContextImpl extends TomcatBaseTest {
         doTestTimeout(null, null);
     }
 
+    @Test
+    public void testTimeoutReducedAfterStart() throws Exception {
+        doTestTimeoutChanged(60000);
+    }
+
+    @Test
+    public void testTimeoutSetAfterNoTimeout() throws Exception {
+        doTestTimeoutChanged(0);
+    }
+
+    /*
+     * The timeout is changed by a non-container thread once the request is
+     * waiting for the async processing to complete.
+     */
+    private void doTestTimeoutChanged(long initialTimeout) throws Exception {
+        resetTracker();
+
+        // Setup Tomcat instance
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        ChangeTimeoutServlet servlet = new ChangeTimeoutServlet(initialTimeout);
+        Wrapper wrapper = Tomcat.addServlet(ctx, "time", servlet);
+        wrapper.setAsyncSupported(true);
+        ctx.addServletMapping("/start", "time");
+
+        tomcat.start();
+
+        // Fail rather than wait for ever if the new timeout is ignored
+        long start = System.currentTimeMillis();
+        getUrl("http://localhost:" + getPort() + "/start", new ByteChunk(),
+                10000, null, null);
+        long duration = System.currentTimeMillis() - start;
+
+        String expectedTrack = "onTimeout-onComplete-";
+        int count = 0;
+        while (!expectedTrack.equals(getTrack()) && count < 100) {
+            Thread.sleep(50);
+            count ++;
+        }
+        assertEquals(expectedTrack, getTrack());
+        assertTrue("Timed out after " + duration + "ms", duration <
+                ChangeTimeoutServlet.CHANGE_DELAY +
+                ChangeTimeoutServlet.ASYNC_TIMEOUT + TIMEOUT_MARGIN +
+                REQUEST_TIME);
+    }
+
+    private static class ChangeTimeoutServlet extends HttpServlet {
+        private static final long serialVersionUID = 1L;
+
+        public static final long CHANGE_DELAY = 1000;
+        public static final long ASYNC_TIMEOUT = 2000;
+
+        private final long initialTimeout;
+
+        public ChangeTimeoutServlet(long initialTimeout) {
+            this.initialTimeout = initialTimeout;
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            final AsyncContext ac = req.startAsync();
+            ac.setTimeout(initialTimeout);
+            ac.addListener(new TrackingListener(false, true, null));
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(CHANGE_DELAY);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    ac.setTimeout(ASYNC_TIMEOUT);
+                }
+            };
+            t.start();
+        }
+    }
+
     private void doTestTimeout(Boolean completeOnTimeout, Boolean asyncDispatch)
             throws Exception {
 
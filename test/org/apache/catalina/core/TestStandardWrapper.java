@@ -44,7 +44,10 @@ import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.Test;
 
@@ -504,6 +507,120 @@ public class TestStandardWrapper extends TomcatBaseTest {
         }
     }
 
+    @Test
+    public void testSingleThreadModelPool() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        StandardWrapper wrapper = (StandardWrapper) Tomcat.addServlet(ctx,
+                "stm", Bug51445Servlet.class.getName());
+        wrapper.setMaxInstances(2);
+        wrapper.setAllocateTimeout(100);
+
+        tomcat.start();
+
+        Servlet servlet1 = wrapper.allocate();
+        Servlet servlet2 = wrapper.allocate();
+        assertNotSame(servlet1, servlet2);
+        assertEquals(2, wrapper.getCountAllocated());
+        assertEquals(0, wrapper.getStmWaitCount());
+
+        // The pool is exhausted
+        try {
+            wrapper.allocate();
+            fail();
+        } catch (ServletException e) {
+            // Expected
+        }
+        assertEquals(1, wrapper.getStmWaitCount());
+        assertTrue(wrapper.getStmWaitTime() >= 100);
+
+        // The most recently deallocated instance is reused
+        wrapper.deallocate(servlet2);
+        assertSame(servlet2, wrapper.allocate());
+        wrapper.deallocate(servlet2);
+        wrapper.deallocate(servlet1);
+        assertEquals(0, wrapper.getCountAllocated());
+
+        // A waiting thread is given the next instance to be deallocated
+        wrapper.setAllocateTimeout(-1);
+        servlet1 = wrapper.allocate();
+        servlet2 = wrapper.allocate();
+        final StandardWrapper w = wrapper;
+        final Servlet[] allocated = new Servlet[1];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    allocated[0] = w.allocate();
+                } catch (ServletException e) {
+                    // Leave allocated[0] as null
+                }
+            }
+        };
+        t.start();
+        Thread.sleep(200);
+        assertTrue(t.isAlive());
+        wrapper.deallocate(servlet1);
+        t.join(5000);
+        assertSame(servlet1, allocated[0]);
+        assertEquals(2, wrapper.getStmWaitCount());
+    }
+
+    @Test
+    public void testSingleThreadModelPoolResize() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        StandardWrapper wrapper = (StandardWrapper) Tomcat.addServlet(ctx,
+                "stm", Bug51445Servlet.class.getName());
+        wrapper.setMaxInstances(1);
+        wrapper.setAllocateTimeout(100);
+
+        tomcat.start();
+
+        Servlet servlet1 = wrapper.allocate();
+        try {
+            wrapper.allocate();
+            fail();
+        } catch (ServletException e) {
+            // Expected
+        }
+
+        // Raising maxInstances allows more instances to be allocated
+        wrapper.setMaxInstances(2);
+        Servlet servlet2 = wrapper.allocate();
+        assertNotSame(servlet1, servlet2);
+        assertEquals(2, wrapper.getCountAllocated());
+
+        // Lowering it takes effect as instances are deallocated
+        wrapper.setMaxInstances(1);
+        wrapper.deallocate(servlet2);
+        try {
+            wrapper.allocate();
+            fail();
+        } catch (ServletException e) {
+            // Expected
+        }
+        wrapper.deallocate(servlet1);
+        assertSame(servlet1, wrapper.allocate());
+
+        // Waiting for an instance does not lose the interrupt
+        Thread.currentThread().interrupt();
+        try {
+            wrapper.allocate();
+            fail();
+        } catch (ServletException e) {
+            // Expected
+        }
+        assertTrue(Thread.interrupted());
+        wrapper.deallocate(servlet1);
+    }
+
     private static class Bug51445Thread extends Thread {
 
         private int port;
@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestVirtualThreadExecutor {
+
+    private static final int TASK_COUNT = 1000;
+
+
+    @Test
+    public void testVirtualThreads() throws Exception {
+        Assume.assumeTrue("Virtual threads require Java 21 or later",
+                VirtualThreadExecutor.isSupported());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        executor.setName("test");
+        executor.start();
+        Assert.assertTrue(executor.isVirtual());
+        Assert.assertEquals(-1, executor.getMaxThreads());
+        Assert.assertEquals(0, executor.getQueueSize());
+
+        // More tasks than the default maxThreads may block at the same time
+        final Method isVirtual = Thread.class.getMethod("isVirtual");
+        final CountDownLatch started = new CountDownLatch(TASK_COUNT);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger virtualCount = new AtomicInteger();
+        for (int i = 0; i < TASK_COUNT; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        if (((Boolean) isVirtual.invoke(
+                                Thread.currentThread())).booleanValue()) {
+                            virtualCount.incrementAndGet();
+                        }
+                        started.countDown();
+                        release.await();
+                    } catch (Exception e) {
+                        // Ignore
+                    }
+                }
+            });
+        }
+
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+        Assert.assertEquals(TASK_COUNT, virtualCount.get());
+        Assert.assertEquals(TASK_COUNT, executor.getActiveCount());
+        Assert.assertEquals(TASK_COUNT, executor.getLargestPoolSize());
+
+        release.countDown();
+        waitForIdle(executor);
+        Assert.assertEquals(TASK_COUNT, executor.getCompletedTaskCount());
+
+        executor.stop();
+        executor.destroy();
+    }
+
+
+    @Test
+    public void testStopInterruptsRunningTasks() throws Exception {
+        Assume.assumeTrue("Virtual threads require Java 21 or later",
+                VirtualThreadExecutor.isSupported());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        executor.setName("test");
+        executor.start();
+
+        final CountDownLatch started = new CountDownLatch(TASK_COUNT);
+        final CountDownLatch interrupted = new CountDownLatch(TASK_COUNT);
+        for (int i = 0; i < TASK_COUNT; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    started.countDown();
+                    try {
+                        Thread.sleep(60000);
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                }
+            });
+        }
+        Assert.assertTrue(started.await(30, TimeUnit.SECONDS));
+
+        executor.stop();
+
+        Assert.assertTrue(interrupted.await(30, TimeUnit.SECONDS));
+        Assert.assertFalse(executor.isVirtual());
+
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    // NO-OP
+                }
+            });
+            Assert.fail("Tasks must be rejected once the executor is stopped");
+        } catch (IllegalStateException expected) {
+            // Expected
+        }
+
+        executor.destroy();
+    }
+
+
+    @Test
+    public void testPlatformThreadsWhenNotSupported() throws Exception {
+        Assume.assumeFalse("Only applies before Java 21",
+                VirtualThreadExecutor.isSupported());
+
+        VirtualThreadExecutor executor = new VirtualThreadExecutor();
+        executor.setName("test");
+        executor.start();
+        Assert.assertFalse(executor.isVirtual());
+        Assert.assertEquals(200, executor.getMaxThreads());
+
+        final CountDownLatch done = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                done.countDown();
+            }
+        });
+        Assert.assertTrue(done.await(30, TimeUnit.SECONDS));
+
+        executor.stop();
+        executor.destroy();
+    }
+
+
+    private static void waitForIdle(VirtualThreadExecutor executor)
+            throws InterruptedException {
+        int count = 0;
+        while (executor.getActiveCount() > 0 && count < 300) {
+            Thread.sleep(100);
+            count++;
+        }
+        Assert.assertEquals(0, executor.getActiveCount());
+    }
+}
@@ -337,6 +337,17 @@ public class TesterContext implements Context {
         // NO-OP
     }
 
+    @Override
+    public boolean getStreamingMultipartParsing() {
+        return false;
+    }
+
+    @Override
+    public void setStreamingMultipartParsing(
+            boolean streamingMultipartParsing) {
+        // NO-OP
+    }
+
     @Override
     public Object[] getApplicationEventListeners() {
         return null;
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.Servlet;
+import javax.servlet.ServletException;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the allocation of SingleThreadModel servlet instances by many
+ * threads when there are fewer instances than threads.
+ */
+public class TesterStandardWrapperPerformance extends TomcatBaseTest {
+
+    private static final int ALLOCATIONS = 200000;
+
+
+    @Test
+    public void testSingleThreadModelContention() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        final StandardWrapper wrapper = (StandardWrapper) Tomcat.addServlet(
+                ctx, "stm", TestStandardWrapper.Bug51445Servlet.class.getName());
+        wrapper.setMaxInstances(4);
+
+        tomcat.start();
+
+        for (int threadCount : new int[] { 1, 4, 16, 64 }) {
+            final AtomicInteger remaining = new AtomicInteger(ALLOCATIONS);
+            final AtomicInteger errors = new AtomicInteger();
+            Thread[] threads = new Thread[threadCount];
+            for (int i = 0; i < threadCount; i++) {
+                threads[i] = new Thread() {
+                    @Override
+                    public void run() {
+                        try {
+                            while (remaining.decrementAndGet() >= 0) {
+                                Servlet servlet = wrapper.allocate();
+                                wrapper.deallocate(servlet);
+                            }
+                        } catch (ServletException e) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                };
+            }
+            long waitCount = wrapper.getStmWaitCount();
+            long waitTime = wrapper.getStmWaitTime();
+            long start = System.nanoTime();
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long time = System.nanoTime() - start;
+            assertEquals(0, errors.get());
+            assertEquals(0, wrapper.getCountAllocated());
+            System.out.println(threadCount + " threads: " + ALLOCATIONS +
+                    " allocations in " + time / 1000000 + " ms, " +
+                    (wrapper.getStmWaitCount() - waitCount) + " waited for " +
+                    (wrapper.getStmWaitTime() - waitTime) + " ms in total");
+        }
+    }
+}
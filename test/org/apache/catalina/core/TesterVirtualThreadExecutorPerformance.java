@@ -0,0 +1,168 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.AbstractProtocol;
+
+/**
+ * Compares the latency of requests that block (e.g. waiting for a database)
+ * when there are many more concurrent requests than the maxThreads of a
+ * {@link StandardThreadExecutor}, with a {@link VirtualThreadExecutor}.
+ */
+public class TesterVirtualThreadExecutorPerformance extends TomcatBaseTest {
+
+    private static final int CONCURRENCY = 10000;
+    private static final int BLOCK_TIME = 200;
+
+    private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "Connection: close\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testStandardThreadExecutor() throws Exception {
+        doTest(new StandardThreadExecutor());
+    }
+
+
+    @Test
+    public void testVirtualThreadExecutor() throws Exception {
+        doTest(new VirtualThreadExecutor());
+    }
+
+
+    private void doTest(StandardThreadExecutor executor) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        executor.setName("test-executor");
+        tomcat.getService().addExecutor(executor);
+        ((AbstractProtocol<?>) tomcat.getConnector().getProtocolHandler())
+                .setExecutor(executor);
+        tomcat.getConnector().setProperty("maxConnections",
+                Integer.toString(CONCURRENCY * 2));
+        tomcat.getConnector().setProperty("acceptCount",
+                Integer.toString(CONCURRENCY));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "blocking", new BlockingServlet());
+        ctx.addServletMapping("/", "blocking");
+        tomcat.start();
+
+        long[] latencies = new long[CONCURRENCY];
+        long[] starts = new long[CONCURRENCY];
+        int completed = 0;
+
+        long start = System.nanoTime();
+        try (Selector selector = Selector.open()) {
+            InetSocketAddress addr =
+                    new InetSocketAddress("localhost", getPort());
+            for (int i = 0; i < CONCURRENCY; i++) {
+                SocketChannel sc = SocketChannel.open(addr);
+                starts[i] = System.nanoTime();
+                sc.write(ByteBuffer.wrap(REQUEST));
+                sc.configureBlocking(false);
+                sc.register(selector, SelectionKey.OP_READ, Integer.valueOf(i));
+            }
+
+            ByteBuffer buf = ByteBuffer.allocate(8192);
+            while (completed < CONCURRENCY) {
+                selector.select(1000);
+                Iterator<SelectionKey> iter = selector.selectedKeys().iterator();
+                while (iter.hasNext()) {
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    SocketChannel sc = (SocketChannel) key.channel();
+                    int n;
+                    buf.clear();
+                    try {
+                        while ((n = sc.read(buf)) > 0) {
+                            buf.clear();
+                        }
+                    } catch (IOException ioe) {
+                        n = -1;
+                    }
+                    if (n < 0) {
+                        int index = ((Integer) key.attachment()).intValue();
+                        latencies[completed++] = System.nanoTime() - starts[index];
+                        key.cancel();
+                        sc.close();
+                    }
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        Arrays.sort(latencies);
+        System.out.println(executor.getClass().getSimpleName() +
+                (executor instanceof VirtualThreadExecutor ?
+                        " (virtual [" + ((VirtualThreadExecutor) executor).isVirtual() + "])" : "") +
+                ": " + CONCURRENCY + " requests in " + (time / 1000000) +
+                "ms, p50 [" + percentile(latencies, 50) +
+                "ms], p99 [" + percentile(latencies, 99) +
+                "ms], p99.9 [" + percentile(latencies, 99.9) +
+                "ms], max [" + (latencies[CONCURRENCY - 1] / 1000000) +
+                "ms], largest pool size [" + executor.getLargestPoolSize() + "]");
+
+        assertEquals(CONCURRENCY, completed);
+    }
+
+
+    private static long percentile(long[] sorted, double percentile) {
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(index, 0)] / 1000000;
+    }
+
+
+    private static class BlockingServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            try {
+                Thread.sleep(BLOCK_TIME);
+            } catch (InterruptedException e) {
+                throw new ServletException(e);
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print("OK");
+        }
+    }
+}
@@ -45,7 +45,7 @@ public class TestMapper extends LoggingBaseTest {
 
     private HashMap<String, Host> hostMap = new HashMap<>();
 
-    private synchronized Host createHost(String name) {
+    protected synchronized Host createHost(String name) {
         Host host = hostMap.get(name);
         if (host == null) {
             host = new StandardHost();
@@ -55,23 +55,27 @@ public class TestMapper extends LoggingBaseTest {
         return host;
     }
 
-    private Context createContext(String name) {
+    protected Context createContext(String name) {
         Context context = new StandardContext();
         context.setName(name);
         return context;
     }
 
-    private Wrapper createWrapper(String name) {
+    protected Wrapper createWrapper(String name) {
         Wrapper wrapper = new StandardWrapper();
         wrapper.setName(name);
         return wrapper;
     }
 
+    protected Mapper createMapper() {
+        return new Mapper();
+    }
+
     @Before
     @Override
     public void setUp() throws Exception {
         super.setUp();
-        mapper = new Mapper();
+        mapper = createMapper();
 
         mapper.addHost("sjbjdvwsbvhrb", new String[0], createHost("blah1"));
         mapper.addHost("sjbjdvwsbvhr/", new String[0], createHost("blah1"));
@@ -538,4 +542,149 @@ public class TestMapper extends LoggingBaseTest {
             assertEquals("/foo/bar/bla", mappingData.contextPath.toString());
         }
     }
+
+    @Test
+    public void testBatch() throws Exception {
+        final Host host = createHost("localhost");
+        final Context context1 = createContext("foo");
+        final Context context2 = createContext("foo#bar");
+        final Context context3 = createContext("baz");
+
+        mapper.addHost("localhost", new String[] { "alias" }, host);
+        mapper.setDefaultHostName("localhost");
+
+        MappingData mappingData = new MappingData();
+        MessageBytes hostMB = MessageBytes.newInstance();
+        hostMB.setString("alias");
+        MessageBytes uriMB = MessageBytes.newInstance();
+        uriMB.setString("/foo/bar/page");
+
+        Mapper.Batch batch = mapper.createBatch("localhost", host);
+        batch.addContextVersion("/foo", "0", context1, new String[0], null,
+                Arrays.asList(new WrapperMappingInfo[] { new WrapperMappingInfo(
+                        "/", createWrapper("foo-default"), false, false) }));
+        batch.addContextVersion("/foo/bar", "0", context2, new String[0], null,
+                Arrays.asList(new WrapperMappingInfo[] { new WrapperMappingInfo(
+                        "/page", createWrapper("foobar-page"), false, false) }));
+        batch.addContextVersion("/baz", "0", context3, new String[0], null,
+                null);
+
+        // Nothing is visible until the batch is applied
+        mapper.map(hostMB, uriMB, null, mappingData);
+        assertNull(mappingData.context);
+
+        batch.apply();
+
+        mappingData.recycle();
+        mapper.map(hostMB, uriMB, null, mappingData);
+        assertEquals("foo#bar", mappingData.context.getName());
+        assertEquals("foobar-page", mappingData.wrapper.getName());
+        mappingData.recycle();
+        mapper.map(context2, uriMB, mappingData);
+        assertEquals("foobar-page", mappingData.wrapper.getName());
+        Mapper.MappedHost mappedHost = null;
+        for (Mapper.MappedHost candidate : mapper.hosts) {
+            if (candidate.name.equals("localhost")) {
+                mappedHost = candidate;
+            }
+        }
+        assertEquals(3, mappedHost.contextList.contexts.length);
+        assertEquals(2, mappedHost.contextList.nesting);
+
+        // Remove a context and replace the version of another
+        final Context context1b = createContext("foo-reloaded");
+        batch = mapper.createBatch("localhost", host);
+        batch.removeContextVersion(context2, "/foo/bar", "0");
+        batch.addContextVersion("/foo", "0", context1b, new String[0], null,
+                Arrays.asList(new WrapperMappingInfo[] { new WrapperMappingInfo(
+                        "/", createWrapper("foo-default2"), false, false) }));
+        batch.apply();
+
+        mappingData.recycle();
+        mapper.map(hostMB, uriMB, null, mappingData);
+        assertEquals("foo-reloaded", mappingData.context.getName());
+        assertEquals("foo-default2", mappingData.wrapper.getName());
+        assertEquals(2, mappedHost.contextList.contexts.length);
+        assertEquals(1, mappedHost.contextList.nesting);
+        assertEquals(1, mappedHost.contextList.contexts[1].versions.length);
+
+        // A context removed and added again in the same batch is kept
+        batch = mapper.createBatch("localhost", host);
+        batch.removeContextVersion(context3, "/baz", "0");
+        batch.addContextVersion("/baz", "0", context3, new String[0], null,
+                null);
+        batch.removeContextVersion(context1b, "/foo", "0");
+        batch.apply();
+
+        assertEquals(1, mappedHost.contextList.contexts.length);
+        assertEquals("/baz", mappedHost.contextList.contexts[0].name);
+        mappingData.recycle();
+        mapper.map(hostMB, uriMB, null, mappingData);
+        assertNull(mappingData.context);
+
+        // Pausing marks the version without replacing the contexts and
+        // ignores a version that belongs to another context object
+        Mapper.ContextList contextList = mappedHost.contextList;
+        batch = mapper.createBatch("localhost", host);
+        batch.pauseContextVersion(context1, "/baz", "0");
+        batch.apply();
+        assertFalse(contextList.contexts[0].versions[0].isPaused());
+        batch = mapper.createBatch("localhost", host);
+        batch.pauseContextVersion(context3, "/baz", "0");
+        batch.apply();
+        assertSame(contextList, mappedHost.contextList);
+        assertTrue(contextList.contexts[0].versions[0].isPaused());
+        assertSame(contextList.contexts[0].versions[0],
+                mapper.contextObjectToContextVersionMap.get(context3));
+    }
+
+    @Test
+    public void testBatchConcurrency() throws Exception {
+        final Host host = createHost("localhost");
+        final Context contextRoot = createContext("ROOT");
+        final Context context1 = createContext("foo");
+        final Context context2 = createContext("foo#bar");
+
+        mapper.addHost("localhost", new String[0], host);
+        mapper.setDefaultHostName("localhost");
+        mapper.addContextVersion("localhost", host, "", "0", contextRoot,
+                new String[0], null, null);
+
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                for (int i = 0; i < 20000; i++) {
+                    Mapper.Batch batch = mapper.createBatch("localhost", host);
+                    batch.addContextVersion("/foo", "0", context1,
+                            new String[0], null, null);
+                    batch.addContextVersion("/foo/bar", "0", context2,
+                            new String[0], null, null);
+                    batch.apply();
+                    batch = mapper.createBatch("localhost", host);
+                    batch.removeContextVersion(context2, "/foo/bar", "0");
+                    batch.removeContextVersion(context1, "/foo", "0");
+                    batch.apply();
+                }
+                running.set(false);
+            }
+        };
+
+        MappingData mappingData = new MappingData();
+        MessageBytes hostMB = MessageBytes.newInstance();
+        hostMB.setString("localhost");
+        MessageBytes uriMB = MessageBytes.newInstance();
+        char[] uri = "/foo/bar/page".toCharArray();
+
+        t.start();
+        while (running.get()) {
+            mappingData.recycle();
+            uriMB.setChars(uri, 0, uri.length);
+            mapper.map(hostMB, uriMB, null, mappingData);
+            // Both contexts are present or neither is, never only "/foo"
+            String contextPath = mappingData.contextPath.toString();
+            assertTrue(contextPath, contextPath.equals("") ||
+                    contextPath.equals("/foo/bar"));
+        }
+    }
 }
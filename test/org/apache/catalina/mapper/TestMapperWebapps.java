@@ -30,6 +30,9 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
@@ -167,6 +170,42 @@ public class TestMapperWebapps extends TomcatBaseTest{
         Assert.assertTrue(text, text.contains("VM Memory usage"));
     }
 
+    @Test
+    public void testContextReloadAndStop() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        final Context ctx = tomcat.addContext("/test", null);
+
+        // Stopping the Context removes its Wrappers so add them on every
+        // start, as ContextConfig does
+        ctx.addLifecycleListener(new LifecycleListener() {
+            @Override
+            public void lifecycleEvent(LifecycleEvent event) {
+                if (Lifecycle.CONFIGURE_START_EVENT.equals(event.getType())) {
+                    Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+                    ctx.addServletMapping("/hello", "hello");
+                }
+            }
+        });
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("http://localhost:" + getPort() + "/test/hello");
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+
+        ctx.reload();
+
+        res = getUrl("http://localhost:" + getPort() + "/test/hello");
+        Assert.assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+
+        ctx.stop();
+
+        int rc = getUrl("http://localhost:" + getPort() + "/test/hello",
+                new ByteChunk(), null);
+        Assert.assertEquals(HttpServletResponse.SC_NOT_FOUND, rc);
+    }
+
     @Test
     public void testWelcomeFileNotStrict() throws Exception {
 
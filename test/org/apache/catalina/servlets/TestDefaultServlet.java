@@ -16,19 +16,29 @@
  */
 package org.apache.catalina.servlets;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.text.SimpleDateFormat;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
-
+import java.util.zip.GZIPInputStream;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertEquals;
@@ -46,7 +56,10 @@ import org.apache.catalina.Wrapper;
 import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.catalina.util.IOTools;
 import org.apache.tomcat.util.buf.ByteChunk;
+import org.apache.tomcat.util.descriptor.web.FilterDef;
+import org.apache.tomcat.util.descriptor.web.FilterMap;
 import org.apache.tomcat.websocket.server.WsContextListener;
 
 public class TestDefaultServlet extends TomcatBaseTest {
@@ -146,6 +159,219 @@ public class TestDefaultServlet extends TomcatBaseTest {
         assertTrue(responseHeaders.contains("Content-Length: " + indexSize));
     }
 
+    /*
+     * Verify that the precompressed version of a file is selected using the
+     * quality values of the Accept-Encoding header.
+     */
+    @Test
+    public void testPrecompressedFiles() throws Exception {
+
+        Tomcat tomcat = getTomcatInstance();
+
+        File appDir = new File("test/webapp");
+
+        long brSize = new File(appDir, "index.html.br").length();
+        long gzipSize = new File(appDir, "index.html.gz").length();
+        long indexSize = new File(appDir, "index.html").length();
+
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                "org.apache.catalina.servlets.DefaultServlet");
+        defaultServlet.addInitParameter("precompressed", "true");
+        ctxt.addServletMapping("/", "default");
+
+        ctxt.addMimeMapping("html", "text/html");
+
+        tomcat.start();
+
+        doTestPrecompressed("gzip, br", "br", brSize);
+        doTestPrecompressed("br;q=0.5, gzip", "gzip", gzipSize);
+        doTestPrecompressed("x-gzip", "gzip", gzipSize);
+        doTestPrecompressed("*, br;q=0", "gzip", gzipSize);
+        doTestPrecompressed("identity", null, indexSize);
+        doTestPrecompressed(null, null, indexSize);
+    }
+
+    private void doTestPrecompressed(String acceptEncoding,
+            String expectedEncoding, long expectedSize) throws Exception {
+        TestGzipClient client = new TestGzipClient(getPort());
+        client.setRequest(new String[] {
+                "GET /index.html HTTP/1.1" + CRLF +
+                "Host: localhost" + CRLF +
+                "Connection: Close" + CRLF +
+                (acceptEncoding == null ? "" :
+                        "Accept-Encoding: " + acceptEncoding + CRLF) + CRLF });
+        client.connect();
+        client.processRequest();
+        assertTrue(client.isResponse200());
+        List<String> responseHeaders = client.getResponseHeaders();
+        assertTrue(responseHeaders.contains("Content-Type: text/html"));
+        assertTrue(responseHeaders.contains("Content-Length: " + expectedSize));
+        if (expectedEncoding == null) {
+            for (String header : responseHeaders) {
+                assertFalse(header.startsWith("Content-Encoding"));
+            }
+        } else {
+            assertTrue(responseHeaders.contains(
+                    "Content-Encoding: " + expectedEncoding));
+        }
+    }
+
+    @Test
+    public void testCompressionCache() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("<p>Paragraph ").append(i).append("</p>\n");
+        }
+        String content = sb.toString();
+        File index = new File(appDir, "index.html");
+        try (FileOutputStream fos = new FileOutputStream(index);
+                Writer w = new OutputStreamWriter(fos, "ISO-8859-1")) {
+            w.write(content);
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                "org.apache.catalina.servlets.DefaultServlet");
+        defaultServlet.addInitParameter("compressionCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("html", "text/html");
+
+        tomcat.start();
+
+        // The first request compresses the file and the second is served
+        // from the cache
+        String compressedETag = null;
+        for (int i = 0; i < 2; i++) {
+            ByteChunk res = new ByteChunk();
+            Map<String,List<String>> reqHead = new HashMap<>();
+            reqHead.put("Accept-Encoding", Collections.singletonList("gzip"));
+            Map<String,List<String>> resHead = new HashMap<>();
+            int rc = getUrl("http://localhost:" + getPort() + "/index.html",
+                    res, reqHead, resHead);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertEquals("gzip", resHead.get("Content-Encoding").get(0));
+            assertEquals("accept-encoding", resHead.get("Vary").get(0));
+            assertEquals(Integer.toString(res.getLength()),
+                    resHead.get("Content-Length").get(0));
+            assertTrue(res.getLength() < content.length());
+            compressedETag = resHead.get("ETag").get(0);
+            try (GZIPInputStream gzip = new GZIPInputStream(
+                    new ByteArrayInputStream(res.getBytes(), res.getStart(),
+                            res.getLength()))) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                IOTools.flow(gzip, baos);
+                assertEquals(content, baos.toString("ISO-8859-1"));
+            }
+        }
+
+        // Clients that do not accept gzip get the file itself
+        ByteChunk res = new ByteChunk();
+        Map<String,List<String>> resHead = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/index.html", res,
+                resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertFalse(resHead.containsKey("Content-Encoding"));
+        assertEquals("accept-encoding", resHead.get("Vary").get(0));
+        assertEquals(content, res.toString());
+
+        // The two representations have different ETags
+        String eTag = resHead.get("ETag").get(0);
+        assertEquals(DefaultServlet.getCompressedETag(eTag), compressedETag);
+        assertFalse(eTag.equals(compressedETag));
+
+        // A client holding the compressed copy can revalidate it
+        res = new ByteChunk();
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Accept-Encoding", Collections.singletonList("gzip"));
+        reqHead.put("If-None-Match", Collections.singletonList(compressedETag));
+        resHead = new HashMap<>();
+        rc = getUrl("http://localhost:" + getPort() + "/index.html", res,
+                reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, rc);
+        assertEquals(compressedETag, resHead.get("ETag").get(0));
+    }
+
+    /*
+     * The compressed copy can not be served once a filter has called
+     * getWriter() so the file itself is written via the Writer.
+     */
+    @Test
+    public void testCompressionCacheWithWriter() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "MyApp");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 500; i++) {
+            sb.append("<p>Paragraph ").append(i).append("</p>\n");
+        }
+        String content = sb.toString();
+        File index = new File(appDir, "index.html");
+        try (FileOutputStream fos = new FileOutputStream(index);
+                Writer w = new OutputStreamWriter(fos, "ISO-8859-1")) {
+            w.write(content);
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        Context ctxt = tomcat.addContext("", appDir.getAbsolutePath());
+        Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                "org.apache.catalina.servlets.DefaultServlet");
+        defaultServlet.addInitParameter("compressionCache", "true");
+        ctxt.addServletMapping("/", "default");
+        ctxt.addMimeMapping("html", "text/html");
+
+        FilterDef writerFilter = new FilterDef();
+        writerFilter.setFilterClass(GetWriterFilter.class.getName());
+        writerFilter.setFilterName("getWriter");
+        ctxt.addFilterDef(writerFilter);
+        FilterMap writerFilterMap = new FilterMap();
+        writerFilterMap.setFilterName("getWriter");
+        writerFilterMap.addURLPattern("/*");
+        ctxt.addFilterMap(writerFilterMap);
+
+        tomcat.start();
+
+        ByteChunk res = new ByteChunk();
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Accept-Encoding", Collections.singletonList("gzip"));
+        Map<String,List<String>> resHead = new HashMap<>();
+        int rc = getUrl("http://localhost:" + getPort() + "/index.html",
+                res, reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertFalse(resHead.containsKey("Content-Encoding"));
+        assertEquals(content, res.toString());
+    }
+
+    public static class GetWriterFilter implements Filter {
+
+        @Override
+        public void init(FilterConfig filterConfig) throws ServletException {
+            // NO-OP
+        }
+
+        @Override
+        public void doFilter(ServletRequest request, ServletResponse response,
+                FilterChain chain) throws IOException, ServletException {
+            response.getWriter();
+            chain.doFilter(request, response);
+        }
+
+        @Override
+        public void destroy() {
+            // NO-OP
+        }
+    }
+
     /*
      * Test https://bz.apache.org/bugzilla/show_bug.cgi?id=50026
      * Verify serving of resources from context root with subpath mapping.
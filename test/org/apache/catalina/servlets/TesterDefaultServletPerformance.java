@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.servlets;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares serving a static resource compressed by the connector for every
+ * request with serving the compressed copy held in the resource cache.
+ */
+public class TesterDefaultServletPerformance extends TomcatBaseTest {
+
+    private static final int SIZE = 64 * 1024;
+    private static final int REQUESTS = 2000;
+
+
+    @Test
+    public void testCompressedStaticResource() throws Exception {
+        File appDir = new File(getTemporaryDirectory(), "static");
+        addDeleteOnTearDown(appDir);
+        if (!appDir.mkdirs() && !appDir.isDirectory()) {
+            fail("Unable to create directory [" + appDir + "]");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < SIZE; i++) {
+            sb.append(".rule-").append(i).append(" { margin: ");
+            sb.append(i % 17).append("px; color: #").append(i * 31 % 1000);
+            sb.append("; }\n");
+        }
+        try (FileOutputStream fos = new FileOutputStream(
+                new File(appDir, "site.css"));
+                Writer w = new OutputStreamWriter(fos, "ISO-8859-1")) {
+            w.write(sb.toString());
+        }
+
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressableMimeType", "text/css");
+        for (String mode : new String[] { "connector", "cache" }) {
+            Context ctxt = tomcat.addContext("/" + mode,
+                    appDir.getAbsolutePath());
+            Wrapper defaultServlet = Tomcat.addServlet(ctxt, "default",
+                    "org.apache.catalina.servlets.DefaultServlet");
+            defaultServlet.addInitParameter("compressionCache",
+                    Boolean.toString(mode.equals("cache")));
+            // The connector does not compress responses written with sendfile
+            defaultServlet.addInitParameter("sendfileSize", "1024");
+            ctxt.addServletMapping("/", "default");
+            ctxt.addMimeMapping("css", "text/css");
+        }
+        tomcat.start();
+
+        Map<String,List<String>> reqHead = new HashMap<>();
+        reqHead.put("Accept-Encoding", Collections.singletonList("gzip"));
+        ByteChunk res = new ByteChunk();
+        for (int run = 0; run < 3; run++) {
+            for (String mode : new String[] { "connector", "cache" }) {
+                long start = System.nanoTime();
+                for (int i = 0; i < REQUESTS; i++) {
+                    res.recycle();
+                    int rc = getUrl("http://localhost:" + getPort() + "/" +
+                            mode + "/site.css", res, reqHead, null);
+                    assertEquals(HttpServletResponse.SC_OK, rc);
+                }
+                System.out.println(mode + ": " + SIZE + " byte resource " +
+                        "compressed to " + res.getLength() + " bytes, " +
+                        (System.nanoTime() - start) / REQUESTS / 1000 +
+                        "us per request");
+            }
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.startup.TesterServlet;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestAccessLogValveAsync extends TomcatBaseTest {
+
+    @Test
+    public void testAsyncWrite() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "servlet", new TesterServlet());
+        ctx.addServletMapping("/", "servlet");
+
+        AccessLogValve valve = createValve("async");
+        ctx.getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        ByteChunk res = new ByteChunk();
+        for (int i = 0; i < 50; i++) {
+            res.recycle();
+            int rc = getUrl("http://localhost:" + getPort() + "/request" + i,
+                    res, null);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+        }
+
+        // Stopping writes any queued messages
+        tomcat.stop();
+
+        List<String> lines = readLines(valve);
+        assertEquals(50, lines.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("GET /request" + i + " HTTP/1.1 200", lines.get(i));
+        }
+        assertEquals(0, valve.getAsyncDroppedCount());
+    }
+
+
+    @Test
+    public void testAsyncDropWhenFull() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        AccessLogValve valve = createValve("drop");
+        valve.setAsyncQueueSize(1);
+        valve.setAsyncDropWhenFull(true);
+        ctx.getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        Request request = createRequest("/drop");
+        Response response = createResponse(tomcat.getConnector());
+        for (int i = 0; i < 10000; i++) {
+            valve.log(request, response, 0);
+        }
+        tomcat.stop();
+
+        // Every message is either written or counted as dropped
+        List<String> lines = readLines(valve);
+        assertTrue(lines.size() > 0);
+        assertEquals(10000, lines.size() + valve.getAsyncDroppedCount());
+    }
+
+
+    @Test
+    public void testAsyncFormatAfterRecycle() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        AccessLogValve valve = createValve("recycle");
+        valve.setPattern("%r %s %D %{msec}t");
+        ctx.getPipeline().addValve(valve);
+
+        tomcat.start();
+
+        // Only what was captured is formatted, so changing the request and
+        // response once they have been logged does not change the message
+        Request request = createRequest("/request");
+        Response response = createResponse(tomcat.getConnector());
+        for (int i = 0; i < 100; i++) {
+            request.getCoyoteRequest().requestURI().setString("/request" + i);
+            request.getCoyoteRequest().setStartTime(1000 * i);
+            response.setStatus(200 + i);
+            valve.log(request, response, i);
+        }
+        request.getCoyoteRequest().requestURI().setString("/recycled");
+        response.setStatus(500);
+        tomcat.stop();
+
+        List<String> lines = readLines(valve);
+        assertEquals(100, lines.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("GET /request" + i + " HTTP/1.1 " + (200 + i) + " " +
+                    i + " " + (1000 * i + i), lines.get(i));
+        }
+    }
+
+
+    static Request createRequest(String uri) {
+        Request request = new Request();
+        org.apache.coyote.Request coyoteRequest = new org.apache.coyote.Request();
+        coyoteRequest.method().setString("GET");
+        coyoteRequest.requestURI().setString(uri);
+        coyoteRequest.protocol().setString("HTTP/1.1");
+        coyoteRequest.setStartTime(System.currentTimeMillis());
+        request.setCoyoteRequest(coyoteRequest);
+        request.setRemoteHost("127.0.0.1");
+        return request;
+    }
+
+
+    static Response createResponse(Connector connector) {
+        Response response = new Response();
+        response.setConnector(connector);
+        response.setCoyoteResponse(new org.apache.coyote.Response());
+        return response;
+    }
+
+
+    private AccessLogValve createValve(String prefix) {
+        File dir = new File(getTemporaryDirectory(), "logs");
+        addDeleteOnTearDown(dir);
+        AccessLogValve valve = new AccessLogValve();
+        valve.setDirectory(dir.getAbsolutePath());
+        valve.setPrefix(prefix);
+        valve.setRotatable(false);
+        valve.setPattern("%r %s");
+        valve.setAsyncQueueSize(64);
+        return valve;
+    }
+
+
+    private List<String> readLines(AccessLogValve valve) throws Exception {
+        File file = new File(valve.getDirectory(), valve.getPrefix());
+        return Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.catalina.valves;
+
+import java.io.File;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Compares the time request threads spend logging with the log file written
+ * by the request threads and by the writer thread of the AccessLogValve.
+ */
+public class TesterAccessLogValvePerformance extends TomcatBaseTest {
+
+    private static final int THREADS = 16;
+    private static final int MESSAGES = 200000;
+    private static final String PATTERN = "%h %l %u %t \"%r\" %s %D";
+
+
+    @Test
+    public void testLogContention() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        File dir = new File(getTemporaryDirectory(), "logs");
+        addDeleteOnTearDown(dir);
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+        AccessLogValve syncValve = new AccessLogValve();
+        syncValve.setDirectory(dir.getAbsolutePath());
+        syncValve.setPrefix("sync");
+        syncValve.setPattern(PATTERN);
+        ctx.getPipeline().addValve(syncValve);
+        AccessLogValve asyncValve = new AccessLogValve();
+        asyncValve.setDirectory(dir.getAbsolutePath());
+        asyncValve.setPrefix("async");
+        asyncValve.setPattern(PATTERN);
+        asyncValve.setAsyncQueueSize(8192);
+        ctx.getPipeline().addValve(asyncValve);
+
+        tomcat.start();
+
+        for (boolean buffered : new boolean[] { true, false }) {
+            syncValve.setBuffered(buffered);
+            asyncValve.setBuffered(buffered);
+            for (int run = 0; run < 3; run++) {
+                for (AccessLogValve valve :
+                        new AccessLogValve[] { syncValve, asyncValve }) {
+                    long time = doTest(valve, tomcat.getConnector());
+                    System.out.println(valve.getPrefix() + ", buffered=" +
+                            buffered + ": " + MESSAGES + " messages logged by " +
+                            THREADS + " threads in " + time + " ms");
+                }
+            }
+        }
+    }
+
+
+    private long doTest(final AccessLogValve valve, final Connector connector)
+            throws Exception {
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    Request request = TestAccessLogValveAsync.createRequest(
+                            "/app/index.html");
+                    Response response = TestAccessLogValveAsync.createResponse(
+                            connector);
+                    for (int j = 0; j < MESSAGES / THREADS; j++) {
+                        valve.log(request, response, j % 1000);
+                    }
+                }
+            };
+        }
+        long start = System.currentTimeMillis();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.currentTimeMillis() - start;
+    }
+}
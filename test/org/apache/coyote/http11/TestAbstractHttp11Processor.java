@@ -16,7 +16,10 @@
  */
 package org.apache.coyote.http11;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Writer;
@@ -29,6 +32,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
 
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
@@ -37,6 +41,7 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -50,6 +55,8 @@ import org.apache.catalina.startup.SimpleHttpClient;
 import org.apache.catalina.startup.TesterServlet;
 import org.apache.catalina.startup.Tomcat;
 import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
 import org.apache.tomcat.util.buf.B2CConverter;
 import org.apache.tomcat.util.buf.ByteChunk;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
@@ -376,6 +383,51 @@ public class TestAbstractHttp11Processor extends TomcatBaseTest {
     }
 
 
+    @Test
+    public void testPipeliningBuffered() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        // No file system docBase required
+        Context ctx = tomcat.addContext("", null);
+
+        Tomcat.addServlet(ctx, "TesterServlet", new TesterServlet());
+        ctx.addServletMapping("/foo", "TesterServlet");
+        Tomcat.addServlet(ctx, "echo", new EchoBodyLengthServlet());
+        ctx.addServletMapping("/echo", "echo");
+
+        tomcat.start();
+
+        String get =
+            "GET /foo HTTP/1.1" + SimpleHttpClient.CRLF +
+            "Host: any" + SimpleHttpClient.CRLF +
+            SimpleHttpClient.CRLF;
+        String post =
+            "POST /echo HTTP/1.1" + SimpleHttpClient.CRLF +
+            "Host: any" + SimpleHttpClient.CRLF +
+            "Content-Length: 10" + SimpleHttpClient.CRLF +
+            SimpleHttpClient.CRLF +
+            "0123456789";
+
+        // All the requests are sent in a single write so they are received
+        // together and processed without going back to the poller
+        Client client = new Client(tomcat.getConnector().getLocalPort());
+        client.setRequest(new String[] {get + post + get + post + get});
+        client.setUseContentLength(true);
+        client.connect();
+        client.sendRequest();
+
+        for (int i = 0; i < 5; i++) {
+            client.readResponse(true);
+            assertTrue(client.isResponse200());
+            if (i % 2 == 0) {
+                assertEquals("OK", client.getResponseBody());
+            } else {
+                assertEquals("10:0123456789", client.getResponseBody());
+            }
+        }
+    }
+
+
     @Test
     public void testChunking11NoContentLength() throws Exception {
         Tomcat tomcat = getTomcatInstance();
@@ -691,6 +743,26 @@ public class TestAbstractHttp11Processor extends TomcatBaseTest {
         }
     }
 
+    private static final class EchoBodyLengthServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            StringBuilder body = new StringBuilder();
+            try (InputStream is = req.getInputStream()) {
+                int b;
+                while ((b = is.read()) > -1) {
+                    body.append((char) b);
+                }
+            }
+            resp.setContentType("text/plain");
+            resp.getWriter().print(body.length() + ":" + body);
+        }
+    }
+
+
     private static final class Client extends SimpleHttpClient {
 
         public Client(int port) {
@@ -801,4 +873,220 @@ public class TestAbstractHttp11Processor extends TomcatBaseTest {
             return true;
         }
     }
+
+
+    /*
+     * Large responses are compressed in blocks by the connector's executor
+     * with the level and strategy configured for their content type.
+     */
+    @Test
+    public void testCompressionInBlocks() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionLevels",
+                "text/plain=1:huffman,*=6");
+        tomcat.getConnector().setProperty("compressionThreads", "2");
+        tomcat.getConnector().setProperty("compressionBlockSize", "32768");
+
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "Compression", new CompressionServlet());
+        root.addServletMapping("/test", "Compression");
+
+        tomcat.start();
+
+        Map<String,List<String>> reqHead = new HashMap<>();
+        List<String> acceptEncoding = new ArrayList<>();
+        acceptEncoding.add("gzip");
+        reqHead.put("Accept-Encoding", acceptEncoding);
+        Map<String,List<String>> resHead = new HashMap<>();
+        ByteChunk out = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test", out,
+                reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+        assertEquals("gzip", resHead.get("Content-Encoding").get(0));
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream is = new GZIPInputStream(new ByteArrayInputStream(
+                out.getBytes(), out.getStart(), out.getLength()))) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                body.write(buf, 0, n);
+            }
+        }
+        assertArrayEquals(CompressionServlet.BODY, body.toByteArray());
+
+        AbstractHttp11Protocol<?> protocol = (AbstractHttp11Protocol<?>)
+                tomcat.getConnector().getProtocolHandler();
+        assertEquals(CompressionServlet.BODY.length,
+                protocol.getCompressionBytesIn());
+        assertEquals(out.getLength(), protocol.getCompressionBytesOut());
+    }
+
+
+    /*
+     * The content coding is selected from the configured compression filters
+     * by the quality values of the Accept-Encoding header.
+     */
+    @Test
+    public void testCompressionNegotiation() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionFilters",
+                "gzip," + TesterCompressionFilter.class.getName());
+
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "Compression", new CompressionServlet());
+        root.addServletMapping("/test", "Compression");
+
+        tomcat.start();
+
+        assertEquals("tester", doCompressionRequest("gzip;q=0.5, tester"));
+        assertEquals("gzip", doCompressionRequest("tester, gzip"));
+        assertEquals("gzip", doCompressionRequest("*"));
+        assertEquals(null, doCompressionRequest("gzip;q=0, tester;q=0"));
+        assertEquals(null, doCompressionRequest("br"));
+        // x-gzip is an alias of gzip
+        assertEquals("gzip", doCompressionRequest("x-gzip"));
+    }
+
+
+    /*
+     * Entries that are not the class name of a CompressionOutputFilter with a
+     * public no-arg constructor are skipped.
+     */
+    @Test
+    public void testCompressionFiltersInvalid() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("compression", "on");
+        tomcat.getConnector().setProperty("compressionFilters",
+                "org.example.DoesNotExist,java.lang.String," +
+                TesterPrivateCompressionFilter.class.getName() + "," +
+                TesterCompressionFilter.class.getName());
+
+        Context root = tomcat.addContext("", null);
+        Tomcat.addServlet(root, "Compression", new CompressionServlet());
+        root.addServletMapping("/test", "Compression");
+
+        tomcat.start();
+
+        assertEquals("tester", doCompressionRequest("gzip, tester, br"));
+    }
+
+
+    /**
+     * Applies the made up "tester" content coding, which leaves the response
+     * unchanged.
+     */
+    public static class TesterCompressionFilter
+            implements CompressionOutputFilter {
+
+        private OutputBuffer buffer;
+
+        @Override
+        public String getEncoding() {
+            return "tester";
+        }
+
+        @Override
+        public void flush() {
+            // NO-OP
+        }
+
+        @Override
+        public int doWrite(ByteChunk chunk, Response res) throws IOException {
+            return buffer.doWrite(chunk, res);
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return buffer.getBytesWritten();
+        }
+
+        @Override
+        public void setResponse(Response response) {
+            // NO-OP
+        }
+
+        @Override
+        public void recycle() {
+            // NO-OP
+        }
+
+        @Override
+        public void setBuffer(OutputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public long end() throws IOException {
+            return ((OutputFilter) buffer).end();
+        }
+    }
+
+
+    private static class TesterPrivateCompressionFilter
+            extends TesterCompressionFilter {
+
+        private TesterPrivateCompressionFilter() {
+            // Not accessible to the processor
+        }
+    }
+
+
+    private String doCompressionRequest(String acceptEncoding)
+            throws Exception {
+        Map<String,List<String>> reqHead = new HashMap<>();
+        List<String> values = new ArrayList<>();
+        values.add(acceptEncoding);
+        reqHead.put("Accept-Encoding", values);
+        Map<String,List<String>> resHead = new HashMap<>();
+        ByteChunk out = new ByteChunk();
+        int rc = getUrl("http://localhost:" + getPort() + "/test", out,
+                reqHead, resHead);
+        assertEquals(HttpServletResponse.SC_OK, rc);
+
+        List<String> contentEncoding = resHead.get("Content-Encoding");
+        String encoding = contentEncoding == null ? null : contentEncoding.get(0);
+        InputStream is = new ByteArrayInputStream(
+                out.getBytes(), out.getStart(), out.getLength());
+        if ("gzip".equals(encoding)) {
+            is = new GZIPInputStream(is);
+        }
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = is.read(buf)) != -1) {
+                body.write(buf, 0, n);
+            }
+        } finally {
+            is.close();
+        }
+        assertArrayEquals(CompressionServlet.BODY, body.toByteArray());
+        return encoding;
+    }
+
+
+    private static class CompressionServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final byte[] BODY;
+
+        static {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; sb.length() < 200000; i++) {
+                sb.append("Line ").append(i).append(" of the response\n");
+            }
+            BODY = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("text/plain");
+            resp.getOutputStream().write(BODY);
+        }
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+public class TestAbstractOutputBuffer {
+
+    @Test
+    public void testStatusLine() {
+        Response response = new Response();
+        InternalOutputBuffer buffer = new InternalOutputBuffer(response, 8192);
+        assertEquals("HTTP/1.1 200 OK\r\n", status(buffer, 200, null));
+        assertEquals("HTTP/1.1 404 Not Found\r\n", status(buffer, 404, null));
+        assertEquals("HTTP/1.1 200 OK\r\n", status(buffer, 200, null));
+        assertEquals("HTTP/1.1 299 \r\n", status(buffer, 299, null));
+        assertEquals("HTTP/1.1 1200 \r\n", status(buffer, 1200, null));
+    }
+
+
+    @Test
+    public void testHeaders() {
+        Response response = new Response();
+        InternalOutputBuffer buffer = new InternalOutputBuffer(response, 8192);
+        MimeHeaders headers = response.getMimeHeaders();
+        headers.setValue("Content-Type").setString("text/plain");
+        headers.setValue("X-Custom").setString("a\u0001b\u007fc\td\u00e9e\u0100");
+        headers.setValue("content-length").setString("12");
+        assertEquals("Content-Type: text/plain\r\n" +
+                "X-Custom: a b c\td\u00e9e?\r\n" +
+                "content-length: 12\r\n", headers(buffer, headers));
+
+        // Cached values must not be returned for other Strings
+        headers.getValue("X-Custom").setString("other");
+        headers.getValue("Content-Type").setString("text/html");
+        assertEquals("Content-Type: text/html\r\n" +
+                "X-Custom: other\r\n" +
+                "content-length: 12\r\n", headers(buffer, headers));
+
+        // Values longer than the cached Strings
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            sb.append("long\n");
+        }
+        headers.getValue("X-Custom").setString(sb.toString());
+        assertEquals("Content-Type: text/html\r\n" +
+                "X-Custom: " + sb.toString().replace('\n', ' ') + "\r\n" +
+                "content-length: 12\r\n", headers(buffer, headers));
+    }
+
+
+    private static String status(InternalOutputBuffer buffer, int status,
+            String message) {
+        buffer.response.setStatus(status);
+        buffer.response.setMessage(message);
+        buffer.pos = 0;
+        buffer.sendStatus();
+        return new String(buffer.headerBuffer, 0, buffer.pos,
+                StandardCharsets.ISO_8859_1);
+    }
+
+
+    private static String headers(InternalOutputBuffer buffer,
+            MimeHeaders headers) {
+        buffer.pos = 0;
+        for (int i = 0; i < headers.size(); i++) {
+            buffer.sendHeader(headers.getHeader(i), headers.getName(i),
+                    headers.getValue(i));
+        }
+        return new String(buffer.headerBuffer, 0, buffer.pos,
+                StandardCharsets.ISO_8859_1);
+    }
+}
@@ -17,14 +17,26 @@
 
 package org.apache.coyote.http11;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 
+import org.apache.coyote.OutputBuffer;
 import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflaterPool;
 import org.apache.coyote.http11.filters.GzipOutputFilter;
 import org.apache.tomcat.util.buf.ByteChunk;
 
@@ -88,4 +100,180 @@ public class TestGzipOutputFilter {
         // most of the data should have been flushed out
         assertTrue(dataFound.length >= (dataExpected.length - 20));
     }
+
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        GzipOutputFilter gf = new GzipOutputFilter();
+        byte[] data = createData(100000);
+        assertArrayEquals(data, gunzip(compress(gf, data, false)));
+    }
+
+
+    @Test
+    public void testRoundTripPooled() throws Exception {
+        DeflaterPool pool = new DeflaterPool(-1);
+        GzipOutputFilter gf = new GzipOutputFilter();
+        gf.setDeflaterPool(pool);
+        byte[] data = createData(100000);
+        gf.setCompression(Deflater.BEST_SPEED, Deflater.FILTERED);
+        byte[] compressed = compress(gf, data, true);
+        assertArrayEquals(data, gunzip(compressed));
+        assertEquals(data.length, pool.getBytesIn());
+        assertEquals(compressed.length, pool.getBytesOut());
+
+        // The recycled filter reuses the pooled Deflater
+        gf.recycle();
+        compressed = compress(gf, data, false);
+        assertArrayEquals(data, gunzip(compressed));
+        assertEquals(2 * data.length, pool.getBytesIn());
+        gf.recycle();
+        pool.clear();
+    }
+
+
+    @Test
+    public void testCpuTimeOnlyWhenEnabled() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            DeflaterPool pool = new DeflaterPool(-1);
+            GzipOutputFilter gf = new GzipOutputFilter();
+            gf.setDeflaterPool(pool);
+            byte[] data = createData(1000000);
+            for (int threads : new int[] { 1, 2 }) {
+                gf.setExecutor(executor, threads, 32 * 1024);
+                assertArrayEquals(data, gunzip(compress(gf, data, false)));
+                gf.recycle();
+                assertEquals(0, pool.getCpuTime());
+
+                pool.setCpuTimeEnabled(true);
+                assertArrayEquals(data, gunzip(compress(gf, data, false)));
+                gf.recycle();
+                assertTrue(pool.getCpuTime() > 0);
+
+                pool.setCpuTimeEnabled(false);
+                pool.resetStatistics();
+            }
+            pool.clear();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    @Test
+    public void testRoundTripParallel() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            DeflaterPool pool = new DeflaterPool(-1);
+            GzipOutputFilter gf = new GzipOutputFilter();
+            gf.setDeflaterPool(pool);
+            gf.setExecutor(executor, 4, 32 * 1024);
+            for (int size : new int[] { 0, 10, 32 * 1024, 1000000 }) {
+                byte[] data = createData(size);
+                for (boolean flush : new boolean[] { false, true }) {
+                    if (flush) {
+                        gf.setCompression(Deflater.BEST_COMPRESSION,
+                                Deflater.FILTERED);
+                    }
+                    byte[] compressed = compress(gf, data, flush);
+                    assertArrayEquals(data, gunzip(compressed));
+                    gf.recycle();
+                }
+            }
+            pool.clear();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static byte[] createData(int size) {
+        // Repetitive enough to be compressed, varied enough to span blocks
+        Random random = new Random(size);
+        String[] words = { "tomcat ", "gzip ", "deflate ", "block ",
+                "dictionary ", "response ", "\n" };
+        ByteArrayOutputStream data = new ByteArrayOutputStream(size);
+        while (data.size() < size) {
+            byte[] word = words[random.nextInt(words.length)].getBytes();
+            data.write(word, 0, Math.min(word.length, size - data.size()));
+        }
+        return data.toByteArray();
+    }
+
+
+    private static byte[] compress(GzipOutputFilter gf, byte[] data,
+            boolean flush) throws IOException {
+        CollectingOutputBuffer out = new CollectingOutputBuffer();
+        gf.setBuffer(out);
+        Random random = new Random(data.length);
+        int pos = 0;
+        while (pos < data.length) {
+            int len = Math.min(data.length - pos, random.nextInt(20000) + 1);
+            ByteChunk chunk = new ByteChunk();
+            chunk.setBytes(data, pos, len);
+            gf.doWrite(chunk, null);
+            pos += len;
+            if (flush && random.nextInt(4) == 0) {
+                gf.flush();
+            }
+        }
+        gf.end();
+        return out.bytes.toByteArray();
+    }
+
+
+    private static byte[] gunzip(byte[] compressed) throws IOException {
+        return read(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+
+    private static byte[] read(InputStream stream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) != -1) {
+                result.write(buf, 0, n);
+            }
+        }
+        return result.toByteArray();
+    }
+
+
+    private static class CollectingOutputBuffer implements OutputFilter {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        @Override
+        public int doWrite(ByteChunk chunk, Response unused) {
+            bytes.write(chunk.getBytes(), chunk.getStart(), chunk.getLength());
+            return chunk.getLength();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return bytes.size();
+        }
+
+        @Override
+        public void setResponse(Response response) {
+            // NOOP
+        }
+
+        @Override
+        public void recycle() {
+            bytes.reset();
+        }
+
+        @Override
+        public void setBuffer(OutputBuffer buffer) {
+            // NOOP
+        }
+
+        @Override
+        public long end() {
+            return 0;
+        }
+    }
 }
@@ -0,0 +1,101 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class TestHttpTokenizer {
+
+    // Delimiters, bytes next to them and bytes with the high bit set
+    private static final byte[] ALPHABET = { 'a', 'Z', '/', '=', '?', ' ',
+            '\t', '\r', '\n', 0x0B, 0x0C, 0x1F, 0x20, 0x21, 0x3E, 0x3F,
+            0x40, (byte) 0x80, (byte) 0x8A, (byte) 0x8D, (byte) 0xA0,
+            (byte) 0xFF };
+
+
+    @Test
+    public void testFindEndOfLine() {
+        HttpTokenizer tokenizer = new HttpTokenizer();
+        byte[] buf = "GET /index.html HTTP/1.1\r\n".getBytes();
+        assertEquals(24, tokenizer.findEndOfLine(buf, 0, buf.length));
+        assertEquals(25, tokenizer.findEndOfLine(buf, 25, buf.length));
+        assertEquals(-1, tokenizer.findEndOfLine(buf, 0, 24));
+        assertEquals(-1, tokenizer.findEndOfLine(buf, 26, buf.length));
+    }
+
+
+    @Test
+    public void testFindEndOfTarget() {
+        HttpTokenizer tokenizer = new HttpTokenizer();
+        byte[] buf = "/some/long/path/to/a/resource?a=b&c=d HTTP/1.1\r\n".getBytes();
+        assertEquals(29, tokenizer.findEndOfTarget(buf, 0, buf.length, true));
+        assertEquals(37, tokenizer.findEndOfTarget(buf, 0, buf.length, false));
+        assertEquals(37, tokenizer.findEndOfTarget(buf, 30, buf.length, true));
+        assertEquals(46, tokenizer.findEndOfTarget(buf, 38, buf.length, true));
+    }
+
+
+    @Test
+    public void testRandom() {
+        Random random = new Random(42);
+        HttpTokenizer tokenizer = new HttpTokenizer();
+        for (int n = 0; n < 100000; n++) {
+            byte[] buf = new byte[random.nextInt(40)];
+            for (int i = 0; i < buf.length; i++) {
+                if (random.nextInt(4) == 0) {
+                    buf[i] = ALPHABET[random.nextInt(ALPHABET.length)];
+                } else {
+                    buf[i] = (byte) ('a' + random.nextInt(26));
+                }
+            }
+            int start = buf.length == 0 ? 0 : random.nextInt(buf.length);
+            int end = start + random.nextInt(buf.length - start + 1);
+            boolean question = random.nextBoolean();
+
+            assertEquals(findEndOfLine(buf, start, end),
+                    tokenizer.findEndOfLine(buf, start, end));
+            assertEquals(findEndOfTarget(buf, start, end, question),
+                    tokenizer.findEndOfTarget(buf, start, end, question));
+        }
+    }
+
+
+    private static int findEndOfLine(byte[] buf, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == '\r' || buf[i] == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+
+    private static int findEndOfTarget(byte[] buf, int start, int end,
+            boolean question) {
+        for (int i = start; i < end; i++) {
+            if (buf[i] == ' ' || buf[i] == '\t' || buf[i] == '\r' ||
+                    buf[i] == '\n' || (question && buf[i] == '?')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares writing large chunked responses through the NIO and NIO2 output
+ * buffers with gathering writes enabled and with every write copied through
+ * the socket write buffer.
+ */
+public class TesterGatheringWritePerformance extends TomcatBaseTest {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final int CHUNK_COUNT = 128;
+    private static final int REQUESTS = 500;
+
+
+    @Test
+    public void testCopy() throws Exception {
+        doTest(false);
+    }
+
+
+    @Test
+    public void testGathering() throws Exception {
+        doTest(true);
+    }
+
+
+    private void doTest(boolean gatheringWrites) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+
+        String protocol = tomcat.getConnector().getProtocolHandlerClassName();
+        Assume.assumeTrue("Gathering writes are only used by NIO and NIO2",
+                protocol.contains("Nio"));
+
+        assertTrue(tomcat.getConnector().setProperty(
+                "gatheringWrites", Boolean.toString(gatheringWrites)));
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "large", new LargeWriteServlet());
+        root.addServletMapping("/", "large");
+
+        tomcat.start();
+
+        String url = "http://localhost:" + getPort() + "/";
+        ByteChunk res = new ByteChunk();
+
+        // Warm up
+        for (int i = 0; i < REQUESTS / 10; i++) {
+            res.recycle();
+            getUrl(url, res, null);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < REQUESTS; i++) {
+            res.recycle();
+            int rc = getUrl(url, res, null);
+            assertEquals(HttpServletResponse.SC_OK, rc);
+            assertEquals(CHUNK_SIZE * CHUNK_COUNT, res.getLength());
+        }
+        long duration = System.nanoTime() - start;
+
+        System.out.println(protocol + ", gatheringWrites=" + gatheringWrites +
+                ": " + REQUESTS + " responses of " +
+                (CHUNK_SIZE * CHUNK_COUNT) + " bytes in " +
+                (duration / 1000000) + "ms");
+    }
+
+
+    private static class LargeWriteServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] chunk = new byte[CHUNK_SIZE];
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            resp.setContentType("application/octet-stream");
+            OutputStream os = resp.getOutputStream();
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                os.write(chunk);
+            }
+        }
+    }
+}
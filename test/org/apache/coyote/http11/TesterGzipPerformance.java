@@ -0,0 +1,177 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import org.apache.coyote.OutputBuffer;
+import org.apache.coyote.Response;
+import org.apache.coyote.http11.filters.DeflaterPool;
+import org.apache.coyote.http11.filters.GzipOutputFilter;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+/**
+ * Compares compressing responses with a new GZIPOutputStream for each
+ * response with the pooled Deflaters of the gzip filter, compressing small
+ * responses with the thread writing them and large responses in blocks.
+ */
+public class TesterGzipPerformance {
+
+    private static final int SMALL_SIZE = 4 * 1024;
+    private static final int SMALL_ITERATIONS = 50000;
+    private static final int LARGE_SIZE = 4 * 1024 * 1024;
+    private static final int LARGE_ITERATIONS = 20;
+    private static final int THREADS =
+            Runtime.getRuntime().availableProcessors();
+
+
+    @Test
+    public void testSmallResponses() throws Exception {
+        byte[] data = createData(SMALL_SIZE);
+        for (int run = 0; run < 3; run++) {
+            doTest("GZIPOutputStream", data, SMALL_ITERATIONS, null);
+            doTest("Pooled filter", data, SMALL_ITERATIONS,
+                    createFilter(new DeflaterPool(-1)));
+        }
+    }
+
+
+    @Test
+    public void testLargeResponses() throws Exception {
+        byte[] data = createData(LARGE_SIZE);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int run = 0; run < 3; run++) {
+                doTest("GZIPOutputStream", data, LARGE_ITERATIONS, null);
+                DeflaterPool pool = new DeflaterPool(-1);
+                pool.setCpuTimeEnabled(true);
+                doTest("Pooled filter", data, LARGE_ITERATIONS,
+                        createFilter(pool));
+                GzipOutputFilter filter = createFilter(pool);
+                filter.setExecutor(executor, THREADS, 128 * 1024);
+                doTest("Blocks, " + THREADS + " threads", data,
+                        LARGE_ITERATIONS, filter);
+                System.out.println("Compressed " + pool.getBytesIn() +
+                        " bytes to " + pool.getBytesOut() + " bytes using " +
+                        pool.getCpuTime() / 1000000 + "ms of CPU time");
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+
+    private static GzipOutputFilter createFilter(DeflaterPool pool) {
+        GzipOutputFilter filter = new GzipOutputFilter();
+        filter.setDeflaterPool(pool);
+        return filter;
+    }
+
+
+    private void doTest(String name, byte[] data, int iterations,
+            GzipOutputFilter filter) throws IOException {
+        CountingOutputBuffer out = new CountingOutputBuffer();
+        ByteChunk chunk = new ByteChunk();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            if (filter == null) {
+                try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+                    for (int pos = 0; pos < data.length; pos += 8192) {
+                        gzip.write(data, pos, Math.min(8192, data.length - pos));
+                    }
+                }
+            } else {
+                filter.setBuffer(out);
+                for (int pos = 0; pos < data.length; pos += 8192) {
+                    chunk.setBytes(data, pos, Math.min(8192, data.length - pos));
+                    filter.doWrite(chunk, null);
+                }
+                filter.end();
+                filter.recycle();
+            }
+        }
+        long time = System.nanoTime() - start;
+        System.out.println(name + ": " + iterations + " responses of " +
+                data.length + " bytes compressed to " + out.count / iterations +
+                " bytes, " + time / iterations / 1000 + "us per response");
+    }
+
+
+    private static byte[] createData(int size) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("<tr><td>").append(i).append("</td><td>Row ");
+            sb.append(i * 31 % 1000).append("</td></tr>\n");
+        }
+        return sb.substring(0, size).getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+
+    private static class CountingOutputBuffer extends OutputStream
+            implements OutputFilter {
+
+        private long count = 0;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+
+        @Override
+        public int doWrite(ByteChunk chunk, Response unused) {
+            count += chunk.getLength();
+            return chunk.getLength();
+        }
+
+        @Override
+        public long getBytesWritten() {
+            return count;
+        }
+
+        @Override
+        public void setResponse(Response response) {
+            // NOOP
+        }
+
+        @Override
+        public void recycle() {
+            // NOOP
+        }
+
+        @Override
+        public void setBuffer(OutputBuffer buffer) {
+            // NOOP
+        }
+
+        @Override
+        public long end() {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the request rate on a single connection when the client pipelines
+ * 1, 8 or 32 requests before reading the responses.
+ */
+public class TesterPipeliningPerformance extends TomcatBaseTest {
+
+    private static final int REQUESTS = 64 * 1024;
+
+    private static final String REQUEST = "GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n" +
+            "User-Agent: TesterPipeliningPerformance\r\n" +
+            "Accept: */*\r\n\r\n";
+
+
+    @Test
+    public void testDepth1() throws Exception {
+        doTest(1);
+    }
+
+
+    @Test
+    public void testDepth8() throws Exception {
+        doTest(8);
+    }
+
+
+    @Test
+    public void testDepth32() throws Exception {
+        doTest(32);
+    }
+
+
+    private void doTest(int depth) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        tomcat.getConnector().setProperty("maxKeepAliveRequests", "-1");
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.start();
+
+        StringBuilder batch = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            batch.append(REQUEST);
+        }
+        byte[] request = batch.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        int responses = 0;
+        long start = System.nanoTime();
+        try (Socket s = new Socket("localhost", getPort())) {
+            s.setTcpNoDelay(true);
+            OutputStream os = s.getOutputStream();
+            InputStream is = s.getInputStream();
+            ResponseCounter counter = new ResponseCounter(
+                    HelloWorldServlet.RESPONSE_TEXT);
+            byte[] buf = new byte[64 * 1024];
+            for (int i = 0; i < REQUESTS / depth; i++) {
+                os.write(request);
+                os.flush();
+                int expected = responses + depth;
+                while (responses < expected) {
+                    int n = is.read(buf);
+                    if (n < 0) {
+                        break;
+                    }
+                    responses += counter.count(buf, n);
+                }
+            }
+        }
+        long time = System.nanoTime() - start;
+
+        assertEquals(REQUESTS, responses);
+        System.out.println(getProtocol() + ", depth [" + depth + "]: " +
+                REQUESTS + " requests in " + (time / 1000000) + "ms, " +
+                (REQUESTS * 1000000000L / time) + " requests/s");
+    }
+
+
+    /**
+     * Counts responses by counting the occurrences of the response body.
+     */
+    private static class ResponseCounter {
+
+        private final byte[] marker;
+        private int matched = 0;
+
+        public ResponseCounter(String marker) {
+            this.marker = marker.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        public int count(byte[] buf, int len) {
+            int count = 0;
+            for (int i = 0; i < len; i++) {
+                if (buf[i] == marker[matched]) {
+                    matched++;
+                    if (matched == marker.length) {
+                        count++;
+                        matched = 0;
+                    }
+                } else {
+                    matched = buf[i] == marker[0] ? 1 : 0;
+                }
+            }
+            return count;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.coyote.http11;
+
+import org.junit.Test;
+
+import org.apache.coyote.Response;
+import org.apache.tomcat.util.http.FastHttpDateFormat;
+import org.apache.tomcat.util.http.MimeHeaders;
+
+/**
+ * Writes the status line and the headers of a typical response, set the way
+ * the processor and the container set them, to the header buffer.
+ */
+public class TesterResponseHeadersPerformance {
+
+    private static final int ITERATIONS = 2000000;
+
+
+    @Test
+    public void testSendHeaders() {
+        Response response = new Response();
+        InternalOutputBuffer buffer = new InternalOutputBuffer(response, 8192);
+
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            int length = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                response.setStatus(200);
+                MimeHeaders headers = response.getMimeHeaders();
+                headers.setValue("Server").setString("Apache-Coyote/1.1");
+                headers.setValue("Content-Type").setString(
+                        "text/html;charset=UTF-8");
+                headers.setValue("Content-Length").setLong(1234);
+                headers.addValue("Date").setString(
+                        FastHttpDateFormat.getCurrentDate());
+
+                buffer.pos = 0;
+                buffer.sendStatus();
+                for (int j = 0; j < headers.size(); j++) {
+                    buffer.sendHeader(headers.getHeader(j),
+                            headers.getName(j), headers.getValue(j));
+                }
+                buffer.endHeaders();
+                length += buffer.pos;
+                response.recycle();
+            }
+            long time = System.nanoTime() - start;
+            System.out.println(ITERATIONS + " responses, " +
+                    length / ITERATIONS + " bytes of headers each: " +
+                    time / ITERATIONS + "ns per response");
+        }
+    }
+}
@@ -18,6 +18,7 @@ package org.apache.tomcat.util.buf;
 
 import java.nio.charset.Charset;
 import java.nio.charset.MalformedInputException;
+import java.nio.charset.StandardCharsets;
 import java.util.Locale;
 
 import org.junit.Assert;
@@ -140,4 +141,55 @@ public class TestB2CConverter {
         }
         Assert.assertNotNull(e);
     }
+
+
+    @Test
+    public void testAsciiThenMultibyte() throws Exception {
+        String s = "/context/path/caf\u00e9/\u4e2d\u6587/ascii/after/multibyte";
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        // Split the input before every character
+        for (int i = 0; i <= s.length(); i++) {
+            int split = s.substring(0, i).getBytes(StandardCharsets.UTF_8).length;
+            B2CConverter conv = new B2CConverter("UTF-8");
+            ByteChunk bc = new ByteChunk();
+            CharChunk cc = new CharChunk();
+            cc.allocate(b.length, -1);
+
+            bc.setBytes(b, 0, split);
+            conv.convert(bc, cc, false);
+            bc.setBytes(b, split, b.length - split);
+            conv.convert(bc, cc, true);
+            Assert.assertEquals(s, cc.toString());
+        }
+    }
+
+    @Test
+    public void testAsciiOverflow() throws Exception {
+        String s = "ascii only, longer than the char buffer";
+        byte[] b = s.getBytes(StandardCharsets.US_ASCII);
+        B2CConverter conv = new B2CConverter("UTF-8");
+        ByteChunk bc = new ByteChunk();
+        bc.setBytes(b, 0, b.length);
+        CharChunk cc = new CharChunk();
+        cc.allocate(7, 7);
+        StringBuilder result = new StringBuilder();
+        while (bc.getLength() > 0) {
+            conv.convert(bc, cc, true);
+            result.append(cc.getBuffer(), cc.getStart(), cc.getLength());
+            cc.recycle();
+        }
+        Assert.assertEquals(s, result.toString());
+    }
+
+    @Test(expected=MalformedInputException.class)
+    public void testAsciiThenInvalid() throws Exception {
+        // The invalid sequence follows eight ASCII bytes
+        byte[] b = new byte[] {65, 65, 65, 65, 65, 65, 65, 65, -8, -69, -73};
+        B2CConverter conv = new B2CConverter("UTF-8");
+        ByteChunk bc = new ByteChunk();
+        bc.setBytes(b, 0, b.length);
+        CharChunk cc = new CharChunk();
+        cc.allocate(b.length, -1);
+        conv.convert(bc, cc, true);
+    }
 }
@@ -0,0 +1,161 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestStringCache {
+
+    @Test
+    public void testByteChunk() {
+        StringCache cache = new StringCache(64, 20000, true, true);
+        ByteChunk bc = chunk("xxGETxx", 2, 3);
+        String first = cache.find(bc);
+        assertEquals("GET", first);
+        // Different buffer, same bytes
+        assertSame(first, cache.find(chunk("GET", 0, 3)));
+        assertEquals(2, cache.getAccessCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getSize());
+
+        // Same bytes, different charset
+        bc = chunk("GET", 0, 3);
+        bc.setCharset(StandardCharsets.UTF_8);
+        assertNotSame(first, cache.find(bc));
+        assertEquals("GET", cache.find(bc));
+    }
+
+
+    @Test
+    public void testCharChunk() {
+        StringCache cache = new StringCache(64, 20000, true, true);
+        CharChunk cc = new CharChunk();
+        cc.setChars("/context/path".toCharArray(), 0, 8);
+        String first = cache.find(cc);
+        assertEquals("/context", first);
+        cc.setChars("/context".toCharArray(), 0, 8);
+        assertSame(first, cache.find(cc));
+        assertEquals(1, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testMaxStringSize() {
+        StringCache cache = new StringCache(64, 20000, true, true);
+        cache.setMaxStringSize(4);
+        ByteChunk bc = chunk("abcd", 0, 4);
+        assertNotSame(cache.find(bc), cache.find(bc));
+        assertEquals(0, cache.getAccessCount());
+    }
+
+
+    @Test
+    public void testAdmission() {
+        // Many more hot Strings than the cache can hold
+        StringCache cache = new StringCache(32, 1000000, true, true);
+        String[] hot = new String[200];
+        for (int i = 0; i < hot.length; i++) {
+            hot[i] = "hot-" + i;
+        }
+        for (int n = 0; n < 20; n++) {
+            for (String s : hot) {
+                cache.find(chunk(s, 0, s.length()));
+            }
+        }
+        int size = cache.getSize();
+        assertTrue(size > 20);
+
+        // Strings that are only seen once do not displace the cached Strings
+        long evictions = cache.getEvictionCount();
+        for (int i = 0; i < 10000; i++) {
+            String s = "cold-" + i;
+            cache.find(chunk(s, 0, s.length()));
+        }
+        assertEquals(evictions, cache.getEvictionCount());
+        assertEquals(size, cache.getSize());
+        long hits = cache.getHitCount();
+        for (String s : hot) {
+            cache.find(chunk(s, 0, s.length()));
+        }
+        assertEquals(hits + size, cache.getHitCount());
+    }
+
+
+    @Test
+    public void testAdapt() {
+        StringCache cache = new StringCache(32, 1000, true, true);
+        String[] first = new String[32];
+        String[] second = new String[32];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = "first-" + i;
+            second[i] = "second-" + i;
+        }
+        for (int n = 0; n < 100; n++) {
+            for (String s : first) {
+                cache.find(chunk(s, 0, s.length()));
+            }
+        }
+        // The traffic changes. The counts for the old Strings decay and the
+        // new Strings take their place.
+        for (int n = 0; n < 100; n++) {
+            for (String s : second) {
+                cache.find(chunk(s, 0, s.length()));
+            }
+        }
+        assertTrue(cache.getEvictionCount() > 0);
+        long hits = cache.getHitCount();
+        for (String s : second) {
+            cache.find(chunk(s, 0, s.length()));
+        }
+        assertTrue(cache.getHitCount() - hits > second.length / 2);
+    }
+
+
+    @Test
+    public void testBind() {
+        StringCache cache = new StringCache(64, 20000, false, true);
+        CharChunk cc = new CharChunk();
+        cc.setChars("bound".toCharArray(), 0, 5);
+        StringCache.bind(cache);
+        try {
+            assertSame(cc.toString(), cc.toString());
+            assertEquals(2, cache.getAccessCount());
+            // Disabled for bytes
+            ByteChunk bc = chunk("bound", 0, 5);
+            assertNotSame(bc.toString(), bc.toString());
+        } finally {
+            StringCache.bind(null);
+        }
+        cc.toString();
+        assertEquals(2, cache.getAccessCount());
+    }
+
+
+    private static ByteChunk chunk(String s, int start, int len) {
+        byte[] b = s.getBytes(StandardCharsets.ISO_8859_1);
+        ByteChunk bc = new ByteChunk();
+        bc.setBytes(b, start, len);
+        return bc;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Measures converting request URIs and bodies from UTF-8 the way the
+ * connector uses {@link B2CConverter}.
+ */
+public class TesterB2CConverterPerformance {
+
+    private static final String URI =
+            "/context/servlet/path/resource.html;jsessionid=ABCDEF0123456789";
+
+    private static final int ITERATIONS = 200000;
+
+
+    @Test
+    public void testUri() throws Exception {
+        doTestDecode("URI", URI, 1000000);
+    }
+
+
+    @Test
+    public void testAsciiBody() throws Exception {
+        doTestDecode("8k ASCII body", repeat("field=value&other=some+text&", 8192),
+                ITERATIONS);
+    }
+
+
+    @Test
+    public void testNonAsciiBody() throws Exception {
+        doTestDecode("8k body, non-ASCII at start",
+                "\u00e9" + repeat("field=value&other=some+text&", 8190),
+                ITERATIONS);
+    }
+
+
+    private static void doTestDecode(String name, String s, int iterations)
+            throws Exception {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        B2CConverter conv = new B2CConverter("UTF-8", true);
+        ByteChunk bc = new ByteChunk();
+        CharChunk cc = new CharChunk();
+        cc.allocate(b.length, -1);
+        long time = 0;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                bc.setBytes(b, 0, b.length);
+                cc.recycle();
+                conv.recycle();
+                conv.convert(bc, cc, true);
+            }
+            time = System.nanoTime() - start;
+            Assert.assertEquals(s.length(), cc.getLength());
+        }
+        System.out.println(name + ": " + iterations + " conversions in " +
+                time / 1000000 + "ms, " + time / iterations +
+                "ns per conversion");
+    }
+
+
+    private static String repeat(String s, int length) {
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(s);
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+}
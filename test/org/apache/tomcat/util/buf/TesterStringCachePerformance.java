@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.buf;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Converts header names and values, drawn with a skewed distribution from a
+ * set that is larger than the cache, to Strings from several threads at once
+ * with and without a cache.
+ */
+public class TesterStringCachePerformance {
+
+    private static final int THREADS = 8;
+    private static final int ITERATIONS = 2000000;
+    private static final int DISTINCT = 2000;
+
+
+    @Test
+    public void testConcurrent() throws Exception {
+        byte[][] values = new byte[DISTINCT][];
+        for (int i = 0; i < DISTINCT; i++) {
+            values[i] = ("text/html;q=0.9,application/xml-" + i).getBytes(
+                    StandardCharsets.ISO_8859_1);
+        }
+        // Roughly Zipf distributed: most look ups are for a few values
+        Random random = new Random(42);
+        int[] sequence = new int[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            sequence[i] = (int) Math.pow(DISTINCT, random.nextDouble()) - 1;
+        }
+
+        for (int run = 0; run < 3; run++) {
+            StringCache cache = new StringCache(200, 20000, true, true);
+            long none = doTest(null, values, sequence);
+            long cached = doTest(cache, values, sequence);
+            System.out.println(THREADS + " threads, " + ITERATIONS +
+                    " conversions each: no cache " + none / ITERATIONS +
+                    "ns, cache " + cached / ITERATIONS +
+                    "ns per conversion, hit rate " + cache.getHitRate() +
+                    ", evictions " + cache.getEvictionCount());
+        }
+    }
+
+
+    private static long doTest(final StringCache cache, final byte[][] values,
+            final int[] sequence) throws InterruptedException {
+        Thread[] threads = new Thread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            final int offset = i * 997;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    StringCache.bind(cache);
+                    ByteChunk bc = new ByteChunk();
+                    int length = 0;
+                    for (int j = 0; j < sequence.length; j++) {
+                        byte[] value =
+                                values[sequence[(j + offset) % sequence.length]];
+                        bc.setBytes(value, 0, value.length);
+                        if (cache == null) {
+                            length += bc.toStringInternal().length();
+                        } else {
+                            length += bc.toString().length();
+                        }
+                    }
+                    if (length == 0) {
+                        throw new IllegalStateException();
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return (System.nanoTime() - start) / THREADS;
+    }
+}
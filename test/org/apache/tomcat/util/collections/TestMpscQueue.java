@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMpscQueue {
+
+    @Test
+    public void testPollEmpty() {
+        MpscQueue<Object> queue = new MpscQueue<>();
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testOfferPollOrder() {
+        MpscQueue<Object> queue = new MpscQueue<>();
+
+        Object o1 = new Object();
+        Object o2 = new Object();
+        Object o3 = new Object();
+        Object o4 = new Object();
+
+        queue.offer(o1);
+        queue.offer(o2);
+        queue.offer(o3);
+        queue.offer(o4);
+
+        Assert.assertEquals(4, queue.size());
+
+        Assert.assertSame(queue.poll(), o1);
+        Assert.assertSame(queue.poll(), o2);
+        Assert.assertSame(queue.poll(), o3);
+        Assert.assertSame(queue.poll(), o4);
+
+        Assert.assertNull(queue.poll());
+        Assert.assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testChunkedOfferPollOrder() {
+        // Small chunks so many chunks are linked
+        MpscQueue<Integer> queue = new MpscQueue<>(4);
+
+        for (int i = 0; i < 100; i++) {
+            queue.offer(Integer.valueOf(i));
+        }
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+        }
+        for (int i = 100; i < 300; i++) {
+            queue.offer(Integer.valueOf(i));
+        }
+        for (int i = 50; i < 300; i++) {
+            Assert.assertEquals(Integer.valueOf(i), queue.poll());
+        }
+
+        Assert.assertNull(queue.poll());
+    }
+
+    @Test
+    public void testChunkReuse() {
+        // Keeping the queue short means the slots of consumed chunks are
+        // reused for the chunks that follow
+        MpscQueue<Integer> queue = new MpscQueue<>(4);
+
+        for (int i = 0; i < 1000; i++) {
+            queue.offer(Integer.valueOf(2 * i));
+            queue.offer(Integer.valueOf(2 * i + 1));
+            Assert.assertEquals(Integer.valueOf(2 * i), queue.poll());
+            Assert.assertEquals(Integer.valueOf(2 * i + 1), queue.poll());
+            Assert.assertNull(queue.poll());
+        }
+    }
+
+    @Test
+    public void testClear() {
+        MpscQueue<Object> queue = new MpscQueue<>(4);
+        for (int i = 0; i < 10; i++) {
+            queue.offer(new Object());
+        }
+        queue.clear();
+        Assert.assertNull(queue.poll());
+        Object o1 = new Object();
+        queue.offer(o1);
+        Assert.assertSame(o1, queue.poll());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws InterruptedException {
+        final int producers = 4;
+        final int count = 100000;
+        final MpscQueue<Integer> queue = new MpscQueue<>(16);
+
+        Thread[] threads = new Thread[producers];
+        for (int i = 0; i < producers; i++) {
+            final int base = i * count;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < count; j++) {
+                        queue.offer(Integer.valueOf(base + j));
+                    }
+                }
+            };
+            threads[i].start();
+        }
+
+        // Entries from each producer must be seen in the order offered
+        int[] next = new int[producers];
+        int received = 0;
+        while (received < producers * count) {
+            Integer value = queue.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            int producer = value.intValue() / count;
+            Assert.assertEquals(next[producer], value.intValue() % count);
+            next[producer]++;
+            received++;
+        }
+
+        for (Thread t : threads) {
+            t.join();
+        }
+        Assert.assertNull(queue.poll());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestThreadLocalPool {
+
+    @Test
+    public void testPopEmpty() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        Assert.assertNull(pool.getCache().pop());
+    }
+
+    @Test
+    public void testSameThread() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        ThreadLocalPool.Cache<Object> cache = pool.getCache();
+
+        Object o1 = new Object();
+        Object o2 = new Object();
+
+        Assert.assertTrue(cache.push(o1));
+        Assert.assertTrue(cache.push(o2));
+
+        Assert.assertSame(cache, pool.getCache());
+        Assert.assertSame(o2, cache.pop());
+        Assert.assertSame(o1, cache.pop());
+        Assert.assertNull(cache.pop());
+    }
+
+    @Test
+    public void testLimit() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(2);
+        ThreadLocalPool.Cache<Object> cache = pool.getCache();
+
+        Assert.assertTrue(cache.push(new Object()));
+        Assert.assertTrue(cache.push(new Object()));
+        Assert.assertFalse(cache.push(new Object()));
+    }
+
+    @Test
+    public void testLimitSharedByThreads() throws InterruptedException {
+        final ThreadLocalPool<Object> pool = new ThreadLocalPool<>(2);
+        final ThreadLocalPool.Cache<Object> cache = pool.getCache();
+        Assert.assertTrue(cache.push(new Object()));
+
+        final boolean[] result = new boolean[3];
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                // Another thread's cache and a return to this thread's cache
+                // count against the same limit
+                ThreadLocalPool.Cache<Object> otherCache = pool.getCache();
+                result[0] = otherCache.push(new Object());
+                result[1] = otherCache.push(new Object());
+                result[2] = cache.push(new Object());
+            }
+        };
+        t.start();
+        t.join();
+        Assert.assertTrue(result[0]);
+        Assert.assertFalse(result[1]);
+        Assert.assertFalse(result[2]);
+        Assert.assertFalse(cache.push(new Object()));
+
+        // Taking an object out makes room for another
+        Assert.assertNotNull(cache.pop());
+        Assert.assertTrue(cache.push(new Object()));
+        Assert.assertFalse(cache.push(new Object()));
+    }
+
+    @Test
+    public void testClearResetsLimit() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(1);
+        Assert.assertTrue(pool.getCache().push(new Object()));
+
+        pool.clear();
+
+        // The object held by the stale cache does not count any more
+        Assert.assertTrue(pool.getCache().push(new Object()));
+        Assert.assertFalse(pool.getCache().push(new Object()));
+    }
+
+    @Test
+    public void testNoCache() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(0);
+        ThreadLocalPool.Cache<Object> cache = pool.getCache();
+
+        Assert.assertFalse(cache.push(new Object()));
+        Assert.assertNull(cache.pop());
+    }
+
+    @Test
+    public void testOtherThreadReturn() throws InterruptedException {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        final ThreadLocalPool.Cache<Object> cache = pool.getCache();
+        final Object o1 = new Object();
+
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                cache.push(o1);
+            }
+        };
+        t.start();
+        t.join();
+
+        Assert.assertSame(o1, cache.pop());
+        Assert.assertNull(cache.pop());
+    }
+
+    @Test
+    public void testClear() {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        ThreadLocalPool.Cache<Object> cache = pool.getCache();
+        cache.push(new Object());
+
+        pool.clear();
+
+        Assert.assertNotSame(cache, pool.getCache());
+        Assert.assertNull(pool.getCache().pop());
+    }
+
+    @Test
+    public void testClearStaleCache() throws InterruptedException {
+        ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        final ThreadLocalPool.Cache<Object> cache = pool.getCache();
+        cache.push(new Object());
+
+        pool.clear();
+
+        // The stale cache drops its objects and accepts no more
+        Assert.assertNull(cache.pop());
+        Assert.assertFalse(cache.push(new Object()));
+        final boolean[] result = new boolean[] { true };
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                result[0] = cache.push(new Object());
+            }
+        };
+        t.start();
+        t.join();
+        Assert.assertFalse(result[0]);
+        Assert.assertNull(cache.pop());
+
+        // The current thread is given a new cache that works normally
+        ThreadLocalPool.Cache<Object> newCache = pool.getCache();
+        Object o1 = new Object();
+        Assert.assertTrue(newCache.push(o1));
+        Assert.assertSame(o1, newCache.pop());
+    }
+}
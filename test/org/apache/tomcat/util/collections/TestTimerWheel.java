@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.collections;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestTimerWheel {
+
+    @Test
+    public void testExpire() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 1000);
+        TimerWheel.Timeout<String> t1 = new TimerWheel.Timeout<>("t1");
+        TimerWheel.Timeout<String> t2 = new TimerWheel.Timeout<>("t2");
+        wheel.schedule(t1, 1025);
+        wheel.schedule(t2, 1100);
+        assertEquals(2, wheel.size());
+
+        List<TimerWheel.Timeout<String>> expired = new ArrayList<>();
+        wheel.expire(1024, expired);
+        assertTrue(expired.isEmpty());
+        // Never early, at most one tick late
+        wheel.expire(1030, expired);
+        assertEquals(1, expired.size());
+        assertSame(t1, expired.get(0));
+        assertFalse(t1.isScheduled());
+        assertEquals(1, wheel.size());
+
+        expired.clear();
+        wheel.expire(1100, expired);
+        assertEquals(1, expired.size());
+        assertSame(t2, expired.get(0));
+        assertEquals(0, wheel.size());
+    }
+
+
+    @Test
+    public void testCancelAndReschedule() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+        TimerWheel.Timeout<String> t1 = new TimerWheel.Timeout<>("t1");
+        wheel.schedule(t1, 50);
+        assertTrue(wheel.cancel(t1));
+        assertFalse(wheel.cancel(t1));
+
+        wheel.schedule(t1, 50);
+        wheel.schedule(t1, 500000);
+        assertEquals(1, wheel.size());
+        List<TimerWheel.Timeout<String>> expired = new ArrayList<>();
+        wheel.expire(1000, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(500000, expired);
+        assertEquals(1, expired.size());
+    }
+
+
+    @Test
+    public void testPastDeadline() {
+        TimerWheel<String> wheel = new TimerWheel<>(10, 0);
+        List<TimerWheel.Timeout<String>> expired = new ArrayList<>();
+        wheel.expire(1000, expired);
+        TimerWheel.Timeout<String> t1 = new TimerWheel.Timeout<>("t1");
+        wheel.schedule(t1, 10);
+        // Expires with the next tick
+        wheel.expire(1009, expired);
+        assertTrue(expired.isEmpty());
+        wheel.expire(1010, expired);
+        assertEquals(1, expired.size());
+    }
+
+
+    @Test
+    public void testRandom() {
+        // Deadlines spread over all levels, checked at irregular intervals
+        Random random = new Random(42);
+        TimerWheel<Long> wheel = new TimerWheel<>(1, 0);
+        for (int i = 0; i < 10000; i++) {
+            long deadline = (long) Math.pow(2, random.nextDouble() * 24);
+            wheel.schedule(new TimerWheel.Timeout<>(Long.valueOf(deadline)),
+                    deadline);
+        }
+        List<TimerWheel.Timeout<Long>> expired = new ArrayList<>();
+        long now = 0;
+        long previous = 0;
+        int count = 0;
+        while (wheel.size() > 0) {
+            previous = now;
+            now += random.nextInt(10000);
+            wheel.expire(now, expired);
+            for (TimerWheel.Timeout<Long> timeout : expired) {
+                long deadline = timeout.getValue().longValue();
+                assertTrue(deadline <= now);
+                // Not expired by the previous call
+                assertTrue("Deadline [" + deadline + "] expired at [" + now +
+                        "] after [" + previous + "]", deadline > previous);
+            }
+            count += expired.size();
+            expired.clear();
+        }
+        assertEquals(10000, count);
+    }
+}
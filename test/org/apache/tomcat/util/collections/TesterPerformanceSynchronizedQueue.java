@@ -26,6 +26,9 @@ public class TesterPerformanceSynchronizedQueue {
     private static final int THREAD_COUNT = 4;
     private static final int ITERATIONS = 1000000;
 
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int MEASURED_ROUNDS = 5;
+
     private static final SynchronizedQueue<Object> S_QUEUE =
             new SynchronizedQueue<>();
 
@@ -104,4 +107,98 @@ public class TesterPerformanceSynchronizedQueue {
             super.run();
         }
     }
+
+    /*
+     * The Poller usage pattern: many threads add events that a single thread
+     * removes. Each implementation is warmed up before the measured rounds.
+     */
+    @Test
+    public void testMultiProducerSingleConsumer() throws InterruptedException {
+        final SynchronizedQueue<Object> sQueue = new SynchronizedQueue<>();
+        compare("SynchronizedQueue", new TestQueue() {
+            @Override
+            public void offer(Object o) { sQueue.offer(o); }
+            @Override
+            public Object poll() { return sQueue.poll(); }
+        });
+
+        final Queue<Object> clQueue = new ConcurrentLinkedQueue<>();
+        compare("ConcurrentLinkedQueue", new TestQueue() {
+            @Override
+            public void offer(Object o) { clQueue.offer(o); }
+            @Override
+            public Object poll() { return clQueue.poll(); }
+        });
+
+        final MpscQueue<Object> mpscQueue = new MpscQueue<>();
+        compare("MpscQueue", new TestQueue() {
+            @Override
+            public void offer(Object o) { mpscQueue.offer(o); }
+            @Override
+            public Object poll() { return mpscQueue.poll(); }
+        });
+    }
+
+    private void compare(String name, TestQueue queue)
+            throws InterruptedException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            runProducersAndConsumer(queue);
+        }
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        for (int i = 0; i < MEASURED_ROUNDS; i++) {
+            long time = runProducersAndConsumer(queue);
+            total += time;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+        }
+        long ops = (long) THREAD_COUNT * ITERATIONS;
+        long mean = total / MEASURED_ROUNDS;
+        System.out.println(name + " (" + THREAD_COUNT + " producers, 1 consumer): " +
+                "mean " + (mean / 1000000) + "ms, min " + (min / 1000000) +
+                "ms, max " + (max / 1000000) + "ms, " +
+                (mean / ops) + "ns/op");
+    }
+
+    private long runProducersAndConsumer(final TestQueue queue)
+            throws InterruptedException {
+        final Object obj = new Object();
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < ITERATIONS; j++) {
+                        queue.offer(obj);
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].start();
+        }
+
+        long expected = (long) THREAD_COUNT * ITERATIONS;
+        long received = 0;
+        while (received < expected) {
+            if (queue.poll() != null) {
+                received++;
+            }
+        }
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+
+        return System.nanoTime() - start;
+    }
+
+    private interface TestQueue {
+        void offer(Object o);
+        Object poll();
+    }
 }
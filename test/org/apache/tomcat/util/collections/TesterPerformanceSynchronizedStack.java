@@ -104,4 +104,119 @@ public class TesterPerformanceSynchronizedStack {
             super.run();
         }
     }
+
+    private static final ThreadLocalPool<Object> POOL = new ThreadLocalPool<>(-1);
+
+    @Test
+    public void testThreadLocalPool() throws InterruptedException {
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new PoolThread();
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].start();
+        }
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+
+        long end = System.currentTimeMillis();
+
+        System.out.println("ThreadLocalPool: " + (end - start) + "ms");
+    }
+
+    public static class PoolThread extends Thread {
+
+        @Override
+        public void run() {
+            for(int i = 0; i < ITERATIONS; i++) {
+                ThreadLocalPool.Cache<Object> cache = POOL.getCache();
+                Object obj = cache.pop();
+                if (obj == null) {
+                    obj = new Object();
+                }
+                cache.push(obj);
+            }
+            super.run();
+        }
+    }
+
+    /*
+     * The Poller usage pattern for SocketProcessors: one thread obtains the
+     * objects and the worker threads release them.
+     */
+    @Test
+    public void testSynchronizedStackHandOff() throws InterruptedException {
+        final SynchronizedStack<Object> stack = new SynchronizedStack<>();
+        long time = handOff(new TestPool() {
+            @Override
+            public Object pop() { return stack.pop(); }
+            @Override
+            public void push(Object o) { stack.push(o); }
+        });
+        System.out.println("SynchronizedStack hand-off: " + time + "ms");
+    }
+
+    @Test
+    public void testThreadLocalPoolHandOff() throws InterruptedException {
+        final ThreadLocalPool<Object> pool = new ThreadLocalPool<>(-1);
+        final ThreadLocalPool.Cache<Object> cache = pool.getCache();
+        long time = handOff(new TestPool() {
+            @Override
+            public Object pop() { return cache.pop(); }
+            @Override
+            public void push(Object o) { cache.push(o); }
+        });
+        System.out.println("ThreadLocalPool hand-off: " + time + "ms");
+    }
+
+    private long handOff(final TestPool pool) throws InterruptedException {
+        final Queue<Object> handOff = new ConcurrentLinkedQueue<>();
+        final int total = THREAD_COUNT * ITERATIONS;
+        Thread[] threads = new Thread[THREAD_COUNT];
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    int released = 0;
+                    while (released < ITERATIONS) {
+                        Object obj = handOff.poll();
+                        if (obj != null) {
+                            pool.push(obj);
+                            released++;
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.currentTimeMillis();
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].start();
+        }
+
+        for (int i = 0; i < total; i++) {
+            Object obj = pool.pop();
+            if (obj == null) {
+                obj = new Object();
+            }
+            handOff.offer(obj);
+        }
+
+        for (int i = 0; i < THREAD_COUNT; i++) {
+            threads[i].join();
+        }
+
+        return System.currentTimeMillis() - start;
+    }
+
+    private interface TestPool {
+        Object pop();
+        void push(Object o);
+    }
 }
@@ -61,4 +61,75 @@ public class TestMimeHeaders {
         Assert.assertEquals(HEADER_NAME_MIXED_STRING, mh.getValue(HEADER_NAME_MIXED_STRING).toString());
     }
 
+    @Test
+    public void testWellKnownIgnoresCase() {
+        MimeHeaders mh = new MimeHeaders();
+
+        byte[] name = "CONTENT-type".getBytes();
+        mh.addValue(name, 0, name.length).setString("text/plain");
+
+        Assert.assertEquals("text/plain", mh.getHeader("Content-Type"));
+        Assert.assertEquals("text/plain", mh.getHeader("content-type"));
+        Assert.assertEquals("text/plain", mh.getHeader("cOnTeNt-TyPe"));
+        Assert.assertNull(mh.getHeader("Content-Length"));
+        Assert.assertNull(mh.getHeader("Content-Typ"));
+    }
+
+    @Test
+    public void testWellKnownFindHeader() {
+        MimeHeaders mh = new MimeHeaders();
+
+        mh.addValue("Host").setString("localhost");
+        mh.addValue("cookie").setString("a=1");
+        mh.addValue("X-Custom").setString("x");
+        mh.addValue("Cookie").setString("b=2");
+
+        int pos = mh.findHeader("Cookie", 0);
+        Assert.assertEquals(1, pos);
+        Assert.assertEquals("a=1", mh.getValue(pos).toString());
+        pos = mh.findHeader("COOKIE", pos + 1);
+        Assert.assertEquals(3, pos);
+        Assert.assertEquals("b=2", mh.getValue(pos).toString());
+        Assert.assertEquals(-1, mh.findHeader("Cookie", pos + 1));
+
+        try {
+            mh.getUniqueValue("Cookie");
+            Assert.fail();
+        } catch (IllegalArgumentException expected) {
+            // Expected
+        }
+        Assert.assertEquals("localhost", mh.getUniqueValue("host").toString());
+    }
+
+    @Test
+    public void testWellKnownRemove() {
+        MimeHeaders mh = new MimeHeaders();
+
+        mh.addValue("Accept").setString("1");
+        mh.addValue("Host").setString("2");
+        mh.addValue("Accept").setString("3");
+        mh.addValue("Date").setString("4");
+
+        // Date is moved into the position of Host
+        mh.removeHeader("HOST");
+        Assert.assertEquals(3, mh.size());
+        Assert.assertNull(mh.getValue("Host"));
+        Assert.assertEquals("4", mh.getHeader("date"));
+        Assert.assertEquals(1, mh.findHeader("Date", 0));
+
+        mh.setValue("accept").setString("5");
+        Assert.assertEquals(2, mh.size());
+        Assert.assertEquals("5", mh.getUniqueValue("Accept").toString());
+
+        mh.removeHeader("Accept");
+        Assert.assertEquals(1, mh.size());
+        Assert.assertNull(mh.getValue("Accept"));
+        Assert.assertEquals(0, mh.findHeader("Date", 0));
+
+        mh.recycle();
+        Assert.assertNull(mh.getValue("Date"));
+        mh.addValue("Host").setString("6");
+        Assert.assertEquals("6", mh.getHeader("host"));
+    }
+
 }
@@ -75,6 +75,78 @@ public class TestParameters {
                 SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
     }
 
+    @Test
+    public void testProcessParametersLazy() {
+        doTestProcessParametersLazy(-1, SIMPLE);
+        doTestProcessParametersLazy(-1, SIMPLE_MULTIPLE);
+        doTestProcessParametersLazy(-1, NO_VALUE);
+        doTestProcessParametersLazy(-1, EMPTY_VALUE);
+        doTestProcessParametersLazy(-1, EMPTY);
+        doTestProcessParametersLazy(-1, UTF8);
+        doTestProcessParametersLazy(-1,
+                SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY, UTF8);
+        doTestProcessParametersLazy(-1,
+                UTF8, SIMPLE, SIMPLE_MULTIPLE, NO_VALUE, EMPTY_VALUE, EMPTY);
+
+        doTestProcessParametersLazy(1,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+        doTestProcessParametersLazy(3,
+                SIMPLE, NO_VALUE, EMPTY_VALUE, UTF8);
+    }
+
+    private void doTestProcessParametersLazy(int limit,
+            Parameter... parameters) {
+        doTestProcessParametersByteArrayIntInt(limit, true, parameters);
+    }
+
+    @Test
+    public void testLazyDecodeFailure() {
+        Parameters p = new Parameters();
+        p.setEncoding("UTF-8");
+        p.setLazy(true);
+
+        byte[] data = "foo=bar&bad=%zz&foo=baz".getBytes();
+        p.processParameters(data, 0, data.length);
+
+        // Only the requested parameters are decoded
+        assertArrayEquals(new String[] {"bar", "baz"},
+                p.getParameterValues("foo"));
+        assertFalse(p.isParseFailed());
+
+        assertNull(p.getParameter("bad"));
+        assertTrue(p.isParseFailed());
+
+        Enumeration<String> names = p.getParameterNames();
+        assertEquals("foo", names.nextElement());
+        assertFalse(names.hasMoreElements());
+    }
+
+    @Test
+    public void testLazyAddParameter() {
+        Parameters p = new Parameters();
+        p.setEncoding("UTF-8");
+        p.setLazy(true);
+
+        byte[] data = "a=1&b=%3D".getBytes();
+        p.processParameters(data, 0, data.length);
+        assertEquals("=", p.getParameter("b"));
+
+        // Added after the pending parameters
+        p.addParameter("a", "2");
+        p.addParameter("c", "3");
+        assertArrayEquals(new String[] {"1", "2"}, p.getParameterValues("a"));
+
+        Enumeration<String> names = p.getParameterNames();
+        assertEquals("a", names.nextElement());
+        assertEquals("b", names.nextElement());
+        assertEquals("c", names.nextElement());
+        assertFalse(names.hasMoreElements());
+        assertArrayEquals(new String[] {"1", "2"}, p.getParameterValues("a"));
+
+        p.recycle();
+        assertNull(p.getParameter("a"));
+    }
+
     // Make sure the inner Parameter class behaves correctly
     @Test
     public void testInternal() {
@@ -89,6 +161,11 @@ public class TestParameters {
 
     private long doTestProcessParametersByteArrayIntInt(int limit,
             Parameter... parameters) {
+        return doTestProcessParametersByteArrayIntInt(limit, false, parameters);
+    }
+
+    private long doTestProcessParametersByteArrayIntInt(int limit,
+            boolean lazy, Parameter... parameters) {
 
         // Build the byte array
         StringBuilder input = new StringBuilder();
@@ -107,6 +184,7 @@ public class TestParameters {
         Parameters p = new Parameters();
         p.setEncoding("UTF-8");
         p.setLimit(limit);
+        p.setLazy(lazy);
 
         long start = System.nanoTime();
         p.processParameters(data, 0, data.length);
@@ -246,6 +324,20 @@ public class TestParameters {
     }
 
     private void validateParameters(Parameter[] parameters, Parameters p) {
+        // Look up by name first so lazy parameters are decoded one at a time
+        for (Parameter parameter : parameters) {
+            if (parameter.getName() == null ||
+                    parameter.getName().length() == 0) {
+                continue;
+            }
+            String[] values = p.getParameterValues(parameter.getName());
+            if (parameter.values.length == 0) {
+                assertArrayEquals(new String[] {""}, values);
+            } else {
+                assertArrayEquals(parameter.getValues(), values);
+            }
+        }
+
         Enumeration<String> names = p.getParameterNames();
 
         int i = 0;
@@ -0,0 +1,106 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.http;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertNotNull;
+
+import org.junit.Test;
+
+/**
+ * Measures adding the headers of a header-heavy request (45 headers) to
+ * {@link MimeHeaders} as the HTTP parsers do and then looking up the headers
+ * that the connector and the servlet layer look up for every request.
+ */
+public class TesterMimeHeadersPerformance {
+
+    private static final int ITERATIONS = 1000000;
+
+    private static final String[] NAMES = {
+            "Host", "User-Agent", "Accept", "Accept-Language",
+            "Accept-Encoding", "Referer", "Cookie", "Connection",
+            "Upgrade-Insecure-Requests", "Cache-Control", "Pragma",
+            "If-Modified-Since", "If-None-Match", "Authorization", "Origin",
+            "Sec-Fetch-Dest", "Sec-Fetch-Mode", "Sec-Fetch-Site",
+            "Sec-Fetch-User", "Sec-Ch-Ua", "Sec-Ch-Ua-Mobile",
+            "Sec-Ch-Ua-Platform", "DNT", "X-Forwarded-For",
+            "X-Forwarded-Proto", "X-Forwarded-Host", "X-Forwarded-Port",
+            "X-Real-IP", "X-Request-ID", "X-Correlation-ID",
+            "X-Amzn-Trace-Id", "Via", "Forwarded", "TE", "Priority",
+            "Content-Type", "Content-Length", "X-Custom-1", "X-Custom-2",
+            "X-Custom-3", "X-Custom-4", "X-Custom-5", "X-Custom-6",
+            "X-Custom-7", "Accept-Charset" };
+
+    /*
+     * Looked up by AbstractHttp11Processor.prepareRequest(),
+     * connector.Request, the cookie parser and the compression check.
+     */
+    private static final String[] LOOKUPS = {
+            "host", "connection", "expect", "user-agent", "transfer-encoding",
+            "content-length", "content-type", "accept-encoding", "TE",
+            "Content-Length", "Content-Type", "Cookie", "Accept-Language",
+            "Authorization", "If-Modified-Since", "If-None-Match", "Range",
+            "If-Range", "Origin", "Upgrade" };
+
+
+    @Test
+    public void testParseAndLookup() {
+        byte[][] names = new byte[NAMES.length][];
+        for (int i = 0; i < NAMES.length; i++) {
+            names[i] = NAMES[i].getBytes(StandardCharsets.ISO_8859_1);
+        }
+        byte[] value = "value".getBytes(StandardCharsets.ISO_8859_1);
+
+        MimeHeaders headers = new MimeHeaders();
+        // Warm up
+        doTest(headers, names, value, ITERATIONS / 10);
+
+        long start = System.nanoTime();
+        doTest(headers, names, value, ITERATIONS);
+        long time = System.nanoTime() - start;
+
+        System.out.println(NAMES.length + " headers, " + LOOKUPS.length +
+                " lookups: " + ITERATIONS + " requests in " +
+                (time / 1000000) + "ms, " + (time / ITERATIONS) +
+                "ns per request");
+    }
+
+
+    private static void doTest(MimeHeaders headers, byte[][] names,
+            byte[] value, int iterations) {
+        int found = 0;
+        for (int i = 0; i < iterations; i++) {
+            headers.recycle();
+            for (byte[] name : names) {
+                headers.addValue(name, 0, name.length).setBytes(
+                        value, 0, value.length);
+            }
+            for (String lookup : LOOKUPS) {
+                if (headers.getValue(lookup) != null) {
+                    found++;
+                }
+            }
+            int pos = 0;
+            while ((pos = headers.findHeader("Cookie", pos)) >= 0) {
+                found++;
+                pos++;
+            }
+        }
+        assertNotNull(Integer.valueOf(found));
+    }
+}
@@ -17,8 +17,11 @@
 package org.apache.tomcat.util.http;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 
@@ -73,6 +76,82 @@ public class TesterParametersPerformance {
         return result;
     }
 
+    /*
+     * A form with 200 fields, some of them URL encoded, of which the
+     * application reads one or all.
+     */
+    @Test
+    public void testLargeForm() {
+        LogManager.getLogManager().getLogger("").setLevel(Level.OFF);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            if (i > 0) {
+                sb.append('&');
+            }
+            sb.append("field").append(i).append('=');
+            if (i % 4 == 0) {
+                sb.append("some+encoded%20value%21+").append(i);
+            } else {
+                sb.append("value").append(i);
+            }
+        }
+        byte[] form = sb.toString().getBytes(StandardCharsets.ISO_8859_1);
+
+        for (int i = 0; i < 2; i++) {
+            doTestLargeForm(form, false, false);
+            doTestLargeForm(form, true, false);
+            doTestLargeForm(form, false, true);
+            doTestLargeForm(form, true, true);
+        }
+    }
+
+    private void doTestLargeForm(byte[] form, boolean lazy, boolean all) {
+        int loops = 20000;
+        Parameters p = new Parameters();
+        p.setLazy(lazy);
+        // The bytes are decoded in place, as they are for a real request
+        byte[] bytes = new byte[form.length];
+
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        long allocStart = getAllocatedBytes(threads);
+        long start = System.nanoTime();
+        int found = 0;
+        for (int i = 0; i < loops; i++) {
+            System.arraycopy(form, 0, bytes, 0, form.length);
+            p.recycle();
+            p.setEncoding("UTF-8");
+            p.processParameters(bytes, 0, bytes.length);
+            if (all) {
+                Enumeration<String> names = p.getParameterNames();
+                while (names.hasMoreElements()) {
+                    if (p.getParameter(names.nextElement()) != null) {
+                        found++;
+                    }
+                }
+            } else if (p.getParameter("field100") != null) {
+                found++;
+            }
+        }
+        long time = System.nanoTime() - start;
+        long alloc = allocStart < 0 ? -1 :
+                getAllocatedBytes(threads) - allocStart;
+        assertEquals(all ? loops * 200 : loops, found);
+
+        System.out.println("200 fields, " + (lazy ? "lazy" : "eager") +
+                ", reading " + (all ? "all" : "one") + ": " +
+                (time / loops) + "ns and " +
+                (alloc < 0 ? "?" : Long.toString(alloc / loops)) +
+                " bytes allocated per request");
+    }
+
+    private static long getAllocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads)
+                    .getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
     @Test
     public void testCreateString() throws UnsupportedEncodingException {
         B2CConverter.getCharset("ISO-8859-1");
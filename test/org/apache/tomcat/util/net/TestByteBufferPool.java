@@ -0,0 +1,143 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+import org.apache.tomcat.util.buf.ByteChunk;
+
+public class TestByteBufferPool extends TomcatBaseTest {
+
+    @Test
+    public void testSizeClasses() {
+        ByteBufferPool pool = new ByteBufferPool(false, -1);
+        assertEquals(8192, pool.allocate(8192).capacity());
+        assertEquals(16384, pool.allocate(8193).capacity());
+        assertEquals(1, pool.allocate(0).capacity());
+        assertEquals(8192 + 16384 + 1, pool.getPinnedBytes());
+    }
+
+
+    @Test
+    public void testReuse() {
+        ByteBufferPool pool = new ByteBufferPool(true, -1);
+        ByteBuffer first = pool.allocate(1000);
+        assertTrue(first.isDirect());
+        first.put((byte) 1);
+        pool.release(first);
+        assertEquals(0, pool.getPinnedBytes());
+        assertEquals(1024, pool.getPooledBytes());
+
+        ByteBuffer second = pool.allocate(1024);
+        assertSame(first, second);
+        assertEquals(0, second.position());
+        assertEquals(1024, second.limit());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1024, pool.getPinnedBytes());
+        assertEquals(0, pool.getPooledBytes());
+
+        // Different size class
+        assertNotSame(first, pool.allocate(2048));
+        assertEquals(2, pool.getMissCount());
+    }
+
+
+    @Test
+    public void testLimit() {
+        ByteBufferPool pool = new ByteBufferPool(false, 3000);
+        ByteBuffer b1 = pool.allocate(1024);
+        ByteBuffer b2 = pool.allocate(1024);
+        ByteBuffer b3 = pool.allocate(1024);
+        pool.release(b1);
+        pool.release(b2);
+        pool.release(b3);
+        assertEquals(2048, pool.getPooledBytes());
+        assertEquals(0, pool.getPinnedBytes());
+
+        pool.clear();
+        assertEquals(0, pool.getPooledBytes());
+    }
+
+
+    @Test
+    public void testNoCache() {
+        ByteBufferPool pool = new ByteBufferPool(false, 0);
+        ByteBuffer b1 = pool.allocate(1024);
+        pool.release(b1);
+        assertEquals(0, pool.getPooledBytes());
+        assertNotSame(b1, pool.allocate(1024));
+    }
+
+
+    @Test
+    public void testIdleConnectionsReleaseBuffers() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assume.assumeTrue("Shared buffers are only supported by NIO",
+                tomcat.getConnector().getProtocolHandlerClassName().equals(
+                        "org.apache.coyote.http11.Http11NioProtocol"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.getConnector().setProperty("socket.sharedAppBuffers", "true");
+        tomcat.start();
+
+        for (int i = 0; i < 10; i++) {
+            ByteChunk res = getUrl("http://localhost:" + getPort() + "/");
+            assertEquals(HelloWorldServlet.RESPONSE_TEXT, res.toString());
+        }
+
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=ThreadPool,*"), null);
+        assertFalse(names.isEmpty());
+        ObjectName name = names.iterator().next();
+
+        // The connection is kept alive by the client but, once the server has
+        // finished with it, it must not hold any buffers
+        int count = 0;
+        while (count < 50 && ((Long) mbeanServer.getAttribute(
+                name, "bufferPoolPinnedBytes")).longValue() > 0) {
+            Thread.sleep(100);
+            count++;
+        }
+        assertEquals(Long.valueOf(0),
+                mbeanServer.getAttribute(name, "bufferPoolPinnedBytes"));
+        assertTrue(((Long) mbeanServer.getAttribute(
+                name, "bufferPoolHitCount")).longValue() > 0);
+        assertTrue(((Long) mbeanServer.getAttribute(
+                name, "bufferPoolPooledBytes")).longValue() > 0);
+    }
+}
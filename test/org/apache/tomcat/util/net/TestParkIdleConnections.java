@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+public class TestParkIdleConnections extends TomcatBaseTest {
+
+    private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testParkAndResume() throws Exception {
+        startTomcat(-1);
+        ObjectName name = getThreadPoolName();
+
+        try (Socket s = new Socket("localhost", getPort())) {
+            for (int i = 0; i < 3; i++) {
+                OutputStream os = s.getOutputStream();
+                os.write(REQUEST);
+                os.flush();
+                assertTrue(readResponse(s.getInputStream()));
+                waitForParked(name, 1);
+            }
+        }
+        waitForParked(name, 0);
+    }
+
+
+    @Test
+    public void testParkedTimeout() throws Exception {
+        startTomcat(1000);
+        ObjectName name = getThreadPoolName();
+
+        try (Socket s = new Socket("localhost", getPort())) {
+            s.setSoTimeout(10000);
+            OutputStream os = s.getOutputStream();
+            os.write(REQUEST);
+            os.flush();
+            InputStream is = s.getInputStream();
+            assertTrue(readResponse(is));
+            waitForParked(name, 1);
+            // The server closes the connection once the keep-alive timeout
+            // expires
+            assertEquals(-1, is.read());
+        }
+        waitForParked(name, 0);
+    }
+
+
+    private void startTomcat(int keepAliveTimeout) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assume.assumeTrue("Parking is only supported by NIO",
+                tomcat.getConnector().getProtocolHandlerClassName().equals(
+                        "org.apache.coyote.http11.Http11NioProtocol"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.getConnector().setProperty("parkIdleConnections", "true");
+        tomcat.getConnector().setProperty("keepAliveTimeout",
+                Integer.toString(keepAliveTimeout));
+        tomcat.start();
+    }
+
+
+    private static ObjectName getThreadPoolName() throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        Set<ObjectName> names = mbeanServer.queryNames(
+                new ObjectName("Tomcat:type=ThreadPool,*"), null);
+        assertFalse(names.isEmpty());
+        return names.iterator().next();
+    }
+
+
+    private static void waitForParked(ObjectName name, int expected)
+            throws Exception {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        int count = 0;
+        while (count < 50 && ((Integer) mbeanServer.getAttribute(
+                name, "parkedConnectionCount")).intValue() != expected) {
+            Thread.sleep(100);
+            count++;
+        }
+        assertEquals(Integer.valueOf(expected),
+                mbeanServer.getAttribute(name, "parkedConnectionCount"));
+    }
+
+
+    /**
+     * Reads until the end of the body of a {@link HelloWorldServlet} response.
+     */
+    static boolean readResponse(InputStream is) throws IOException {
+        byte[] marker = HelloWorldServlet.RESPONSE_TEXT.getBytes(
+                StandardCharsets.ISO_8859_1);
+        int matched = 0;
+        while (matched < marker.length) {
+            int b = is.read();
+            if (b < 0) {
+                return false;
+            }
+            if (b == marker[matched]) {
+                matched++;
+            } else {
+                matched = b == marker[0] ? 1 : 0;
+            }
+        }
+        return true;
+    }
+}
@@ -28,6 +28,10 @@ import javax.net.ssl.HandshakeCompletedListener;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import static org.junit.Assert.assertTrue;
 
@@ -90,6 +94,60 @@ public class TestSsl extends TomcatBaseTest {
     }
 
 
+    /*
+     * Large blocking writes use gathering writes on NIO where possible.
+     * SecureNioChannel can only write from its own application buffer so the
+     * data must still be copied through it when TLS is enabled.
+     */
+    @Test
+    public void testLargeChunkedWrites() throws Exception {
+        TesterSupport.configureClientSsl();
+
+        Tomcat tomcat = getTomcatInstance();
+
+        Context root = tomcat.addContext("", TEMP_DIR);
+        Tomcat.addServlet(root, "large", new LargeWriteServlet());
+        root.addServletMapping("/", "large");
+
+        tomcat.getConnector().setProperty("gatheringWrites", "true");
+        TesterSupport.initSsl(tomcat);
+
+        tomcat.start();
+
+        ByteChunk res = getUrl("https://localhost:" + getPort() + "/");
+        Assert.assertEquals(LargeWriteServlet.CHUNK_SIZE *
+                LargeWriteServlet.CHUNK_COUNT, res.getLength());
+        byte[] body = res.getBytes();
+        for (int i = res.getStart(); i < res.getEnd(); i++) {
+            Assert.assertEquals('A' + (i - res.getStart()) %
+                    LargeWriteServlet.CHUNK_SIZE % 26, body[i]);
+        }
+    }
+
+    private static class LargeWriteServlet extends HttpServlet {
+
+        private static final long serialVersionUID = 1L;
+
+        private static final int CHUNK_SIZE = 32 * 1024;
+        private static final int CHUNK_COUNT = 16;
+
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+                throws ServletException, IOException {
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                chunk[i] = (byte) ('A' + i % 26);
+            }
+            resp.setContentType("application/octet-stream");
+            OutputStream os = resp.getOutputStream();
+            for (int i = 0; i < CHUNK_COUNT; i++) {
+                os.write(chunk);
+                os.flush();
+            }
+        }
+    }
+
+
     @Test
     public void testRenegotiateWorks() throws Exception {
         Tomcat tomcat = getTomcatInstance();
@@ -21,10 +21,12 @@ import java.io.File;
 import java.net.InetAddress;
 import java.net.ServerSocket;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
+import org.junit.Assume;
 import org.junit.Test;
 
 import org.apache.catalina.connector.Connector;
@@ -203,4 +205,45 @@ public class TestXxxEndpoint extends TomcatBaseTest {
         assertNull(e);
         tomcat.getConnector().start();
     }
+
+    @Test
+    public void testReusePortShardsKeepThreadCounts() throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Connector c = tomcat.getConnector();
+        String protocol = c.getProtocolHandlerClassName();
+        Assume.assumeTrue(protocol.contains("Nio"));
+        c.setProperty("bindOnInit", "false");
+        c.setProperty("acceptorThreadCount", "1");
+        c.setProperty("reusePortShardCount", "3");
+
+        tomcat.start();
+
+        // The configured values are not replaced by the number of shards
+        assertEquals("1", String.valueOf(c.getProperty("acceptorThreadCount")));
+
+        // Without shards the configured number of acceptors is used again
+        c.stop();
+        c.setProperty("reusePortShardCount", "1");
+        c.start();
+        assertEquals("1", String.valueOf(c.getProperty("acceptorThreadCount")));
+        assertEquals(1, countAcceptorThreads(c));
+    }
+
+    private int countAcceptorThreads(Connector c) throws InterruptedException {
+        int count = 0;
+        // Acceptors of a stopped endpoint exit asynchronously
+        for (int i = 0; i < 20; i++) {
+            count = 0;
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if (t.isAlive() && t.getName().contains("-Acceptor-")) {
+                    count++;
+                }
+            }
+            if (count == 1) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        return count;
+    }
 }
@@ -0,0 +1,118 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures how many new connections per second the NIO and NIO2 connectors
+ * can accept and serve when every request arrives on a fresh connection, with
+ * a single listening socket and with SO_REUSEPORT shards.
+ */
+public class TesterConnectionStormPerformance extends TomcatBaseTest {
+
+    private static final int CLIENT_THREADS = 16;
+    private static final int CONNECTIONS_PER_THREAD = 2000;
+    private static final int SHARDS =
+            Math.max(2, Runtime.getRuntime().availableProcessors());
+
+    private static final byte[] REQUEST =
+            "GET / HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testSingleListener() throws Exception {
+        doTest(1);
+    }
+
+
+    @Test
+    public void testShardedListeners() throws Exception {
+        doTest(SHARDS);
+    }
+
+
+    private void doTest(int shards) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+
+        tomcat.getConnector().setProperty("reusePortShardCount",
+                Integer.toString(shards));
+        tomcat.getConnector().setProperty("maxKeepAliveRequests", "1");
+        tomcat.start();
+
+        final InetSocketAddress addr =
+                new InetSocketAddress("localhost", getPort());
+        final AtomicLong failures = new AtomicLong();
+
+        Thread[] threads = new Thread[CLIENT_THREADS];
+        for (int i = 0; i < CLIENT_THREADS; i++) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    byte[] buf = new byte[1024];
+                    for (int j = 0; j < CONNECTIONS_PER_THREAD; j++) {
+                        try (Socket s = new Socket()) {
+                            s.setSoLinger(true, 0);
+                            s.connect(addr);
+                            OutputStream os = s.getOutputStream();
+                            os.write(REQUEST);
+                            os.flush();
+                            InputStream is = s.getInputStream();
+                            while (is.read(buf) > -1) {
+                                // Drain the response
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+
+        long start = System.nanoTime();
+        for (Thread t : threads) {
+            t.start();
+        }
+        for (Thread t : threads) {
+            t.join();
+        }
+        long time = System.nanoTime() - start;
+
+        long total = (long) CLIENT_THREADS * CONNECTIONS_PER_THREAD;
+        System.out.println(getProtocol() + ", shards [" + shards + "]: " +
+                total + " connections in " + (time / 1000000) + "ms, " +
+                (total * 1000000000L / time) + " accepts/sec");
+
+        assertEquals(0, failures.get());
+    }
+}
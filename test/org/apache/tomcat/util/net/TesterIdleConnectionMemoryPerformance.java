@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the heap retained per idle keep-alive connection by the NIO
+ * connector with and without parking of idle connections.
+ */
+public class TesterIdleConnectionMemoryPerformance extends TomcatBaseTest {
+
+    private static final int CONNECTIONS = 5000;
+
+    private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testDefault() throws Exception {
+        doTest(false);
+    }
+
+
+    @Test
+    public void testParked() throws Exception {
+        doTest(true);
+    }
+
+
+    private void doTest(boolean park) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assume.assumeTrue("Parking is only supported by NIO",
+                tomcat.getConnector().getProtocolHandlerClassName().equals(
+                        "org.apache.coyote.http11.Http11NioProtocol"));
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.getConnector().setProperty("parkIdleConnections",
+                Boolean.toString(park));
+        tomcat.getConnector().setProperty("maxConnections",
+                Integer.toString(CONNECTIONS * 2));
+        tomcat.getConnector().setProperty("keepAliveTimeout", "600000");
+        tomcat.start();
+
+        // Warm up so that the caches and pools are populated before the first
+        // measurement
+        Socket[] sockets = new Socket[CONNECTIONS];
+        openConnections(sockets, 200);
+        closeConnections(sockets);
+        Thread.sleep(1000);
+
+        long before = usedHeap();
+        openConnections(sockets, CONNECTIONS);
+        // Allow the server to finish with the connections
+        Thread.sleep(2000);
+        long after = usedHeap();
+        closeConnections(sockets);
+
+        System.out.println(getProtocol() + ", parkIdleConnections [" + park +
+                "]: " + CONNECTIONS + " idle connections, " +
+                ((after - before) / CONNECTIONS) +
+                " bytes of heap per connection (including the client socket)");
+    }
+
+
+    private void openConnections(Socket[] sockets, int count) throws Exception {
+        for (int i = 0; i < count; i++) {
+            Socket s = new Socket("localhost", getPort());
+            OutputStream os = s.getOutputStream();
+            os.write(REQUEST);
+            os.flush();
+            assertTrue(TestParkIdleConnections.readResponse(s.getInputStream()));
+            sockets[i] = s;
+        }
+    }
+
+
+    private static void closeConnections(Socket[] sockets) throws Exception {
+        for (int i = 0; i < sockets.length; i++) {
+            if (sockets[i] != null) {
+                sockets[i].close();
+                sockets[i] = null;
+            }
+        }
+    }
+
+
+    private static long usedHeap() throws InterruptedException {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(200);
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
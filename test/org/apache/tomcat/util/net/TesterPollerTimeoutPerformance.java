@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.net;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.startup.TomcatBaseTest;
+
+/**
+ * Measures the CPU time used by the NIO poller thread while it holds 10,000
+ * or 100,000 idle keep-alive connections. Each connection needs two file
+ * descriptors in this JVM so the tests are skipped if the process limit is
+ * too low.
+ */
+public class TesterPollerTimeoutPerformance extends TomcatBaseTest {
+
+    private static final int MEASURE_TIME = 10000;
+
+    private static final byte[] REQUEST = ("GET / HTTP/1.1\r\n" +
+            "Host: localhost\r\n\r\n").getBytes(StandardCharsets.ISO_8859_1);
+
+
+    @Test
+    public void testIdle10k() throws Exception {
+        doTest(10000);
+    }
+
+
+    @Test
+    public void testIdle100k() throws Exception {
+        doTest(100000);
+    }
+
+
+    private void doTest(int connections) throws Exception {
+        Tomcat tomcat = getTomcatInstance();
+        Assume.assumeTrue("Only NIO has a poller that manages timeouts",
+                tomcat.getConnector().getProtocolHandlerClassName().equals(
+                        "org.apache.coyote.http11.Http11NioProtocol"));
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.UnixOperatingSystemMXBean) {
+            long maxFds = ((com.sun.management.UnixOperatingSystemMXBean) os)
+                    .getMaxFileDescriptorCount();
+            Assume.assumeTrue("File descriptor limit [" + maxFds +
+                    "] is too low", maxFds > connections * 2L + 1000);
+        }
+
+        Context ctx = tomcat.addContext("", null);
+        Tomcat.addServlet(ctx, "hello", new HelloWorldServlet());
+        ctx.addServletMapping("/", "hello");
+        tomcat.getConnector().setProperty("pollerThreadCount", "1");
+        tomcat.getConnector().setProperty("maxConnections",
+                Integer.toString(connections * 2));
+        tomcat.getConnector().setProperty("acceptCount",
+                Integer.toString(connections));
+        tomcat.getConnector().setProperty("keepAliveTimeout", "600000");
+        tomcat.getConnector().setProperty("maxKeepAliveRequests", "-1");
+        tomcat.start();
+
+        InetSocketAddress addr = new InetSocketAddress("localhost", getPort());
+        SocketChannel[] channels = new SocketChannel[connections];
+        ByteBuffer buf = ByteBuffer.allocate(8192);
+        try {
+            for (int i = 0; i < connections; i++) {
+                channels[i] = SocketChannel.open(addr);
+                channels[i].write(ByteBuffer.wrap(REQUEST));
+                buf.clear();
+                // HelloWorldServlet's response fits in a single read
+                channels[i].read(buf);
+            }
+
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long pollerId = -1;
+            for (Thread t : Thread.getAllStackTraces().keySet()) {
+                if (t.getName().contains("ClientPoller")) {
+                    pollerId = t.getId();
+                }
+            }
+            Assume.assumeTrue(pollerId != -1);
+
+            // Let the connections settle into the idle state
+            Thread.sleep(2000);
+            long start = threads.getThreadCpuTime(pollerId);
+            Thread.sleep(MEASURE_TIME);
+            long cpu = threads.getThreadCpuTime(pollerId) - start;
+
+            System.out.println(getProtocol() + ": " + connections +
+                    " idle connections, poller CPU time " + (cpu / 1000000) +
+                    "ms in " + MEASURE_TIME + "ms");
+        } finally {
+            for (SocketChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.tomcat.util.threads;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestAdaptivePoolSizer {
+
+    @Test
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 0; i < 99; i++) {
+            histogram.record(100 * 1000);
+        }
+        histogram.record(10 * 1000 * 1000);
+
+        assertEquals(100, histogram.getCount());
+        // 100us is in the [64,128) bucket, 10ms in [8192,16384)
+        assertEquals(128, histogram.getPercentile(50));
+        assertEquals(128, histogram.getPercentile(99));
+        assertEquals(16384, histogram.getPercentile(100));
+        assertEquals((99 * 100 + 10000) / 100, histogram.getMean());
+        assertEquals(2, histogram.toStringArray().length);
+        assertEquals("<128us: 99", histogram.toStringArray()[0]);
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.toStringArray().length);
+    }
+
+
+    @Test
+    public void testGrowWhenTasksWait() throws Exception {
+        ThreadPoolExecutor executor = createExecutor(2);
+        try {
+            // Limit starts at the maximum so force it down to the core size
+            executor.setMaximumPoolSize(2);
+            // Each task takes 20ms so with 2 threads tasks queue for much
+            // longer than the 1ms target
+            for (int round = 0; round < 10; round++) {
+                CountDownLatch latch = submit(executor, 20, 20);
+                latch.await(10, TimeUnit.SECONDS);
+            }
+            assertTrue("Limit [" + executor.getMaximumPoolSize() + "]",
+                    executor.getMaximumPoolSize() > 2);
+            assertTrue(executor.getQueueWaitHistogram().getCount() > 0);
+            assertTrue(executor.getRunTimeHistogram().getMean() >= 20000);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testShrinkWhenIdle() throws Exception {
+        ThreadPoolExecutor executor = createExecutor(2);
+        try {
+            assertEquals(50, executor.getMaximumPoolSize());
+            // One short task at a time never waits
+            for (int i = 0; i < 100; i++) {
+                submit(executor, 1, 1).await(10, TimeUnit.SECONDS);
+                Thread.sleep(5);
+            }
+            assertTrue("Limit [" + executor.getMaximumPoolSize() + "]",
+                    executor.getMaximumPoolSize() < 50);
+            assertTrue(executor.getMaximumPoolSize() >= 2);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    @Test
+    public void testClearAdaptive() {
+        ThreadPoolExecutor executor = createExecutor(2);
+        try {
+            executor.setMaximumPoolSize(10);
+            executor.clearAdaptive(50);
+            assertEquals(50, executor.getMaximumPoolSize());
+            assertTrue(!executor.isAdaptive());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+
+    private static ThreadPoolExecutor createExecutor(int core) {
+        TaskQueue queue = new TaskQueue();
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(core, 50, 60,
+                TimeUnit.SECONDS, queue, new TaskThreadFactory("test-", true,
+                        Thread.NORM_PRIORITY));
+        queue.setParent(executor);
+        executor.setAdaptive(50, 1, 20, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+
+    private static CountDownLatch submit(ThreadPoolExecutor executor,
+            int count, final long sleep) {
+        final CountDownLatch latch = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        Thread.sleep(sleep);
+                    } catch (InterruptedException e) {
+                        // Ignore
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+        return latch;
+    }
+}